@@ -0,0 +1,191 @@
+package net.powermatcher.api.monitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A histogram of non-negative values with a high dynamic range, in the style of HdrHistogram. Values below 64 are
+ * counted exactly; every higher power of two is split in 64 buckets, so a reported value is at most 1.6% off.
+ *
+ * The buckets of a power of two are only allocated when a value in that range is recorded. The values of one agent
+ * are usually close to each other, so a histogram per agent stays small, even in clusters with many agents.
+ *
+ * Recording is lock-free, so the histogram can be updated from the threads of the observed agents. Reading while
+ * recording gives a consistent enough view for monitoring.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int GROUPS = 64 - SUB_BUCKET_BITS;
+
+    /**
+     * The buckets per power of two, <code>null</code> until a value in that range is recorded.
+     */
+    private final AtomicReferenceArray<AtomicLongArray> groups = new AtomicReferenceArray<AtomicLongArray>(GROUPS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            the value, negative values are ignored
+     */
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        int index = index(value);
+        int group = index / SUB_BUCKETS;
+        AtomicLongArray buckets = groups.get(group);
+        if (buckets == null) {
+            groups.compareAndSet(group, null, new AtomicLongArray(SUB_BUCKETS));
+            buckets = groups.get(group);
+        }
+        buckets.incrementAndGet(index % SUB_BUCKETS);
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current = min.get();
+        while (value < current && !min.compareAndSet(current, value)) {
+            current = min.get();
+        }
+        current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the recorded values.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return the lowest recorded value, or 0 when nothing has been recorded.
+     */
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * @return the highest recorded value.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the average of the recorded values, or 0 when nothing has been recorded.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the value below which the given percentage of the recorded values lies, or 0 when nothing has been
+     *         recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * n));
+        long seen = 0;
+        for (int group = 0; group < GROUPS; group++) {
+            AtomicLongArray buckets = groups.get(group);
+            if (buckets == null) {
+                continue;
+            }
+            for (int i = 0; i < SUB_BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    // The upper end of the bucket, but never beyond what has been seen
+                    int index = group * SUB_BUCKETS + i;
+                    long upper = index + 1 < GROUPS * SUB_BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+                    return Math.max(getMin(), Math.min(upper, getMax()));
+                }
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return a snapshot of this histogram, of which the values are durations in nanoseconds.
+     */
+    public TimingStatistics toTimingStatistics() {
+        if (getCount() == 0) {
+            return TimingStatistics.EMPTY;
+        }
+        return new TimingStatistics(getCount(),
+                                    getTotal(),
+                                    getMin(),
+                                    getMax(),
+                                    getPercentile(50),
+                                    getPercentile(90),
+                                    getPercentile(99));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Histogram.class.getSimpleName() + "[count="
+               + getCount()
+               + ", min="
+               + getMin()
+               + ", mean="
+               + getMean()
+               + ", p50="
+               + getPercentile(50)
+               + ", p99="
+               + getPercentile(99)
+               + ", max="
+               + getMax()
+               + "]";
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,87 @@
+package net.powermatcher.api.monitoring;
+
+import net.powermatcher.api.Agent;
+import net.powermatcher.api.MatcherEndpoint;
+
+/**
+ * {@link InstrumentedAgent} defines the interface of an {@link Agent} that can time the work on its hot path, such as
+ * a {@link MatcherEndpoint} that aggregates bids and publishes prices. Timing is off by default and can be switched on
+ * and off at runtime; when it is off it costs next to nothing.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public interface InstrumentedAgent
+    extends Agent {
+
+    /**
+     * The spans of work that are timed. A waiting span measures how long work waited before it started, a computing
+     * span how long the work took. Spans can be nested, e.g. {@link #PERFORM_UPDATE} of an auctioneer includes
+     * {@link #PUBLISH_PRICE}.
+     */
+    enum Span {
+        /**
+         * From the first received bid until the aggregation that includes it starts, including the cooling-off period
+         * between two aggregations.
+         */
+        BID_WAIT(true),
+        /**
+         * From the moment an aggregation should start until it starts, the time it spent in the queue of the executor.
+         */
+        EXECUTOR_DELAY(true),
+        /**
+         * The aggregation of the bids of the connected agents.
+         */
+        AGGREGATE(false),
+        /**
+         * The work on the aggregated bid, such as clearing the market or sending the bid to the parent matcher.
+         */
+        PERFORM_UPDATE(false),
+        /**
+         * Sending a price to the connected agents.
+         */
+        PUBLISH_PRICE(false),
+        /**
+         * Handling a price from the parent matcher, including sending it to the connected agents.
+         */
+        HANDLE_PRICE(false);
+
+        private final boolean waiting;
+
+        private Span(boolean waiting) {
+            this.waiting = waiting;
+        }
+
+        /**
+         * @return <code>true</code> when this span measures waiting instead of computing.
+         */
+        public boolean isWaiting() {
+            return waiting;
+        }
+    }
+
+    /**
+     * @return <code>true</code> when the spans of work are being timed.
+     */
+    boolean isTimingEnabled();
+
+    /**
+     * Switches the timing of the spans of work on or off. The measured durations are kept when timing is switched off.
+     *
+     * @param enabled
+     *            <code>true</code> to start timing, <code>false</code> to stop.
+     */
+    void setTimingEnabled(boolean enabled);
+
+    /**
+     * @param span
+     *            the span of work
+     * @return a snapshot of the durations of the span, {@link TimingStatistics#EMPTY} when it has not been measured.
+     */
+    TimingStatistics getTimingStatistics(Span span);
+
+    /**
+     * Forgets all measured durations.
+     */
+    void resetTimings();
+}
@@ -0,0 +1,85 @@
+package net.powermatcher.api.monitoring;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link InstrumentedExecutor} defines the interface of the executor that runs the tasks of the agents, so it can be
+ * seen whether the executor keeps up. Tasks are counted per agent that submitted them; tasks that were not submitted
+ * by an agent are counted under the empty id.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public interface InstrumentedExecutor {
+
+    /**
+     * @return the number of threads in the pool.
+     */
+    int getPoolSize();
+
+    /**
+     * @return the approximate number of threads that are running a task.
+     */
+    int getActiveCount();
+
+    /**
+     * @return the number of tasks that wait in the queue, including the tasks that are scheduled for later.
+     */
+    int getQueueSize();
+
+    /**
+     * @return <code>true</code> when every thread is running a task while a task in the queue is already due.
+     */
+    boolean isSaturated();
+
+    /**
+     * @return the number of tasks that have been run, each run of a periodic task counts.
+     */
+    long getRunTaskCount();
+
+    /**
+     * @return the number of tasks that have thrown an exception.
+     */
+    long getFailedTaskCount();
+
+    /**
+     * @return the number of tasks that have been rejected, e.g. because the executor was shut down.
+     */
+    long getRejectedTaskCount();
+
+    /**
+     * @return the number of tasks that started later than the overdue threshold after they were due.
+     */
+    long getOverdueTaskCount();
+
+    /**
+     * @return the number of tasks that ran longer than the slow task threshold.
+     */
+    long getSlowTaskCount();
+
+    /**
+     * @return the time between the moment tasks were due and the moment they started.
+     */
+    TimingStatistics getQueueDelayStatistics();
+
+    /**
+     * @return the time tasks took to run.
+     */
+    TimingStatistics getRunTimeStatistics();
+
+    /**
+     * @return the number of run tasks per id of the agent that submitted them.
+     */
+    Map<String, Long> getTaskCounts();
+
+    /**
+     * @return descriptions of the last slow tasks, each with the agent that submitted it and a sample of its stack.
+     */
+    List<String> getSlowTaskReports();
+
+    /**
+     * Forgets all counters, durations and reports.
+     */
+    void resetStatistics();
+}
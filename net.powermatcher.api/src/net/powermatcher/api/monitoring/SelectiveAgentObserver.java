@@ -0,0 +1,27 @@
+package net.powermatcher.api.monitoring;
+
+import net.powermatcher.api.monitoring.events.AgentEvent;
+
+/**
+ * {@link SelectiveAgentObserver} is an {@link AgentObserver} that is only interested in some types of
+ * {@link AgentEvent}s. An {@link ObservableAgent} may use this information to skip creating events that nobody will
+ * receive.
+ *
+ * The answer of {@link #isObserving(Class)} may be cached by the {@link ObservableAgent} while the observer is attached.
+ * When the interest of the observer changes, it should remove and add itself again.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public interface SelectiveAgentObserver
+    extends AgentObserver {
+
+    /**
+     * Determines whether events of the given type should be sent to this observer.
+     *
+     * @param eventType
+     *            the runtime class of the {@link AgentEvent}
+     * @return <code>true</code> when this observer wants to receive events of the given type
+     */
+    boolean isObserving(Class<? extends AgentEvent> eventType);
+}
@@ -0,0 +1,136 @@
+package net.powermatcher.api.monitoring;
+
+/**
+ * {@link TimingStatistics} is a snapshot of the measured durations of one span of work, such as the aggregation of the
+ * bids in a matcher. All durations are in nanoseconds; percentiles are approximations.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class TimingStatistics {
+
+    /**
+     * The statistics of a span that has not been measured.
+     */
+    public static final TimingStatistics EMPTY = new TimingStatistics(0, 0, 0, 0, 0, 0, 0);
+
+    private final long count;
+    private final long totalNanos;
+    private final long minNanos;
+    private final long maxNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param count
+     *            the number of measured durations
+     * @param totalNanos
+     *            the sum of the measured durations
+     * @param minNanos
+     *            the shortest measured duration
+     * @param maxNanos
+     *            the longest measured duration
+     * @param p50Nanos
+     *            the median of the measured durations
+     * @param p90Nanos
+     *            the 90th percentile of the measured durations
+     * @param p99Nanos
+     *            the 99th percentile of the measured durations
+     */
+    public TimingStatistics(long count,
+                            long totalNanos,
+                            long minNanos,
+                            long maxNanos,
+                            long p50Nanos,
+                            long p90Nanos,
+                            long p99Nanos) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+    }
+
+    /**
+     * @return the current value of count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the current value of totalNanos.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the current value of minNanos.
+     */
+    public long getMinNanos() {
+        return minNanos;
+    }
+
+    /**
+     * @return the current value of maxNanos.
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the average duration, or 0 when nothing has been measured.
+     */
+    public double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * @return the current value of p50Nanos.
+     */
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    /**
+     * @return the current value of p90Nanos.
+     */
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    /**
+     * @return the current value of p99Nanos.
+     */
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return TimingStatistics.class.getSimpleName() + "[count="
+               + count
+               + ", min="
+               + minNanos
+               + ", mean="
+               + (long) getMeanNanos()
+               + ", p50="
+               + p50Nanos
+               + ", p90="
+               + p90Nanos
+               + ", p99="
+               + p99Nanos
+               + ", max="
+               + maxNanos
+               + " ns]";
+    }
+}
@@ -30,9 +30,9 @@ public abstract class AgentEvent {
     private final String agentId;
 
     /**
-     * The time at which this event occurred
+     * The time at which this event occurred, in milliseconds since the epoch
      */
-    private final Date timestamp;
+    private final long timestamp;
 
     /**
      * Constructs an instance of this class.
@@ -42,14 +42,29 @@ public abstract class AgentEvent {
      * @param agentId
      *            The id of the {@link AgentEndpoint} subclass sending the UpdateEvent.
      * @param timestamp
-     *            The time at which this event occurred
+     *            The time at which this event occurred, in milliseconds since the epoch
      */
-    public AgentEvent(String clusterId, String agentId, Date timestamp) {
+    public AgentEvent(String clusterId, String agentId, long timestamp) {
         this.clusterId = clusterId;
         this.agentId = agentId;
         this.timestamp = timestamp;
     }
 
+    /**
+     * Constructs an instance of this class. Kept for compatibility, prefer the constructor with a <code>long</code>
+     * timestamp.
+     *
+     * @param clusterId
+     *            The id of the cluster the {@link AgentEndpoint} subclass sending the UpdateEvent is running in.
+     * @param agentId
+     *            The id of the {@link AgentEndpoint} subclass sending the UpdateEvent.
+     * @param timestamp
+     *            The time at which this event occurred
+     */
+    public AgentEvent(String clusterId, String agentId, Date timestamp) {
+        this(clusterId, agentId, timestamp.getTime());
+    }
+
     /**
      * @return the current value of agentId.
      */
@@ -58,12 +73,21 @@ public abstract class AgentEvent {
     }
 
     /**
-     * @return the current value of timestamp.
+     * @return the time at which this event occurred, in milliseconds since the epoch.
      */
-    public Date getTimestamp() {
+    public long getTimestampMillis() {
         return timestamp;
     }
 
+    /**
+     * Kept for compatibility, this creates a new {@link Date} on every call. Use {@link #getTimestampMillis()} instead.
+     *
+     * @return the time at which this event occurred.
+     */
+    public Date getTimestamp() {
+        return new Date(timestamp);
+    }
+
     /**
      * @return the current value of clusterId.
      */
@@ -81,6 +105,6 @@ public abstract class AgentEvent {
                + ", agentId = "
                + agentId
                + ", timestamp = "
-               + timestamp;
+               + new Date(timestamp);
     }
 }
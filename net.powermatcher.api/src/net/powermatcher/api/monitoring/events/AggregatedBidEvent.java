@@ -30,15 +30,32 @@ public class AggregatedBidEvent
      * @param agentId
      *            The id of the {@link MatcherEndpoint} subclass sending the UpdateEvent.
      * @param timestamp
-     *            The time at which this event occurred
+     *            The time at which this event occurred, in milliseconds since the epoch
      * @param aggregatedBid
      *            The new {@link Bid} created by the {@link MatcherEndpoint} subclass.
      */
-    public AggregatedBidEvent(String clusterId, String agentId, Date timestamp, Bid aggregatedBid) {
+    public AggregatedBidEvent(String clusterId, String agentId, long timestamp, Bid aggregatedBid) {
         super(clusterId, agentId, timestamp);
         this.aggregatedBid = aggregatedBid;
     }
 
+    /**
+     * Constructs an instance of this class. Kept for compatibility, prefer the constructor with a <code>long</code>
+     * timestamp.
+     *
+     * @param clusterId
+     *            The id of the cluster the {@link MatcherEndpoint} subclass sending the UpdateEvent is running in.
+     * @param agentId
+     *            The id of the {@link MatcherEndpoint} subclass sending the UpdateEvent.
+     * @param timestamp
+     *            The time at which this event occurred
+     * @param aggregatedBid
+     *            The new {@link Bid} created by the {@link MatcherEndpoint} subclass.
+     */
+    public AggregatedBidEvent(String clusterId, String agentId, Date timestamp, Bid aggregatedBid) {
+        this(clusterId, agentId, timestamp.getTime(), aggregatedBid);
+    }
+
     /**
      * @return the aggregated bid internally generated in the {@link MatcherEndpoint}.
      */
@@ -31,18 +31,40 @@ public class IncomingBidUpdateEvent
      * @param sessionId
      *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
      * @param timestamp
-     *            The time at which this event occurred
+     *            The time at which this event occurred, in milliseconds since the epoch
      * @param fromAgentId
      *            The id of the Agent that sent the {@link Bid}.
      * @param bidUpdate
      *            The received {@link BidUpdate}.
      */
-    public IncomingBidUpdateEvent(String clusterId, String agentId, String sessionId, Date timestamp, String fromAgentId,
+    public IncomingBidUpdateEvent(String clusterId, String agentId, String sessionId, long timestamp, String fromAgentId,
                             BidUpdate bidUpdate) {
         super(clusterId, agentId, sessionId, timestamp, bidUpdate);
         this.fromAgentId = fromAgentId;
     }
 
+    /**
+     * Constructs an instance of this class. Kept for compatibility, prefer the constructor with a <code>long</code>
+     * timestamp.
+     *
+     * @param clusterId
+     *            The id of the cluster the {@link AgentEndpoint} subclass sending the UpdateEvent is running in.
+     * @param agentId
+     *            The id of the {@link AgentEndpoint} subclass sending the UpdateEvent.
+     * @param sessionId
+     *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
+     * @param timestamp
+     *            The time at which this event occurred
+     * @param fromAgentId
+     *            The id of the Agent that sent the {@link Bid}.
+     * @param bidUpdate
+     *            The received {@link BidUpdate}.
+     */
+    public IncomingBidUpdateEvent(String clusterId, String agentId, String sessionId, Date timestamp, String fromAgentId,
+                            BidUpdate bidUpdate) {
+        this(clusterId, agentId, sessionId, timestamp.getTime(), fromAgentId, bidUpdate);
+    }
+
     /**
      * @return the current value of agentId.
      */
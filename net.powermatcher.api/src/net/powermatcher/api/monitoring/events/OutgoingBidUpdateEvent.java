@@ -26,11 +26,30 @@ public class OutgoingBidUpdateEvent
      * @param sessionId
      *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
      * @param timestamp
+     *            The time at which this event occurred, in milliseconds since the epoch
+     * @param bidUpdate
+     *            The new {@link BidUpdate} created by the {@link AgentEndpoint} subclass.
+     */
+    public OutgoingBidUpdateEvent(String clusterId, String agentId, String sessionId, long timestamp, BidUpdate bidUpdate) {
+        super(clusterId, agentId, sessionId, timestamp, bidUpdate);
+    }
+
+    /**
+     * Constructs an instance of this class. Kept for compatibility, prefer the constructor with a <code>long</code>
+     * timestamp.
+     *
+     * @param clusterId
+     *            The id of the cluster the {@link AgentEndpoint} subclass sending the UpdateEvent is running in.
+     * @param agentId
+     *            The id of the {@link AgentEndpoint} subclass sending the UpdateEvent.
+     * @param sessionId
+     *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
+     * @param timestamp
      *            The time at which this event occurred
      * @param bidUpdate
      *            The new {@link BidUpdate} created by the {@link AgentEndpoint} subclass.
      */
     public OutgoingBidUpdateEvent(String clusterId, String agentId, String sessionId, Date timestamp, BidUpdate bidUpdate) {
-        super(clusterId, agentId, sessionId, timestamp, bidUpdate);
+        this(clusterId, agentId, sessionId, timestamp.getTime(), bidUpdate);
     }
 }
@@ -25,12 +25,32 @@ public class OutgoingPriceUpdateEvent
      * @param sessionId
      *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
      * @param timestamp
+     *            The time at which this event occurred, in milliseconds since the epoch
+     * @param priceUpdate
+     *            The new {@link PriceUpdate} created by the {@link AgentEndpoint} subclass.
+     */
+    public OutgoingPriceUpdateEvent(String clusterId, String agentId, String sessionId, long timestamp,
+                                    PriceUpdate priceUpdate) {
+        super(clusterId, agentId, sessionId, timestamp, priceUpdate);
+    }
+
+    /**
+     * Constructs an instance of this class. Kept for compatibility, prefer the constructor with a <code>long</code>
+     * timestamp.
+     *
+     * @param clusterId
+     *            The id of the cluster the {@link AgentEndpoint} subclass sending the UpdateEvent is running in.
+     * @param agentId
+     *            The id of the {@link AgentEndpoint} subclass sending the UpdateEvent.
+     * @param sessionId
+     *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
+     * @param timestamp
      *            The time at which this event occurred
      * @param priceUpdate
      *            The new {@link PriceUpdate} created by the {@link AgentEndpoint} subclass.
      */
     public OutgoingPriceUpdateEvent(String clusterId, String agentId, String sessionId, Date timestamp,
                                     PriceUpdate priceUpdate) {
-        super(clusterId, agentId, sessionId, timestamp, priceUpdate);
+        this(clusterId, agentId, sessionId, timestamp.getTime(), priceUpdate);
     }
 }
@@ -35,17 +35,37 @@ public abstract class PriceUpdateEvent
      * @param sessionId
      *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
      * @param timestamp
-     *            The time at which this event occurred
+     *            The time at which this event occurred, in milliseconds since the epoch
      * @param priceUpdate
      *            The received {@link PriceUpdate}.
      */
-    public PriceUpdateEvent(String clusterId, String agentId, String sessionId, Date timestamp,
+    public PriceUpdateEvent(String clusterId, String agentId, String sessionId, long timestamp,
                             PriceUpdate priceUpdate) {
         super(clusterId, agentId, timestamp);
         this.priceUpdate = priceUpdate;
         this.sessionId = sessionId;
     }
 
+    /**
+     * Constructs an instance of this class. Kept for compatibility, prefer the constructor with a <code>long</code>
+     * timestamp.
+     *
+     * @param clusterId
+     *            The id of the cluster the {@link AgentEndpoint} subclass sending the UpdateEvent is running in.
+     * @param agentId
+     *            The id of the {@link AgentEndpoint} subclass sending the UpdateEvent.
+     * @param sessionId
+     *            The id of the {@link Session} of the {@link AgentEndpoint} subclass sending the UpdateEvent
+     * @param timestamp
+     *            The time at which this event occurred
+     * @param priceUpdate
+     *            The received {@link PriceUpdate}.
+     */
+    public PriceUpdateEvent(String clusterId, String agentId, String sessionId, Date timestamp,
+                            PriceUpdate priceUpdate) {
+        this(clusterId, agentId, sessionId, timestamp.getTime(), priceUpdate);
+    }
+
     /**
      * @return the current value of priceUpdate.
      */
@@ -1,5 +1,5 @@
 /**
  * This package contains the different type of events that can be observed.
  */
-@aQute.bnd.annotation.Version("2.0.0.${tstamp}")
+@aQute.bnd.annotation.Version("2.1.0.${tstamp}")
 package net.powermatcher.api.monitoring.events;
\ No newline at end of file
@@ -1,5 +1,5 @@
 /**
  * This package contain the observable/observer pattern for agents.
  */
-@aQute.bnd.annotation.Version("2.0.0.${tstamp}")
+@aQute.bnd.annotation.Version("2.3.0.${tstamp}")
 package net.powermatcher.api.monitoring;
\ No newline at end of file
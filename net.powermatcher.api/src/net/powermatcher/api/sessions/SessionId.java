@@ -0,0 +1,123 @@
+package net.powermatcher.api.sessions;
+
+/**
+ * This immutable data object is a compact 64-bit identifier for a session. The upper 16 bits identify the node that
+ * generated the identifier and the lower 48 bits hold a monotonically increasing sequence number. The textual form is
+ * only created when {@link #toString()} is called for the first time and is cached afterwards.
+ *
+ * @author FAN
+ * @version 2.1
+ * @see SessionIdGenerator
+ */
+public final class SessionId {
+    static final int SEQUENCE_BITS = 48;
+    static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    static final int NODE_MASK = 0xFFFF;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long value;
+
+    /**
+     * Lazily formatted textual representation. This is a benign race: at worst the string is created twice.
+     */
+    private transient String text;
+
+    /**
+     * @param value
+     *            the raw 64-bit value of this identifier
+     */
+    public SessionId(long value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the raw 64-bit value of this identifier
+     */
+    public long longValue() {
+        return value;
+    }
+
+    /**
+     * @return the identifier of the node that generated this identifier
+     */
+    public int getNodeId() {
+        return (int) (value >>> SEQUENCE_BITS) & NODE_MASK;
+    }
+
+    /**
+     * @return the sequence number of this identifier on its node
+     */
+    public long getSequence() {
+        return value & SEQUENCE_MASK;
+    }
+
+    /**
+     * Parses the textual form as created by {@link #toString()}.
+     *
+     * @param text
+     *            the textual form of a {@link SessionId}
+     * @return the parsed {@link SessionId}
+     * @throws IllegalArgumentException
+     *             when the text is not a valid {@link SessionId}
+     */
+    public static SessionId parse(String text) {
+        if (text == null || text.length() != 17 || text.charAt(4) != '-') {
+            throw new IllegalArgumentException("Invalid session id [" + text + "]");
+        }
+        try {
+            long node = Long.parseLong(text.substring(0, 4), 16);
+            long sequence = Long.parseLong(text.substring(5), 16);
+            return new SessionId((node << SEQUENCE_BITS) | sequence);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid session id [" + text + "]", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        } else {
+            return value == ((SessionId) obj).value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    /**
+     * @return the textual form of this identifier, which is the node identifier in 4 hexadecimal digits, followed by a
+     *         dash and the sequence number in 12 hexadecimal digits (e.g. <code>00a3-0000017f3c2e</code>).
+     */
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            char[] chars = new char[17];
+            long v = value;
+            for (int ix = 16; ix >= 5; ix--) {
+                chars[ix] = HEX_DIGITS[(int) (v & 0xF)];
+                v >>>= 4;
+            }
+            chars[4] = '-';
+            for (int ix = 3; ix >= 0; ix--) {
+                chars[ix] = HEX_DIGITS[(int) (v & 0xF)];
+                v >>>= 4;
+            }
+            result = new String(chars);
+            text = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package net.powermatcher.api.sessions;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates {@link SessionId}s. Generating an identifier is a single atomic increment, so unlike
+ * {@link java.util.UUID#randomUUID()} it never touches {@link java.security.SecureRandom} and can not block on entropy.
+ *
+ * The node identifier is taken from the <code>net.powermatcher.nodeId</code> system property when it is set. Otherwise
+ * it is derived once from the startup time of this class. The sequence starts at the current time in milliseconds, so
+ * that identifiers of a restarted node do not overlap with the identifiers of the previous run.
+ *
+ * This class is thread-safe.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class SessionIdGenerator {
+    /**
+     * The name of the system property that can be used to set the node identifier.
+     */
+    public static final String NODE_ID_PROPERTY = "net.powermatcher.nodeId";
+
+    private static final SessionIdGenerator DEFAULT = new SessionIdGenerator(defaultNodeId(),
+                                                                             System.currentTimeMillis());
+
+    private final long nodePrefix;
+    private final AtomicLong sequence;
+
+    /**
+     * Creates a new {@link SessionIdGenerator}.
+     *
+     * @param nodeId
+     *            the identifier of this node. Only the lower 16 bits are used.
+     * @param initialSequence
+     *            the first sequence number that will be handed out. Only the lower 48 bits are used.
+     */
+    public SessionIdGenerator(int nodeId, long initialSequence) {
+        nodePrefix = ((long) (nodeId & SessionId.NODE_MASK)) << SessionId.SEQUENCE_BITS;
+        sequence = new AtomicLong(initialSequence & SessionId.SEQUENCE_MASK);
+    }
+
+    /**
+     * @return the {@link SessionIdGenerator} that is shared by all PowerMatcher components in this JVM.
+     */
+    public static SessionIdGenerator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the identifier of the node this generator creates {@link SessionId}s for.
+     */
+    public int getNodeId() {
+        return (int) (nodePrefix >>> SessionId.SEQUENCE_BITS);
+    }
+
+    /**
+     * @return a new, unique {@link SessionId}
+     */
+    public SessionId next() {
+        return new SessionId(nodePrefix | (sequence.getAndIncrement() & SessionId.SEQUENCE_MASK));
+    }
+
+    private static int defaultNodeId() {
+        String configured = System.getProperty(NODE_ID_PROPERTY);
+        if (configured != null && !configured.isEmpty()) {
+            try {
+                return Integer.parseInt(configured.trim()) & SessionId.NODE_MASK;
+            } catch (NumberFormatException ex) {
+                // Fall back to a derived node id
+            }
+        }
+        // Mix the start time so that nodes started at roughly the same moment still differ
+        long seed = System.nanoTime() ^ System.currentTimeMillis() ^ System.identityHashCode(SessionIdGenerator.class);
+        seed = (seed ^ (seed >>> 33)) * 0xff51afd7ed558ccdL;
+        seed ^= seed >>> 33;
+        return (int) seed & SessionId.NODE_MASK;
+    }
+}
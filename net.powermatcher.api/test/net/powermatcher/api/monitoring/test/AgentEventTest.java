@@ -144,4 +144,19 @@ public class AgentEventTest {
         String icetoString = oce.toString();
         assertThat(icetoString, is(notNullValue()));
     }
+
+    @Test
+    public void testTimestampMillis() {
+        long millis = timestamp.getTime();
+        OutgoingBidUpdateEvent obe = new OutgoingBidUpdateEvent(clusterId, agentId, sessionId, millis, bidUpdate);
+        assertThat(obe.getTimestampMillis(), is(equalTo(millis)));
+        assertThat(obe.getTimestamp(), is(equalTo(timestamp)));
+
+        IncomingPriceUpdateEvent ice = new IncomingPriceUpdateEvent(clusterId,
+                                                                    agentId,
+                                                                    sessionId,
+                                                                    timestamp,
+                                                                    priceUpdate);
+        assertThat(ice.getTimestampMillis(), is(equalTo(millis)));
+    }
 }
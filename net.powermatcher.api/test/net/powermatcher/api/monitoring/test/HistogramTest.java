@@ -0,0 +1,71 @@
+package net.powermatcher.api.monitoring.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.powermatcher.api.monitoring.Histogram;
+
+/**
+ * JUnit tests for the {@link Histogram} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getCount(), is(equalTo(0L)));
+        assertThat(histogram.getMin(), is(equalTo(0L)));
+        assertThat(histogram.getMax(), is(equalTo(0L)));
+        assertThat(histogram.getPercentile(99), is(equalTo(0L)));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+        assertThat(histogram.getCount(), is(equalTo(50L)));
+        assertThat(histogram.getTotal(), is(equalTo(1275L)));
+        assertThat(histogram.getMin(), is(equalTo(1L)));
+        assertThat(histogram.getMax(), is(equalTo(50L)));
+        assertThat(histogram.getPercentile(50), is(equalTo(25L)));
+        assertThat(histogram.getPercentile(90), is(equalTo(45L)));
+        assertThat(histogram.getPercentile(100), is(equalTo(50L)));
+        assertThat(histogram.getPercentile(0), is(equalTo(1L)));
+        assertEquals(25.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testPrecision() {
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < values.length; i++) {
+            // From microseconds to hours
+            values[i] = (long) Math.pow(10, random.nextDouble() * 10);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] { 1, 10, 50, 90, 99, 99.9 }) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getPercentile(percentile);
+            assertThat(reported >= exact, is(true));
+            assertThat((reported - exact) <= exact / 64.0, is(true));
+        }
+        assertThat(histogram.getMax(), is(equalTo(values[values.length - 1])));
+        assertThat(histogram.getPercentile(100), is(equalTo(values[values.length - 1])));
+    }
+}
@@ -0,0 +1,66 @@
+package net.powermatcher.api.sessions.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.powermatcher.api.sessions.SessionId;
+import net.powermatcher.api.sessions.SessionIdGenerator;
+
+/**
+ * JUnit tests for the {@link SessionIdGenerator} and {@link SessionId} classes.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class SessionIdGeneratorTest {
+
+    @Test
+    public void testMonotonic() {
+        SessionIdGenerator generator = new SessionIdGenerator(42, 1000);
+        SessionId first = generator.next();
+        SessionId second = generator.next();
+        assertThat(first.getNodeId(), is(equalTo(42)));
+        assertThat(second.getNodeId(), is(equalTo(42)));
+        assertThat(first.getSequence(), is(equalTo(1000L)));
+        assertThat(second.getSequence(), is(equalTo(1001L)));
+        assertThat(second.longValue() > first.longValue(), is(true));
+    }
+
+    @Test
+    public void testUnique() {
+        SessionIdGenerator generator = SessionIdGenerator.getDefault();
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 10000; i++) {
+            assertThat(ids.add(generator.next().toString()), is(true));
+        }
+    }
+
+    @Test
+    public void testDifferentNodes() {
+        SessionId id1 = new SessionIdGenerator(1, 0).next();
+        SessionId id2 = new SessionIdGenerator(2, 0).next();
+        assertThat(id1, is(not(equalTo(id2))));
+        assertThat(id1.toString(), is(not(equalTo(id2.toString()))));
+    }
+
+    @Test
+    public void testToStringAndParse() {
+        SessionId id = new SessionIdGenerator(0xa3, 0x17f3c2eL).next();
+        assertThat(id.toString(), is(equalTo("00a3-0000017f3c2e")));
+        assertSame(id.toString(), id.toString());
+        assertThat(SessionId.parse(id.toString()), is(equalTo(id)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalid() {
+        SessionId.parse("not-a-session-id");
+    }
+}
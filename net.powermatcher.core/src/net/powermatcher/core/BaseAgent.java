@@ -3,11 +3,14 @@ package net.powermatcher.core;
 import java.util.Date;
 import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 import net.powermatcher.api.Agent;
 import net.powermatcher.api.monitoring.AgentObserver;
 import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.SelectiveAgentObserver;
 import net.powermatcher.api.monitoring.events.AgentEvent;
 
 import org.flexiblepower.context.FlexiblePowerContext;
@@ -49,17 +52,36 @@ public abstract class BaseAgent
         return context.currentTime();
     }
 
+    /**
+     * Returns the current time in milliseconds since the epoch. Unlike {@link #now()} this does not create an object.
+     *
+     * @return the current time in milliseconds since the epoch
+     */
+    protected long currentTimeMillis() {
+        if (context == null) {
+            throw new IllegalStateException("The FlexiblePowerContext has not been set, is the PowerMatcher runtime active?");
+        }
+        return context.currentTimeMillis();
+    }
+
     /**
      * Collection of {@link Observer} services.
      */
     private final Set<AgentObserver> observers = new CopyOnWriteArraySet<AgentObserver>();
 
+    /**
+     * Caches per event type whether any of the current observers is interested in it. This map is replaced every time
+     * the set of observers changes.
+     */
+    private volatile ConcurrentMap<Class<?>, Boolean> subscriptions = new ConcurrentHashMap<Class<?>, Boolean>();
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void addObserver(AgentObserver observer) {
         observers.add(observer);
+        subscriptions = new ConcurrentHashMap<Class<?>, Boolean>();
     }
 
     /**
@@ -68,18 +90,55 @@ public abstract class BaseAgent
     @Override
     public void removeObserver(AgentObserver observer) {
         observers.remove(observer);
+        subscriptions = new ConcurrentHashMap<Class<?>, Boolean>();
+    }
+
+    /**
+     * Determines whether any of the attached observers wants to receive events of the given type. This is cheap enough
+     * to call before constructing each event.
+     *
+     * @param eventType
+     *            the runtime class of the {@link AgentEvent}
+     * @return <code>true</code> when at least one observer is interested in the event type
+     */
+    protected final boolean isObserved(Class<? extends AgentEvent> eventType) {
+        if (observers.isEmpty()) {
+            return false;
+        }
+        ConcurrentMap<Class<?>, Boolean> currentSubscriptions = subscriptions;
+        Boolean observed = currentSubscriptions.get(eventType);
+        if (observed == null) {
+            observed = Boolean.FALSE;
+            for (AgentObserver observer : observers) {
+                if (isObserving(observer, eventType)) {
+                    observed = Boolean.TRUE;
+                    break;
+                }
+            }
+            currentSubscriptions.put(eventType, observed);
+        }
+        return observed;
+    }
+
+    private static boolean isObserving(AgentObserver observer, Class<? extends AgentEvent> eventType) {
+        return !(observer instanceof SelectiveAgentObserver)
+               || ((SelectiveAgentObserver) observer).isObserving(eventType);
     }
 
     /**
-     * Publish an {@link AgentEvent} to the attached {@link Observer} services.
+     * Publish an {@link AgentEvent} to the attached {@link Observer} services. Callers that publish often should check
+     * {@link #isObserved(Class)} first, to avoid creating events nobody receives.
      *
      * @param event
      *            The event to publish.
      */
     protected final void publishEvent(AgentEvent event) {
+        Class<? extends AgentEvent> eventType = event.getClass();
         for (AgentObserver observer : observers) {
             try {
-                observer.handleAgentEvent(event);
+                if (isObserving(observer, eventType)) {
+                    observer.handleAgentEvent(event);
+                }
             } catch (RuntimeException ex) {
                 LOGGER.warn("Could not publish an event to observer [{}]: {}", observer, ex.getMessage());
             }
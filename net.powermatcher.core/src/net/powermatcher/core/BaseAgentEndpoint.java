@@ -196,11 +196,13 @@ public abstract class BaseAgentEndpoint
             }
             BidUpdate update = new BidUpdate(newBid, bidNumberGenerator.incrementAndGet());
             lastBidUpdate = update;
-            publishEvent(new OutgoingBidUpdateEvent(status.getClusterId(),
-                                                    getAgentId(),
-                                                    status.getSession().getSessionId(),
-                                                    now(),
-                                                    update));
+            if (isObserved(OutgoingBidUpdateEvent.class)) {
+                publishEvent(new OutgoingBidUpdateEvent(status.getClusterId(),
+                                                        getAgentId(),
+                                                        status.getSession().getSessionId(),
+                                                        currentTimeMillis(),
+                                                        update));
+            }
             LOGGER.debug("Sending bid [{}] to {}", update, status.getSession().getMatcherId());
             status.getSession().updateBid(update);
             return update;
@@ -227,11 +229,13 @@ public abstract class BaseAgentEndpoint
         AgentEndpoint.Status currentStatus = getStatus();
         if (currentStatus.isConnected()) {
             LOGGER.debug("Received price update [{}]", priceUpdate);
-            publishEvent(new IncomingPriceUpdateEvent(status.getClusterId(),
-                                                      getAgentId(),
-                                                      status.getSession().getSessionId(),
-                                                      context.currentTime(),
-                                                      priceUpdate));
+            if (isObserved(IncomingPriceUpdateEvent.class)) {
+                publishEvent(new IncomingPriceUpdateEvent(status.getClusterId(),
+                                                          getAgentId(),
+                                                          status.getSession().getSessionId(),
+                                                          currentTimeMillis(),
+                                                          priceUpdate));
+            }
         }
     }
 }
@@ -5,6 +5,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.measure.Measure;
 import javax.measure.unit.SI;
@@ -16,6 +17,8 @@ import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.data.Price;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.monitoring.InstrumentedAgent;
+import net.powermatcher.api.monitoring.TimingStatistics;
 import net.powermatcher.api.monitoring.events.AggregatedBidEvent;
 import net.powermatcher.api.monitoring.events.IncomingBidUpdateEvent;
 import net.powermatcher.api.monitoring.events.OutgoingPriceUpdateEvent;
@@ -23,14 +26,17 @@ import net.powermatcher.core.auctioneer.Auctioneer;
 import net.powermatcher.core.bidcache.AggregatedBid;
 import net.powermatcher.core.bidcache.BidCache;
 import net.powermatcher.core.concentrator.Concentrator;
+import net.powermatcher.core.monitoring.SpanTimings;
 
 /**
  * This is an abstract class providing base functionality for a {@link MatcherEndpoint}. This class can be extended to
  * build a matcher, such as a {@link Concentrator} or an {@link Auctioneer}.
+ *
+ * The aggregation of bids and the publishing of prices can be timed, see {@link InstrumentedAgent}.
  */
 public abstract class BaseMatcherEndpoint
     extends BaseAgent
-    implements MatcherEndpoint {
+    implements MatcherEndpoint, InstrumentedAgent {
 
     public static final Agent.Status NOT_CONNECTED = new Agent.Status() {
         @Override
@@ -111,6 +117,10 @@ public abstract class BaseMatcherEndpoint
         // Indicates if there is already a BidUpdate scheduled at the end of the cooldown period
         private volatile Future<?> bidUpdateSchedule = null;
 
+        // System.nanoTime() at which the scheduled BidUpdate was requested and at which it should run, when timed
+        private volatile long scheduledAt = SpanTimings.NOT_TIMED;
+        private volatile long dueAt;
+
         /**
          * Create a new RateLimitedBidPublisher instance
          *
@@ -123,21 +133,34 @@ public abstract class BaseMatcherEndpoint
 
         @Override
         public void run() {
+            long start = timings.start();
+            long requested = scheduledAt;
+            if (start != SpanTimings.NOT_TIMED && requested != SpanTimings.NOT_TIMED) {
+                timings.record(Span.BID_WAIT, start - requested);
+                timings.record(Span.EXECUTOR_DELAY, Math.max(0, start - dueAt));
+            }
+
             final Agent.Status currentStatus = getStatus();
             try {
                 if (currentStatus.isConnected()) {
-                    AggregatedBid aggregatedBid = bidCache.aggregate();
-                    publishEvent(new AggregatedBidEvent(currentStatus.getClusterId(),
-                                                        getAgentId(),
-                                                        now(),
-                                                        aggregatedBid));
+                    final AggregatedBid aggregatedBid = bidCache.aggregate();
+                    timings.stop(Span.AGGREGATE, start);
+                    if (isObserved(AggregatedBidEvent.class)) {
+                        publishEvent(new AggregatedBidEvent(currentStatus.getClusterId(),
+                                                            getAgentId(),
+                                                            currentTimeMillis(),
+                                                            aggregatedBid));
+                    }
+                    long updateStart = timings.start();
                     performUpdate(aggregatedBid);
+                    timings.stop(Span.PERFORM_UPDATE, updateStart);
                 }
             } catch (RuntimeException e) {
                 LOGGER.error("doBidUpate failed for matcher " + getAgentId(), e);
             } finally {
                 synchronized (this) {
                     bidUpdateSchedule = null;
+                    scheduledAt = SpanTimings.NOT_TIMED;
                     coolingOffEnds = context.currentTimeMillis() + minTimeBetweenUpdates;
                 }
             }
@@ -147,6 +170,11 @@ public abstract class BaseMatcherEndpoint
             if (bidUpdateSchedule == null) {
                 // There is no aggregation scheduled yet
                 long waitTime = coolingOffEnds - context.currentTimeMillis();
+                long now = timings.start();
+                if (now != SpanTimings.NOT_TIMED) {
+                    dueAt = now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, waitTime));
+                }
+                scheduledAt = now;
                 if (waitTime > 0) {
                     // We're in the cooling-off period
                     bidUpdateSchedule = context.schedule(this,
@@ -170,6 +198,7 @@ public abstract class BaseMatcherEndpoint
     private volatile Agent.Status status;
     private volatile BidCache bidCache;
     private volatile RateLimitedBidPublisher bidUpdater;
+    private final SpanTimings<Span> timings = new SpanTimings<Span>(Span.class);
 
     public BaseMatcherEndpoint() {
         status = NOT_CONNECTED;
@@ -258,17 +287,21 @@ public abstract class BaseMatcherEndpoint
     }
 
     public void publishPrice(Price price, AggregatedBid aggregatedBid) {
+        long start = timings.start();
         Map<String, Integer> references = aggregatedBid.getAgentBidReferences();
 
+        boolean observed = isObserved(OutgoingPriceUpdateEvent.class);
         for (Session session : sessions.values()) {
             Integer bidNumber = references.get(session.getAgentId());
             if (bidNumber != null) {
                 PriceUpdate priceUpdate = new PriceUpdate(price, bidNumber);
-                publishEvent(new OutgoingPriceUpdateEvent(status.getClusterId(),
-                                                          getAgentId(),
-                                                          session.getSessionId(),
-                                                          context.currentTime(),
-                                                          priceUpdate));
+                if (observed) {
+                    publishEvent(new OutgoingPriceUpdateEvent(status.getClusterId(),
+                                                              getAgentId(),
+                                                              session.getSessionId(),
+                                                              currentTimeMillis(),
+                                                              priceUpdate));
+                }
                 LOGGER.debug("New price: {}, session {}", priceUpdate, session.getSessionId());
 
                 try {
@@ -278,6 +311,7 @@ public abstract class BaseMatcherEndpoint
                 }
             }
         }
+        timings.stop(Span.PUBLISH_PRICE, start);
     }
 
     public final AggregatedBid aggregate() {
@@ -286,6 +320,45 @@ public abstract class BaseMatcherEndpoint
 
     protected abstract void performUpdate(AggregatedBid aggregatedBid);
 
+    /**
+     * @return the timings of the spans of work of this matcher, so subclasses can time their own spans.
+     */
+    protected SpanTimings<Span> getTimings() {
+        return timings;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTimingEnabled() {
+        return timings.isEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimingEnabled(boolean enabled) {
+        timings.setEnabled(enabled);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TimingStatistics getTimingStatistics(Span span) {
+        return timings.getStatistics(span);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resetTimings() {
+        timings.reset();
+    }
+
     @Override
     public void handleBidUpdate(Session session, BidUpdate bidUpdate) {
         Agent.Status currentStatus = getStatus();
@@ -307,12 +380,14 @@ public abstract class BaseMatcherEndpoint
 
         LOGGER.debug("Received from session [{}] bid update [{}] ", session.getSessionId(), bidUpdate);
 
-        publishEvent(new IncomingBidUpdateEvent(currentStatus.getClusterId(),
-                                                getAgentId(),
-                                                session.getSessionId(),
-                                                context.currentTime(),
-                                                session.getAgentId(),
-                                                bidUpdate));
+        if (isObserved(IncomingBidUpdateEvent.class)) {
+            publishEvent(new IncomingBidUpdateEvent(currentStatus.getClusterId(),
+                                                    getAgentId(),
+                                                    session.getSessionId(),
+                                                    currentTimeMillis(),
+                                                    session.getAgentId(),
+                                                    bidUpdate));
+        }
 
         bidUpdater.schedule();
     }
@@ -6,6 +6,7 @@ import net.powermatcher.api.MatcherEndpoint;
 import net.powermatcher.api.data.Bid;
 import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.data.Price;
+import net.powermatcher.api.monitoring.InstrumentedAgent;
 import net.powermatcher.api.monitoring.ObservableAgent;
 import net.powermatcher.core.BaseMatcherEndpoint;
 import net.powermatcher.core.bidcache.AggregatedBid;
@@ -31,7 +32,7 @@ import aQute.bnd.annotation.metatype.Meta;
  */
 @Component(designateFactory = Auctioneer.Config.class,
            immediate = true,
-           provide = { ObservableAgent.class, MatcherEndpoint.class })
+           provide = { ObservableAgent.class, MatcherEndpoint.class, InstrumentedAgent.class })
 public class Auctioneer
     extends BaseMatcherEndpoint
     implements MatcherEndpoint {
@@ -17,11 +17,14 @@ import net.powermatcher.api.data.Price;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
 import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.InstrumentedAgent;
 import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.TimingStatistics;
 import net.powermatcher.core.BaseAgentEndpoint;
 import net.powermatcher.core.BaseMatcherEndpoint;
 import net.powermatcher.core.auctioneer.Auctioneer;
 import net.powermatcher.core.bidcache.AggregatedBid;
+import net.powermatcher.core.monitoring.SpanTimings;
 
 /**
  * <p>
@@ -38,10 +41,10 @@ import net.powermatcher.core.bidcache.AggregatedBid;
  */
 @Component(designateFactory = Concentrator.Config.class,
            immediate = true,
-           provide = { AgentEndpoint.class, ObservableAgent.class, MatcherEndpoint.class })
+           provide = { AgentEndpoint.class, ObservableAgent.class, MatcherEndpoint.class, InstrumentedAgent.class })
 public class Concentrator
     extends BaseAgentEndpoint
-    implements MatcherEndpoint {
+    implements MatcherEndpoint, InstrumentedAgent {
 
     private final BidHistoryStore sentBids = new BidHistoryStore();
 
@@ -62,6 +65,10 @@ public class Concentrator
                 }
             }
         }
+
+        SpanTimings<Span> timings() {
+            return getTimings();
+        }
     }
 
     @Meta.OCD
@@ -144,6 +151,8 @@ public class Concentrator
      */
     @Override
     public void handlePriceUpdate(PriceUpdate priceUpdate) {
+        SpanTimings<Span> timings = matcherPart.timings();
+        long start = timings.start();
         super.handlePriceUpdate(priceUpdate);
 
         try {
@@ -153,6 +162,7 @@ public class Concentrator
         } catch (IllegalArgumentException ex) {
             LOGGER.warn(ex.getMessage(), ex);
         }
+        timings.stop(Span.HANDLE_PRICE, start);
     }
 
     /**
@@ -220,4 +230,24 @@ public class Concentrator
         super.removeObserver(observer);
         matcherPart.removeObserver(observer);
     }
+
+    @Override
+    public boolean isTimingEnabled() {
+        return matcherPart.isTimingEnabled();
+    }
+
+    @Override
+    public void setTimingEnabled(boolean enabled) {
+        matcherPart.setTimingEnabled(enabled);
+    }
+
+    @Override
+    public TimingStatistics getTimingStatistics(Span span) {
+        return matcherPart.getTimingStatistics(span);
+    }
+
+    @Override
+    public void resetTimings() {
+        matcherPart.resetTimings();
+    }
 }
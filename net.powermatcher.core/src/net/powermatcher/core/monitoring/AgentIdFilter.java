@@ -0,0 +1,146 @@
+package net.powermatcher.core.monitoring;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled filter of agent ids, so an observer can decide in constant time whether to observe an agent, no matter
+ * how large the filter is. The filter is a list of agent ids and glob patterns, in which <code>*</code> matches any
+ * number of characters and <code>?</code> matches one character.
+ *
+ * Plain ids are kept in a hash set and patterns of the form <code>prefix*</code> in a sorted set of prefixes. Other
+ * patterns are combined in one regular expression.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public final class AgentIdFilter {
+
+    /**
+     * A filter that matches every agent.
+     */
+    public static final AgentIdFilter ALL = new AgentIdFilter(new HashSet<String>(), new TreeSet<String>(), null);
+
+    private final Set<String> ids;
+
+    /**
+     * Prefixes of which none is a prefix of another, so the greatest prefix that is not greater than an id is the only
+     * one that can match it.
+     */
+    private final TreeSet<String> prefixes;
+
+    private final Pattern pattern;
+
+    private AgentIdFilter(Set<String> ids, TreeSet<String> prefixes, Pattern pattern) {
+        this.ids = ids;
+        this.prefixes = prefixes;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Compiles a filter. Empty entries are ignored, because ConfigAdmin sometimes generates a filter with one empty
+     * element.
+     *
+     * @param filter
+     *            the agent ids and patterns to observe, <code>null</code> or empty to observe every agent
+     * @return the compiled filter
+     */
+    public static AgentIdFilter compile(Collection<String> filter) {
+        if (filter == null) {
+            return ALL;
+        }
+
+        Set<String> ids = new HashSet<String>();
+        TreeSet<String> prefixes = new TreeSet<String>();
+        StringBuilder regex = new StringBuilder();
+        for (String entry : filter) {
+            if (entry == null || entry.isEmpty()) {
+                continue;
+            }
+            int star = entry.indexOf('*');
+            int question = entry.indexOf('?');
+            if (star < 0 && question < 0) {
+                ids.add(entry);
+            } else if (question < 0 && star == entry.length() - 1) {
+                prefixes.add(entry.substring(0, star));
+            } else {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                appendGlob(regex, entry);
+            }
+        }
+        if (ids.isEmpty() && prefixes.isEmpty() && regex.length() == 0) {
+            return ALL;
+        }
+
+        // Drop the prefixes that start with a shorter prefix, they match nothing extra
+        TreeSet<String> minimalPrefixes = new TreeSet<String>();
+        for (String prefix : prefixes) {
+            String floor = minimalPrefixes.floor(prefix);
+            if (floor == null || !prefix.startsWith(floor)) {
+                minimalPrefixes.add(prefix);
+            }
+        }
+        return new AgentIdFilter(ids, minimalPrefixes, regex.length() == 0 ? null : Pattern.compile(regex.toString()));
+    }
+
+    private static void appendGlob(StringBuilder regex, String glob) {
+        regex.append("(?:");
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        regex.append(')');
+    }
+
+    /**
+     * @return <code>true</code> when this filter matches every agent.
+     */
+    public boolean isMatchingAll() {
+        return this == ALL;
+    }
+
+    /**
+     * @param agentId
+     *            the id of an agent
+     * @return <code>true</code> when the agent should be observed.
+     */
+    public boolean matches(String agentId) {
+        if (this == ALL || ids.contains(agentId)) {
+            return true;
+        }
+        if (!prefixes.isEmpty()) {
+            String prefix = prefixes.floor(agentId);
+            if (prefix != null && agentId.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return pattern != null && pattern.matcher(agentId).matches();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        if (this == ALL) {
+            return AgentIdFilter.class.getSimpleName() + "[all]";
+        }
+        return AgentIdFilter.class.getSimpleName() + "[ids=" + ids + ", prefixes=" + prefixes + ", pattern=" + pattern
+               + "]";
+    }
+}
@@ -0,0 +1,314 @@
+package net.powermatcher.core.monitoring;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.SelectiveAgentObserver;
+import net.powermatcher.api.monitoring.events.AgentEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link AsyncAgentObserver} wraps an {@link AgentObserver} and delivers the {@link AgentEvent}s to it from the thread
+ * of an {@link ObserverDispatcher}. Events are buffered in a bounded ring buffer; what happens when the buffer is full
+ * is determined by the {@link OverflowPolicy}.
+ *
+ * Register the {@link AsyncAgentObserver} on the {@link ObservableAgent}s instead of the wrapped observer. The same
+ * instance can be registered on multiple agents.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class AsyncAgentObserver
+    implements SelectiveAgentObserver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncAgentObserver.class);
+
+    /**
+     * The maximum number of events delivered in one go, before other observers get their turn.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private final AgentObserver observer;
+    private final ObserverDispatcher dispatcher;
+    private final OverflowPolicy overflowPolicy;
+    private final int sampleInterval;
+
+    /**
+     * The ring buffer, guarded by lock.
+     */
+    private final AgentEvent[] buffer;
+    private int head, size, sampleCounter;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Set when the {@link ObserverDispatcher} has shut down, so nothing drains the buffer anymore. Guarded by lock.
+     */
+    private boolean closed;
+
+    /**
+     * Indicates whether this observer is waiting for the dispatcher, to prevent it from being scheduled twice.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final AtomicLong receivedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong deliveredEvents = new AtomicLong();
+
+    /**
+     * Creates a new {@link AsyncAgentObserver}. Normally
+     * {@link ObserverDispatcher#wrap(AgentObserver, int, OverflowPolicy)} is used instead.
+     *
+     * @param observer
+     *            the {@link AgentObserver} that will receive the events.
+     * @param dispatcher
+     *            the {@link ObserverDispatcher} that delivers the events.
+     * @param capacity
+     *            the maximum number of events that are buffered.
+     * @param overflowPolicy
+     *            what to do when the buffer can not keep up.
+     * @param sampleInterval
+     *            when sampling, one out of this number of events is accepted.
+     */
+    public AsyncAgentObserver(AgentObserver observer,
+                              ObserverDispatcher dispatcher,
+                              int capacity,
+                              OverflowPolicy overflowPolicy,
+                              int sampleInterval) {
+        if (observer == null || dispatcher == null || overflowPolicy == null) {
+            throw new NullPointerException("observer, dispatcher and overflowPolicy are required");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity should be at least 1, not " + capacity);
+        }
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("The sampleInterval should be at least 1, not " + sampleInterval);
+        }
+        this.observer = observer;
+        this.dispatcher = dispatcher;
+        this.overflowPolicy = overflowPolicy;
+        this.sampleInterval = sampleInterval;
+        buffer = new AgentEvent[capacity];
+        dispatcher.register(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation asks the wrapped observer, when it is a {@link SelectiveAgentObserver}.
+     */
+    @Override
+    public boolean isObserving(Class<? extends AgentEvent> eventType) {
+        return !(observer instanceof SelectiveAgentObserver)
+               || ((SelectiveAgentObserver) observer).isObserving(eventType);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation only buffers the event; it is delivered later by the {@link ObserverDispatcher}.
+     */
+    @Override
+    public void handleAgentEvent(AgentEvent event) {
+        receivedEvents.incrementAndGet();
+        if (enqueue(event)) {
+            schedule();
+        }
+    }
+
+    private boolean enqueue(AgentEvent event) {
+        lock.lock();
+        try {
+            if (size == buffer.length) {
+                switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    size--;
+                    droppedEvents.incrementAndGet();
+                    break;
+                case BLOCK:
+                    if (dispatcher.isDispatchThread()) {
+                        // Waiting here would wait forever
+                        droppedEvents.incrementAndGet();
+                        return false;
+                    }
+                    if (size == buffer.length) {
+                        while (size == buffer.length && !closed) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (closed) {
+                            // The dispatcher has shut down, so the buffer will not be drained
+                            droppedEvents.incrementAndGet();
+                            return false;
+                        }
+                    }
+                    break;
+                default:
+                    droppedEvents.incrementAndGet();
+                    return false;
+                }
+            } else if (overflowPolicy == OverflowPolicy.SAMPLE && size >= buffer.length / 2) {
+                if (sampleCounter++ % sampleInterval != 0) {
+                    droppedEvents.incrementAndGet();
+                    return false;
+                }
+            } else {
+                sampleCounter = 0;
+            }
+            buffer[(head + size) % buffer.length] = event;
+            size++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AgentEvent dequeue() {
+        lock.lock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            AgentEvent event = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            size--;
+            notFull.signal();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            dispatcher.schedule(this);
+        }
+    }
+
+    /**
+     * Drops the buffered events and wakes up the threads that are waiting for room in the buffer, which drop their
+     * events too. Called by the {@link ObserverDispatcher} when it shuts down.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            droppedEvents.addAndGet(size);
+            while (size > 0) {
+                buffer[head] = null;
+                head = (head + 1) % buffer.length;
+                size--;
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // Allows this observer to be scheduled again when the dispatcher is used after the shutdown
+        scheduled.set(false);
+    }
+
+    /**
+     * Lets the threads wait for room in the buffer again. Called by the {@link ObserverDispatcher} when it starts.
+     */
+    void reopen() {
+        lock.lock();
+        try {
+            closed = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delivers a batch of buffered events to the wrapped observer. Called by the {@link ObserverDispatcher}.
+     */
+    void deliver() {
+        scheduled.set(false);
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            AgentEvent event = dequeue();
+            if (event == null) {
+                return;
+            }
+            try {
+                observer.handleAgentEvent(event);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not deliver an event to observer [{}]: {}", observer, ex.getMessage());
+            }
+            deliveredEvents.incrementAndGet();
+        }
+        if (getQueueDepth() > 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * @return the wrapped {@link AgentObserver}.
+     */
+    public AgentObserver getObserver() {
+        return observer;
+    }
+
+    /**
+     * @return the current value of overflowPolicy.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the maximum number of events that can be buffered.
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the number of events that are buffered, waiting to be delivered.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total number of events that were published to this observer.
+     */
+    public long getReceivedEvents() {
+        return receivedEvents.get();
+    }
+
+    /**
+     * @return the total number of events that were dropped because of the {@link OverflowPolicy}.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return the total number of events that were delivered to the wrapped observer.
+     */
+    public long getDeliveredEvents() {
+        return deliveredEvents.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + observer + ", depth=" + getQueueDepth() + ", dropped="
+               + getDroppedEvents() + "]";
+    }
+}
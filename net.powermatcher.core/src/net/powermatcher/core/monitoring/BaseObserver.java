@@ -0,0 +1,303 @@
+package net.powermatcher.core.monitoring;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.events.AgentEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class used to create an {@link AgentObserver}. The {@link AgentObserver} searches for {@link ObservableAgent}
+ * services and adds itself.
+ * 
+ * {@link ObservableAgent} services are able to call the update method of {@link AgentObserver} with {@link AgentEvent}
+ * events. The events are delivered asynchronously through an {@link AsyncAgentObserver}, so a slow observer does not
+ * delay the {@link ObservableAgent}.
+ * 
+ * The loggers and other observers share this class, so they all select their {@link ObservableAgent} services with an
+ * {@link AgentIdFilter} and only receive events of the agents they observe.
+ * 
+ * @author FAN
+ * @version 2.1
+ */
+public abstract class BaseObserver implements AgentObserver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BaseObserver.class);
+
+    /**
+     * Holds the available {@link ObservableAgent} services
+     */
+    private ConcurrentMap<String, ObservableAgent> observables = new ConcurrentHashMap<String, ObservableAgent>();
+
+    /**
+     * Holds the current {@link ObservableAgent} services being observed
+     */
+    private ConcurrentMap<String, ObservableAgent> observing = new ConcurrentHashMap<String, ObservableAgent>();
+
+    /**
+     * Delivers the events to this observer, see {@link #shutdownDispatcher()}.
+     */
+    private final ObserverDispatcher dispatcher = new ObserverDispatcher(getClass().getSimpleName() + " dispatcher");
+
+    /**
+     * The {@link AsyncAgentObserver} that is registered on the {@link ObservableAgent} services on behalf of this
+     * observer.
+     */
+    private volatile AsyncAgentObserver asyncObserver = dispatcher.wrap(this);
+
+    /**
+     * The compiled filter and the list it was compiled from.
+     */
+    private volatile CompiledFilter compiledFilter = new CompiledFilter(null);
+
+    /**
+     * Whether {@link ObservableAgent} services that match the filter are attached to, guarded by this.
+     */
+    private boolean attaching;
+
+    /**
+     * Creates an observer that attaches to the matching {@link ObservableAgent} services as soon as they are added.
+     */
+    protected BaseObserver() {
+        this(true);
+    }
+
+    /**
+     * @param attachImmediately
+     *            <code>false</code> when the observer only attaches to {@link ObservableAgent} services from the first
+     *            call of {@link #updateObservables()}, e.g. when it can only handle events once it has been activated
+     */
+    protected BaseObserver(boolean attachImmediately) {
+        attaching = attachImmediately;
+    }
+
+    /**
+     * Filter containing all observableId's which must be observed. When the filter changes, a new list should be
+     * returned, because the filter is only compiled again when the list is a different one.
+     */
+    protected abstract List<String> getFilter();
+
+    /**
+     * An {@link AgentIdFilter} and the list it was compiled from.
+     */
+    private static final class CompiledFilter {
+        private final List<String> source;
+        private final AgentIdFilter filter;
+
+        CompiledFilter(List<String> source) {
+            this.source = source;
+            filter = AgentIdFilter.compile(source);
+        }
+    }
+
+    /**
+     * Add an {@link ObservableAgent} to the list of available {@link ObservableAgent} services. Only the new
+     * {@link ObservableAgent} is checked against the filter.
+     * 
+     * @param observable
+     *            {@link ObservableAgent} to add.
+     * @param properties
+     *            configuration properties of {@link ObservableAgent} service
+     */
+    public void addObservable(ObservableAgent observable, Map<String, Object> properties) {
+        String agentId = observable.getAgentId();
+        if (observables.putIfAbsent(agentId, observable) != null) {
+            LOGGER.warn("An observable with the id {} was already registered", agentId);
+        }
+
+        updateObservable(agentId, getAgentIdFilter());
+    }
+
+    /**
+     * Removes an {@link ObservableAgent} from the list of available {@link ObservableAgent} services
+     * 
+     * @param observable
+     *            {@link ObservableAgent} to remove.
+     * @param properties
+     *            configuration properties of {@link ObservableAgent} service
+     */
+    public void removeObservable(ObservableAgent observable, Map<String, Object> properties) {
+        String agentId = observable.getAgentId();
+        observables.remove(agentId, observable);
+
+        // Check whether actually observing and remove
+        detach(agentId, observable);
+    }
+
+    /**
+     * Update the connections to the {@link ObservableAgent} services. The filter is taken into account is present:
+     * <ul>
+     * <li>
+     * Filter is NULL or empty, all available {@link ObservableAgent} services will be observed.</li>
+     * <li>
+     * Filter is not empty, only {@link ObservableAgent} services from filter will be observed.</li>
+     * </ul>
+     */
+    public void updateObservables() {
+        synchronized (this) {
+            attaching = true;
+        }
+        AgentIdFilter filter = getAgentIdFilter();
+        for (String observableId : observables.keySet()) {
+            updateObservable(observableId, filter);
+        }
+    }
+
+    /**
+     * Starts or stops observing one {@link ObservableAgent} service, depending on the filter.
+     * 
+     * @param observableId
+     *            id of {@link ObservableAgent}.
+     * @param filter
+     *            the current filter
+     */
+    private void updateObservable(String observableId, AgentIdFilter filter) {
+        if (filter.matches(observableId)) {
+            addObservable(observableId);
+        } else if (detach(observableId, null)) {
+            LOGGER.info("Detached from observable [{}]", observableId);
+        }
+    }
+
+    /**
+     * Stops observing an {@link ObservableAgent} service. Like attaching, this is synchronized with
+     * {@link #configureDispatch(int, OverflowPolicy)}, so the {@link AsyncAgentObserver} that is removed is the one
+     * that was added.
+     *
+     * @param observableId
+     *            id of {@link ObservableAgent}.
+     * @param observable
+     *            the {@link ObservableAgent} that is no longer observed, or <code>null</code> for the one with the id
+     * @return <code>true</code> when the {@link ObservableAgent} was observed.
+     */
+    private synchronized boolean detach(String observableId, ObservableAgent observable) {
+        ObservableAgent removed;
+        if (observable == null) {
+            removed = observing.remove(observableId);
+        } else {
+            removed = observing.remove(observableId, observable) ? observable : null;
+        }
+        if (removed == null) {
+            return false;
+        }
+        removed.removeObserver(asyncObserver);
+        return true;
+    }
+
+    /**
+     * @return the {@link AgentIdFilter} compiled from the current filter.
+     */
+    protected AgentIdFilter getAgentIdFilter() {
+        List<String> filter = getFilter();
+        CompiledFilter current = compiledFilter;
+        if (current.source != filter) {
+            current = new CompiledFilter(filter);
+            compiledFilter = current;
+        }
+        return current.filter;
+    }
+
+    /**
+     * Events can still arrive shortly after an {@link ObservableAgent} was detached from, because they are delivered
+     * asynchronously. An observer that keeps state per agent uses this to drop those events.
+     *
+     * @param agentId
+     *            the id of an {@link ObservableAgent}
+     * @return <code>true</code> when this observer is attached to the {@link ObservableAgent} with the given id.
+     */
+    protected boolean isAttached(String agentId) {
+        return agentId != null && observing.containsKey(agentId);
+    }
+
+    /**
+     * Changes how events are buffered before they are handled by this observer. When the settings differ from the
+     * current settings, all {@link ObservableAgent} services are attached to again.
+     *
+     * @param capacity
+     *            the maximum number of events that are buffered.
+     * @param overflowPolicy
+     *            what to do when the buffer can not keep up.
+     */
+    protected synchronized void configureDispatch(int capacity, OverflowPolicy overflowPolicy) {
+        AsyncAgentObserver current = asyncObserver;
+        if (current.getCapacity() == capacity && current.getOverflowPolicy() == overflowPolicy) {
+            return;
+        }
+        AsyncAgentObserver replacement = dispatcher.wrap(this, capacity, overflowPolicy);
+        for (ObservableAgent observable : observing.values()) {
+            observable.removeObserver(current);
+            observable.addObserver(replacement);
+        }
+        asyncObserver = replacement;
+    }
+
+    /**
+     * @return the number of events that are waiting to be handled by this observer.
+     */
+    public int getQueueDepth() {
+        return asyncObserver.getQueueDepth();
+    }
+
+    /**
+     * @return the number of events that were dropped because this observer could not keep up.
+     */
+    public long getDroppedEvents() {
+        return asyncObserver.getDroppedEvents();
+    }
+
+    /**
+     * Stops the thread that delivers the events to this observer. Subclasses call this when they are deactivated.
+     */
+    protected void shutdownDispatcher() {
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Detaches from all observed {@link ObservableAgent} services. No {@link ObservableAgent} is attached to until
+     * {@link #updateObservables()} is called again.
+     */
+    protected synchronized void detachObservables() {
+        attaching = false;
+        AsyncAgentObserver current = asyncObserver;
+        for (ObservableAgent observable : observing.values()) {
+            observable.removeObserver(current);
+        }
+        observing.clear();
+    }
+
+    /**
+     * Detaches from and attaches to all currently observed {@link ObservableAgent} services again. This is needed when
+     * an {@link ObservableAgent} should re-evaluate which events this observer is interested in.
+     */
+    protected synchronized void reattachObservables() {
+        AsyncAgentObserver current = asyncObserver;
+        for (ObservableAgent observable : observing.values()) {
+            observable.removeObserver(current);
+            observable.addObserver(current);
+        }
+    }
+
+    /**
+     * Start observing the specified {@link ObservableAgent} service.
+     * 
+     * @param observableId
+     *            id of {@link ObservableAgent}.
+     */
+    private synchronized void addObservable(String observableId) {
+        if (!attaching) {
+            return;
+        }
+        // Only attach to new observers
+        ObservableAgent observable = observables.get(observableId);
+        if (observable != null && observing.putIfAbsent(observableId, observable) == null) {
+            observable.addObserver(asyncObserver);
+            LOGGER.info("Attached to observable [{}]", observableId);
+        }
+    }
+}
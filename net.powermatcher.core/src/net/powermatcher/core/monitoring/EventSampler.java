@@ -0,0 +1,219 @@
+package net.powermatcher.core.monitoring;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.api.monitoring.events.BidUpdateEvent;
+import net.powermatcher.api.monitoring.events.PriceUpdateEvent;
+
+/**
+ * Decides which {@link AgentEvent}s are logged, so a logger can stay enabled on a busy cluster. Events are sampled per
+ * stream: the events of one type that one agent publishes for one session. An event is logged when it passes all the
+ * rules that are enabled:
+ * <ul>
+ * <li>it is the first or every Nth event of its stream;</li>
+ * <li>at least the minimum interval has passed since the last logged event of its stream;</li>
+ * <li>its demand or price differs more than the threshold from the last logged event of its stream.</li>
+ * </ul>
+ *
+ * This class is thread safe.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class EventSampler {
+
+    /**
+     * An {@link EventSampler} that logs every event.
+     */
+    public static final EventSampler ALL = new EventSampler(1, 0, 0, 0);
+
+    /**
+     * The maximum number of streams that is remembered. Sessions come and go, so when there are more the sampler
+     * starts over with new maps rather than growing forever.
+     */
+    private static final int MAX_STREAMS = 65536;
+
+    /**
+     * The key of a missing agent or session id, since a {@link ConcurrentHashMap} has no <code>null</code> keys.
+     */
+    private static final String NO_ID = "";
+
+    /**
+     * The sampling state of a stream, guarded by itself.
+     */
+    private static final class Stream {
+        private long received;
+        private boolean logged;
+        private long lastTimestamp;
+        private double lastPrice;
+        private double[] lastDemand;
+    }
+
+    /**
+     * The streams by event class, agent id and session id, and how many there are. Looking a stream up in nested maps
+     * does not allocate anything once the stream exists, unlike a combined key.
+     */
+    private static final class Streams {
+        private final ConcurrentMap<Class<?>, ConcurrentMap<String, ConcurrentMap<String, Stream>>> byClass =
+                new ConcurrentHashMap<Class<?>, ConcurrentMap<String, ConcurrentMap<String, Stream>>>();
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
+    private final int sampleRate;
+
+    private final long minInterval;
+
+    private final double demandThreshold;
+
+    private final double priceThreshold;
+
+    /**
+     * The current streams. Starting over swaps in new maps, so a thread that still looks up a stream in the old maps
+     * is not affected and the count always belongs to the maps it counts.
+     */
+    private final AtomicReference<Streams> streams = new AtomicReference<Streams>(new Streams());
+
+    /**
+     * @param sampleRate
+     *            log every Nth event of a stream, 1 or less to log every event
+     * @param minInterval
+     *            the minimum time in milliseconds between two logged events of a stream, 0 or less for no minimum
+     * @param demandThreshold
+     *            the minimum change at any price step for a bid to be logged, 0 or less to log unchanged bids too
+     * @param priceThreshold
+     *            the minimum change for a price to be logged, 0 or less to log unchanged prices too
+     */
+    public EventSampler(int sampleRate, long minInterval, double demandThreshold, double priceThreshold) {
+        this.sampleRate = Math.max(1, sampleRate);
+        this.minInterval = Math.max(0, minInterval);
+        this.demandThreshold = Math.max(0, demandThreshold);
+        this.priceThreshold = Math.max(0, priceThreshold);
+    }
+
+    /**
+     * @return <code>true</code> when this sampler logs every event.
+     */
+    public boolean isLoggingAll() {
+        return sampleRate == 1 && minInterval == 0 && demandThreshold == 0 && priceThreshold == 0;
+    }
+
+    /**
+     * Decides whether an event is logged, and remembers it when it is.
+     *
+     * @param event
+     *            the received event
+     * @return <code>true</code> when the event should be logged.
+     */
+    public boolean accept(AgentEvent event) {
+        if (isLoggingAll()) {
+            return true;
+        }
+
+        Stream stream = getStream(event);
+        synchronized (stream) {
+            stream.received++;
+            if (sampleRate > 1 && (stream.received - 1) % sampleRate != 0) {
+                return false;
+            }
+            if (stream.logged && minInterval > 0 && event.getTimestampMillis() - stream.lastTimestamp < minInterval) {
+                return false;
+            }
+
+            double[] demand = null;
+            double price = 0;
+            if (event instanceof BidUpdateEvent && demandThreshold > 0) {
+                demand = ((BidUpdateEvent) event).getBidUpdate().getBid().getDemand();
+                if (stream.logged && !changed(stream.lastDemand, demand)) {
+                    return false;
+                }
+            } else if (event instanceof PriceUpdateEvent && priceThreshold > 0) {
+                price = ((PriceUpdateEvent) event).getPriceUpdate().getPrice().getPriceValue();
+                if (stream.logged && !(Math.abs(price - stream.lastPrice) > priceThreshold)) {
+                    return false;
+                }
+            }
+
+            stream.logged = true;
+            stream.lastTimestamp = event.getTimestampMillis();
+            stream.lastDemand = demand;
+            stream.lastPrice = price;
+            return true;
+        }
+    }
+
+    private Stream getStream(AgentEvent event) {
+        String sessionId = null;
+        if (event instanceof BidUpdateEvent) {
+            sessionId = ((BidUpdateEvent) event).getSessionId();
+        } else if (event instanceof PriceUpdateEvent) {
+            sessionId = ((PriceUpdateEvent) event).getSessionId();
+        }
+        sessionId = sessionId == null ? NO_ID : sessionId;
+        String agentId = event.getAgentId() == null ? NO_ID : event.getAgentId();
+
+        while (true) {
+            Streams current = streams.get();
+            ConcurrentMap<String, ConcurrentMap<String, Stream>> agents = current.byClass.get(event.getClass());
+            if (agents == null) {
+                agents = putIfAbsent(current.byClass,
+                                     event.getClass(),
+                                     new ConcurrentHashMap<String, ConcurrentMap<String, Stream>>());
+            }
+            ConcurrentMap<String, Stream> sessions = agents.get(agentId);
+            if (sessions == null) {
+                sessions = putIfAbsent(agents, agentId, new ConcurrentHashMap<String, Stream>());
+            }
+            Stream stream = sessions.get(sessionId);
+            if (stream != null) {
+                return stream;
+            }
+            if (current.count.get() >= MAX_STREAMS) {
+                // Only one thread starts over, the others look the stream up again in the new maps
+                streams.compareAndSet(current, new Streams());
+                continue;
+            }
+            Stream created = new Stream();
+            stream = putIfAbsent(sessions, sessionId, created);
+            if (stream == created) {
+                current.count.incrementAndGet();
+            }
+            return stream;
+        }
+    }
+
+    private static <K, V> V putIfAbsent(ConcurrentMap<K, V> map, K key, V value) {
+        V existing = map.putIfAbsent(key, value);
+        return existing == null ? value : existing;
+    }
+
+    private boolean changed(double[] previous, double[] demand) {
+        if (previous == null || previous.length != demand.length) {
+            return true;
+        }
+        for (int i = 0; i < demand.length; i++) {
+            if (Math.abs(demand[i] - previous[i]) > demandThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return EventSampler.class.getSimpleName() + "[sampleRate=" + sampleRate
+               + ", minInterval="
+               + minInterval
+               + ", demandThreshold="
+               + demandThreshold
+               + ", priceThreshold="
+               + priceThreshold
+               + "]";
+    }
+}
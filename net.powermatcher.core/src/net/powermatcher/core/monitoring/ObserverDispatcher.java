@@ -0,0 +1,182 @@
+package net.powermatcher.core.monitoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.powermatcher.api.monitoring.AgentObserver;
+
+/**
+ * {@link ObserverDispatcher} owns a single thread that delivers the events buffered by {@link AsyncAgentObserver}s.
+ * This keeps the handling of events by observers away from the threads of the agents, so a slow observer can not delay
+ * the market.
+ *
+ * The dispatch thread is a daemon thread, which is started when the first {@link AsyncAgentObserver} has something to
+ * deliver. The component that creates a dispatcher owns it and should call {@link #shutdown()} when it is
+ * deactivated, so the thread does not outlive the bundle.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ObserverDispatcher {
+    /**
+     * The default number of events buffered per observer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The default interval used by {@link OverflowPolicy#SAMPLE}.
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 10;
+
+    private final String threadName;
+
+    /**
+     * The {@link AsyncAgentObserver}s that have events waiting.
+     */
+    private final BlockingQueue<AsyncAgentObserver> ready = new LinkedBlockingQueue<AsyncAgentObserver>();
+
+    /**
+     * The {@link AsyncAgentObserver}s that use this dispatcher, guarded by itself. They are held weakly, because an
+     * observer that is replaced is not unregistered.
+     */
+    private final Set<AsyncAgentObserver> observers = Collections.newSetFromMap(new WeakHashMap<AsyncAgentObserver,
+                                                                                                  Boolean>());
+
+    private volatile Thread thread;
+
+    /**
+     * Creates a new {@link ObserverDispatcher} with its own dispatch thread.
+     *
+     * @param threadName
+     *            the name of the dispatch thread
+     */
+    public ObserverDispatcher(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * Wraps the observer, so that it receives its events from the dispatch thread.
+     *
+     * @param observer
+     *            the {@link AgentObserver} that will receive the events.
+     * @param capacity
+     *            the maximum number of events that are buffered for this observer.
+     * @param overflowPolicy
+     *            what to do when the buffer can not keep up.
+     * @return the {@link AsyncAgentObserver} that should be registered instead of the observer.
+     */
+    public AsyncAgentObserver wrap(AgentObserver observer, int capacity, OverflowPolicy overflowPolicy) {
+        return new AsyncAgentObserver(observer, this, capacity, overflowPolicy, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Wraps the observer with the {@link #DEFAULT_CAPACITY} and {@link OverflowPolicy#DROP_OLDEST}.
+     *
+     * @param observer
+     *            the {@link AgentObserver} that will receive the events.
+     * @return the {@link AsyncAgentObserver} that should be registered instead of the observer.
+     */
+    public AsyncAgentObserver wrap(AgentObserver observer) {
+        return wrap(observer, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Registers an observer, so it is closed when this dispatcher shuts down.
+     *
+     * @param observer
+     *            the new {@link AsyncAgentObserver}.
+     */
+    void register(AsyncAgentObserver observer) {
+        synchronized (observers) {
+            observers.add(observer);
+        }
+    }
+
+    private List<AsyncAgentObserver> getObservers() {
+        synchronized (observers) {
+            return new ArrayList<AsyncAgentObserver>(observers);
+        }
+    }
+
+    /**
+     * @return <code>true</code> when called from the dispatch thread.
+     */
+    boolean isDispatchThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Queues the observer for delivery of its buffered events.
+     *
+     * @param observer
+     *            the {@link AsyncAgentObserver} with events waiting.
+     */
+    void schedule(AsyncAgentObserver observer) {
+        ready.add(observer);
+        if (thread == null) {
+            startThread();
+        }
+    }
+
+    private synchronized void startThread() {
+        if (thread == null) {
+            Thread newThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            }, threadName);
+            newThread.setDaemon(true);
+            for (AsyncAgentObserver observer : getObservers()) {
+                observer.reopen();
+            }
+            thread = newThread;
+            newThread.start();
+        }
+    }
+
+    /**
+     * Stops the dispatch thread. Events that are still buffered are dropped, and threads that are waiting for room in a
+     * buffer of {@link OverflowPolicy#BLOCK} drop their events instead of waiting forever. When the dispatcher is used
+     * again, a new thread is started. An observer that is handling an event when this method is called finishes it
+     * first.
+     */
+    public void shutdown() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+        }
+        // Closed first, so an observer that is interrupted does not get the next event
+        ready.clear();
+        for (AsyncAgentObserver observer : getObservers()) {
+            observer.close();
+        }
+        if (stopped != null) {
+            stopped.interrupt();
+        }
+    }
+
+    /**
+     * @return <code>true</code> when the dispatch thread is running.
+     */
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    private void dispatch() {
+        Thread self = Thread.currentThread();
+        while (thread == self) {
+            try {
+                ready.take().deliver();
+            } catch (InterruptedException ex) {
+                // Interrupted by shutdown(), which has already replaced the thread
+            }
+        }
+    }
+}
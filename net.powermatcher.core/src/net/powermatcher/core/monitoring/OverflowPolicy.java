@@ -0,0 +1,27 @@
+package net.powermatcher.core.monitoring;
+
+/**
+ * Determines what an {@link AsyncAgentObserver} does with a new event when its buffer can not keep up with the rate of
+ * events.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public enum OverflowPolicy {
+    /**
+     * When the buffer is full, the oldest buffered event is dropped to make room for the new event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * When the buffer is at least half full, only one out of every <code>sampleInterval</code> events is accepted. When
+     * the buffer is full, new events are dropped.
+     */
+    SAMPLE,
+
+    /**
+     * When the buffer is full, the publishing agent waits until there is room. No events are lost, but a slow observer
+     * will slow down the agent. Events are only dropped when the {@link ObserverDispatcher} shuts down.
+     */
+    BLOCK
+}
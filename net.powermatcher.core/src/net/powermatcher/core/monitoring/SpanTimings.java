@@ -0,0 +1,121 @@
+package net.powermatcher.core.monitoring;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.powermatcher.api.monitoring.Histogram;
+import net.powermatcher.api.monitoring.TimingStatistics;
+
+/**
+ * Times spans of work with {@link System#nanoTime()} and records the durations in a {@link Histogram} per span. Timing
+ * can be switched on and off at runtime. When it is off, {@link #start()} costs one volatile read and nothing is
+ * recorded.
+ *
+ * <pre>
+ * long start = timings.start();
+ * doWork();
+ * timings.stop(Span.WORK, start);
+ * </pre>
+ *
+ * @param <S>
+ *            the enumeration of the spans
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class SpanTimings<S extends Enum<S>> {
+
+    /**
+     * Returned by {@link #start()} when timing is off.
+     */
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final int spans;
+
+    private volatile boolean enabled;
+
+    private volatile AtomicReferenceArray<Histogram> histograms;
+
+    /**
+     * Constructs an instance of this class, with timing switched off.
+     *
+     * @param spanType
+     *            the enumeration of the spans
+     */
+    public SpanTimings(Class<S> spanType) {
+        spans = spanType.getEnumConstants().length;
+        histograms = new AtomicReferenceArray<Histogram>(spans);
+    }
+
+    /**
+     * @return <code>true</code> when the spans are being timed.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches timing on or off. The recorded durations are kept.
+     *
+     * @param enabled
+     *            <code>true</code> to start timing, <code>false</code> to stop.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the current {@link System#nanoTime()}, or {@link #NOT_TIMED} when timing is off.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records the duration of a span that started at the given time.
+     *
+     * @param span
+     *            the span of work
+     * @param start
+     *            the result of {@link #start()} when the span started
+     */
+    public void stop(S span, long start) {
+        if (start != NOT_TIMED) {
+            record(span, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the duration of a span that was measured by the caller.
+     *
+     * @param span
+     *            the span of work
+     * @param nanos
+     *            the duration in nanoseconds, negative durations are ignored
+     */
+    public void record(S span, long nanos) {
+        AtomicReferenceArray<Histogram> current = histograms;
+        Histogram histogram = current.get(span.ordinal());
+        if (histogram == null) {
+            current.compareAndSet(span.ordinal(), null, new Histogram());
+            histogram = current.get(span.ordinal());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * @param span
+     *            the span of work
+     * @return a snapshot of the recorded durations, {@link TimingStatistics#EMPTY} when nothing has been recorded.
+     */
+    public TimingStatistics getStatistics(S span) {
+        Histogram histogram = histograms.get(span.ordinal());
+        return histogram == null ? TimingStatistics.EMPTY : histogram.toTimingStatistics();
+    }
+
+    /**
+     * Forgets all recorded durations.
+     */
+    public void reset() {
+        histograms = new AtomicReferenceArray<Histogram>(spans);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * This package contains the base class of the observers that select agents with a filter, the asynchronous dispatching
+ * of events to observers, which decouples slow observers from the agents they observe, the sampling of events for
+ * loggers and the timing of spans of work, which records the durations in the
+ * {@link net.powermatcher.api.monitoring.Histogram}s of the API.
+ */
+@aQute.bnd.annotation.Version("1.3.0.${tstamp}")
+package net.powermatcher.core.monitoring;
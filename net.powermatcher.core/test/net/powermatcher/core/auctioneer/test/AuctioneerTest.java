@@ -16,6 +16,8 @@ import net.powermatcher.api.data.Bid;
 import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.InstrumentedAgent.Span;
+import net.powermatcher.api.monitoring.TimingStatistics;
 import net.powermatcher.api.monitoring.events.AgentEvent;
 import net.powermatcher.api.monitoring.events.AggregatedBidEvent;
 import net.powermatcher.api.monitoring.events.IncomingBidUpdateEvent;
@@ -183,4 +185,36 @@ public class AuctioneerTest {
         assertThat(mockAgent.getLastPriceUpdate(), is(notNullValue()));
         assertThat(observer.outgoingPriceEvent.getPriceUpdate(), is(equalTo(mockAgent.getLastPriceUpdate())));
     }
+
+    @Test
+    public void testTiming() {
+        MockDeviceAgent mockAgent = new MockDeviceAgent("mockAgent", AUCTIONEER_ID);
+        new SimpleSession(mockAgent, auctioneer).connect();
+        Bid bid = new Bid(marketBasis, new double[] { 2, 1, 0, -1, -2 });
+
+        // Timing is off by default
+        assertThat(auctioneer.isTimingEnabled(), is(false));
+        mockAgent.sendBid(bid, 0);
+        mockContext.doTaskOnce();
+        assertThat(auctioneer.getTimingStatistics(Span.AGGREGATE), is(TimingStatistics.EMPTY));
+
+        auctioneer.setTimingEnabled(true);
+        mockAgent.sendBid(bid, 1);
+        mockContext.doTaskOnce();
+        for (Span span : new Span[] { Span.BID_WAIT,
+                                      Span.EXECUTOR_DELAY,
+                                      Span.AGGREGATE,
+                                      Span.PERFORM_UPDATE,
+                                      Span.PUBLISH_PRICE }) {
+            assertThat(auctioneer.getTimingStatistics(span).getCount(), is(equalTo(1L)));
+        }
+        assertThat(auctioneer.getTimingStatistics(Span.HANDLE_PRICE).getCount(), is(equalTo(0L)));
+        TimingStatistics update = auctioneer.getTimingStatistics(Span.PERFORM_UPDATE);
+        TimingStatistics publish = auctioneer.getTimingStatistics(Span.PUBLISH_PRICE);
+        // Clearing the market includes publishing the price
+        assertThat(update.getMaxNanos() >= publish.getMaxNanos(), is(true));
+
+        auctioneer.resetTimings();
+        assertThat(auctioneer.getTimingStatistics(Span.AGGREGATE), is(TimingStatistics.EMPTY));
+    }
 }
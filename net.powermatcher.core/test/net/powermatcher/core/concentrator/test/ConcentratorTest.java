@@ -18,6 +18,7 @@ import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.data.Price;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.monitoring.InstrumentedAgent.Span;
 import net.powermatcher.core.concentrator.Concentrator;
 import net.powermatcher.mock.MockContext;
 import net.powermatcher.mock.MockDeviceAgent;
@@ -195,4 +196,27 @@ public class ConcentratorTest {
         context.doTaskIfTimeIsRight();
         assertNotNull(mockMatcherAgent.getLastReceivedBid());
     }
+
+    @Test
+    public void testSpanTiming() {
+        MockMatcherAgent mockMatcherAgent = new MockMatcherAgent(AUCTIONEER_ID, CLUSTER_ID, marketBasis);
+        MockDeviceAgent mockAgent = new MockDeviceAgent("testAgent", CONCENTRATOR_ID);
+
+        new SimpleSession(concentrator, mockMatcherAgent).connect();
+        new SimpleSession(mockAgent, concentrator).connect();
+        concentrator.setTimingEnabled(true);
+
+        mockAgent.sendBid(new BidUpdate(new Bid(marketBasis, new double[] { 2, 1, 0, -1, -1 }), 1));
+        context.doTaskOnce();
+        int bidNumber = mockMatcherAgent.getLastReceivedBid().getBidNumber();
+        concentrator.handlePriceUpdate(new PriceUpdate(new Price(marketBasis, 5.0), bidNumber));
+
+        for (Span span : Span.values()) {
+            assertThat(concentrator.getTimingStatistics(span).getCount(), is(equalTo(1L)));
+        }
+        // Handling the price includes publishing it
+        assertThat(concentrator.getTimingStatistics(Span.HANDLE_PRICE).getMaxNanos()
+                   >= concentrator.getTimingStatistics(Span.PUBLISH_PRICE).getMaxNanos(),
+                   is(true));
+    }
 }
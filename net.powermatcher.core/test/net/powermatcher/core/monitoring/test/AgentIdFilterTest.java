@@ -0,0 +1,71 @@
+package net.powermatcher.core.monitoring.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.powermatcher.core.monitoring.AgentIdFilter;
+
+/**
+ * JUnit tests for the {@link AgentIdFilter} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class AgentIdFilterTest {
+
+    @Test
+    public void testMatchAll() {
+        assertThat(AgentIdFilter.compile(null).isMatchingAll(), is(true));
+        assertThat(AgentIdFilter.compile(Collections.<String> emptyList()).isMatchingAll(), is(true));
+        // ConfigAdmin sometimes generates a filter with one empty element
+        assertThat(AgentIdFilter.compile(Arrays.asList("")).isMatchingAll(), is(true));
+        assertThat(AgentIdFilter.ALL.matches("anything"), is(true));
+    }
+
+    @Test
+    public void testIds() {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 20000; i += 2) {
+            ids.add("agent" + i);
+        }
+        AgentIdFilter filter = AgentIdFilter.compile(ids);
+        assertThat(filter.isMatchingAll(), is(false));
+        for (int i = 0; i < 20000; i++) {
+            assertThat(filter.matches("agent" + i), is(i % 2 == 0));
+        }
+    }
+
+    @Test
+    public void testPrefixes() {
+        AgentIdFilter filter = AgentIdFilter.compile(Arrays.asList("freezer*", "pv*", "pvpanel*", "heatpump"));
+        assertThat(filter.matches("freezer"), is(true));
+        assertThat(filter.matches("freezer12"), is(true));
+        assertThat(filter.matches("freeze"), is(false));
+        assertThat(filter.matches("pvpanel3"), is(true));
+        assertThat(filter.matches("pw"), is(false));
+        assertThat(filter.matches("heatpump"), is(true));
+        assertThat(filter.matches("heatpump2"), is(false));
+        assertThat(filter.matches("a"), is(false));
+        assertThat(filter.matches("zzz"), is(false));
+    }
+
+    @Test
+    public void testGlobs() {
+        AgentIdFilter filter = AgentIdFilter.compile(Arrays.asList("*-north", "house?.freezer", "a.b*"));
+        assertThat(filter.matches("concentrator-north"), is(true));
+        assertThat(filter.matches("concentrator-south"), is(false));
+        assertThat(filter.matches("house1.freezer"), is(true));
+        assertThat(filter.matches("house12.freezer"), is(false));
+        assertThat(filter.matches("house1xfreezer"), is(false));
+        // Other characters are not special
+        assertThat(filter.matches("a.bc"), is(true));
+        assertThat(filter.matches("axbc"), is(false));
+    }
+}
@@ -0,0 +1,223 @@
+package net.powermatcher.core.monitoring.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.core.monitoring.AsyncAgentObserver;
+import net.powermatcher.core.monitoring.ObserverDispatcher;
+import net.powermatcher.core.monitoring.OverflowPolicy;
+
+/**
+ * JUnit tests for the {@link AsyncAgentObserver} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class AsyncAgentObserverTest {
+
+    private static class NumberedEvent
+        extends AgentEvent {
+        private final int number;
+
+        public NumberedEvent(int number) {
+            super("cluster", "agent", new Date());
+            this.number = number;
+        }
+    }
+
+    /**
+     * Blocks on the first event until it is released, to simulate a slow observer.
+     */
+    private static class SlowObserver
+        implements AgentObserver {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<Integer> received = new ArrayList<Integer>();
+
+        @Override
+        public void handleAgentEvent(AgentEvent event) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (received) {
+                received.add(((NumberedEvent) event).number);
+                received.notifyAll();
+            }
+        }
+
+        public void awaitReceived(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (received) {
+                while (received.size() < count && System.currentTimeMillis() < deadline) {
+                    received.wait(100);
+                }
+            }
+        }
+    }
+
+    private ObserverDispatcher dispatcher;
+    private SlowObserver observer;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ObserverDispatcher("test dispatcher");
+        observer = new SlowObserver();
+    }
+
+    @After
+    public void tearDown() {
+        observer.release.countDown();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * The delivered counter is updated after the observer returns, so it can lag behind what the observer received.
+     */
+    private static void awaitDelivered(AsyncAgentObserver async, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (async.getDeliveredEvents() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testDelivery() throws InterruptedException {
+        AsyncAgentObserver async = dispatcher.wrap(observer, 10, OverflowPolicy.DROP_OLDEST);
+        observer.release.countDown();
+        for (int i = 0; i < 5; i++) {
+            async.handleAgentEvent(new NumberedEvent(i));
+        }
+        observer.awaitReceived(5);
+        assertThat(observer.received.size(), is(equalTo(5)));
+        assertThat(observer.received.get(4), is(equalTo(4)));
+        awaitDelivered(async, 5);
+        assertThat(async.getDeliveredEvents(), is(equalTo(5L)));
+        assertThat(async.getDroppedEvents(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        AsyncAgentObserver async = dispatcher.wrap(observer, 2, OverflowPolicy.DROP_OLDEST);
+        async.handleAgentEvent(new NumberedEvent(0));
+        assertTrue(observer.started.await(5, TimeUnit.SECONDS));
+
+        // The observer is busy with event 0
+        for (int i = 1; i <= 4; i++) {
+            async.handleAgentEvent(new NumberedEvent(i));
+        }
+        assertThat(async.getQueueDepth(), is(equalTo(2)));
+        assertThat(async.getDroppedEvents(), is(equalTo(2L)));
+
+        observer.release.countDown();
+        observer.awaitReceived(3);
+        assertThat(observer.received.toString(), is(equalTo("[0, 3, 4]")));
+    }
+
+    @Test
+    public void testSample() throws InterruptedException {
+        AsyncAgentObserver async = new AsyncAgentObserver(observer, dispatcher, 4, OverflowPolicy.SAMPLE, 3);
+        async.handleAgentEvent(new NumberedEvent(0));
+        assertTrue(observer.started.await(5, TimeUnit.SECONDS));
+
+        // Below half full everything is accepted, above it one out of three
+        for (int i = 1; i <= 6; i++) {
+            async.handleAgentEvent(new NumberedEvent(i));
+        }
+        assertThat(async.getQueueDepth(), is(equalTo(4)));
+        assertThat(async.getDroppedEvents(), is(equalTo(2L)));
+
+        observer.release.countDown();
+        observer.awaitReceived(5);
+        assertThat(observer.received.toString(), is(equalTo("[0, 1, 2, 3, 6]")));
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        final AsyncAgentObserver async = dispatcher.wrap(observer, 1, OverflowPolicy.BLOCK);
+        async.handleAgentEvent(new NumberedEvent(0));
+        assertTrue(observer.started.await(5, TimeUnit.SECONDS));
+        async.handleAgentEvent(new NumberedEvent(1));
+
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                async.handleAgentEvent(new NumberedEvent(2));
+            }
+        };
+        publisher.start();
+        publisher.join(200);
+        assertTrue(publisher.isAlive());
+
+        observer.release.countDown();
+        publisher.join(5000);
+        observer.awaitReceived(3);
+        assertThat(observer.received.toString(), is(equalTo("[0, 1, 2]")));
+        assertThat(async.getDroppedEvents(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testBlockedPublisherOnShutdown() throws InterruptedException {
+        final AsyncAgentObserver async = dispatcher.wrap(observer, 1, OverflowPolicy.BLOCK);
+        async.handleAgentEvent(new NumberedEvent(0));
+        assertTrue(observer.started.await(5, TimeUnit.SECONDS));
+        async.handleAgentEvent(new NumberedEvent(1));
+
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                async.handleAgentEvent(new NumberedEvent(2));
+            }
+        };
+        publisher.start();
+        publisher.join(200);
+        assertTrue(publisher.isAlive());
+
+        // The buffered event and the event of the blocked publisher are dropped
+        dispatcher.shutdown();
+        publisher.join(5000);
+        assertThat(publisher.isAlive(), is(false));
+        assertThat(async.getDroppedEvents(), is(equalTo(2L)));
+        assertThat(async.getQueueDepth(), is(equalTo(0)));
+
+        // The dispatcher starts again when it is used after a shutdown
+        observer.awaitReceived(1);
+        observer.release.countDown();
+        async.handleAgentEvent(new NumberedEvent(3));
+        observer.awaitReceived(2);
+        assertThat(observer.received.toString(), is(equalTo("[0, 3]")));
+    }
+
+    @Test
+    public void testShutdown() throws InterruptedException {
+        AsyncAgentObserver async = dispatcher.wrap(observer, 10, OverflowPolicy.DROP_OLDEST);
+        observer.release.countDown();
+        async.handleAgentEvent(new NumberedEvent(0));
+        observer.awaitReceived(1);
+        assertTrue(dispatcher.isRunning());
+
+        dispatcher.shutdown();
+        assertThat(dispatcher.isRunning(), is(false));
+
+        // The dispatcher starts again when it is used after a shutdown
+        async.handleAgentEvent(new NumberedEvent(1));
+        observer.awaitReceived(2);
+        assertThat(observer.received.toString(), is(equalTo("[0, 1]")));
+    }
+}
@@ -0,0 +1,147 @@
+package net.powermatcher.core.monitoring.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.flexiblepower.context.FlexiblePowerContext;
+import org.junit.After;
+import org.junit.Test;
+
+import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.core.monitoring.BaseObserver;
+
+/**
+ * JUnit tests for the {@link BaseObserver} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class BaseObserverTest {
+
+    private static class TestObservable
+        implements ObservableAgent {
+        private final String agentId;
+        private final List<AgentObserver> observers = new CopyOnWriteArrayList<AgentObserver>();
+
+        TestObservable(String agentId) {
+            this.agentId = agentId;
+        }
+
+        @Override
+        public String getAgentId() {
+            return agentId;
+        }
+
+        @Override
+        public Status getStatus() {
+            return null;
+        }
+
+        @Override
+        public void setContext(FlexiblePowerContext context) {
+        }
+
+        @Override
+        public void addObserver(AgentObserver observer) {
+            observers.add(observer);
+        }
+
+        @Override
+        public void removeObserver(AgentObserver observer) {
+            observers.remove(observer);
+        }
+    }
+
+    private static class TestObserver
+        extends BaseObserver {
+        volatile List<String> filter;
+
+        TestObserver(boolean attachImmediately) {
+            super(attachImmediately);
+        }
+
+        @Override
+        protected List<String> getFilter() {
+            return filter;
+        }
+
+        @Override
+        public void handleAgentEvent(AgentEvent event) {
+        }
+
+        @Override
+        public void detachObservables() {
+            super.detachObservables();
+        }
+
+        void shutdown() {
+            shutdownDispatcher();
+        }
+    }
+
+    private static final Map<String, Object> NO_PROPERTIES = null;
+
+    private TestObserver observer;
+
+    @After
+    public void tearDown() {
+        observer.shutdown();
+    }
+
+    @Test
+    public void testFilter() {
+        observer = new TestObserver(true);
+        observer.filter = Arrays.asList("agent*");
+        TestObservable agent = new TestObservable("agent1");
+        TestObservable other = new TestObservable("other");
+        observer.addObservable(agent, NO_PROPERTIES);
+        observer.addObservable(other, NO_PROPERTIES);
+
+        assertThat(agent.observers.size(), is(equalTo(1)));
+        assertThat(other.observers.size(), is(equalTo(0)));
+
+        observer.filter = Arrays.asList("other");
+        observer.updateObservables();
+        assertThat(agent.observers.size(), is(equalTo(0)));
+        assertThat(other.observers.size(), is(equalTo(1)));
+
+        observer.removeObservable(other, NO_PROPERTIES);
+        assertThat(other.observers.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testAttachOnceUpdated() {
+        observer = new TestObserver(false);
+        TestObservable agent = new TestObservable("agent1");
+        observer.addObservable(agent, NO_PROPERTIES);
+        assertThat(agent.observers.size(), is(equalTo(0)));
+
+        observer.updateObservables();
+        assertThat(agent.observers.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testDetach() {
+        observer = new TestObserver(true);
+        TestObservable agent = new TestObservable("agent1");
+        observer.addObservable(agent, NO_PROPERTIES);
+
+        observer.detachObservables();
+        assertThat(agent.observers.size(), is(equalTo(0)));
+        TestObservable later = new TestObservable("agent2");
+        observer.addObservable(later, NO_PROPERTIES);
+        assertThat(later.observers.size(), is(equalTo(0)));
+
+        observer.updateObservables();
+        assertThat(agent.observers.size(), is(equalTo(1)));
+        assertThat(later.observers.size(), is(equalTo(1)));
+    }
+}
@@ -0,0 +1,122 @@
+package net.powermatcher.core.monitoring.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.monitoring.events.IncomingPriceUpdateEvent;
+import net.powermatcher.api.monitoring.events.OutgoingBidUpdateEvent;
+import net.powermatcher.api.monitoring.events.OutgoingPriceUpdateEvent;
+import net.powermatcher.core.monitoring.EventSampler;
+
+/**
+ * JUnit tests for the {@link EventSampler} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class EventSamplerTest {
+
+    private final MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 5, 0, 10);
+
+    private OutgoingPriceUpdateEvent price(String agentId, long timestamp, double price) {
+        return price(agentId, "session", timestamp, price);
+    }
+
+    private OutgoingPriceUpdateEvent price(String agentId, String sessionId, long timestamp, double price) {
+        return new OutgoingPriceUpdateEvent("cluster",
+                                            agentId,
+                                            sessionId,
+                                            timestamp,
+                                            new PriceUpdate(new Price(marketBasis, price), 1));
+    }
+
+    private OutgoingBidUpdateEvent bid(long timestamp, double... demand) {
+        return new OutgoingBidUpdateEvent("cluster",
+                                          "agent",
+                                          "session",
+                                          timestamp,
+                                          new BidUpdate(new Bid(marketBasis, demand), 1));
+    }
+
+    @Test
+    public void testAll() {
+        EventSampler sampler = EventSampler.ALL;
+        assertThat(sampler.isLoggingAll(), is(true));
+        for (int i = 0; i < 10; i++) {
+            assertThat(sampler.accept(price("agent", 0, 5)), is(true));
+        }
+    }
+
+    @Test
+    public void testSampleRate() {
+        EventSampler sampler = new EventSampler(3, 0, 0, 0);
+        for (int i = 0; i < 9; i++) {
+            assertThat(sampler.accept(price("agent1", i, 5)), is(i % 3 == 0));
+        }
+        // Every agent is sampled on its own
+        assertThat(sampler.accept(price("agent2", 0, 5)), is(true));
+    }
+
+    @Test
+    public void testInterval() {
+        EventSampler sampler = new EventSampler(1, 1000, 0, 0);
+        assertThat(sampler.accept(price("agent1", 0, 5)), is(true));
+        assertThat(sampler.accept(price("agent1", 500, 5)), is(false));
+        assertThat(sampler.accept(price("agent2", 500, 5)), is(true));
+        assertThat(sampler.accept(price("agent1", 999, 5)), is(false));
+        assertThat(sampler.accept(price("agent1", 1000, 5)), is(true));
+        assertThat(sampler.accept(price("agent1", 1500, 5)), is(false));
+    }
+
+    @Test
+    public void testThresholds() {
+        EventSampler sampler = new EventSampler(1, 0, 1, 0.5);
+        assertThat(sampler.accept(price("agent", 0, 5)), is(true));
+        assertThat(sampler.accept(price("agent", 1, 5.5)), is(false));
+        // The change is measured from the last logged price
+        assertThat(sampler.accept(price("agent", 2, 5.6)), is(true));
+        assertThat(sampler.accept(price("agent", 3, 5.2)), is(false));
+
+        assertThat(sampler.accept(bid(0, 4, 3, 2, 1, 0)), is(true));
+        assertThat(sampler.accept(bid(1, 4, 3, 2, 1, 1)), is(false));
+        assertThat(sampler.accept(bid(2, 4, 3, 2, 1, -1.5)), is(true));
+        assertThat(sampler.accept(bid(3, 4, 3, 2, 1, -1)), is(false));
+    }
+
+    @Test
+    public void testStreams() {
+        EventSampler sampler = new EventSampler(2, 0, 0, 0);
+        assertThat(sampler.accept(price("agent", "session1", 0, 5)), is(true));
+        assertThat(sampler.accept(price("agent", "session1", 1, 5)), is(false));
+        // Every session and every type of event is sampled on its own
+        assertThat(sampler.accept(price("agent", "session2", 2, 5)), is(true));
+        assertThat(sampler.accept(new IncomingPriceUpdateEvent("cluster",
+                                                               "agent",
+                                                               "session1",
+                                                               3,
+                                                               new PriceUpdate(new Price(marketBasis, 5), 1))),
+                   is(true));
+        assertThat(sampler.accept(price("agent", null, 4, 5)), is(true));
+        assertThat(sampler.accept(price("agent", null, 5, 5)), is(false));
+        assertThat(sampler.accept(price("agent", "session1", 6, 5)), is(true));
+    }
+
+    @Test
+    public void testStartOver() {
+        EventSampler sampler = new EventSampler(2, 0, 0, 0);
+        assertThat(sampler.accept(price("agent", "session", 0, 5)), is(true));
+        // Too many other streams make the sampler start over, so the next event is the first of its stream again
+        for (int i = 0; i < 65536; i++) {
+            sampler.accept(price("agent", "other" + i, 1, 5));
+        }
+        assertThat(sampler.accept(price("agent", "session", 2, 5)), is(true));
+        assertThat(sampler.accept(price("agent", "session", 3, 5)), is(false));
+    }
+}
@@ -0,0 +1,58 @@
+package net.powermatcher.core.monitoring.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import net.powermatcher.api.monitoring.TimingStatistics;
+import net.powermatcher.core.monitoring.SpanTimings;
+
+/**
+ * JUnit tests for the {@link SpanTimings} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class SpanTimingsTest {
+
+    private static enum Span {
+        FIRST, SECOND
+    }
+
+    @Test
+    public void testDisabled() {
+        SpanTimings<Span> timings = new SpanTimings<Span>(Span.class);
+        assertThat(timings.isEnabled(), is(false));
+        long start = timings.start();
+        assertThat(start, is(equalTo(SpanTimings.NOT_TIMED)));
+        timings.stop(Span.FIRST, start);
+        assertThat(timings.getStatistics(Span.FIRST), is(TimingStatistics.EMPTY));
+    }
+
+    @Test
+    public void testRecord() {
+        SpanTimings<Span> timings = new SpanTimings<Span>(Span.class);
+        timings.setEnabled(true);
+        timings.stop(Span.FIRST, timings.start());
+        for (int i = 1; i <= 100; i++) {
+            timings.record(Span.SECOND, i * 1000);
+        }
+
+        assertThat(timings.getStatistics(Span.FIRST).getCount(), is(equalTo(1L)));
+        TimingStatistics second = timings.getStatistics(Span.SECOND);
+        assertThat(second.getCount(), is(equalTo(100L)));
+        assertThat(second.getMinNanos(), is(equalTo(1000L)));
+        assertThat(second.getMaxNanos(), is(equalTo(100000L)));
+        assertThat(second.getTotalNanos(), is(equalTo(5050000L)));
+        assertThat(second.getP50Nanos() >= 50000 && second.getP50Nanos() < 51000, is(true));
+        assertThat(second.getP99Nanos() >= 99000 && second.getP99Nanos() <= 100000, is(true));
+
+        // Switching timing off keeps the durations, resetting forgets them
+        timings.setEnabled(false);
+        assertThat(timings.getStatistics(Span.SECOND).getCount(), is(equalTo(100L)));
+        timings.reset();
+        assertThat(timings.getStatistics(Span.SECOND), is(TimingStatistics.EMPTY));
+    }
+}
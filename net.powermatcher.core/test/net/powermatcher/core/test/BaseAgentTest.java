@@ -0,0 +1,155 @@
+package net.powermatcher.core.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.SelectiveAgentObserver;
+import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.core.BaseAgent;
+
+/**
+ * JUnit tests for the event publishing of the {@link BaseAgent} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class BaseAgentTest {
+
+    private static class BidEvent
+        extends AgentEvent {
+        public BidEvent() {
+            super("cluster", "agent", new Date());
+        }
+    }
+
+    private static class PriceEvent
+        extends AgentEvent {
+        public PriceEvent() {
+            super("cluster", "agent", new Date());
+        }
+    }
+
+    private static class TestAgent
+        extends BaseAgent {
+        private int created;
+
+        @Override
+        public String getAgentId() {
+            return "agent";
+        }
+
+        @Override
+        public Status getStatus() {
+            return null;
+        }
+
+        public boolean testIsObserved(Class<? extends AgentEvent> eventType) {
+            return isObserved(eventType);
+        }
+
+        public void publishBidEvent() {
+            if (isObserved(BidEvent.class)) {
+                created++;
+                publishEvent(new BidEvent());
+            }
+        }
+
+        public void publishPriceEvent() {
+            if (isObserved(PriceEvent.class)) {
+                created++;
+                publishEvent(new PriceEvent());
+            }
+        }
+    }
+
+    private static class RecordingObserver
+        implements AgentObserver {
+        protected final List<AgentEvent> events = new ArrayList<AgentEvent>();
+
+        @Override
+        public void handleAgentEvent(AgentEvent event) {
+            events.add(event);
+        }
+    }
+
+    private static class BidObserver
+        extends RecordingObserver
+        implements SelectiveAgentObserver {
+        @Override
+        public boolean isObserving(Class<? extends AgentEvent> eventType) {
+            return BidEvent.class.isAssignableFrom(eventType);
+        }
+    }
+
+    private TestAgent agent;
+
+    @Before
+    public void setUp() {
+        agent = new TestAgent();
+    }
+
+    @Test
+    public void testNoObservers() {
+        agent.publishBidEvent();
+        agent.publishPriceEvent();
+        assertThat(agent.created, is(equalTo(0)));
+        assertThat(agent.testIsObserved(BidEvent.class), is(false));
+    }
+
+    @Test
+    public void testObserverReceivesAll() {
+        RecordingObserver observer = new RecordingObserver();
+        agent.addObserver(observer);
+        agent.publishBidEvent();
+        agent.publishPriceEvent();
+        assertThat(agent.created, is(equalTo(2)));
+        assertThat(observer.events.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testSelectiveObserver() {
+        BidObserver observer = new BidObserver();
+        agent.addObserver(observer);
+        assertThat(agent.testIsObserved(BidEvent.class), is(true));
+        assertThat(agent.testIsObserved(PriceEvent.class), is(false));
+
+        agent.publishBidEvent();
+        agent.publishPriceEvent();
+        assertThat(agent.created, is(equalTo(1)));
+        assertThat(observer.events.size(), is(equalTo(1)));
+        assertThat(observer.events.get(0) instanceof BidEvent, is(true));
+    }
+
+    @Test
+    public void testSelectiveObserverIsSkipped() {
+        BidObserver bidObserver = new BidObserver();
+        RecordingObserver observer = new RecordingObserver();
+        agent.addObserver(bidObserver);
+        agent.addObserver(observer);
+
+        agent.publishPriceEvent();
+        assertThat(agent.created, is(equalTo(1)));
+        assertThat(observer.events.size(), is(equalTo(1)));
+        assertThat(bidObserver.events.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testRemoveObserver() {
+        RecordingObserver observer = new RecordingObserver();
+        agent.addObserver(observer);
+        assertThat(agent.testIsObserved(PriceEvent.class), is(true));
+        agent.removeObserver(observer);
+        assertThat(agent.testIsObserved(PriceEvent.class), is(false));
+        agent.publishPriceEvent();
+        assertThat(agent.created, is(equalTo(0)));
+    }
+}
@@ -3,11 +3,14 @@ package net.powermatcher.examples;
 import net.powermatcher.api.monitoring.AgentObserver;
 import net.powermatcher.api.monitoring.ObservableAgent;
 import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.core.monitoring.AsyncAgentObserver;
+import net.powermatcher.core.monitoring.ObserverDispatcher;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import aQute.bnd.annotation.component.Component;
+import aQute.bnd.annotation.component.Deactivate;
 import aQute.bnd.annotation.component.Reference;
 import aQute.bnd.annotation.metatype.Meta;
 
@@ -36,6 +39,22 @@ public class ConsoleObserver
         String observableAgent_filter();
     }
 
+    /**
+     * Registered on the {@link ObservableAgent}s, so the events are logged from the dispatch thread instead of the
+     * thread of the agent.
+     */
+    private final ObserverDispatcher dispatcher = new ObserverDispatcher("ConsoleObserver dispatcher");
+
+    private final AsyncAgentObserver asyncObserver = dispatcher.wrap(this);
+
+    /**
+     * Stops the thread that logs the events.
+     */
+    @Deactivate
+    public void deactivate() {
+        dispatcher.shutdown();
+    }
+
     /**
      * Adds an {@link ObservableAgent} to this {@link ConsoleObserver}. This will register itself with the object.
      * Normally this should be called by the OSGi platform using DS. This method has no effect if this was already
@@ -46,7 +65,7 @@ public class ConsoleObserver
      */
     @Reference(dynamic = true, multiple = true, optional = true)
     public void addObservableAgent(ObservableAgent observable) {
-        observable.addObserver(this);
+        observable.addObserver(asyncObserver);
     }
 
     /**
@@ -58,7 +77,7 @@ public class ConsoleObserver
      *            The {@link ObservableAgent} that it should unregister from.
      */
     public void removeObservableAgent(ObservableAgent observable) {
-        observable.removeObserver(this);
+        observable.removeObserver(asyncObserver);
     }
 
     /**
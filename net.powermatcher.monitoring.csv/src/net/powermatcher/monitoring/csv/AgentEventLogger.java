@@ -1,20 +1,23 @@
 package net.powermatcher.monitoring.csv;
 
 import java.text.DateFormat;
+import java.util.Collection;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.powermatcher.api.monitoring.SelectiveAgentObserver;
 import net.powermatcher.api.monitoring.events.AgentEvent;
 import net.powermatcher.api.monitoring.events.BidUpdateEvent;
 import net.powermatcher.api.monitoring.events.PriceUpdateEvent;
+import net.powermatcher.core.monitoring.BaseObserver;
+import net.powermatcher.core.monitoring.EventSampler;
 
 /**
  * This is the basic class to store incoming {@link AgentEvent}s. Subclasses of this abstract class implements their
@@ -24,7 +27,8 @@ import net.powermatcher.api.monitoring.events.PriceUpdateEvent;
  * @version 2.1
  */
 public abstract class AgentEventLogger
-    extends BaseObserver {
+    extends BaseObserver
+    implements SelectiveAgentObserver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AgentEventLogger.class);
 
@@ -39,9 +43,24 @@ public abstract class AgentEventLogger
     private DateFormat dateFormat;
 
     /**
-     * A set containing all {@link PriceLogRecord} instances that haven't been written to file yet.
+     * The default maximum number of {@link LogRecord}s that are waiting to be written.
      */
-    private final BlockingQueue<LogRecord> logRecords = new LinkedBlockingQueue<LogRecord>();
+    private static final int DEFAULT_MAX_BUFFERED_RECORDS = 65536;
+
+    /**
+     * Holds all {@link LogRecord} instances that haven't been written to file yet.
+     */
+    private volatile LogRecordBuffer logRecords = new LogRecordBuffer(DEFAULT_MAX_BUFFERED_RECORDS);
+
+    /**
+     * The maximum number of {@link LogRecord}s that are waiting to be written.
+     */
+    private int maxBufferedRecords = DEFAULT_MAX_BUFFERED_RECORDS;
+
+    /**
+     * The number of {@link LogRecord}s that were dropped by the buffers that have been replaced.
+     */
+    private volatile long previouslyDroppedRecords;
 
     /**
      * A delayed result-bearing action that can be cancelled. It's used to dump the logs at a set interval.
@@ -64,6 +83,21 @@ public abstract class AgentEventLogger
      */
     private AgentEventType eventType;
 
+    /**
+     * Decides which of the received events are logged.
+     */
+    private volatile EventSampler sampler = EventSampler.ALL;
+
+    /**
+     * The number of events of the tracked {@link AgentEventType} that have been received.
+     */
+    private final AtomicLong receivedEvents = new AtomicLong();
+
+    /**
+     * The number of received events that were not logged because of the sampling.
+     */
+    private final AtomicLong sampledOutEvents = new AtomicLong();
+
     /**
      * This method will be called by the annotated Activate() method of the subclasses.
      *
@@ -99,6 +133,15 @@ public abstract class AgentEventLogger
         }, 0, logUpdateRate, TimeUnit.SECONDS);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isObserving(Class<? extends AgentEvent> type) {
+        AgentEventType currentEventType = eventType;
+        return currentEventType != null && currentEventType.getClassType().isAssignableFrom(type);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -106,19 +149,28 @@ public abstract class AgentEventLogger
     public void handleAgentEvent(AgentEvent event) {
 
         if (eventType.getClassType().isAssignableFrom(event.getClass())) {
+            receivedEvents.incrementAndGet();
+            if (!sampler.accept(event)) {
+                sampledOutEvents.incrementAndGet();
+                return;
+            }
 
             LogRecord logRecord = null;
 
             if (event instanceof BidUpdateEvent) {
-                logRecord = new BidUpdateLogRecord((BidUpdateEvent) event, event.getTimestamp(), getDateFormat());
+                logRecord = new BidUpdateLogRecord((BidUpdateEvent) event,
+                                                   event.getTimestampMillis(),
+                                                   getDateFormat());
             } else if (event instanceof PriceUpdateEvent) {
                 logRecord = new PriceUpdateLogRecord((PriceUpdateEvent) event,
-                                                     event.getTimestamp(),
+                                                     event.getTimestampMillis(),
                                                      getDateFormat());
             }
 
             addLogRecord(logRecord);
-            getLogger().info("AgentEventLogger [{}] received event: {}", getLoggerId(), event);
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("AgentEventLogger [{}] received event: {}", getLoggerId(), event);
+            }
         }
     }
 
@@ -129,6 +181,7 @@ public abstract class AgentEventLogger
         scheduledFuture.cancel(false);
         scheduler.shutdownNow();
         scheduler = null;
+        shutdownDispatcher();
     }
 
     /**
@@ -138,7 +191,12 @@ public abstract class AgentEventLogger
      *            the configuration properties
      */
     public synchronized void baseModified(Map<String, Object> properties) {
+        AgentEventType previousEventType = eventType;
         processConfig(properties);
+        if (previousEventType != eventType) {
+            // The observed agents cache which events we are interested in
+            reattachObservables();
+        }
         createScheduledFuture();
     }
 
@@ -194,44 +252,103 @@ public abstract class AgentEventLogger
     }
 
     /**
-     * @return the current value of priceLogRecords.
+     * Changes the maximum number of {@link LogRecord}s that are waiting to be written. The waiting records are moved to
+     * the new buffer, ahead of the records that are added from now on; the records that do not fit are dropped and
+     * counted.
+     *
+     * @param maxBufferedRecords
+     *            the maximum number of records, rounded up to a power of two
      */
-    protected BlockingQueue<LogRecord> getPriceLogRecords() {
-        return logRecords;
+    protected void setMaxBufferedRecords(int maxBufferedRecords) {
+        if (this.maxBufferedRecords == maxBufferedRecords) {
+            return;
+        }
+        this.maxBufferedRecords = maxBufferedRecords;
+        LogRecordBuffer current = logRecords;
+        LogRecordBuffer replacement = new LogRecordBuffer(maxBufferedRecords);
+        int overflow = current.drainTo(replacement);
+        logRecords = replacement;
+        // Events that were handled while the buffer was replaced can still have been added to the old one
+        overflow += current.drainTo(replacement);
+        previouslyDroppedRecords += current.getDroppedRecords();
+        if (overflow > 0) {
+            LOGGER.warn("Dropped {} waiting log records, they do not fit in the buffer of {} records",
+                        overflow,
+                        replacement.getCapacity());
+        }
     }
 
     /**
-     * @return the current value of LOGGER.
+     * Moves the oldest waiting {@link LogRecord}s to a collection, so they can be written.
+     *
+     * @param collection
+     *            the collection the records are added to
+     * @param maxRecords
+     *            the maximum number of records to move
+     * @return the number of records that has been moved
      */
-    protected static Logger getLogger() {
-        return LOGGER;
+    protected int drainLogRecords(Collection<? super LogRecord> collection, int maxRecords) {
+        return logRecords.drainTo(collection, maxRecords);
     }
 
     /**
-     * @return the current value of logRecords.
+     * Adds the given {@link LogRecord} to logRecords. The record is dropped when too many records are waiting.
+     *
+     * @param logRecord
+     *            the new {@link LogRecord}.
      */
-    protected BlockingQueue<LogRecord> getLogRecords() {
-        return logRecords;
+    protected void addLogRecord(LogRecord logRecord) {
+        logRecords.add(logRecord);
     }
 
     /**
-     * Removed the given {@link LogRecord} from logRecords.
-     *
-     * @param logRecord
-     *            the {@link LogRecord} that will be removed.
+     * @return the number of {@link LogRecord}s that are waiting to be written.
      */
-    protected void removeLogRecord(LogRecord logRecord) {
-        logRecords.remove(logRecord);
+    public int getBufferedLogRecords() {
+        return logRecords.size();
     }
 
     /**
-     * Adds the given {@link LogRecord} from logRecords.
-     *
-     * @param logRecord
-     *            the new {@link LogRecord}.
+     * @return the number of {@link LogRecord}s that were dropped because too many records were waiting.
      */
-    protected void addLogRecord(LogRecord logRecord) {
-        logRecords.add(logRecord);
+    public long getDroppedLogRecords() {
+        return previouslyDroppedRecords + logRecords.getDroppedRecords();
+    }
+
+    /**
+     * @param sampler
+     *            decides which of the received events are logged from now on
+     */
+    protected void setSampler(EventSampler sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * @return the current value of sampler.
+     */
+    public EventSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * @return the number of events of the tracked {@link AgentEventType} that have been received.
+     */
+    public long getReceivedEvents() {
+        return receivedEvents.get();
+    }
+
+    /**
+     * @return the number of received events that were not logged because of the sampling.
+     */
+    public long getSampledOutEvents() {
+        return sampledOutEvents.get();
+    }
+
+    /**
+     * @return the current value of LOGGER.
+     */
+    protected static Logger getLogger() {
+        return LOGGER;
     }
 
     /**
@@ -27,16 +27,30 @@ public class BidUpdateLogRecord
      * @param event
      *            the {@link BidUpdateEvent} that needs to be logged
      * @param logTime
-     *            the time the event was logged
+     *            the time the event was logged, in milliseconds since the epoch
      * @param dateFormat
      *            the {@link DateFormat} that will be used to log the {@link LogRecord}
      */
-    public BidUpdateLogRecord(BidUpdateEvent event, Date logTime, DateFormat dateFormat) {
-        super(event.getClusterId(), event.getAgentId(), logTime, event.getTimestamp(), dateFormat);
+    public BidUpdateLogRecord(BidUpdateEvent event, long logTime, DateFormat dateFormat) {
+        super(event.getClusterId(), event.getAgentId(), logTime, event.getTimestampMillis(), dateFormat);
 
         bidUpdate = event.getBidUpdate();
     }
 
+    /**
+     * A constructor that creates an instance of this class.
+     *
+     * @param event
+     *            the {@link BidUpdateEvent} that needs to be logged
+     * @param logTime
+     *            the time the event was logged
+     * @param dateFormat
+     *            the {@link DateFormat} that will be used to log the {@link LogRecord}
+     */
+    public BidUpdateLogRecord(BidUpdateEvent event, Date logTime, DateFormat dateFormat) {
+        this(event, logTime.getTime(), dateFormat);
+    }
+
     /**
      * @return the current value of bid.
      */
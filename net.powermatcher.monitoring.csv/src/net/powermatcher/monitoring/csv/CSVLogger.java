@@ -1,17 +1,11 @@
 package net.powermatcher.monitoring.csv;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 import aQute.bnd.annotation.component.Activate;
 import aQute.bnd.annotation.component.Component;
@@ -25,6 +19,8 @@ import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.monitoring.ObservableAgent;
 import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.core.monitoring.EventSampler;
+import net.powermatcher.core.monitoring.OverflowPolicy;
 
 /**
  * {@link CSVLogger} is an implementation of {@link AgentEventLogger} where the {@link AgentEvent}s are logged to a
@@ -74,7 +70,8 @@ public class CSVLogger
      */
     public static interface Config {
         @Meta.AD(required = false,
-                 description = "Filter for specific agentId's. When no filters are supplied, it will log everything.")
+                 description = "Filter for specific agentId's, * and ? can be used as wildcards. "
+                               + "When no filters are supplied, it will log everything.")
             List<String> filter();
 
         @Meta.AD(name = "eventType", description = "The AgentEventType this logger has to log.")
@@ -99,6 +96,46 @@ public class CSVLogger
 
         @Meta.AD(deflt = "csvLogger")
                String loggerId();
+
+        @Meta.AD(deflt = "1024", description = "The maximum number of events that are waiting to be logged.")
+            int queueCapacity();
+
+        @Meta.AD(deflt = "DROP_OLDEST",
+                 description = "What to do with new events when the logger can not keep up: "
+                               + "DROP_OLDEST, SAMPLE or BLOCK. BLOCK will slow down the observed agents.")
+                       OverflowPolicy overflowPolicy();
+
+        @Meta.AD(deflt = "65536",
+                 description = "The maximum number of events that are waiting to be written to the log file. "
+                               + "New events are dropped when the log file can not keep up.")
+            int maxBufferedRecords();
+
+        @Meta.AD(deflt = "ON_DUMP",
+                 description = "When the logged lines are written to disk: ON_DUMP after every file dump, "
+                               + "TIME when flushInterval has passed or SIZE only when the write buffer is full.")
+                    FlushPolicy flushPolicy();
+
+        @Meta.AD(deflt = "65536", description = "The size of the write buffer of the log file in characters.")
+            int flushSize();
+
+        @Meta.AD(deflt = "300", description = "Time in seconds between flushes with the TIME flush policy.")
+             long flushInterval();
+
+        @Meta.AD(deflt = "1", description = "Log every Nth event of an agent, 1 logs every event.")
+            int sampleRate();
+
+        @Meta.AD(deflt = "0",
+                 description = "Minimum time in milliseconds between two logged events of an agent, 0 for no minimum.")
+             long sampleInterval();
+
+        @Meta.AD(deflt = "0",
+                 description = "Only log a bid when its demand changed more than this at any price step, "
+                               + "0 logs unchanged bids too.")
+               double demandThreshold();
+
+        @Meta.AD(deflt = "0",
+                 description = "Only log a price when it changed more than this, 0 logs unchanged prices too.")
+               double priceThreshold();
     }
 
     /**
@@ -107,14 +144,29 @@ public class CSVLogger
     private List<String> filter;
 
     /**
-     * The log file {@link BidUpdateLogRecord} will be written to.
+     * The maximum number of {@link LogRecord}s that are formatted and written in one go.
+     */
+    private static final int DUMP_BATCH_SIZE = 1024;
+
+    /**
+     * Holds the batch of {@link LogRecord}s that is being written. Only used from dumpLogs().
+     */
+    private final List<LogRecord> batch = new ArrayList<LogRecord>(DUMP_BATCH_SIZE);
+
+    /**
+     * The number of dropped {@link LogRecord}s that has been reported. Only used from dumpLogs().
      */
-    private File logFile;
+    private long reportedDroppedRecords;
 
     /**
-     * The field separator the logger will use.
+     * Writes the {@link LogRecord}s to the log file, which is kept open between dumps. Guarded by this.
      */
-    private String separator;
+    private CsvFileWriter csvWriter;
+
+    /**
+     * Formats the lines of the log file. Guarded by this.
+     */
+    private CsvLineFormatter lineFormatter;
 
     /**
      * OSGi calls this method to activate a managed service.
@@ -134,6 +186,9 @@ public class CSVLogger
     @Deactivate
     public void deactivate() {
         super.baseDeactivate();
+        synchronized (this) {
+            closeWriter();
+        }
         getLogger().info("CSVLogger [{}], deactivated", getLoggerId());
     }
 
@@ -177,112 +232,132 @@ public class CSVLogger
         setLogUpdateRate(config.logUpdateRate());
         setLoggerId(config.loggerId());
         setDateFormat(new SimpleDateFormat(config.dateFormat()));
-        separator = config.separator();
-
-        logFile = createLogFile(config.logFilenamePattern(), config.logLocation());
-        if (!logFile.exists()) {
-            String[] header = null;
-
-            switch (getEventType()) {
-            case PRICE_EVENT:
-                header = PRICE_HEADER_ROW;
-                break;
-            case BID_EVENT:
-                header = BID_HEADER_ROW;
-                break;
-            default:
-                break;
-            }
-            if (header != null) {
-                writeLineToCSV(header, logFile);
-            }
+        lineFormatter = new CsvLineFormatter(config.separator(), getDateFormat());
+        configureDispatch(config.queueCapacity(), config.overflowPolicy());
+        setMaxBufferedRecords(config.maxBufferedRecords());
+        setSampler(new EventSampler(config.sampleRate(),
+                                    config.sampleInterval(),
+                                    config.demandThreshold(),
+                                    config.priceThreshold()));
+
+        String[] header = null;
+        switch (getEventType()) {
+        case PRICE_EVENT:
+            header = PRICE_HEADER_ROW;
+            break;
+        case BID_EVENT:
+            header = BID_HEADER_ROW;
+            break;
+        default:
+            break;
         }
+
+        closeWriter();
+        csvWriter = new CsvFileWriter(config.logLocation(),
+                                      config.logFilenamePattern(),
+                                      header,
+                                      config.separator(),
+                                      config.flushPolicy(),
+                                      config.flushSize(),
+                                      TimeUnit.SECONDS.toMillis(config.flushInterval()));
         updateObservables();
     }
 
     /**
-     * Creates a new {@link File} to write the csv lines to. It also parses possible {@link DateFormat} strings in the
-     * fileName parameter.
-     *
-     * @param fileName
-     *            the name of the {@link File} that has to be created
-     * @param logLocation
-     *            the location of the {@link File} that has to be created
-     * @return The {@link File} with the fileName name and the logLocation as location
+     * Flushes and closes the current log file, if any.
      */
-    private File createLogFile(String fileName, String logLocation) {
-        String newFileName = fileName;
-
-        // in case somebody forgets the extention
-        if (!fileName.endsWith(".csv")) {
-            newFileName = newFileName.concat(".csv");
-        }
-
-        if (fileName.matches("\\S*::\\w*::*.csv")) {
-
-            String logDateFormat = fileName.substring(fileName.indexOf("::") + 2, fileName.lastIndexOf("::"));
-            String date = new SimpleDateFormat(logDateFormat).format(new Date());
-
-            Pattern pattern = Pattern.compile("::\\w*::");
-            Matcher matcher = pattern.matcher(fileName);
-            newFileName = matcher.replaceAll(date);
+    private void closeWriter() {
+        if (csvWriter != null) {
+            try {
+                csvWriter.close();
+            } catch (IOException e) {
+                getLogger().error("Error while writing to CSV file", e);
+            }
+            csvWriter = null;
         }
-
-        return new File(logLocation + File.separator + newFileName);
     }
 
     /**
-     * Write a comma separated line to a specified file
-     *
-     * @param line
-     *            the comma separated line that has to be written to the outputFile
-     * @param outputFile
-     *            the csv log file where to line has to be written to
+     * {@inheritDoc}
      */
-    private void writeLineToCSV(String[] line, File outputFile) {
-        BufferedWriter w = null;
+    @Override
+    protected synchronized void dumpLogs() {
+        if (csvWriter == null) {
+            return;
+        }
+        boolean failed = false;
         try {
-            w = new BufferedWriter(new FileWriter(outputFile, true));
+            csvWriter.beginDump(System.currentTimeMillis());
+        } catch (IOException e) {
+            getLogger().error("Error while opening CSV file", e);
+            failed = true;
+        }
 
-            for (String s : line) {
-                w.write(s);
-                w.write(separator);
+        // Only the records that are waiting now, so a dump ends even when new records keep coming in
+        int remaining = getBufferedLogRecords();
+        int written = 0;
+        while (remaining > 0) {
+            int drained = drainLogRecords(batch, Math.min(remaining, DUMP_BATCH_SIZE));
+            if (drained == 0) {
+                break;
             }
-            w.newLine();
-        } catch (IOException e) {
-            getLogger().error("Error while writing to CSV file", e);
-        } finally {
-            if (w != null) {
-                try {
-                    w.close();
-                } catch (IOException e) {
-                    getLogger().error("Error while writing to CSV file", e);
-                }
+            remaining -= drained;
+            if (!failed) {
+                failed = !writeBatch();
+                written += failed ? 0 : drained;
+            }
+            batch.clear();
+        }
+
+        if (!failed) {
+            try {
+                csvWriter.endDump(System.currentTimeMillis());
+            } catch (IOException e) {
+                getLogger().error("Error while writing to CSV file", e);
             }
         }
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("CSVLogger [{}] wrote {} events to {}, {} received and {} sampled out so far",
+                              getLoggerId(),
+                              written,
+                              csvWriter.getFile(),
+                              getReceivedEvents(),
+                              getSampledOutEvents());
+        }
+
+        long droppedRecords = getDroppedLogRecords();
+        if (droppedRecords > reportedDroppedRecords) {
+            getLogger().warn("CSVLogger [{}] dropped {} events because the log file could not keep up",
+                             getLoggerId(),
+                             droppedRecords - reportedDroppedRecords);
+            reportedDroppedRecords = droppedRecords;
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Formats and writes the current batch of {@link LogRecord}s.
+     *
+     * @return <code>false</code> when the batch could not be written. The rest of the dump is dropped then, the next
+     *         dump opens the file again.
      */
-    @Override
-    protected void dumpLogs() {
-        for (LogRecord logRecord : getLogRecords().toArray(new LogRecord[getLogRecords().size()])) {
-
-            String[] output = null;
-
+    private boolean writeBatch() {
+        for (LogRecord logRecord : batch) {
             if (logRecord instanceof BidUpdateLogRecord) {
-                output = createLineForBidLogRecord((BidUpdateLogRecord) logRecord);
+                formatBidLogRecord((BidUpdateLogRecord) logRecord);
             } else if (logRecord instanceof PriceUpdateLogRecord) {
-                output = createLineForPriceUpdateLog((PriceUpdateLogRecord) logRecord);
+                formatPriceUpdateLog((PriceUpdateLogRecord) logRecord);
+            } else {
+                continue;
             }
 
-            if (output != null) {
-                writeLineToCSV(output, logFile);
+            try {
+                csvWriter.writeLine(lineFormatter);
+            } catch (IOException e) {
+                getLogger().error("Error while writing to CSV file", e);
+                return false;
             }
-            removeLogRecord(logRecord);
         }
-        getLogger().info("CSVLogger [{}] wrote to {}", getLoggerId(), logFile);
+        return true;
     }
 
     /**
@@ -294,70 +369,55 @@ public class CSVLogger
     }
 
     /**
-     * Creates a <code>String[]</code> out of a {@link BidUpdateLogRecord} to be used in
-     * {@link CSVLogger#writeLineToCSV(String[], File)}
+     * Formats a {@link BidUpdateLogRecord} as the next line of the log file.
      *
      * @param logRecord
      *            the {@link BidUpdateLogRecord} that has to be transformed
-     * @return the <code>String[]</code> representation of logRecord
      */
-    private String[] createLineForBidLogRecord(BidUpdateLogRecord logRecord) {
-
+    private void formatBidLogRecord(BidUpdateLogRecord logRecord) {
         BidUpdate bidUpdate = logRecord.getBidUpdate();
         Bid bid = bidUpdate.getBid();
-
         MarketBasis marketBasis = bid.getMarketBasis();
 
-        StringBuilder demandBuilder = new StringBuilder();
-        StringBuilder pricePointBuiler = new StringBuilder();
-
-        Bid temp = bid;
-
-        for (Double d : temp.getDemand()) {
-            if (demandBuilder.length() > 0) {
-                demandBuilder.append("#");
-            }
-            demandBuilder.append(d);
-        }
-
-        return new String[] { getDateFormat().format(logRecord.getLogTime()),
-                              logRecord.getClusterId(),
-                              logRecord.getAgentId(),
-                              marketBasis.getCommodity(),
-                              marketBasis.getCurrency(),
-                              MarketBasis.PRICE_FORMAT.format(marketBasis.getMinimumPrice()),
-                              MarketBasis.PRICE_FORMAT.format(marketBasis.getMaximumPrice()),
-                              MarketBasis.DEMAND_FORMAT.format(bid.getMinimumDemand()),
-                              MarketBasis.DEMAND_FORMAT.format(bid.getMaximumDemand()),
-                              // TODO where/what is the "effective demand"?
-                              MarketBasis.DEMAND_FORMAT.format(0),
-                              // TODO where/what is the "effective price"?
-                              MarketBasis.PRICE_FORMAT.format(0),
-                              getDateFormat().format(logRecord.getEventTimestamp()),
-                              String.valueOf(bidUpdate.getBidNumber()),
-                              demandBuilder.toString(),
-                              pricePointBuiler.toString() };
+        lineFormatter.reset()
+                     .timeField(logRecord.getLogTimeMillis())
+                     .field(logRecord.getClusterId())
+                     .field(logRecord.getAgentId())
+                     .field(marketBasis.getCommodity())
+                     .field(marketBasis.getCurrency())
+                     .priceField(marketBasis.getMinimumPrice())
+                     .priceField(marketBasis.getMaximumPrice())
+                     .demandField(bid.getMinimumDemand())
+                     .demandField(bid.getMaximumDemand())
+                     // TODO where/what is the "effective demand"?
+                     .demandField(0)
+                     // TODO where/what is the "effective price"?
+                     .priceField(0)
+                     .timeField(logRecord.getEventTimestampMillis())
+                     .field(bidUpdate.getBidNumber())
+                     .arrayField(bid.getDemand(), '#')
+                     // The price points are not logged
+                     .field("");
     }
 
     /**
-     * Creates a <code>String[]</code> out of a {@link PriceUpdateLogRecord} to be used in
-     * {@link CSVLogger#writeLineToCSV(String[], File)}
+     * Formats a {@link PriceUpdateLogRecord} as the next line of the log file.
      *
      * @param logRecord
      *            the {@link PriceUpdateLogRecord} that has to be transformed
-     * @return the <code>String[]</code> representation of logRecord
      */
-    private String[] createLineForPriceUpdateLog(PriceUpdateLogRecord logRecord) {
+    private void formatPriceUpdateLog(PriceUpdateLogRecord logRecord) {
         MarketBasis marketbasis = logRecord.getPriceUpdate().getPrice().getMarketBasis();
 
-        return new String[] { getDateFormat().format(logRecord.getLogTime()),
-                              logRecord.getClusterId(),
-                              logRecord.getAgentId(),
-                              marketbasis.getCommodity(),
-                              marketbasis.getCurrency(),
-                              MarketBasis.PRICE_FORMAT.format(marketbasis.getMinimumPrice()),
-                              MarketBasis.PRICE_FORMAT.format(marketbasis.getMaximumPrice()),
-                              MarketBasis.PRICE_FORMAT.format(logRecord.getPriceUpdate().getPrice().getPriceValue()),
-                              getDateFormat().format(logRecord.getEventTimestamp()) };
+        lineFormatter.reset()
+                     .timeField(logRecord.getLogTimeMillis())
+                     .field(logRecord.getClusterId())
+                     .field(logRecord.getAgentId())
+                     .field(marketbasis.getCommodity())
+                     .field(marketbasis.getCurrency())
+                     .priceField(marketbasis.getMinimumPrice())
+                     .priceField(marketbasis.getMaximumPrice())
+                     .priceField(logRecord.getPriceUpdate().getPrice().getPriceValue())
+                     .timeField(logRecord.getEventTimestampMillis());
     }
 }
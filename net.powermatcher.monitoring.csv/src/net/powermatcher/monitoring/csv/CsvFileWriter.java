@@ -0,0 +1,282 @@
+package net.powermatcher.monitoring.csv;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Appends lines to a csv log file, which is kept open between dumps. The lines are buffered and written to disk
+ * according to the {@link FlushPolicy}.
+ *
+ * The file name may contain a {@link DateFormat} string between the delimiter '::', e.g.
+ * <code>bids_::yyyyMMdd::.csv</code>. The name is evaluated at the start of every dump; when it changes, the current
+ * file is closed and the next one is opened, so a daily pattern gives a new file every day. A file that is new or empty
+ * gets the header first.
+ *
+ * A {@link CsvFileWriter} is not thread safe, the {@link CSVLogger} only uses it while holding its own lock.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class CsvFileWriter
+    implements Closeable {
+
+    private static final Pattern DATE_PATTERN = Pattern.compile("::\\w*::");
+
+    /**
+     * The location of the log files.
+     */
+    private final String logLocation;
+
+    /**
+     * The file name, with its date pattern if it has one.
+     */
+    private final String fileName;
+
+    /**
+     * Formats the date in the file name, or <code>null</code> when the file name has no date pattern.
+     */
+    private final DateFormat fileDateFormat;
+
+    /**
+     * The first line of every file, or <code>null</code> when the files have no header.
+     */
+    private final String[] header;
+
+    private final String separator;
+
+    private final FlushPolicy flushPolicy;
+
+    private final int bufferSize;
+
+    /**
+     * The time between flushes with the {@link FlushPolicy#TIME} policy, in milliseconds.
+     */
+    private final long flushInterval;
+
+    /**
+     * Reused to format the file name.
+     */
+    private final Date fileDate = new Date();
+
+    /**
+     * The file that is open, or <code>null</code>.
+     */
+    private File file;
+
+    private BufferedWriter writer;
+
+    private long lastFlush;
+
+    private long writtenLines;
+
+    /**
+     * @param logLocation
+     *            the location of the log files
+     * @param fileNamePattern
+     *            the name of the log files, optionally with a {@link DateFormat} string between the delimiter '::'
+     * @param header
+     *            the first line of every file, or <code>null</code> when the files have no header
+     * @param separator
+     *            the field separator
+     * @param flushPolicy
+     *            when the buffered lines are written to disk
+     * @param bufferSize
+     *            the size of the write buffer in characters
+     * @param flushInterval
+     *            the time between flushes with the {@link FlushPolicy#TIME} policy, in milliseconds
+     */
+    public CsvFileWriter(String logLocation,
+                         String fileNamePattern,
+                         String[] header,
+                         String separator,
+                         FlushPolicy flushPolicy,
+                         int bufferSize,
+                         long flushInterval) {
+        this.logLocation = logLocation;
+        this.header = header;
+        this.separator = separator;
+        this.flushPolicy = flushPolicy;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.flushInterval = flushInterval;
+
+        // in case somebody forgets the extention
+        fileName = fileNamePattern.endsWith(".csv") ? fileNamePattern : fileNamePattern.concat(".csv");
+        if (fileNamePattern.matches("\\S*::\\w*::*.csv")) {
+            fileDateFormat = new SimpleDateFormat(fileNamePattern.substring(fileNamePattern.indexOf("::") + 2,
+                                                                            fileNamePattern.lastIndexOf("::")));
+        } else {
+            fileDateFormat = null;
+        }
+    }
+
+    /**
+     * Starts a dump. Opens the log file for the given time, closing the previous one when the file rolls over.
+     *
+     * @param now
+     *            the current time in milliseconds since the epoch
+     * @throws IOException
+     *             when the file can not be opened
+     */
+    public void beginDump(long now) throws IOException {
+        File current = getFile(now);
+        if (writer != null && current.equals(file)) {
+            return;
+        }
+        close();
+        open(current, now);
+    }
+
+    /**
+     * Appends a line to the open log file.
+     *
+     * @param line
+     *            the fields of the line
+     * @throws IOException
+     *             when the line can not be written, the file is closed then and reopened by the next dump
+     */
+    public void writeLine(String[] line) throws IOException {
+        if (writer == null) {
+            beginDump(System.currentTimeMillis());
+        }
+        try {
+            write(line);
+        } catch (IOException e) {
+            abandon();
+            throw e;
+        }
+        writtenLines++;
+    }
+
+    /**
+     * Appends a formatted line to the open log file.
+     *
+     * @param line
+     *            the formatter that holds the line
+     * @throws IOException
+     *             when the line can not be written, the file is closed then and reopened by the next dump
+     */
+    public void writeLine(CsvLineFormatter line) throws IOException {
+        if (writer == null) {
+            beginDump(System.currentTimeMillis());
+        }
+        try {
+            line.writeTo(writer);
+        } catch (IOException e) {
+            abandon();
+            throw e;
+        }
+        writtenLines++;
+    }
+
+    /**
+     * Ends a dump, flushing the buffered lines when the {@link FlushPolicy} says so.
+     *
+     * @param now
+     *            the current time in milliseconds since the epoch
+     * @throws IOException
+     *             when the lines can not be flushed, the file is closed then and reopened by the next dump
+     */
+    public void endDump(long now) throws IOException {
+        if (writer == null) {
+            return;
+        }
+        if (flushPolicy == FlushPolicy.ON_DUMP || flushPolicy == FlushPolicy.TIME && now - lastFlush >= flushInterval) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+            lastFlush = now;
+        }
+    }
+
+    /**
+     * Flushes and closes the open log file, if any.
+     *
+     * @throws IOException
+     *             when the buffered lines can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * @return the log file that is open, or <code>null</code> when no file is open.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of lines that has been written, not counting the headers.
+     */
+    public long getWrittenLines() {
+        return writtenLines;
+    }
+
+    /**
+     * @param now
+     *            the time in milliseconds since the epoch
+     * @return the log file for the given time.
+     */
+    File getFile(long now) {
+        String name = fileName;
+        if (fileDateFormat != null) {
+            fileDate.setTime(now);
+            Matcher matcher = DATE_PATTERN.matcher(fileName);
+            name = matcher.replaceAll(Matcher.quoteReplacement(fileDateFormat.format(fileDate)));
+        }
+        return new File(logLocation + File.separator + name);
+    }
+
+    private void open(File newFile, long now) throws IOException {
+        boolean empty = newFile.length() == 0;
+        writer = new BufferedWriter(new FileWriter(newFile, true), bufferSize);
+        file = newFile;
+        lastFlush = now;
+        if (empty && header != null) {
+            try {
+                write(header);
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+        }
+    }
+
+    private void write(String[] line) throws IOException {
+        for (String s : line) {
+            writer.write(s);
+            writer.write(separator);
+        }
+        writer.newLine();
+    }
+
+    /**
+     * Closes the log file after an error, ignoring any further error.
+     */
+    private void abandon() {
+        try {
+            close();
+        } catch (IOException e) {
+            // The error that made us give up the file has already been reported
+        }
+    }
+}
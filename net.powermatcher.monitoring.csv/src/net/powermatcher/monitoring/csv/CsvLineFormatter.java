@@ -0,0 +1,356 @@
+package net.powermatcher.monitoring.csv;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import net.powermatcher.api.data.MarketBasis;
+
+/**
+ * Formats a csv line into a reusable character buffer, which is written to the log file without creating a
+ * <code>String</code> for the line or its fields.
+ *
+ * <ul>
+ * <li>Prices and demands are formatted like {@link MarketBasis#PRICE_FORMAT} and {@link MarketBasis#DEMAND_FORMAT},
+ * but with integer arithmetic. Only values that are too large or too close to a rounding tie are handed to a
+ * {@link DecimalFormat}, which is a private copy because a {@link DecimalFormat} is not thread safe.</li>
+ * <li>Timestamps are formatted with a private copy of the {@link DateFormat}. The last formatted timestamp is reused
+ * for all times in the same second, or the same millisecond when the format shows milliseconds.</li>
+ * </ul>
+ *
+ * A {@link CsvLineFormatter} is not thread safe, every thread that formats lines needs its own.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class CsvLineFormatter {
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * Exactly representable powers of ten.
+     */
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                                                    1e12, 1e13, 1e14, 1e15 };
+
+    /**
+     * Scaled values from this size on are formatted by the {@link DecimalFormat}.
+     */
+    private static final double MAX_SCALED = 1e12;
+
+    /**
+     * Scaled values closer than this to a rounding tie are formatted by the {@link DecimalFormat}, which knows the
+     * exact value of the double.
+     */
+    private static final double TIE_MARGIN = 1e-3;
+
+    private final String separator;
+
+    private final DateFormat dateFormat;
+
+    private final DecimalFormat priceFormat = (DecimalFormat) MarketBasis.PRICE_FORMAT.clone();
+
+    private final DecimalFormat demandFormat = (DecimalFormat) MarketBasis.DEMAND_FORMAT.clone();
+
+    /**
+     * The time span in milliseconds in which all times are formatted the same.
+     */
+    private final long timeResolution;
+
+    private final Date date = new Date();
+
+    private long cachedTimeSlot = Long.MIN_VALUE;
+
+    private String cachedTime;
+
+    private char[] line = new char[256];
+
+    private int length;
+
+    /**
+     * @param separator
+     *            the field separator, which follows every field
+     * @param dateFormat
+     *            the format of the timestamps, which is copied
+     */
+    public CsvLineFormatter(String separator, DateFormat dateFormat) {
+        this.separator = separator;
+        this.dateFormat = (DateFormat) dateFormat.clone();
+        if (dateFormat instanceof SimpleDateFormat && ((SimpleDateFormat) dateFormat).toPattern().indexOf('S') < 0) {
+            timeResolution = 1000;
+        } else {
+            timeResolution = 1;
+        }
+    }
+
+    /**
+     * Starts a new line.
+     *
+     * @return this formatter
+     */
+    public CsvLineFormatter reset() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Adds a text field.
+     *
+     * @param value
+     *            the text
+     * @return this formatter
+     */
+    public CsvLineFormatter field(String value) {
+        append(String.valueOf(value));
+        return endField();
+    }
+
+    /**
+     * Adds an integer field.
+     *
+     * @param value
+     *            the number
+     * @return this formatter
+     */
+    public CsvLineFormatter field(long value) {
+        appendLong(value);
+        return endField();
+    }
+
+    /**
+     * Adds a timestamp field, formatted with the {@link DateFormat}.
+     *
+     * @param millis
+     *            the time in milliseconds since the epoch
+     * @return this formatter
+     */
+    public CsvLineFormatter timeField(long millis) {
+        long slot = millis >= 0 ? millis / timeResolution : (millis - timeResolution + 1) / timeResolution;
+        if (slot != cachedTimeSlot || cachedTime == null) {
+            date.setTime(millis);
+            cachedTime = dateFormat.format(date);
+            cachedTimeSlot = slot;
+        }
+        append(cachedTime);
+        return endField();
+    }
+
+    /**
+     * Adds a price field, formatted like {@link MarketBasis#PRICE_FORMAT}.
+     *
+     * @param price
+     *            the price
+     * @return this formatter
+     */
+    public CsvLineFormatter priceField(double price) {
+        double scaled = Math.abs(price) * 100;
+        long rounded = Math.round(scaled);
+        if (!(scaled < MAX_SCALED) || isNearTie(scaled) || price < 0 && rounded == 0 || isNegativeZero(price)) {
+            append(priceFormat.format(price));
+        } else {
+            if (price < 0) {
+                append('-');
+            }
+            appendLong(rounded / 100);
+            int fraction = (int) (rounded % 100);
+            if (fraction != 0) {
+                append('.');
+                append((char) ('0' + fraction / 10));
+                if (fraction % 10 != 0) {
+                    append((char) ('0' + fraction % 10));
+                }
+            }
+        }
+        return endField();
+    }
+
+    /**
+     * Adds a demand field, formatted like {@link MarketBasis#DEMAND_FORMAT}.
+     *
+     * @param demand
+     *            the demand
+     * @return this formatter
+     */
+    public CsvLineFormatter demandField(double demand) {
+        if (!appendScientific(demand)) {
+            append(demandFormat.format(demand));
+        }
+        return endField();
+    }
+
+    /**
+     * Adds a field with all values of an array, formatted like {@link Double#toString(double)}.
+     *
+     * @param values
+     *            the values
+     * @param delimiter
+     *            the delimiter between the values
+     * @return this formatter
+     */
+    public CsvLineFormatter arrayField(double[] values, char delimiter) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                append(delimiter);
+            }
+            appendDouble(values[i]);
+        }
+        return endField();
+    }
+
+    /**
+     * Writes the line, followed by a line separator.
+     *
+     * @param writer
+     *            the writer the line is written to
+     * @throws IOException
+     *             when the writer fails
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(line, 0, length);
+        writer.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * @return the line as it is now, without the line separator.
+     */
+    @Override
+    public String toString() {
+        return new String(line, 0, length);
+    }
+
+    private CsvLineFormatter endField() {
+        append(separator);
+        return this;
+    }
+
+    /**
+     * Appends a value with a mantissa of up to three decimals and an exponent, e.g. <code>1.5E3</code>.
+     *
+     * @return <code>false</code> when the value should be formatted by the {@link DecimalFormat}
+     */
+    private boolean appendScientific(double value) {
+        if (value == 0) {
+            if (isNegativeZero(value)) {
+                return false;
+            }
+            append("0E0");
+            return true;
+        }
+        double absolute = Math.abs(value);
+        if (!(absolute >= 1e-15 && absolute < 1e15)) {
+            return false;
+        }
+        int exponent = (int) Math.floor(Math.log10(absolute));
+        double scaled = scale(absolute, 3 - exponent);
+        if (scaled < 1000) {
+            // log10 was rounded up
+            exponent--;
+            scaled = scale(absolute, 3 - exponent);
+        } else if (scaled >= 10000) {
+            // log10 was rounded down
+            exponent++;
+            scaled = scale(absolute, 3 - exponent);
+        }
+        if (isNearTie(scaled)) {
+            return false;
+        }
+        long mantissa = Math.round(scaled);
+        if (mantissa >= 10000) {
+            mantissa /= 10;
+            exponent++;
+        }
+        if (mantissa < 1000 || mantissa >= 10000) {
+            return false;
+        }
+        if (value < 0) {
+            append('-');
+        }
+        append((char) ('0' + mantissa / 1000));
+        int fraction = (int) (mantissa % 1000);
+        if (fraction != 0) {
+            append('.');
+            int digits = 3;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            for (int divisor = digits == 3 ? 100 : digits == 2 ? 10 : 1; divisor > 0; divisor /= 10) {
+                append((char) ('0' + fraction / divisor % 10));
+            }
+        }
+        append('E');
+        appendLong(exponent);
+        return true;
+    }
+
+    /**
+     * Appends a value like {@link Double#toString(double)}, without creating a <code>String</code> for whole numbers.
+     */
+    private void appendDouble(double value) {
+        if (value == (long) value && Math.abs(value) < 1e7 && !isNegativeZero(value)) {
+            appendLong((long) value);
+            append(".0");
+        } else {
+            append(Double.toString(value));
+        }
+    }
+
+    private static double scale(double value, int powerOfTen) {
+        if (powerOfTen >= 0) {
+            return powerOfTen < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[powerOfTen] : Double.NaN;
+        } else {
+            return -powerOfTen < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-powerOfTen] : Double.NaN;
+        }
+    }
+
+    private static boolean isNearTie(double scaled) {
+        return Math.abs(scaled - Math.floor(scaled) - 0.5) < TIE_MARGIN;
+    }
+
+    private static boolean isNegativeZero(double value) {
+        return value == 0 && Double.doubleToRawLongBits(value) != 0;
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            append(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            line[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void append(char c) {
+        ensureCapacity(1);
+        line[length++] = c;
+    }
+
+    private void append(String s) {
+        int size = s.length();
+        ensureCapacity(size);
+        s.getChars(0, size, line, length);
+        length += size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > line.length) {
+            line = Arrays.copyOf(line, Math.max(2 * line.length, length + extra));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.powermatcher.monitoring.csv;
+
+/**
+ * This <code>enum</code> determines when a {@link CsvFileWriter} writes its buffered lines to disk. The buffer is
+ * always written when it is full, when the file rolls over and when the writer is closed.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public enum FlushPolicy {
+
+    /**
+     * Flush at the end of every dump, so a dump is on disk as soon as it has been written.
+     */
+    ON_DUMP,
+
+    /**
+     * Flush at the end of a dump when the flush interval has passed since the last flush.
+     */
+    TIME,
+
+    /**
+     * Only flush when the buffer is full.
+     */
+    SIZE
+}
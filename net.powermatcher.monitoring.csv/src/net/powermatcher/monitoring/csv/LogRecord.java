@@ -3,8 +3,6 @@ package net.powermatcher.monitoring.csv;
 import java.text.DateFormat;
 import java.util.Date;
 
-import javax.xml.crypto.Data;
-
 import net.powermatcher.api.monitoring.events.AgentEvent;
 
 /**
@@ -25,14 +23,14 @@ public abstract class LogRecord {
     private String agentId;
 
     /**
-     * The time the event was logged in a {@link Data} instance
+     * The time the event was logged, in milliseconds since the epoch
      */
-    private Date logTime;
+    private long logTime;
 
     /**
-     * The time the event was created in a {@link Data} instance
+     * The time the event was created, in milliseconds since the epoch
      */
-    private Date eventTimestamp;
+    private long eventTimestamp;
 
     /**
      * The {@link DateFormat} instance used to format the logTime and eventTimeStamp
@@ -46,10 +44,14 @@ public abstract class LogRecord {
      *            The cluster id of the agent that published the {@link AgentEvent}.
      * @param agentId
      *            The Agent Id that published the {@link AgentEvent}.
-     * @param qualifier
-     *            The qualifier of the agent that published the {@link AgentEvent}.
+     * @param logTime
+     *            The time the event was logged, in milliseconds since the epoch
+     * @param eventTimestamp
+     *            The time the event was created, in milliseconds since the epoch
+     * @param dateFormat
+     *            The {@link DateFormat} used to format the logTime and eventTimeStamp
      */
-    protected LogRecord(String clusterId, String agentId, Date logTime, Date eventTimestamp, DateFormat dateFormat) {
+    protected LogRecord(String clusterId, String agentId, long logTime, long eventTimestamp, DateFormat dateFormat) {
         this.clusterId = clusterId;
         this.agentId = agentId;
         this.logTime = logTime;
@@ -74,15 +76,33 @@ public abstract class LogRecord {
     /**
      * @return the current value of logTime.
      */
-    public Date getLogTime() {
+    public long getLogTimeMillis() {
         return logTime;
     }
 
     /**
-     * @return a copy of eventTimestamp.
+     * @return the current value of eventTimestamp.
+     */
+    public long getEventTimestampMillis() {
+        return eventTimestamp;
+    }
+
+    /**
+     * Kept for compatibility, use {@link #getLogTimeMillis()} instead.
+     *
+     * @return logTime as a new {@link Date}.
+     */
+    public Date getLogTime() {
+        return new Date(logTime);
+    }
+
+    /**
+     * Kept for compatibility, use {@link #getEventTimestampMillis()} instead.
+     *
+     * @return eventTimestamp as a new {@link Date}.
      */
     public Date getEventTimestamp() {
-        return new Date(eventTimestamp.getTime());
+        return new Date(eventTimestamp);
     }
 
     /**
@@ -0,0 +1,159 @@
+package net.powermatcher.monitoring.csv;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded ring buffer of {@link LogRecord}s that are waiting to be written. Any number of threads can add records
+ * without taking a lock; a single thread at a time drains them in batches, in the order they were added.
+ *
+ * Every slot has a sequence number that tells whether it is free for the producer that claimed it or filled for the
+ * consumer. When the buffer is full new records are dropped and counted, so a logger that can not keep up does not
+ * exhaust the heap.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class LogRecordBuffer {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<LogRecord> records;
+
+    private final AtomicLongArray sequences;
+
+    /**
+     * The position of the next record to add.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The position of the next record to drain, only changed while holding the lock on this buffer.
+     */
+    private volatile long head;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            the maximum number of records in the buffer, rounded up to a power of two
+     */
+    public LogRecordBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity should be at least 1, not " + capacity);
+        }
+        int size = Integer.highestOneBit(Math.min(capacity, 1 << 30));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        records = new AtomicReferenceArray<LogRecord>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds a record to the buffer.
+     *
+     * @param logRecord
+     *            the record
+     * @return <code>false</code> when the buffer is full and the record has been dropped
+     */
+    public boolean add(LogRecord logRecord) {
+        if (logRecord == null) {
+            throw new NullPointerException("logRecord");
+        }
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    records.lazySet(index, logRecord);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (available < 0) {
+                droppedRecords.incrementAndGet();
+                return false;
+            }
+            // Another producer claimed this slot, try the next one
+        }
+    }
+
+    /**
+     * Moves the oldest records from the buffer to a collection.
+     *
+     * @param collection
+     *            the collection the records are added to
+     * @param maxRecords
+     *            the maximum number of records to move
+     * @return the number of records that has been moved
+     */
+    public synchronized int drainTo(Collection<? super LogRecord> collection, int maxRecords) {
+        long position = head;
+        int drained = 0;
+        while (drained < maxRecords) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                // Empty, or the producer of this slot has not finished yet
+                break;
+            }
+            collection.add(records.get(index));
+            records.lazySet(index, null);
+            sequences.set(index, position + mask + 1);
+            position++;
+            drained++;
+        }
+        head = position;
+        return drained;
+    }
+
+    /**
+     * Moves all records from this buffer to another one, e.g. when the buffer is resized. The records keep their order
+     * behind the records that already are in the other buffer.
+     *
+     * @param target
+     *            the buffer the records are added to, the records that do not fit are dropped and counted there
+     * @return the number of records that did not fit in the other buffer
+     */
+    public synchronized int drainTo(LogRecordBuffer target) {
+        List<LogRecord> waiting = new ArrayList<LogRecord>(size());
+        drainTo(waiting, Integer.MAX_VALUE);
+        int overflow = 0;
+        for (LogRecord logRecord : waiting) {
+            if (!target.add(logRecord)) {
+                overflow++;
+            }
+        }
+        return overflow;
+    }
+
+    /**
+     * @return the number of records in the buffer.
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    /**
+     * @return the maximum number of records in the buffer.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of records that were dropped because the buffer was full.
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+}
@@ -20,6 +20,21 @@ public class PriceUpdateLogRecord
      */
     private final PriceUpdate priceUpdate;
 
+    /**
+     * A constructor that creates an instance of this class.
+     *
+     * @param event
+     *            the {@link PriceUpdateEvent} that needs to be logged
+     * @param logTime
+     *            the time the event was logged, in milliseconds since the epoch
+     * @param dateFormat
+     *            the {@link DateFormat} that will be used to log the {@link LogRecord}
+     */
+    public PriceUpdateLogRecord(PriceUpdateEvent event, long logTime, DateFormat dateFormat) {
+        super(event.getClusterId(), event.getAgentId(), logTime, event.getTimestampMillis(), dateFormat);
+        priceUpdate = event.getPriceUpdate();
+    }
+
     /**
      * A constructor that creates an instance of this class.
      *
@@ -31,8 +46,7 @@ public class PriceUpdateLogRecord
      *            the {@link DateFormat} that will be used to log the {@link LogRecord}
      */
     public PriceUpdateLogRecord(PriceUpdateEvent event, Date logTime, DateFormat dateFormat) {
-        super(event.getClusterId(), event.getAgentId(), logTime, event.getTimestamp(), dateFormat);
-        priceUpdate = event.getPriceUpdate();
+        this(event, logTime.getTime(), dateFormat);
     }
 
     /**
@@ -0,0 +1,165 @@
+package net.powermatcher.monitoring.csv.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.monitoring.csv.CsvFileWriter;
+import net.powermatcher.monitoring.csv.FlushPolicy;
+
+/**
+ * JUnit tests for the {@link CsvFileWriter} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class CsvFileWriterTest {
+
+    private static final String[] HEADER = new String[] { "logTime", "agentId" };
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private File logLocation;
+
+    private CsvFileWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        logLocation = Files.createTempDirectory("csvlog").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        for (File file : logLocation.listFiles()) {
+            file.delete();
+        }
+        logLocation.delete();
+    }
+
+    @Test
+    public void testFlushOnDump() throws IOException {
+        writer = new CsvFileWriter(logLocation.getPath(), "log", HEADER, ";", FlushPolicy.ON_DUMP, 1024, 0);
+        long now = System.currentTimeMillis();
+
+        writer.beginDump(now);
+        writer.writeLine(new String[] { "1", "agent1" });
+        File file = writer.getFile();
+        assertThat(file.getName(), is(equalTo("log.csv")));
+        assertThat(readLines(file).isEmpty(), is(true));
+        writer.endDump(now);
+        assertThat(readLines(file), is(equalTo(Arrays.asList("logTime;agentId;", "1;agent1;"))));
+
+        writer.beginDump(now);
+        writer.writeLine(new String[] { "2", "agent2" });
+        writer.endDump(now);
+        assertThat(readLines(file), is(equalTo(Arrays.asList("logTime;agentId;", "1;agent1;", "2;agent2;"))));
+        assertThat(writer.getWrittenLines(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testFlushOnTime() throws IOException {
+        writer = new CsvFileWriter(logLocation.getPath(), "log.csv", HEADER, ";", FlushPolicy.TIME, 1024, 1000);
+        long now = System.currentTimeMillis();
+
+        writer.beginDump(now);
+        writer.writeLine(new String[] { "1", "agent1" });
+        writer.endDump(now + 500);
+        File file = writer.getFile();
+        assertThat(readLines(file).isEmpty(), is(true));
+
+        writer.beginDump(now + 1000);
+        writer.endDump(now + 1000);
+        assertThat(readLines(file), is(equalTo(Arrays.asList("logTime;agentId;", "1;agent1;"))));
+    }
+
+    @Test
+    public void testFlushOnSize() throws IOException {
+        writer = new CsvFileWriter(logLocation.getPath(), "log.csv", null, ";", FlushPolicy.SIZE, 1024, 0);
+        long now = System.currentTimeMillis();
+
+        writer.beginDump(now);
+        writer.writeLine(new String[] { "1", "agent1" });
+        writer.endDump(now);
+        File file = writer.getFile();
+        assertThat(readLines(file).isEmpty(), is(true));
+
+        // Fill the buffers well beyond their size
+        for (int i = 2; i <= 5000; i++) {
+            writer.writeLine(new String[] { String.valueOf(i), "agent1" });
+        }
+        assertThat(readLines(file).get(0), is(equalTo("1;agent1;")));
+
+        writer.close();
+        List<String> lines = readLines(file);
+        assertThat(lines.size(), is(equalTo(5000)));
+        assertThat(lines.get(4999), is(equalTo("5000;agent1;")));
+    }
+
+    @Test
+    public void testDailyRollover() throws IOException {
+        writer = new CsvFileWriter(logLocation.getPath(),
+                                   "log_::yyyyMMdd::.csv",
+                                   HEADER,
+                                   ";",
+                                   FlushPolicy.ON_DUMP,
+                                   1024,
+                                   0);
+        long today = System.currentTimeMillis();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+
+        writer.beginDump(today);
+        writer.writeLine(new String[] { "1", "agent1" });
+        writer.endDump(today);
+        File first = writer.getFile();
+        assertThat(first.getName(), is(equalTo("log_" + dateFormat.format(today) + ".csv")));
+
+        writer.beginDump(today + DAY);
+        writer.writeLine(new String[] { "2", "agent1" });
+        writer.endDump(today + DAY);
+        File second = writer.getFile();
+        assertThat(second.getName(), is(equalTo("log_" + dateFormat.format(today + DAY) + ".csv")));
+
+        assertThat(readLines(first), is(equalTo(Arrays.asList("logTime;agentId;", "1;agent1;"))));
+        assertThat(readLines(second), is(equalTo(Arrays.asList("logTime;agentId;", "2;agent1;"))));
+    }
+
+    @Test
+    public void testAppendToExistingFile() throws IOException {
+        writer = new CsvFileWriter(logLocation.getPath(), "log.csv", HEADER, ";", FlushPolicy.ON_DUMP, 1024, 0);
+        long now = System.currentTimeMillis();
+        writer.beginDump(now);
+        writer.writeLine(new String[] { "1", "agent1" });
+        writer.close();
+
+        writer = new CsvFileWriter(logLocation.getPath(), "log.csv", HEADER, ";", FlushPolicy.ON_DUMP, 1024, 0);
+        writer.beginDump(now);
+        writer.writeLine(new String[] { "2", "agent1" });
+        writer.endDump(now);
+
+        assertThat(readLines(writer.getFile()),
+                   is(equalTo(Arrays.asList("logTime;agentId;", "1;agent1;", "2;agent1;"))));
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        return Files.readAllLines(file.toPath(), Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,106 @@
+package net.powermatcher.monitoring.csv.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.monitoring.csv.CsvLineFormatter;
+
+/**
+ * JUnit tests for the {@link CsvLineFormatter} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class CsvLineFormatterTest {
+
+    private static final double[] SPECIAL_VALUES = { 0, -0.0, 1, -1, 0.005, 0.015, 0.125, 0.135, 1.005, 2.675, 9.995,
+                                                     9.9995, 99.995, 999.95, 1000, 1500, 0.0015, 1e-3, 1e-7, 1e9,
+                                                     1e10, 1e12, 1e15, 1e20, -1e-20, Double.MIN_VALUE,
+                                                     Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY,
+                                                     Double.NEGATIVE_INFINITY, -0.001, -0.004, -0.005, 123456.789 };
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private final CsvLineFormatter formatter = new CsvLineFormatter(";", dateFormat);
+
+    private String price(double value) {
+        return formatter.reset().priceField(value).toString();
+    }
+
+    private String demand(double value) {
+        return formatter.reset().demandField(value).toString();
+    }
+
+    @Test
+    public void testSpecialValues() {
+        for (double value : SPECIAL_VALUES) {
+            assertThat(price(value), is(equalTo(MarketBasis.PRICE_FORMAT.format(value) + ";")));
+            assertThat(demand(value), is(equalTo(MarketBasis.DEMAND_FORMAT.format(value) + ";")));
+        }
+    }
+
+    @Test
+    public void testRandomValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value;
+            switch (i % 4) {
+            case 0:
+                value = (random.nextDouble() - 0.5) * 2000;
+                break;
+            case 1:
+                value = random.nextInt(200000) / 100.0 - 1000;
+                break;
+            case 2:
+                value = random.nextInt(2000000) / 1000.0;
+                break;
+            default:
+                value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+                break;
+            }
+            assertThat(price(value), is(equalTo(MarketBasis.PRICE_FORMAT.format(value) + ";")));
+            assertThat(demand(value), is(equalTo(MarketBasis.DEMAND_FORMAT.format(value) + ";")));
+        }
+    }
+
+    @Test
+    public void testLine() throws IOException {
+        long time = System.currentTimeMillis();
+        formatter.reset()
+                 .timeField(time)
+                 .field("cluster")
+                 .field(42)
+                 .arrayField(new double[] { 4.0, 2.5, -0.0, 1e8, 1.0E-4 }, '#')
+                 .timeField(time);
+        String formattedTime = dateFormat.format(new Date(time));
+        String expected = formattedTime + ";cluster;42;4.0#2.5#-0.0#1.0E8#1.0E-4;" + formattedTime + ";";
+        assertThat(formatter.toString(), is(equalTo(expected)));
+
+        StringWriter writer = new StringWriter();
+        formatter.writeTo(writer);
+        assertThat(writer.toString(), is(equalTo(expected + System.getProperty("line.separator"))));
+    }
+
+    @Test
+    public void testTimeCache() {
+        SimpleDateFormat millisFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+        CsvLineFormatter millisFormatter = new CsvLineFormatter(",", millisFormat);
+        long second = 1000000000000L;
+        for (long time = second; time < second + 2000; time += 7) {
+            assertThat(formatter.reset().timeField(time).toString(),
+                       is(equalTo(dateFormat.format(new Date(time)) + ";")));
+            assertThat(millisFormatter.reset().timeField(time).toString(),
+                       is(equalTo(millisFormat.format(new Date(time)) + ",")));
+        }
+    }
+}
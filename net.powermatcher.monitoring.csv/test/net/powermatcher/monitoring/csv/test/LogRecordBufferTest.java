@@ -0,0 +1,132 @@
+package net.powermatcher.monitoring.csv.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.monitoring.events.OutgoingPriceUpdateEvent;
+import net.powermatcher.monitoring.csv.LogRecord;
+import net.powermatcher.monitoring.csv.LogRecordBuffer;
+import net.powermatcher.monitoring.csv.PriceUpdateLogRecord;
+
+/**
+ * JUnit tests for the {@link LogRecordBuffer} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class LogRecordBufferTest {
+
+    private final MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 5, 0, 10);
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private LogRecord createLogRecord(int bidNumber) {
+        PriceUpdate priceUpdate = new PriceUpdate(new Price(marketBasis, 5), bidNumber);
+        OutgoingPriceUpdateEvent event = new OutgoingPriceUpdateEvent("cluster",
+                                                                      "agent",
+                                                                      "session",
+                                                                      new Date(),
+                                                                      priceUpdate);
+        return new PriceUpdateLogRecord(event, new Date(), dateFormat);
+    }
+
+    private int bidNumber(LogRecord logRecord) {
+        return ((PriceUpdateLogRecord) logRecord).getPriceUpdate().getBidNumber();
+    }
+
+    @Test
+    public void testDrainInOrder() {
+        LogRecordBuffer buffer = new LogRecordBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            assertThat(buffer.add(createLogRecord(i)), is(true));
+        }
+        assertThat(buffer.size(), is(equalTo(5)));
+
+        List<LogRecord> drained = new ArrayList<LogRecord>();
+        assertThat(buffer.drainTo(drained, 3), is(equalTo(3)));
+        assertThat(buffer.drainTo(drained, 10), is(equalTo(2)));
+        assertThat(buffer.drainTo(drained, 10), is(equalTo(0)));
+        for (int i = 0; i < 5; i++) {
+            assertThat(bidNumber(drained.get(i)), is(equalTo(i)));
+        }
+        assertThat(buffer.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        LogRecordBuffer buffer = new LogRecordBuffer(3);
+        assertThat(buffer.getCapacity(), is(equalTo(4)));
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.add(createLogRecord(i)), is(true));
+        }
+        assertThat(buffer.add(createLogRecord(4)), is(false));
+        assertThat(buffer.getDroppedRecords(), is(equalTo(1L)));
+
+        List<LogRecord> drained = new ArrayList<LogRecord>();
+        buffer.drainTo(drained, 1);
+        assertThat(buffer.add(createLogRecord(5)), is(true));
+        buffer.drainTo(drained, 10);
+        assertThat(drained.size(), is(equalTo(5)));
+        assertThat(bidNumber(drained.get(4)), is(equalTo(5)));
+    }
+
+    @Test
+    public void testDrainToSmallerBuffer() {
+        LogRecordBuffer buffer = new LogRecordBuffer(8);
+        for (int i = 0; i < 6; i++) {
+            buffer.add(createLogRecord(i));
+        }
+        LogRecordBuffer replacement = new LogRecordBuffer(4);
+        replacement.add(createLogRecord(-1));
+
+        assertThat(buffer.drainTo(replacement), is(equalTo(3)));
+        assertThat(buffer.size(), is(equalTo(0)));
+        assertThat(replacement.getDroppedRecords(), is(equalTo(3L)));
+
+        List<LogRecord> drained = new ArrayList<LogRecord>();
+        replacement.drainTo(drained, 10);
+        assertThat(drained.size(), is(equalTo(4)));
+        for (int i = 0; i < 4; i++) {
+            assertThat(bidNumber(drained.get(i)), is(equalTo(i - 1)));
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        final int recordsPerProducer = 10000;
+        final LogRecordBuffer buffer = new LogRecordBuffer(1024);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < recordsPerProducer; i++) {
+                        while (!buffer.add(createLogRecord(i))) {
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        List<LogRecord> drained = new ArrayList<LogRecord>();
+        while (done.getCount() > 0 || buffer.size() > 0) {
+            buffer.drainTo(drained, 100);
+        }
+        assertThat(drained.size(), is(equalTo(producers * recordsPerProducer)));
+    }
+}
@@ -0,0 +1,224 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import net.powermatcher.api.data.MarketBasis;
+
+/**
+ * Encodes and decodes the blocks of the {@link EventLogFormat}. An instance reuses its buffers, so it is not thread
+ * safe.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+class BlockCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final EventLogEntry.Type[] TYPES = EventLogEntry.Type.values();
+
+    private static final int TYPE = 0, TIME = 1, CLUSTER = 2, AGENT = 3, MARKET_BASIS = 4, BID_NUMBER = 5, VALUE = 6;
+
+    private final ByteSink[] columns = new ByteSink[EventLogFormat.COLUMNS];
+
+    private final ByteSink block = new ByteSink();
+
+    BlockCodec() {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ByteSink();
+        }
+    }
+
+    /**
+     * Encodes a block. The strings and market bases the block uses for the first time are added to the dictionary; the
+     * caller rolls them back when the block is not written.
+     *
+     * @param entries
+     *            the entries of the block, at least one
+     * @param dictionary
+     *            the dictionary of the segment
+     * @return the encoded block, which is reused by the next call
+     */
+    ByteSink encode(List<EventLogEntry> entries, Dictionary dictionary) {
+        dictionary.mark();
+        for (ByteSink column : columns) {
+            column.reset();
+        }
+
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (EventLogEntry entry : entries) {
+            minTimestamp = Math.min(minTimestamp, entry.getTimestamp());
+            maxTimestamp = Math.max(maxTimestamp, entry.getTimestamp());
+        }
+
+        long previousTimestamp = minTimestamp;
+        int previousBidNumber = 0;
+        long previousPrice = 0;
+        for (EventLogEntry entry : entries) {
+            columns[TYPE].write(entry.getType().ordinal());
+            columns[TIME].writeZigZag(entry.getTimestamp() - previousTimestamp);
+            previousTimestamp = entry.getTimestamp();
+            columns[CLUSTER].writeVarint(dictionary.indexOf(entry.getClusterId()));
+            columns[AGENT].writeVarint(dictionary.indexOf(entry.getAgentId()));
+            columns[MARKET_BASIS].writeVarint(dictionary.indexOf(entry.getMarketBasis()));
+            columns[BID_NUMBER].writeZigZag((long) entry.getBidNumber() - previousBidNumber);
+            previousBidNumber = entry.getBidNumber();
+            if (entry.getType().isBid()) {
+                double[] demand = entry.getDemand();
+                columns[VALUE].writeVarint(demand.length);
+                // Demand arrays are mostly steps, so they are stored as runs of the same value
+                long previousDemand = 0;
+                for (int start = 0, end; start < demand.length; start = end) {
+                    long bits = Double.doubleToRawLongBits(demand[start]);
+                    for (end = start + 1; end < demand.length
+                                          && Double.doubleToRawLongBits(demand[end]) == bits; end++) {
+                        // Find the end of the run
+                    }
+                    columns[VALUE].writeVarint(end - start);
+                    previousDemand = columns[VALUE].writeDouble(demand[start], previousDemand);
+                }
+            } else {
+                previousPrice = columns[VALUE].writeDouble(entry.getPriceValue(), previousPrice);
+            }
+        }
+
+        block.reset();
+        block.writeVarint(entries.size());
+        block.writeZigZag(minTimestamp);
+        block.writeVarint(maxTimestamp - minTimestamp);
+
+        List<String> newStrings = dictionary.getNewStrings();
+        block.writeVarint(newStrings.size());
+        for (String string : newStrings) {
+            byte[] bytes = string.getBytes(UTF8);
+            block.writeVarint(bytes.length);
+            block.writeBytes(bytes);
+        }
+        List<MarketBasis> newMarketBases = dictionary.getNewMarketBases();
+        block.writeVarint(newMarketBases.size());
+        for (MarketBasis marketBasis : newMarketBases) {
+            block.writeVarint(dictionary.indexOf(marketBasis.getCommodity()));
+            block.writeVarint(dictionary.indexOf(marketBasis.getCurrency()));
+            block.writeVarint(marketBasis.getPriceSteps());
+            block.writeLong(Double.doubleToRawLongBits(marketBasis.getMinimumPrice()));
+            block.writeLong(Double.doubleToRawLongBits(marketBasis.getMaximumPrice()));
+        }
+
+        for (ByteSink column : columns) {
+            block.writeVarint(column.size());
+            block.writeSink(column);
+        }
+        return block;
+    }
+
+    /**
+     * Decodes a block. The strings and market bases in the block are always added to the dictionary, even when none of
+     * its entries are selected.
+     *
+     * @param buffer
+     *            the block, from its position to its limit
+     * @param dictionary
+     *            the dictionary of the segment
+     * @param from
+     *            the lowest timestamp that is selected
+     * @param to
+     *            the highest timestamp that is selected
+     * @param agentIds
+     *            the ids of the agents that are selected, or <code>null</code> to select all agents
+     * @param result
+     *            the list the selected entries are added to
+     */
+    static void decode(ByteBuffer buffer,
+                       Dictionary dictionary,
+                       long from,
+                       long to,
+                       Set<String> agentIds,
+                       List<EventLogEntry> result) {
+        int size = ByteSink.readInt(buffer);
+        long minTimestamp = ByteSink.readZigZag(buffer);
+        long maxTimestamp = minTimestamp + ByteSink.readVarint(buffer);
+
+        int newStrings = ByteSink.readInt(buffer);
+        for (int i = 0; i < newStrings; i++) {
+            byte[] bytes = new byte[ByteSink.readInt(buffer)];
+            buffer.get(bytes);
+            dictionary.add(new String(bytes, UTF8));
+        }
+        int newMarketBases = ByteSink.readInt(buffer);
+        for (int i = 0; i < newMarketBases; i++) {
+            String commodity = dictionary.getString(ByteSink.readInt(buffer));
+            String currency = dictionary.getString(ByteSink.readInt(buffer));
+            int priceSteps = ByteSink.readInt(buffer);
+            double minimumPrice = Double.longBitsToDouble(buffer.getLong());
+            double maximumPrice = Double.longBitsToDouble(buffer.getLong());
+            dictionary.add(new MarketBasis(commodity, currency, priceSteps, minimumPrice, maximumPrice));
+        }
+
+        if (maxTimestamp < from || minTimestamp > to) {
+            return;
+        }
+
+        ByteBuffer[] columnBuffers = new ByteBuffer[EventLogFormat.COLUMNS];
+        for (int i = 0; i < columnBuffers.length; i++) {
+            int length = ByteSink.readInt(buffer);
+            columnBuffers[i] = buffer.slice();
+            columnBuffers[i].limit(length);
+            buffer.position(buffer.position() + length);
+        }
+
+        long timestamp = minTimestamp;
+        long bidNumber = 0;
+        long previousPrice = 0;
+        for (int i = 0; i < size; i++) {
+            EventLogEntry.Type type = TYPES[columnBuffers[TYPE].get()];
+            timestamp += ByteSink.readZigZag(columnBuffers[TIME]);
+            String clusterId = dictionary.getString(ByteSink.readInt(columnBuffers[CLUSTER]));
+            String agentId = dictionary.getString(ByteSink.readInt(columnBuffers[AGENT]));
+            MarketBasis marketBasis = dictionary.getMarketBasis(ByteSink.readInt(columnBuffers[MARKET_BASIS]));
+            bidNumber += ByteSink.readZigZag(columnBuffers[BID_NUMBER]);
+            boolean selected = timestamp >= from && timestamp <= to && (agentIds == null || agentIds.contains(agentId));
+
+            if (type.isBid()) {
+                int length = ByteSink.readInt(columnBuffers[VALUE]);
+                double[] demand = selected ? new double[length] : null;
+                long previousDemand = 0;
+                for (int start = 0; start < length;) {
+                    int end = start + ByteSink.readInt(columnBuffers[VALUE]);
+                    if (end <= start || end > length) {
+                        throw new IllegalStateException("Malformed demand array");
+                    }
+                    previousDemand = ByteSink.readDoubleBits(columnBuffers[VALUE], previousDemand);
+                    if (selected) {
+                        Arrays.fill(demand, start, end, Double.longBitsToDouble(previousDemand));
+                    }
+                    start = end;
+                }
+                if (selected) {
+                    result.add(EventLogEntry.bid(type,
+                                                 timestamp,
+                                                 clusterId,
+                                                 agentId,
+                                                 marketBasis,
+                                                 (int) bidNumber,
+                                                 demand));
+                }
+            } else {
+                previousPrice = ByteSink.readDoubleBits(columnBuffers[VALUE], previousPrice);
+                if (selected) {
+                    result.add(EventLogEntry.price(type,
+                                                   timestamp,
+                                                   clusterId,
+                                                   agentId,
+                                                   marketBasis,
+                                                   (int) bidNumber,
+                                                   Double.longBitsToDouble(previousPrice)));
+                }
+            }
+        }
+    }
+}
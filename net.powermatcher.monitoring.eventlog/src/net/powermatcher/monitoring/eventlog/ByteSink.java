@@ -0,0 +1,120 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable byte array with the variable length encodings of the {@link EventLogFormat}. The same sink is reused for
+ * every block.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+class ByteSink {
+
+    private byte[] bytes = new byte[1024];
+
+    private int size;
+
+    void reset() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void write(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    void writeBytes(byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, bytes, size, b.length);
+        size += b.length;
+    }
+
+    void writeSink(ByteSink other) {
+        ensureCapacity(other.size);
+        System.arraycopy(other.bytes, 0, bytes, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Writes an unsigned number in 1 to 10 bytes.
+     */
+    void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a signed number, small negative numbers take as few bytes as small positive numbers.
+     */
+    void writeZigZag(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes a double as the XOR of its bits with the previous double, so an equal double takes a single byte. The
+     * result is reversed: a round value has trailing zeros in its mantissa, which end up in the high bits and take no
+     * bytes. The equal sign and exponent bits become the low bits, which do take bytes.
+     *
+     * @return the bits of the double, which is the previous double of the next one
+     */
+    long writeDouble(double value, long previousBits) {
+        long bits = Double.doubleToRawLongBits(value);
+        writeVarint(Long.reverse(bits ^ previousBits));
+        return bits;
+    }
+
+    void writeLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            write((int) (value >>> shift));
+        }
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes, 0, size);
+    }
+
+    static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed variable length number");
+    }
+
+    static int readInt(ByteBuffer buffer) {
+        long value = readVarint(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Number out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    static long readZigZag(ByteBuffer buffer) {
+        long value = readVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readDoubleBits(ByteBuffer buffer, long previousBits) {
+        return Long.reverse(readVarint(buffer)) ^ previousBits;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + extra));
+        }
+    }
+}
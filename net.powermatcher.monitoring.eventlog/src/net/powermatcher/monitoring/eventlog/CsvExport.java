@@ -0,0 +1,153 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import net.powermatcher.api.data.MarketBasis;
+
+/**
+ * Exports an event log to a comma separated file, with one line per {@link EventLogEntry}. Every field is followed by
+ * the separator, like the files of the csv logger.
+ *
+ * <pre>
+ * java net.powermatcher.monitoring.eventlog.CsvExport &lt;segment or directory&gt; [&lt;csv file&gt;]
+ * </pre>
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class CsvExport {
+
+    /**
+     * The names of the columns.
+     */
+    public static final String[] HEADER_ROW = new String[] { "timestamp",
+                                                             "type",
+                                                             "clusterId",
+                                                             "agentId",
+                                                             "commodity",
+                                                             "currency",
+                                                             "minimumPrice",
+                                                             "maximumPrice",
+                                                             "priceSteps",
+                                                             "bidNumber",
+                                                             "priceValue",
+                                                             "demand" };
+
+    private final String separator;
+
+    private final DateFormat dateFormat;
+
+    private final DecimalFormat priceFormat = (DecimalFormat) MarketBasis.PRICE_FORMAT.clone();
+
+    private final Date date = new Date();
+
+    /**
+     * @param separator
+     *            the field separator
+     * @param dateFormat
+     *            the format of the timestamps, which is copied
+     */
+    public CsvExport(String separator, DateFormat dateFormat) {
+        this.separator = separator;
+        this.dateFormat = (DateFormat) dateFormat.clone();
+    }
+
+    /**
+     * Writes the header and all selected entries of an event log.
+     *
+     * @param reader
+     *            the event log
+     * @param writer
+     *            the destination
+     * @return the number of exported entries
+     * @throws IOException
+     *             when the event log can not be read or the destination can not be written
+     */
+    public long export(EventLogReader reader, Writer writer) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (String field : HEADER_ROW) {
+            line.append(field).append(separator);
+        }
+        writer.write(line.append('\n').toString());
+
+        long count = 0;
+        for (EventLogEntry entry = reader.next(); entry != null; entry = reader.next()) {
+            line.setLength(0);
+            appendLine(entry, line);
+            writer.write(line.append('\n').toString());
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+
+    private void appendLine(EventLogEntry entry, StringBuilder line) {
+        MarketBasis marketBasis = entry.getMarketBasis();
+        date.setTime(entry.getTimestamp());
+        line.append(dateFormat.format(date)).append(separator);
+        line.append(entry.getType()).append(separator);
+        line.append(entry.getClusterId()).append(separator);
+        line.append(entry.getAgentId()).append(separator);
+        line.append(marketBasis.getCommodity()).append(separator);
+        line.append(marketBasis.getCurrency()).append(separator);
+        line.append(priceFormat.format(marketBasis.getMinimumPrice())).append(separator);
+        line.append(priceFormat.format(marketBasis.getMaximumPrice())).append(separator);
+        line.append(marketBasis.getPriceSteps()).append(separator);
+        line.append(entry.getBidNumber()).append(separator);
+        if (entry.getType().isBid()) {
+            line.append(separator);
+            double[] demand = entry.getDemand();
+            for (int i = 0; i < demand.length; i++) {
+                if (i > 0) {
+                    line.append('#');
+                }
+                line.append(demand[i]);
+            }
+            line.append(separator);
+        } else {
+            line.append(priceFormat.format(entry.getPriceValue())).append(separator);
+            line.append(separator);
+        }
+    }
+
+    /**
+     * Exports an event log to a file, or to the standard output.
+     *
+     * @param args
+     *            the segment file or the directory of the event log, and optionally the csv file
+     * @throws IOException
+     *             when the event log can not be read or the csv file can not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: CsvExport <segment or directory> [<csv file>]");
+            System.exit(1);
+        }
+        EventLogReader reader = new EventLogReader(new File(args[0]));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(args.length > 1 ? new FileOutputStream(args[1])
+                                                                                  : System.out,
+                                                                  Charset.forName("UTF-8")));
+        try {
+            CsvExport export = new CsvExport(";", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"));
+            long count = export.export(reader, writer);
+            System.err.println("Exported " + count + " entries from " + reader.getSegmentFiles().size() + " segments");
+        } finally {
+            reader.close();
+            if (args.length > 1) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        }
+    }
+}
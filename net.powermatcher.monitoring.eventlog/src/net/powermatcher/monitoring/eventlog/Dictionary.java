@@ -0,0 +1,121 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.powermatcher.api.data.MarketBasis;
+
+/**
+ * The strings and market bases of a segment, by their index. Every block adds the entries it uses for the first time,
+ * so a segment can be read on its own.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+class Dictionary {
+
+    private final List<String> strings = new ArrayList<String>();
+
+    private final Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+
+    private final List<MarketBasis> marketBases = new ArrayList<MarketBasis>();
+
+    private final Map<MarketBasis, Integer> marketBasisIndices = new HashMap<MarketBasis, Integer>();
+
+    /**
+     * The sizes when the current block was started, the entries from there on are new in the block.
+     */
+    private int markedStrings, markedMarketBases;
+
+    /**
+     * Starts a new block.
+     */
+    void mark() {
+        markedStrings = strings.size();
+        markedMarketBases = marketBases.size();
+    }
+
+    /**
+     * Forgets the entries that were added since the block was started, when the block is not written after all.
+     */
+    void rollback() {
+        while (strings.size() > markedStrings) {
+            stringIndices.remove(strings.remove(strings.size() - 1));
+        }
+        while (marketBases.size() > markedMarketBases) {
+            marketBasisIndices.remove(marketBases.remove(marketBases.size() - 1));
+        }
+    }
+
+    /**
+     * Empties the dictionary, for a new segment.
+     */
+    void clear() {
+        strings.clear();
+        stringIndices.clear();
+        marketBases.clear();
+        marketBasisIndices.clear();
+        mark();
+    }
+
+    int indexOf(String string) {
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndices.put(string, index);
+        }
+        return index;
+    }
+
+    int indexOf(MarketBasis marketBasis) {
+        Integer index = marketBasisIndices.get(marketBasis);
+        if (index == null) {
+            // The strings of the market basis are added before the market basis itself
+            indexOf(marketBasis.getCommodity());
+            indexOf(marketBasis.getCurrency());
+            index = marketBases.size();
+            marketBases.add(marketBasis);
+            marketBasisIndices.put(marketBasis, index);
+        }
+        return index;
+    }
+
+    void add(String string) {
+        strings.add(string);
+    }
+
+    void add(MarketBasis marketBasis) {
+        marketBases.add(marketBasis);
+    }
+
+    String getString(int index) {
+        if (index >= strings.size()) {
+            throw new IllegalStateException("Unknown string " + index);
+        }
+        return strings.get(index);
+    }
+
+    MarketBasis getMarketBasis(int index) {
+        if (index >= marketBases.size()) {
+            throw new IllegalStateException("Unknown market basis " + index);
+        }
+        return marketBases.get(index);
+    }
+
+    /**
+     * @return the strings that were added since the block was started.
+     */
+    List<String> getNewStrings() {
+        return strings.subList(markedStrings, strings.size());
+    }
+
+    /**
+     * @return the market bases that were added since the block was started.
+     */
+    List<MarketBasis> getNewMarketBases() {
+        return marketBases.subList(markedMarketBases, marketBases.size());
+    }
+}
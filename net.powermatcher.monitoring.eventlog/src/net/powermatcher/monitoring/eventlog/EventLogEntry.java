@@ -0,0 +1,237 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.util.Arrays;
+
+import net.powermatcher.api.data.MarketBasis;
+
+/**
+ * A bid or price update event as it is stored in the event log.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class EventLogEntry {
+
+    /**
+     * The kind of event of an {@link EventLogEntry}.
+     */
+    public static enum Type {
+        INCOMING_BID,
+        OUTGOING_BID,
+        INCOMING_PRICE,
+        OUTGOING_PRICE;
+
+        /**
+         * @return <code>true</code> for bid updates, <code>false</code> for price updates.
+         */
+        public boolean isBid() {
+            return this == INCOMING_BID || this == OUTGOING_BID;
+        }
+    }
+
+    private final Type type;
+
+    private final long timestamp;
+
+    private final String clusterId;
+
+    private final String agentId;
+
+    private final MarketBasis marketBasis;
+
+    private final int bidNumber;
+
+    private final double priceValue;
+
+    private final double[] demand;
+
+    /**
+     * Creates an entry for a bid update.
+     *
+     * @param type
+     *            {@link Type#INCOMING_BID} or {@link Type#OUTGOING_BID}
+     * @param timestamp
+     *            the time of the event in milliseconds since the epoch
+     * @param clusterId
+     *            the id of the cluster of the agent
+     * @param agentId
+     *            the id of the agent that sent or received the bid
+     * @param marketBasis
+     *            the market basis of the bid
+     * @param bidNumber
+     *            the number of the bid
+     * @param demand
+     *            the demand array of the bid, which is not copied
+     * @return the new entry
+     */
+    public static EventLogEntry bid(Type type,
+                                    long timestamp,
+                                    String clusterId,
+                                    String agentId,
+                                    MarketBasis marketBasis,
+                                    int bidNumber,
+                                    double[] demand) {
+        if (!type.isBid()) {
+            throw new IllegalArgumentException("Not a bid type: " + type);
+        }
+        return new EventLogEntry(type, timestamp, clusterId, agentId, marketBasis, bidNumber, Double.NaN, demand);
+    }
+
+    /**
+     * Creates an entry for a price update.
+     *
+     * @param type
+     *            {@link Type#INCOMING_PRICE} or {@link Type#OUTGOING_PRICE}
+     * @param timestamp
+     *            the time of the event in milliseconds since the epoch
+     * @param clusterId
+     *            the id of the cluster of the agent
+     * @param agentId
+     *            the id of the agent that sent or received the price
+     * @param marketBasis
+     *            the market basis of the price
+     * @param bidNumber
+     *            the number of the bid the price is based on
+     * @param priceValue
+     *            the price
+     * @return the new entry
+     */
+    public static EventLogEntry price(Type type,
+                                      long timestamp,
+                                      String clusterId,
+                                      String agentId,
+                                      MarketBasis marketBasis,
+                                      int bidNumber,
+                                      double priceValue) {
+        if (type.isBid()) {
+            throw new IllegalArgumentException("Not a price type: " + type);
+        }
+        return new EventLogEntry(type, timestamp, clusterId, agentId, marketBasis, bidNumber, priceValue, null);
+    }
+
+    private EventLogEntry(Type type,
+                          long timestamp,
+                          String clusterId,
+                          String agentId,
+                          MarketBasis marketBasis,
+                          int bidNumber,
+                          double priceValue,
+                          double[] demand) {
+        if (clusterId == null || agentId == null || marketBasis == null) {
+            throw new NullPointerException("clusterId, agentId and marketBasis are required");
+        }
+        if (type.isBid() && demand == null) {
+            throw new NullPointerException("demand");
+        }
+        this.type = type;
+        this.timestamp = timestamp;
+        this.clusterId = clusterId;
+        this.agentId = agentId;
+        this.marketBasis = marketBasis;
+        this.bidNumber = bidNumber;
+        this.priceValue = priceValue;
+        this.demand = demand;
+    }
+
+    /**
+     * @return the current value of type.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the time of the event in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the current value of clusterId.
+     */
+    public String getClusterId() {
+        return clusterId;
+    }
+
+    /**
+     * @return the current value of agentId.
+     */
+    public String getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * @return the current value of marketBasis.
+     */
+    public MarketBasis getMarketBasis() {
+        return marketBasis;
+    }
+
+    /**
+     * @return the current value of bidNumber.
+     */
+    public int getBidNumber() {
+        return bidNumber;
+    }
+
+    /**
+     * @return the price of a price update, or NaN for a bid update.
+     */
+    public double getPriceValue() {
+        return priceValue;
+    }
+
+    /**
+     * @return the demand array of a bid update, which must not be changed, or <code>null</code> for a price update.
+     */
+    public double[] getDemand() {
+        return demand;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * (31 * agentId.hashCode() + (int) (timestamp ^ (timestamp >>> 32))) + bidNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        EventLogEntry other = (EventLogEntry) obj;
+        return type == other.type && timestamp == other.timestamp
+               && bidNumber == other.bidNumber
+               && clusterId.equals(other.clusterId)
+               && agentId.equals(other.agentId)
+               && marketBasis.equals(other.marketBasis)
+               && Double.doubleToLongBits(priceValue) == Double.doubleToLongBits(other.priceValue)
+               && Arrays.equals(demand, other.demand);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "EventLogEntry [type=" + type
+               + ", timestamp="
+               + timestamp
+               + ", clusterId="
+               + clusterId
+               + ", agentId="
+               + agentId
+               + ", bidNumber="
+               + bidNumber
+               + (type.isBid() ? ", demand=" + Arrays.toString(demand) : ", priceValue=" + priceValue)
+               + "]";
+    }
+}
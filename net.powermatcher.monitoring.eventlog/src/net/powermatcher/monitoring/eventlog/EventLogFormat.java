@@ -0,0 +1,63 @@
+package net.powermatcher.monitoring.eventlog;
+
+/**
+ * Describes the binary event log format. An event log is a directory of append-only segment files, which are read in
+ * the order of their names.
+ *
+ * <p>
+ * A segment starts with a header of {@value #HEADER_SIZE} bytes: the magic number, the format version (a short), a
+ * reserved short and the creation time of the segment (a long). The header is followed by blocks. Every block starts
+ * with its length as an int, which is only written when the rest of the block is complete; a length of 0 marks the end
+ * of the segment.
+ * </p>
+ *
+ * <p>
+ * A block holds a number of {@link EventLogEntry}s, stored column by column:
+ * </p>
+ * <ol>
+ * <li>The number of entries and the lowest and highest timestamp, so a reader can skip the block.</li>
+ * <li>The strings and market bases that are used for the first time in the segment. Agent ids, cluster ids,
+ * commodities, currencies and market bases are stored as their index in the dictionary of the segment.</li>
+ * <li>The columns, each preceded by its length in bytes: the types, the timestamps (as the difference with the
+ * previous one), the cluster ids, the agent ids, the market bases, the bid numbers (as the difference with the
+ * previous one) and the values. The value of a price update is its price. The value of a bid is the length of its
+ * demand array followed by the runs of equal demand, each as its length and its demand. Every double is stored as the
+ * XOR of its bits with the previous double, reversed, so equal and round values take only a few bytes.</li>
+ * </ol>
+ *
+ * All numbers in a block are variable length: 7 bits per byte, least significant first, with the high bit set when
+ * more bytes follow. Signed numbers are zigzag encoded first.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public final class EventLogFormat {
+
+    /**
+     * The magic number at the start of every segment, "PMEL" in ASCII.
+     */
+    public static final int MAGIC = 0x504D454C;
+
+    /**
+     * The version of the format.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * The size of the segment header in bytes.
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * The extension of the segment files.
+     */
+    public static final String FILE_EXTENSION = ".pmlog";
+
+    /**
+     * The number of columns in a block.
+     */
+    static final int COLUMNS = 7;
+
+    private EventLogFormat() {
+    }
+}
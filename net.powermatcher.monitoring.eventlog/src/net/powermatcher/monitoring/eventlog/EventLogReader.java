@@ -0,0 +1,210 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the {@link EventLogEntry}s of an event log, in the order they were written. See {@link EventLogFormat}.
+ *
+ * The entries can be selected by time and by agent. Blocks without selected timestamps are skipped without decoding
+ * their columns. A segment that is still being written can be read up to its last complete block.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class EventLogReader
+    implements Closeable {
+
+    private final List<File> segmentFiles;
+
+    private int nextSegment;
+
+    private long from = Long.MIN_VALUE;
+
+    private long to = Long.MAX_VALUE;
+
+    private Set<String> agentIds;
+
+    private ByteBuffer segment;
+
+    private File currentFile;
+
+    private Dictionary dictionary;
+
+    private final List<EventLogEntry> entries = new ArrayList<EventLogEntry>();
+
+    private int nextEntry;
+
+    /**
+     * Reads a single segment, or all segments in a directory.
+     *
+     * @param file
+     *            a segment file or the directory of an event log
+     * @throws IOException
+     *             when the file does not exist
+     */
+    public EventLogReader(File file) throws IOException {
+        this(file, "");
+    }
+
+    /**
+     * Reads a single segment, or the segments in a directory whose name starts with the given prefix.
+     *
+     * @param file
+     *            a segment file or the directory of an event log
+     * @param prefix
+     *            the start of the names of the segments in the directory
+     * @throws IOException
+     *             when the file does not exist
+     */
+    public EventLogReader(File file, final String prefix) throws IOException {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File pathname) {
+                    String name = pathname.getName();
+                    return pathname.isFile() && name.startsWith(prefix)
+                           && name.endsWith(EventLogFormat.FILE_EXTENSION);
+                }
+            });
+            if (files == null) {
+                throw new IOException("Unable to list " + file);
+            }
+            Arrays.sort(files);
+            segmentFiles = Arrays.asList(files);
+        } else if (file.isFile()) {
+            segmentFiles = Collections.singletonList(file);
+        } else {
+            throw new IOException("No such file or directory: " + file);
+        }
+    }
+
+    /**
+     * Only selects the entries in a period of time.
+     *
+     * @param from
+     *            the lowest timestamp that is selected, in milliseconds since the epoch
+     * @param to
+     *            the highest timestamp that is selected, in milliseconds since the epoch
+     */
+    public void setTimeRange(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Only selects the entries of some agents.
+     *
+     * @param agentIds
+     *            the ids of the agents, or <code>null</code> to select all agents
+     */
+    public void setAgentIds(Set<String> agentIds) {
+        this.agentIds = agentIds == null ? null : new HashSet<String>(agentIds);
+    }
+
+    /**
+     * @return the next selected entry, or <code>null</code> when all segments have been read.
+     * @throws IOException
+     *             when a segment can not be read or is corrupt
+     */
+    public EventLogEntry next() throws IOException {
+        while (nextEntry >= entries.size()) {
+            entries.clear();
+            nextEntry = 0;
+            if (!readBlock() && !openNextSegment()) {
+                return null;
+            }
+        }
+        return entries.get(nextEntry++);
+    }
+
+    /**
+     * Stops reading. The segment mappings are released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        segment = null;
+        dictionary = null;
+        entries.clear();
+        nextSegment = segmentFiles.size();
+    }
+
+    /**
+     * @return the segment files that are read, in order.
+     */
+    public List<File> getSegmentFiles() {
+        return segmentFiles;
+    }
+
+    /**
+     * Decodes the next block of the current segment.
+     *
+     * @return <code>false</code> when the segment has no more blocks
+     */
+    private boolean readBlock() throws IOException {
+        if (segment == null || segment.remaining() < 4) {
+            return false;
+        }
+        int length = segment.getInt();
+        if (length <= 0 || length > segment.remaining()) {
+            segment = null;
+            return false;
+        }
+        ByteBuffer block = segment.slice();
+        block.limit(length);
+        segment.position(segment.position() + length);
+        try {
+            BlockCodec.decode(block, dictionary, from, to, agentIds, entries);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt block in " + currentFile, e);
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>false</code> when there are no more segments
+     */
+    private boolean openNextSegment() throws IOException {
+        segment = null;
+        if (nextSegment >= segmentFiles.size()) {
+            return false;
+        }
+        currentFile = segmentFiles.get(nextSegment++);
+        dictionary = new Dictionary();
+
+        RandomAccessFile file = new RandomAccessFile(currentFile, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+        if (buffer.remaining() < EventLogFormat.HEADER_SIZE) {
+            // Just created, nothing has been written yet
+            return true;
+        }
+        if (buffer.getInt() != EventLogFormat.MAGIC) {
+            throw new IOException(currentFile + " is not an event log segment");
+        }
+        short version = buffer.getShort();
+        if (version > EventLogFormat.VERSION) {
+            throw new IOException(currentFile + " has an unsupported version " + version);
+        }
+        buffer.position(EventLogFormat.HEADER_SIZE);
+        segment = buffer;
+        return true;
+    }
+}
@@ -0,0 +1,250 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.util.Date;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.measure.Measurable;
+import javax.measure.quantity.Duration;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+
+import org.flexiblepower.context.FlexiblePowerContext;
+
+/**
+ * A {@link FlexiblePowerContext} with a virtual clock, used to replay a recorded session faster than it was recorded.
+ * Time only moves when {@link #advanceTo(long)} is called, which runs the tasks that are due in the order of their
+ * scheduled time, with the clock set to that time. A replay is single threaded, so this class is not thread safe.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ReplayContext
+    implements FlexiblePowerContext {
+
+    private static final Unit<Duration> MS = SI.MILLI(SI.SECOND);
+
+    /**
+     * A task that runs at a virtual time, and again every period when it is periodic.
+     */
+    private final class VirtualTask<V>
+        extends FutureTask<V>
+        implements ScheduledFuture<V> {
+
+        private final long sequence;
+        private final long period;
+        private long time;
+
+        VirtualTask(Callable<V> callable, long time, long period) {
+            super(callable);
+            sequence = sequenceGenerator++;
+            this.time = time;
+            this.period = period;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - now, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Delayed other) {
+            VirtualTask<?> that = (VirtualTask<?>) other;
+            if (time != that.time) {
+                return time < that.time ? -1 : 1;
+            }
+            return sequence < that.sequence ? -1 : sequence == that.sequence ? 0 : 1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return (int) (sequence ^ (sequence >>> 32));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            queue.remove(this);
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        /**
+         * Runs the task and schedules its next run when it is periodic.
+         */
+        void execute() {
+            if (period <= 0) {
+                run();
+            } else if (runAndReset()) {
+                time += period;
+                queue.add(this);
+            }
+        }
+    }
+
+    private final PriorityQueue<VirtualTask<?>> queue = new PriorityQueue<VirtualTask<?>>();
+
+    private long sequenceGenerator;
+
+    private long now;
+
+    private long executedTasks;
+
+    /**
+     * Creates a new {@link ReplayContext}.
+     *
+     * @param startTime
+     *            the initial time of the clock, in milliseconds since the epoch
+     */
+    public ReplayContext(long startTime) {
+        now = startTime;
+    }
+
+    /**
+     * Moves the clock forward, running the tasks that are due at or before the given time. Tasks that are scheduled by
+     * those tasks are run as well when they are due. The clock never moves back.
+     *
+     * @param time
+     *            the new time of the clock, in milliseconds since the epoch
+     */
+    public void advanceTo(long time) {
+        VirtualTask<?> task;
+        while ((task = queue.peek()) != null && task.time <= time) {
+            queue.poll();
+            now = Math.max(now, task.time);
+            executedTasks++;
+            task.execute();
+        }
+        now = Math.max(now, time);
+    }
+
+    /**
+     * Runs the tasks that are due now, such as the tasks that were submitted.
+     */
+    public void runPending() {
+        advanceTo(now);
+    }
+
+    /**
+     * @return the time of the next task that is scheduled, or {@link Long#MAX_VALUE} when there is none.
+     */
+    public long getNextTaskTime() {
+        VirtualTask<?> task = queue.peek();
+        return task == null ? Long.MAX_VALUE : task.time;
+    }
+
+    /**
+     * @return the current value of executedTasks.
+     */
+    public long getExecutedTasks() {
+        return executedTasks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Date currentTime() {
+        return new Date(now);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, Measurable<Duration> delay) {
+        return enqueue(Executors.callable(command), delay.longValue(MS), 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, Measurable<Duration> delay) {
+        return enqueue(callable, delay.longValue(MS), 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                                                  Measurable<Duration> initialDelay,
+                                                  Measurable<Duration> period) {
+        return enqueue(Executors.callable(command), initialDelay.longValue(MS), Math.max(1, period.longValue(MS)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Tasks take no virtual time, so a fixed delay is the same as a fixed rate.
+     */
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+                                                     Measurable<Duration> initialDelay,
+                                                     Measurable<Duration> delay) {
+        return scheduleAtFixedRate(command, initialDelay, delay);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return enqueue(task, 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<?> submit(Runnable task) {
+        return enqueue(Executors.callable(task), 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        return enqueue(Executors.callable(task, result), 0, 0);
+    }
+
+    private <V> VirtualTask<V> enqueue(Callable<V> callable, long delay, long period) {
+        VirtualTask<V> task = new VirtualTask<V>(callable, now + Math.max(0, delay), period);
+        queue.add(task);
+        return task;
+    }
+}
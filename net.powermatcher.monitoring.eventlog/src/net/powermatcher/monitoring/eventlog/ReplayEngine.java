@@ -0,0 +1,543 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.flexiblepower.context.FlexiblePowerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.powermatcher.api.AgentEndpoint;
+import net.powermatcher.api.MatcherEndpoint;
+import net.powermatcher.api.Session;
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.sessions.SessionIdGenerator;
+import net.powermatcher.core.BaseAgentEndpoint;
+import net.powermatcher.core.auctioneer.Auctioneer;
+import net.powermatcher.core.bidcache.AggregatedBid;
+import net.powermatcher.core.concentrator.Concentrator;
+import net.powermatcher.monitoring.eventlog.EventLogEntry.Type;
+
+/**
+ * Replays a recorded session from a binary event log into a live {@link Auctioneer}, optionally with
+ * {@link Concentrator}s in between, and compares the clearing prices with the recorded ones.
+ *
+ * <p>
+ * The log is read twice. The first pass finds the recorded auctioneer, the only agent that published prices but no
+ * bids, and the device agents, the agents that published bids but did not receive any. The second pass sends the bids
+ * of the device agents into the replayed cluster, which runs on a {@link ReplayContext}, so the cluster sees the
+ * recorded time while the replay runs as fast as it can (or at a given speedup). Every time the recorded auctioneer
+ * published a new price, the last price of the replayed auctioneer is compared with it.
+ * </p>
+ *
+ * The topology of the recorded cluster is not in the log. By default all device agents are connected to the
+ * auctioneer; use {@link #addConcentrator(String, String)} and {@link #setParent(String, String)} to build a tree.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ReplayEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayEngine.class);
+
+    /**
+     * A recorded device agent, which sends the recorded bids with their recorded bid numbers.
+     */
+    private static final class ReplayedAgent
+        implements AgentEndpoint {
+
+        private final String agentId;
+        private final String desiredParentId;
+        private volatile AgentEndpoint.Status status = BaseAgentEndpoint.NOT_CONNECTED;
+
+        ReplayedAgent(String agentId, String desiredParentId) {
+            this.agentId = agentId;
+            this.desiredParentId = desiredParentId;
+        }
+
+        void sendBid(Bid bid, int bidNumber) {
+            status.getSession().updateBid(new BidUpdate(bid, bidNumber));
+        }
+
+        @Override
+        public String getAgentId() {
+            return agentId;
+        }
+
+        @Override
+        public String getDesiredParentId() {
+            return desiredParentId;
+        }
+
+        @Override
+        public AgentEndpoint.Status getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setContext(FlexiblePowerContext context) {
+            // The agent only sends recorded bids, so it does not need the time
+        }
+
+        @Override
+        public void connectToMatcher(Session session) {
+            status = new BaseAgentEndpoint.Connected(session);
+        }
+
+        @Override
+        public void matcherEndpointDisconnected(Session session) {
+            status = BaseAgentEndpoint.NOT_CONNECTED;
+        }
+
+        @Override
+        public void handlePriceUpdate(PriceUpdate priceUpdate) {
+            // The prices of the replay are taken from the auctioneer
+        }
+    }
+
+    /**
+     * A direct {@link Session} between an agent and a matcher of the replayed cluster.
+     */
+    private static final class ReplaySession
+        implements Session {
+
+        private final AgentEndpoint agent;
+        private final MatcherEndpoint matcher;
+        private final String sessionId = SessionIdGenerator.getDefault().next().toString();
+        private volatile MarketBasis marketBasis;
+        private boolean connected;
+
+        ReplaySession(AgentEndpoint agent, MatcherEndpoint matcher) {
+            this.agent = agent;
+            this.matcher = matcher;
+        }
+
+        void connect() {
+            matcher.connectToAgent(this);
+            agent.connectToMatcher(this);
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+            if (connected) {
+                connected = false;
+                matcher.agentEndpointDisconnected(this);
+                agent.matcherEndpointDisconnected(this);
+            }
+        }
+
+        @Override
+        public String getAgentId() {
+            return agent.getAgentId();
+        }
+
+        @Override
+        public String getMatcherId() {
+            return matcher.getAgentId();
+        }
+
+        @Override
+        public String getClusterId() {
+            return matcher.getStatus().getClusterId();
+        }
+
+        @Override
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        @Override
+        public MarketBasis getMarketBasis() {
+            return marketBasis;
+        }
+
+        @Override
+        public void setMarketBasis(MarketBasis marketBasis) {
+            this.marketBasis = marketBasis;
+        }
+
+        @Override
+        public void updatePrice(PriceUpdate priceUpdate) {
+            agent.handlePriceUpdate(priceUpdate);
+        }
+
+        @Override
+        public void updateBid(BidUpdate bidUpdate) {
+            matcher.handleBidUpdate(this, bidUpdate);
+        }
+    }
+
+    private final File log;
+
+    private final Map<String, String> concentrators = new LinkedHashMap<String, String>();
+
+    private final Map<String, String> parents = new HashMap<String, String>();
+
+    private String auctioneerId;
+
+    private long minTimeBetweenPriceUpdates = 1000;
+
+    private long minTimeBetweenBidUpdates = 1000;
+
+    private double speedup;
+
+    private double tolerance = 1e-9;
+
+    /**
+     * Creates a new {@link ReplayEngine}.
+     *
+     * @param log
+     *            a segment file or a directory of segment files of an event log
+     */
+    public ReplayEngine(File log) {
+        this.log = log;
+    }
+
+    /**
+     * Sets the id of the recorded auctioneer, which is only needed when the log contains more than one agent that
+     * published prices but no bids.
+     *
+     * @param auctioneerId
+     *            the id of the recorded auctioneer
+     */
+    public void setAuctioneerId(String auctioneerId) {
+        this.auctioneerId = auctioneerId;
+    }
+
+    /**
+     * @param minTimeBetweenPriceUpdates
+     *            the minimum time between two price updates of the replayed auctioneer in milliseconds, which should
+     *            match the configuration of the recorded auctioneer
+     */
+    public void setMinTimeBetweenPriceUpdates(long minTimeBetweenPriceUpdates) {
+        this.minTimeBetweenPriceUpdates = minTimeBetweenPriceUpdates;
+    }
+
+    /**
+     * @param minTimeBetweenBidUpdates
+     *            the minimum time between two bid updates of the replayed concentrators in milliseconds
+     */
+    public void setMinTimeBetweenBidUpdates(long minTimeBetweenBidUpdates) {
+        this.minTimeBetweenBidUpdates = minTimeBetweenBidUpdates;
+    }
+
+    /**
+     * @param speedup
+     *            how many times faster than recorded the session is replayed, or 0 to replay as fast as possible
+     */
+    public void setSpeedup(double speedup) {
+        this.speedup = speedup;
+    }
+
+    /**
+     * @param tolerance
+     *            the largest divergence for which a replayed price is still considered equal to the recorded price
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Adds a concentrator to the replayed cluster. Concentrators are created in the order they are added, so the
+     * parent must be the auctioneer or a concentrator that was added before.
+     *
+     * @param concentratorId
+     *            the id of the new concentrator
+     * @param parentId
+     *            the id of the matcher the concentrator connects to
+     */
+    public void addConcentrator(String concentratorId, String parentId) {
+        concentrators.put(concentratorId, parentId);
+    }
+
+    /**
+     * Connects a device agent to a concentrator instead of to the auctioneer.
+     *
+     * @param agentId
+     *            the id of the recorded device agent
+     * @param matcherId
+     *            the id of the concentrator
+     */
+    public void setParent(String agentId, String matcherId) {
+        parents.put(agentId, matcherId);
+    }
+
+    /**
+     * Replays the log.
+     *
+     * @return the clearing prices of the replay and their comparison with the recorded prices
+     * @throws IOException
+     *             when the log could not be read
+     * @throws IllegalStateException
+     *             when the log has no bids, or when the recorded auctioneer can not be determined
+     */
+    public ReplayResult replay() throws IOException {
+        Set<String> receivingAgents = new HashSet<String>();
+        Set<String> biddingAgents = new HashSet<String>();
+        Set<String> pricingAgents = new HashSet<String>();
+        Map<String, EventLogEntry> firstPrices = new HashMap<String, EventLogEntry>();
+        EventLogEntry firstBid = null;
+
+        EventLogReader reader = new EventLogReader(log);
+        try {
+            for (EventLogEntry entry = reader.next(); entry != null; entry = reader.next()) {
+                if (entry.getType() == Type.INCOMING_BID) {
+                    receivingAgents.add(entry.getAgentId());
+                } else if (entry.getType() == Type.OUTGOING_BID) {
+                    biddingAgents.add(entry.getAgentId());
+                    if (firstBid == null) {
+                        firstBid = entry;
+                    }
+                } else if (entry.getType() == Type.OUTGOING_PRICE && pricingAgents.add(entry.getAgentId())) {
+                    firstPrices.put(entry.getAgentId(), entry);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (firstBid == null) {
+            throw new IllegalStateException("The event log " + log + " contains no bids");
+        }
+
+        String recordedAuctioneerId = auctioneerId;
+        if (recordedAuctioneerId == null) {
+            pricingAgents.removeAll(biddingAgents);
+            if (pricingAgents.size() > 1) {
+                throw new IllegalStateException("The event log contains more than one auctioneer, " + pricingAgents
+                                                + ", set the auctioneer id");
+            } else if (pricingAgents.size() == 1) {
+                recordedAuctioneerId = pricingAgents.iterator().next();
+            }
+        }
+        EventLogEntry firstPrice = firstPrices.get(recordedAuctioneerId);
+        EventLogEntry marketEntry = firstPrice == null ? firstBid : firstPrice;
+
+        Set<String> deviceAgents = new HashSet<String>(biddingAgents);
+        deviceAgents.removeAll(receivingAgents);
+        LOGGER.info("Replaying {} device agents against auctioneer [{}]", deviceAgents.size(), recordedAuctioneerId);
+
+        return replay(recordedAuctioneerId == null ? "auctioneer" : recordedAuctioneerId,
+                      marketEntry.getClusterId(),
+                      marketEntry.getMarketBasis(),
+                      deviceAgents);
+    }
+
+    /**
+     * Replays the log and writes the diverging prices and a summary of the result to a stream.
+     *
+     * @param out
+     *            the stream the result is written to
+     * @return the clearing prices of the replay and their comparison with the recorded prices
+     * @throws IOException
+     *             when the log could not be read
+     * @throws IllegalStateException
+     *             when the log has no bids, or when the recorded auctioneer can not be determined
+     */
+    public ReplayResult replay(PrintStream out) throws IOException {
+        ReplayResult result = replay();
+        for (ReplayResult.PriceComparison comparison : result.getDivergingComparisons()) {
+            out.println(comparison);
+        }
+        out.println(result);
+        out.flush();
+        return result;
+    }
+
+    private ReplayResult replay(final String recordedAuctioneerId,
+                                String clusterId,
+                                MarketBasis marketBasis,
+                                Set<String> deviceAgents) throws IOException {
+        final ReplayResult result = new ReplayResult(tolerance);
+        ReplayContext context = null;
+        final Auctioneer auctioneer = new Auctioneer() {
+            @Override
+            public void publishPrice(Price price, AggregatedBid aggregatedBid) {
+                result.addClearingPrice(currentTimeMillis(), price.getPriceValue());
+                super.publishPrice(price, aggregatedBid);
+            }
+        };
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("agentId", recordedAuctioneerId);
+        properties.put("clusterId", clusterId);
+        properties.put("commodity", marketBasis.getCommodity());
+        properties.put("currency", marketBasis.getCurrency());
+        properties.put("priceSteps", marketBasis.getPriceSteps());
+        properties.put("minimumPrice", marketBasis.getMinimumPrice());
+        properties.put("maximumPrice", marketBasis.getMaximumPrice());
+        properties.put("minTimeBetweenPriceUpdates", (int) minTimeBetweenPriceUpdates);
+        auctioneer.activate(properties);
+        Map<String, MatcherEndpoint> matchers = new HashMap<String, MatcherEndpoint>();
+        matchers.put(recordedAuctioneerId, auctioneer);
+        List<Concentrator> createdConcentrators = new ArrayList<Concentrator>();
+        List<ReplaySession> sessions = new ArrayList<ReplaySession>();
+        Map<String, ReplayedAgent> agents = new HashMap<String, ReplayedAgent>();
+
+        long startMillis = System.currentTimeMillis();
+        long firstTimestamp = Long.MIN_VALUE;
+        long lastTimestamp = Long.MIN_VALUE;
+        long roundStart = Long.MIN_VALUE;
+        EventLogReader reader = new EventLogReader(log);
+        try {
+            for (EventLogEntry entry = reader.next(); entry != null; entry = reader.next()) {
+                if (context == null) {
+                    firstTimestamp = entry.getTimestamp();
+                    context = new ReplayContext(firstTimestamp);
+                    auctioneer.setContext(context);
+                    for (Map.Entry<String, String> concentrator : concentrators.entrySet()) {
+                        createdConcentrators.add(createConcentrator(concentrator.getKey(),
+                                                                    concentrator.getValue(),
+                                                                    context,
+                                                                    matchers,
+                                                                    sessions));
+                    }
+                }
+                if (!pace(entry.getTimestamp() - firstTimestamp, startMillis)) {
+                    break;
+                }
+                context.advanceTo(entry.getTimestamp());
+                lastTimestamp = Math.max(lastTimestamp, entry.getTimestamp());
+                result.entryReplayed();
+
+                if (entry.getType() == Type.OUTGOING_BID && deviceAgents.contains(entry.getAgentId())) {
+                    ReplayedAgent agent = agents.get(entry.getAgentId());
+                    if (agent == null) {
+                        agent = createAgent(entry.getAgentId(), auctioneer, matchers, sessions);
+                        agents.put(entry.getAgentId(), agent);
+                    }
+                    result.bidReplayed(sendBid(agent, entry));
+                } else if (entry.getType() == Type.OUTGOING_PRICE
+                           && entry.getAgentId().equals(recordedAuctioneerId)
+                           && (roundStart == Long.MIN_VALUE
+                               || entry.getTimestamp() - roundStart >= minTimeBetweenPriceUpdates)) {
+                    // The auctioneer sends the price to every agent, only the first one starts a new round
+                    roundStart = entry.getTimestamp();
+                    List<ReplayResult.ClearingPrice> prices = result.getClearingPrices();
+                    double replayedPrice = prices.isEmpty() ? Double.NaN
+                                                            : prices.get(prices.size() - 1).getPrice();
+                    result.addComparison(entry.getTimestamp(), entry.getPriceValue(), replayedPrice);
+                }
+            }
+            if (context != null) {
+                // Let the rate limited updates that are still waiting finish
+                context.advanceTo(lastTimestamp + minTimeBetweenPriceUpdates + minTimeBetweenBidUpdates);
+            }
+        } finally {
+            reader.close();
+            for (int i = sessions.size() - 1; i >= 0; i--) {
+                sessions.get(i).disconnect();
+            }
+            for (Concentrator concentrator : createdConcentrators) {
+                concentrator.deactivate();
+            }
+            auctioneer.deactivate();
+        }
+        result.finish(lastTimestamp == Long.MIN_VALUE ? 0 : lastTimestamp - firstTimestamp,
+                      System.currentTimeMillis() - startMillis);
+        return result;
+    }
+
+    private Concentrator createConcentrator(String concentratorId,
+                                            String parentId,
+                                            ReplayContext context,
+                                            Map<String, MatcherEndpoint> matchers,
+                                            List<ReplaySession> sessions) {
+        MatcherEndpoint parent = matchers.get(parentId);
+        if (parent == null) {
+            throw new IllegalStateException("The parent [" + parentId + "] of concentrator [" + concentratorId
+                                            + "] does not exist");
+        }
+        Concentrator concentrator = new Concentrator();
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("agentId", concentratorId);
+        properties.put("desiredParentId", parentId);
+        properties.put("minTimeBetweenBidUpdates", (int) minTimeBetweenBidUpdates);
+        concentrator.activate(properties);
+        concentrator.setContext(context);
+        ReplaySession session = new ReplaySession(concentrator, parent);
+        session.connect();
+        sessions.add(session);
+        matchers.put(concentratorId, concentrator);
+        return concentrator;
+    }
+
+    private ReplayedAgent createAgent(String agentId,
+                                      Auctioneer auctioneer,
+                                      Map<String, MatcherEndpoint> matchers,
+                                      List<ReplaySession> sessions) {
+        String parentId = parents.get(agentId);
+        MatcherEndpoint parent = parentId == null ? auctioneer : matchers.get(parentId);
+        if (parent == null) {
+            LOGGER.warn("The parent [{}] of agent [{}] does not exist, using the auctioneer", parentId, agentId);
+            parent = auctioneer;
+        }
+        ReplayedAgent agent = new ReplayedAgent(agentId, parent.getAgentId());
+        ReplaySession session = new ReplaySession(agent, parent);
+        session.connect();
+        sessions.add(session);
+        return agent;
+    }
+
+    private boolean sendBid(ReplayedAgent agent, EventLogEntry entry) {
+        try {
+            agent.sendBid(new Bid(entry.getMarketBasis(), entry.getDemand()), entry.getBidNumber());
+            return true;
+        } catch (RuntimeException e) {
+            LOGGER.debug("Bid {} of agent [{}] was rejected: {}", entry.getBidNumber(), entry.getAgentId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Waits until the wall clock has caught up with the recorded time divided by the speedup.
+     *
+     * @return false when the replay was interrupted
+     */
+    private boolean pace(long recordedOffset, long startMillis) {
+        if (speedup <= 0) {
+            return true;
+        }
+        long wait = startMillis + (long) (recordedOffset / speedup) - System.currentTimeMillis();
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays an event log and prints the result to the standard output.
+     *
+     * @param args
+     *            the segment file or the directory of the event log, and optionally the speedup
+     * @throws IOException
+     *             when the event log can not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ReplayEngine <segment or directory> [<speedup>]");
+            System.exit(1);
+        }
+        ReplayEngine engine = new ReplayEngine(new File(args[0]));
+        if (args.length > 1) {
+            engine.setSpeedup(Double.parseDouble(args[1]));
+        }
+        engine.replay(System.out);
+    }
+}
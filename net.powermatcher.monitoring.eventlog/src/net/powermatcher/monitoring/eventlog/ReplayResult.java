@@ -0,0 +1,264 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a {@link ReplayEngine} run: the clearing prices of the replayed auctioneer and how they compare to the
+ * clearing prices that were recorded.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ReplayResult {
+
+    /**
+     * A price with the (virtual) time it was published.
+     */
+    public static class ClearingPrice {
+        private final long timestamp;
+        private final double price;
+
+        public ClearingPrice(long timestamp, double price) {
+            this.timestamp = timestamp;
+            this.price = price;
+        }
+
+        /**
+         * @return the current value of timestamp.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the current value of price.
+         */
+        public double getPrice() {
+            return price;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return ClearingPrice.class.getSimpleName() + "[timestamp=" + timestamp + ", price=" + price + "]";
+        }
+    }
+
+    /**
+     * A recorded clearing price and the last price the replayed auctioneer published at the same time.
+     */
+    public static class PriceComparison {
+        private final long timestamp;
+        private final double recordedPrice;
+        private final double replayedPrice;
+
+        public PriceComparison(long timestamp, double recordedPrice, double replayedPrice) {
+            this.timestamp = timestamp;
+            this.recordedPrice = recordedPrice;
+            this.replayedPrice = replayedPrice;
+        }
+
+        /**
+         * @return the current value of timestamp.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the current value of recordedPrice.
+         */
+        public double getRecordedPrice() {
+            return recordedPrice;
+        }
+
+        /**
+         * @return the current value of replayedPrice, {@link Double#NaN} when the replay had not published a price yet.
+         */
+        public double getReplayedPrice() {
+            return replayedPrice;
+        }
+
+        /**
+         * @return the absolute difference between the replayed and the recorded price, {@link Double#NaN} when the
+         *         replay had not published a price yet.
+         */
+        public double getDivergence() {
+            return Math.abs(replayedPrice - recordedPrice);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return PriceComparison.class.getSimpleName() + "[timestamp=" + timestamp
+                   + ", recordedPrice="
+                   + recordedPrice
+                   + ", replayedPrice="
+                   + replayedPrice
+                   + "]";
+        }
+    }
+
+    private final List<ClearingPrice> clearingPrices = new ArrayList<ClearingPrice>();
+    private final List<PriceComparison> comparisons = new ArrayList<PriceComparison>();
+    private final double tolerance;
+
+    private long replayedEntries;
+    private long replayedBids;
+    private long rejectedBids;
+    private long recordedDuration;
+    private long elapsedMillis;
+
+    /**
+     * Creates a new, empty {@link ReplayResult}.
+     *
+     * @param tolerance
+     *            the largest divergence for which a replayed price is still considered equal to the recorded price
+     */
+    public ReplayResult(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    void addClearingPrice(long timestamp, double price) {
+        clearingPrices.add(new ClearingPrice(timestamp, price));
+    }
+
+    void addComparison(long timestamp, double recordedPrice, double replayedPrice) {
+        comparisons.add(new PriceComparison(timestamp, recordedPrice, replayedPrice));
+    }
+
+    void entryReplayed() {
+        replayedEntries++;
+    }
+
+    void bidReplayed(boolean accepted) {
+        replayedBids++;
+        if (!accepted) {
+            rejectedBids++;
+        }
+    }
+
+    void finish(long recordedDuration, long elapsedMillis) {
+        this.recordedDuration = recordedDuration;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return the clearing prices published by the replayed auctioneer, in the order they were published.
+     */
+    public List<ClearingPrice> getClearingPrices() {
+        return Collections.unmodifiableList(clearingPrices);
+    }
+
+    /**
+     * @return a comparison for every recorded price round, in the order they were recorded.
+     */
+    public List<PriceComparison> getComparisons() {
+        return Collections.unmodifiableList(comparisons);
+    }
+
+    /**
+     * @return the comparisons of which the divergence is larger than the tolerance, or where no price was replayed.
+     */
+    public List<PriceComparison> getDivergingComparisons() {
+        List<PriceComparison> diverging = new ArrayList<PriceComparison>();
+        for (PriceComparison comparison : comparisons) {
+            if (!(comparison.getDivergence() <= tolerance)) {
+                diverging.add(comparison);
+            }
+        }
+        return diverging;
+    }
+
+    /**
+     * @return the largest divergence of the rounds for which a price was replayed, 0 when there are none.
+     */
+    public double getMaxDivergence() {
+        double max = 0;
+        for (PriceComparison comparison : comparisons) {
+            if (!Double.isNaN(comparison.getDivergence())) {
+                max = Math.max(max, comparison.getDivergence());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the mean divergence of the rounds for which a price was replayed, 0 when there are none.
+     */
+    public double getMeanDivergence() {
+        double sum = 0;
+        int count = 0;
+        for (PriceComparison comparison : comparisons) {
+            if (!Double.isNaN(comparison.getDivergence())) {
+                sum += comparison.getDivergence();
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return the current value of tolerance.
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @return the number of recorded entries that were read.
+     */
+    public long getReplayedEntries() {
+        return replayedEntries;
+    }
+
+    /**
+     * @return the number of recorded bids that were sent into the replayed cluster.
+     */
+    public long getReplayedBids() {
+        return replayedBids;
+    }
+
+    /**
+     * @return the number of replayed bids the cluster did not accept.
+     */
+    public long getRejectedBids() {
+        return rejectedBids;
+    }
+
+    /**
+     * @return the time between the first and the last recorded entry in milliseconds.
+     */
+    public long getRecordedDuration() {
+        return recordedDuration;
+    }
+
+    /**
+     * @return the wall clock time the replay took in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Replayed ").append(replayedEntries).append(" entries (").append(replayedBids).append(" bids, ");
+        sb.append(rejectedBids).append(" rejected) covering ").append(recordedDuration).append(" ms in ");
+        sb.append(elapsedMillis).append(" ms").append(System.getProperty("line.separator"));
+        sb.append(clearingPrices.size()).append(" prices published, ").append(comparisons.size());
+        sb.append(" recorded rounds, ").append(getDivergingComparisons().size()).append(" diverging by more than ");
+        sb.append(tolerance).append(", max divergence ").append(getMaxDivergence()).append(", mean divergence ");
+        sb.append(getMeanDivergence());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,246 @@
+package net.powermatcher.monitoring.eventlog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends {@link EventLogEntry}s to the segments of an event log, see {@link EventLogFormat}.
+ *
+ * The entries are collected in blocks, which are encoded and copied into a memory-mapped segment when they are full or
+ * when the writer is flushed. A segment has a fixed size; when the next block does not fit, a new segment is started.
+ * A closed segment is truncated to the size of its blocks. Existing segments are never changed, a new writer always
+ * starts a new segment.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class SegmentWriter
+    implements Closeable {
+
+    /**
+     * The smallest segment size in bytes.
+     */
+    public static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private final File directory;
+
+    private final String prefix;
+
+    private final int segmentSize;
+
+    private final int blockSize;
+
+    private final List<EventLogEntry> pending;
+
+    private final BlockCodec codec = new BlockCodec();
+
+    private final Dictionary dictionary = new Dictionary();
+
+    private File segmentFile;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer segment;
+
+    private boolean closed;
+
+    private long writtenEntries;
+
+    private long writtenBlocks;
+
+    private long segments;
+
+    /**
+     * @param directory
+     *            the directory of the event log, which is created when needed
+     * @param prefix
+     *            the start of the names of the segment files
+     * @param segmentSize
+     *            the size of a segment in bytes, at least {@link #MIN_SEGMENT_SIZE}
+     * @param blockSize
+     *            the maximum number of entries in a block
+     */
+    public SegmentWriter(File directory, String prefix, int segmentSize, int blockSize) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, segmentSize);
+        this.blockSize = Math.max(1, blockSize);
+        pending = new ArrayList<EventLogEntry>(this.blockSize);
+    }
+
+    /**
+     * Adds an entry to the current block, and writes the block when it is full.
+     *
+     * @param entry
+     *            the entry
+     * @throws IOException
+     *             when the block can not be written, the entries of the block are lost then
+     */
+    public synchronized void append(EventLogEntry entry) throws IOException {
+        if (closed) {
+            throw new IOException("The event log writer has been closed");
+        }
+        pending.add(entry);
+        if (pending.size() >= blockSize) {
+            writePending();
+        }
+    }
+
+    /**
+     * Writes the current block, even when it is not full, and forces the segment to disk.
+     *
+     * @throws IOException
+     *             when the block can not be written
+     */
+    public synchronized void flush() throws IOException {
+        writePending();
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Writes the current block and closes the segment.
+     *
+     * @throws IOException
+     *             when the block can not be written or the segment can not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writePending();
+        } finally {
+            closeSegment();
+        }
+    }
+
+    /**
+     * @return the segment that is being written, or <code>null</code> when no segment is open.
+     */
+    public synchronized File getSegmentFile() {
+        return segmentFile;
+    }
+
+    /**
+     * @return the number of entries that has been written.
+     */
+    public synchronized long getWrittenEntries() {
+        return writtenEntries;
+    }
+
+    /**
+     * @return the number of blocks that has been written.
+     */
+    public synchronized long getWrittenBlocks() {
+        return writtenBlocks;
+    }
+
+    /**
+     * @return the number of segments that has been started.
+     */
+    public synchronized long getSegments() {
+        return segments;
+    }
+
+    private void writePending() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            writeBlock(pending);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private void writeBlock(List<EventLogEntry> entries) throws IOException {
+        if (segment == null) {
+            openSegment();
+        }
+        ByteSink block = codec.encode(entries, dictionary);
+        if (4 + block.size() <= segment.remaining()) {
+            int start = segment.position();
+            segment.position(start + 4);
+            block.writeTo(segment);
+            // The length is written last, so a reader never sees a partial block
+            segment.putInt(start, block.size());
+            writtenEntries += entries.size();
+            writtenBlocks++;
+            return;
+        }
+
+        dictionary.rollback();
+        if (segment.position() > EventLogFormat.HEADER_SIZE) {
+            closeSegment();
+            openSegment();
+            writeBlock(entries);
+        } else if (entries.size() > 1) {
+            // Even an empty segment is too small for the block
+            int half = entries.size() / 2;
+            writeBlock(entries.subList(0, half));
+            writeBlock(entries.subList(half, entries.size()));
+        } else {
+            throw new IOException("An entry of " + block.size() + " bytes does not fit in a segment");
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        long now = System.currentTimeMillis();
+        // The names sort in the order the segments were started
+        long name = now;
+        File file = new File(directory, String.format("%s-%013d%s", prefix, name, EventLogFormat.FILE_EXTENSION));
+        while (file.exists()) {
+            name++;
+            file = new File(directory, String.format("%s-%013d%s", prefix, name, EventLogFormat.FILE_EXTENSION));
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            channel = randomAccessFile.getChannel();
+            segment = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            channel = null;
+            throw e;
+        }
+        segment.putInt(EventLogFormat.MAGIC);
+        segment.putShort(EventLogFormat.VERSION);
+        segment.putShort((short) 0);
+        segment.putLong(now);
+        segmentFile = file;
+        segments++;
+        dictionary.clear();
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        int end = segment.position();
+        segment.force();
+        segment = null;
+        segmentFile = null;
+        try {
+            channel.truncate(end);
+        } catch (IOException e) {
+            // Some platforms do not truncate mapped files, the reader stops at the first empty block
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+}
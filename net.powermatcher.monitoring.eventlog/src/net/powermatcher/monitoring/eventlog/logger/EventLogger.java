@@ -0,0 +1,287 @@
+package net.powermatcher.monitoring.eventlog.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import aQute.bnd.annotation.component.Activate;
+import aQute.bnd.annotation.component.Component;
+import aQute.bnd.annotation.component.Deactivate;
+import aQute.bnd.annotation.component.Modified;
+import aQute.bnd.annotation.component.Reference;
+import aQute.bnd.annotation.metatype.Configurable;
+import aQute.bnd.annotation.metatype.Meta;
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.SelectiveAgentObserver;
+import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.api.monitoring.events.BidUpdateEvent;
+import net.powermatcher.api.monitoring.events.IncomingBidUpdateEvent;
+import net.powermatcher.api.monitoring.events.IncomingPriceUpdateEvent;
+import net.powermatcher.api.monitoring.events.PriceUpdateEvent;
+import net.powermatcher.core.monitoring.BaseObserver;
+import net.powermatcher.core.monitoring.EventSampler;
+import net.powermatcher.core.monitoring.OverflowPolicy;
+import net.powermatcher.monitoring.eventlog.EventLogEntry;
+import net.powermatcher.monitoring.eventlog.EventLogEntry.Type;
+import net.powermatcher.monitoring.eventlog.SegmentWriter;
+
+/**
+ * {@link EventLogger} observes {@link ObservableAgent}s and writes their bid and price updates to a binary event log,
+ * see {@link SegmentWriter}. The log can be read with the reader and the csv export of the event log package.
+ *
+ * It only attaches to the {@link ObservableAgent}s while it is active, so no events arrive before the log is opened or
+ * after it is closed.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+@Component(immediate = true, designateFactory = EventLogger.Config.class)
+public class EventLogger
+    extends BaseObserver
+    implements SelectiveAgentObserver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLogger.class);
+
+    private static final int MEGABYTE = 1024 * 1024;
+
+    /**
+     * OSGI configuration of the {@link EventLogger}
+     */
+    public static interface Config {
+        @Meta.AD(required = false,
+                 description = "Filter for specific agentId's, * and ? can be used as wildcards. "
+                               + "When no filters are supplied, it will log everything.")
+            List<String> filter();
+
+        @Meta.AD(required = true, description = "The directory of the event log.")
+               String logLocation();
+
+        @Meta.AD(deflt = "events", description = "The start of the names of the segment files.")
+               String filePrefix();
+
+        @Meta.AD(deflt = "64", description = "The size of a segment file in megabytes.")
+            int segmentSize();
+
+        @Meta.AD(deflt = "1024", description = "The maximum number of events that are written in one block.")
+            int blockSize();
+
+        @Meta.AD(deflt = "10", description = "Time in seconds after which an incomplete block is written to disk.")
+             long flushInterval();
+
+        @Meta.AD(deflt = "eventLogger")
+               String loggerId();
+
+        @Meta.AD(deflt = "1024", description = "The maximum number of events that are waiting to be logged.")
+            int queueCapacity();
+
+        @Meta.AD(deflt = "DROP_OLDEST",
+                 description = "What to do with new events when the logger can not keep up: "
+                               + "DROP_OLDEST, SAMPLE or BLOCK. BLOCK will slow down the observed agents.")
+                       OverflowPolicy overflowPolicy();
+
+        @Meta.AD(deflt = "1", description = "Log every Nth event of an agent, 1 logs every event.")
+            int sampleRate();
+
+        @Meta.AD(deflt = "0",
+                 description = "Minimum time in milliseconds between two logged events of an agent, 0 for no minimum.")
+             long sampleInterval();
+
+        @Meta.AD(deflt = "0",
+                 description = "Only log a bid when its demand changed more than this at any price step, "
+                               + "0 logs unchanged bids too.")
+               double demandThreshold();
+
+        @Meta.AD(deflt = "0",
+                 description = "Only log a price when it changed more than this, 0 logs unchanged prices too.")
+               double priceThreshold();
+    }
+
+    private final AtomicLong failedEvents = new AtomicLong();
+
+    private final AtomicLong sampledOutEvents = new AtomicLong();
+
+    private volatile EventSampler sampler = EventSampler.ALL;
+
+    private volatile List<String> filter;
+
+    private volatile SegmentWriter writer;
+
+    private ScheduledExecutorService scheduler;
+
+    private String loggerId;
+
+    /**
+     * Creates an {@link EventLogger} that attaches to the {@link ObservableAgent}s once it has been activated.
+     */
+    public EventLogger() {
+        super(false);
+    }
+
+    /**
+     * OSGi calls this method to activate a managed service.
+     *
+     * @param properties
+     *            the configuration properties
+     */
+    @Activate
+    public synchronized void activate(Map<String, Object> properties) {
+        Config config = Configurable.createConfigurable(Config.class, properties);
+
+        filter = config.filter();
+        loggerId = config.loggerId();
+        sampler = new EventSampler(config.sampleRate(),
+                                   config.sampleInterval(),
+                                   config.demandThreshold(),
+                                   config.priceThreshold());
+        writer = new SegmentWriter(new File(config.logLocation()),
+                                   config.filePrefix(),
+                                   (int) Math.min(Integer.MAX_VALUE, (long) config.segmentSize() * MEGABYTE),
+                                   config.blockSize());
+        configureDispatch(config.queueCapacity(), config.overflowPolicy());
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        long flushInterval = Math.max(1, config.flushInterval());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.SECONDS);
+
+        updateObservables();
+        LOGGER.info("EventLogger [{}], activated", loggerId);
+    }
+
+    /**
+     * OSGi calls this method to deactivate a managed service.
+     */
+    @Deactivate
+    public synchronized void deactivate() {
+        detachObservables();
+        shutdownDispatcher();
+        scheduler.shutdownNow();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.error("Error while closing event log", e);
+        }
+        LOGGER.info("EventLogger [{}], deactivated", loggerId);
+    }
+
+    /**
+     * OSGi calls this method to modify a managed service.
+     *
+     * @param properties
+     *            the configuration properties
+     */
+    @Modified
+    public synchronized void modified(Map<String, Object> properties) {
+        deactivate();
+        activate(properties);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Reference(dynamic = true, multiple = true, optional = true)
+    public void addObservable(ObservableAgent observable, Map<String, Object> properties) {
+        super.addObservable(observable, properties);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> getFilter() {
+        return filter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isObserving(Class<? extends AgentEvent> type) {
+        return BidUpdateEvent.class.isAssignableFrom(type) || PriceUpdateEvent.class.isAssignableFrom(type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleAgentEvent(AgentEvent event) {
+        if (!sampler.accept(event)) {
+            sampledOutEvents.incrementAndGet();
+            return;
+        }
+
+        EventLogEntry entry;
+        if (event instanceof BidUpdateEvent) {
+            BidUpdateEvent bidEvent = (BidUpdateEvent) event;
+            Bid bid = bidEvent.getBidUpdate().getBid();
+            entry = EventLogEntry.bid(event instanceof IncomingBidUpdateEvent ? Type.INCOMING_BID : Type.OUTGOING_BID,
+                                      event.getTimestampMillis(),
+                                      event.getClusterId(),
+                                      event.getAgentId(),
+                                      bid.getMarketBasis(),
+                                      bidEvent.getBidUpdate().getBidNumber(),
+                                      bid.getDemand());
+        } else if (event instanceof PriceUpdateEvent) {
+            PriceUpdateEvent priceEvent = (PriceUpdateEvent) event;
+            Price price = priceEvent.getPriceUpdate().getPrice();
+            entry = EventLogEntry.price(event instanceof IncomingPriceUpdateEvent ? Type.INCOMING_PRICE
+                                                                                  : Type.OUTGOING_PRICE,
+                                        event.getTimestampMillis(),
+                                        event.getClusterId(),
+                                        event.getAgentId(),
+                                        price.getMarketBasis(),
+                                        priceEvent.getPriceUpdate().getBidNumber(),
+                                        price.getPriceValue());
+        } else {
+            return;
+        }
+
+        try {
+            writer.append(entry);
+        } catch (IOException e) {
+            if (failedEvents.getAndIncrement() == 0) {
+                LOGGER.error("EventLogger [" + loggerId + "] could not write to the event log", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of events that could not be written to the event log.
+     */
+    public long getFailedEvents() {
+        return failedEvents.get();
+    }
+
+    /**
+     * @return the number of events that were not logged because of the sampling.
+     */
+    public long getSampledOutEvents() {
+        return sampledOutEvents.get();
+    }
+
+    /**
+     * Writes the incomplete block to disk.
+     */
+    private void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            LOGGER.error("EventLogger [" + loggerId + "] could not flush the event log", e);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * This package contains the compact binary event log of bid and price updates, with a reader, a csv export and a
+ * replay engine that replays a recorded session into a live cluster.
+ */
+@aQute.bnd.annotation.Version("1.0.0.${tstamp}")
+package net.powermatcher.monitoring.eventlog;
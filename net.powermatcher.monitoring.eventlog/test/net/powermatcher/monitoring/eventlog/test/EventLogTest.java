@@ -0,0 +1,194 @@
+package net.powermatcher.monitoring.eventlog.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.monitoring.eventlog.CsvExport;
+import net.powermatcher.monitoring.eventlog.EventLogEntry;
+import net.powermatcher.monitoring.eventlog.EventLogEntry.Type;
+import net.powermatcher.monitoring.eventlog.EventLogReader;
+import net.powermatcher.monitoring.eventlog.SegmentWriter;
+
+/**
+ * JUnit tests for the {@link SegmentWriter}, {@link EventLogReader} and {@link CsvExport} classes.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class EventLogTest {
+
+    private static final long START = 1420070400000L;
+
+    private final MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 10, 0, 1);
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("eventlog").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private List<EventLogEntry> createEntries(int count) {
+        Random random = new Random(count);
+        List<EventLogEntry> entries = new ArrayList<EventLogEntry>();
+        for (int i = 0; i < count; i++) {
+            String agentId = "agent" + (i % 7);
+            long timestamp = START + i * 100 + random.nextInt(50);
+            if (i % 3 == 0) {
+                Type type = i % 2 == 0 ? Type.INCOMING_PRICE : Type.OUTGOING_PRICE;
+                double price = random.nextDouble();
+                entries.add(EventLogEntry.price(type, timestamp, "cluster", agentId, marketBasis, i, price));
+            } else {
+                double[] demand = new double[marketBasis.getPriceSteps()];
+                double value = random.nextInt(5000);
+                for (int j = 0; j < demand.length; j++) {
+                    demand[j] = value;
+                    if (random.nextBoolean()) {
+                        value -= random.nextInt(500) + 0.25;
+                    }
+                }
+                Type type = i % 2 == 0 ? Type.INCOMING_BID : Type.OUTGOING_BID;
+                entries.add(EventLogEntry.bid(type, timestamp, "cluster", agentId, marketBasis, i, demand));
+            }
+        }
+        return entries;
+    }
+
+    private List<EventLogEntry> readAll(EventLogReader reader) throws IOException {
+        List<EventLogEntry> entries = new ArrayList<EventLogEntry>();
+        for (EventLogEntry entry = reader.next(); entry != null; entry = reader.next()) {
+            entries.add(entry);
+        }
+        reader.close();
+        return entries;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<EventLogEntry> entries = createEntries(1000);
+        SegmentWriter writer = new SegmentWriter(directory, "events", SegmentWriter.MIN_SEGMENT_SIZE, 64);
+        for (EventLogEntry entry : entries) {
+            writer.append(entry);
+        }
+        writer.close();
+
+        assertThat(writer.getWrittenEntries(), is(equalTo(1000L)));
+        assertThat(readAll(new EventLogReader(directory)), is(equalTo(entries)));
+    }
+
+    @Test
+    public void testSegmentRollover() throws IOException {
+        List<EventLogEntry> entries = createEntries(10000);
+        SegmentWriter writer = new SegmentWriter(directory, "events", SegmentWriter.MIN_SEGMENT_SIZE, 256);
+        for (EventLogEntry entry : entries) {
+            writer.append(entry);
+        }
+        writer.close();
+
+        EventLogReader reader = new EventLogReader(directory, "events");
+        assertThat(reader.getSegmentFiles().size() > 1, is(true));
+        assertThat((long) reader.getSegmentFiles().size(), is(equalTo(writer.getSegments())));
+        for (File segment : reader.getSegmentFiles()) {
+            assertThat(segment.length() <= SegmentWriter.MIN_SEGMENT_SIZE, is(true));
+        }
+        assertThat(readAll(reader), is(equalTo(entries)));
+    }
+
+    @Test
+    public void testReadWhileWriting() throws IOException {
+        List<EventLogEntry> entries = createEntries(100);
+        SegmentWriter writer = new SegmentWriter(directory, "events", SegmentWriter.MIN_SEGMENT_SIZE, 1000);
+        for (EventLogEntry entry : entries) {
+            writer.append(entry);
+        }
+        // Nothing has been written yet, the block is not full
+        assertThat(writer.getSegmentFile(), is(equalTo((File) null)));
+
+        writer.flush();
+        File segment = writer.getSegmentFile();
+        assertThat(segment.length(), is(equalTo((long) SegmentWriter.MIN_SEGMENT_SIZE)));
+        assertThat(readAll(new EventLogReader(segment)), is(equalTo(entries)));
+        writer.close();
+    }
+
+    @Test
+    public void testSelection() throws IOException {
+        List<EventLogEntry> entries = createEntries(2000);
+        SegmentWriter writer = new SegmentWriter(directory, "events", SegmentWriter.MIN_SEGMENT_SIZE, 100);
+        for (EventLogEntry entry : entries) {
+            writer.append(entry);
+        }
+        writer.close();
+
+        long from = START + 50000;
+        long to = START + 60000;
+        List<EventLogEntry> expected = new ArrayList<EventLogEntry>();
+        for (EventLogEntry entry : entries) {
+            if (entry.getAgentId().equals("agent3") && entry.getTimestamp() >= from && entry.getTimestamp() <= to) {
+                expected.add(entry);
+            }
+        }
+
+        EventLogReader reader = new EventLogReader(directory);
+        reader.setTimeRange(from, to);
+        reader.setAgentIds(Collections.singleton("agent3"));
+        List<EventLogEntry> selected = readAll(reader);
+        assertThat(selected.isEmpty(), is(false));
+        assertThat(selected, is(equalTo(expected)));
+    }
+
+    @Test
+    public void testCsvExport() throws IOException {
+        SegmentWriter writer = new SegmentWriter(directory, "events", SegmentWriter.MIN_SEGMENT_SIZE, 100);
+        writer.append(EventLogEntry.bid(Type.OUTGOING_BID,
+                                        START,
+                                        "cluster",
+                                        "agent1",
+                                        marketBasis,
+                                        1,
+                                        new double[] { 4, 4, 3, 3, 2, 2, 1, 1, 0, -1.5 }));
+        writer.append(EventLogEntry.price(Type.INCOMING_PRICE, START + 1, "cluster", "agent1", marketBasis, 1, 0.5));
+        writer.close();
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringWriter csv = new StringWriter();
+        long count = new CsvExport(";", dateFormat).export(new EventLogReader(directory), csv);
+
+        assertThat(count, is(equalTo(2L)));
+        String[] lines = csv.toString().split("\n");
+        assertThat(lines[0],
+                   is(equalTo("timestamp;type;clusterId;agentId;commodity;currency;minimumPrice;maximumPrice;"
+                              + "priceSteps;bidNumber;priceValue;demand;")));
+        assertThat(lines[1],
+                   is(equalTo("2015-01-01 00:00:00.000;OUTGOING_BID;cluster;agent1;electricity;EUR;0;1;10;1;;"
+                              + "4.0#4.0#3.0#3.0#2.0#2.0#1.0#1.0#0.0#-1.5;")));
+        assertThat(lines[2],
+                   is(equalTo("2015-01-01 00:00:00.001;INCOMING_PRICE;cluster;agent1;electricity;EUR;0;1;10;1;0.5;;")));
+    }
+}
@@ -0,0 +1,109 @@
+package net.powermatcher.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@link Metrics} of one agent, with the state that is needed to measure its latencies.
+ *
+ * The last bids an agent sent are kept in a small ring indexed by bid number, so the price for a bid is matched in
+ * constant time without locking. A price for an older bid than the ring holds is not measured.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class AgentMetrics
+    extends Metrics {
+
+    private static final int PENDING_BIDS = 16;
+
+    private static final long NONE = -1;
+
+    private final AtomicLongArray pendingBidNumbers = new AtomicLongArray(PENDING_BIDS);
+
+    private final AtomicLongArray pendingBidTimes = new AtomicLongArray(PENDING_BIDS);
+
+    /**
+     * The time of the first bid that was received after the last aggregation, or {@link #NONE}.
+     */
+    private final AtomicLong firstWaitingBid = new AtomicLong(NONE);
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param agentId
+     *            the id of the agent
+     */
+    public AgentMetrics(String agentId) {
+        super("agent", agentId);
+        for (int i = 0; i < PENDING_BIDS; i++) {
+            pendingBidNumbers.set(i, NONE);
+        }
+    }
+
+    /**
+     * Remembers that the agent sent a bid.
+     *
+     * @param bidNumber
+     *            the number of the bid
+     * @param timestamp
+     *            the time the bid was sent, in milliseconds
+     */
+    public void bidSent(int bidNumber, long timestamp) {
+        if (bidNumber < 0) {
+            return;
+        }
+        int slot = bidNumber % PENDING_BIDS;
+        // Clear the number first, so a concurrent price never sees the time of another bid
+        pendingBidNumbers.set(slot, NONE);
+        pendingBidTimes.set(slot, timestamp);
+        pendingBidNumbers.set(slot, bidNumber);
+    }
+
+    /**
+     * Matches a received price with the bid it is based on. Only the first price for a bid is matched.
+     *
+     * @param bidNumber
+     *            the number of the bid the price is based on
+     * @param timestamp
+     *            the time the price was received, in milliseconds
+     * @return the milliseconds between sending the bid and receiving the price, or -1 when the bid is unknown.
+     */
+    public long priceReceived(int bidNumber, long timestamp) {
+        if (bidNumber < 0) {
+            return NONE;
+        }
+        int slot = bidNumber % PENDING_BIDS;
+        if (pendingBidNumbers.get(slot) != bidNumber) {
+            return NONE;
+        }
+        // The time is written before the number, the compare and set fails when the slot was reused meanwhile
+        long sent = pendingBidTimes.get(slot);
+        if (!pendingBidNumbers.compareAndSet(slot, bidNumber, NONE)) {
+            return NONE;
+        }
+        return Math.max(0, timestamp - sent);
+    }
+
+    /**
+     * Remembers that the agent received a bid, which waits for the next aggregation.
+     *
+     * @param timestamp
+     *            the time the bid was received, in milliseconds
+     */
+    public void bidReceived(long timestamp) {
+        firstWaitingBid.compareAndSet(NONE, timestamp);
+    }
+
+    /**
+     * Marks the received bids as aggregated.
+     *
+     * @param timestamp
+     *            the time of the aggregation, in milliseconds
+     * @return the milliseconds the first of the aggregated bids waited, or -1 when no bid was waiting.
+     */
+    public long aggregated(long timestamp) {
+        long first = firstWaitingBid.getAndSet(NONE);
+        return first == NONE ? NONE : Math.max(0, timestamp - first);
+    }
+}
@@ -0,0 +1,274 @@
+package net.powermatcher.monitoring.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.powermatcher.api.monitoring.Histogram;
+
+/**
+ * The counters and histograms of one agent or one cluster. Counting and recording are lock-free; the rates are
+ * calculated by the {@link MetricsObserver} at a fixed interval, so reading them costs nothing.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class Metrics
+    implements MetricsMBean {
+
+    /**
+     * The events that are counted.
+     */
+    public static enum Counter {
+        BIDS_SENT, BIDS_RECEIVED, PRICES_SENT, PRICES_RECEIVED, AGGREGATIONS
+    }
+
+    private static final int COUNTERS = Counter.values().length;
+
+    private final String scope;
+
+    private final String id;
+
+    private final AtomicLongArray counts = new AtomicLongArray(COUNTERS);
+
+    private final Histogram bidToPriceLatency = new Histogram();
+
+    private final Histogram bidWaitTime = new Histogram();
+
+    /**
+     * The counts at the last rate update, only used by the thread that updates the rates.
+     */
+    private final long[] lastCounts = new long[COUNTERS];
+
+    private long lastUpdate;
+
+    private volatile double[] rates = new double[COUNTERS];
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param scope
+     *            <code>agent</code> or <code>cluster</code>
+     * @param id
+     *            the id of the agent or cluster
+     */
+    public Metrics(String scope, String id) {
+        this.scope = scope;
+        this.id = id;
+        lastUpdate = System.nanoTime();
+    }
+
+    /**
+     * Counts an event.
+     *
+     * @param counter
+     *            the kind of event
+     */
+    public void count(Counter counter) {
+        counts.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * @param counter
+     *            the kind of event
+     * @return the number of counted events of that kind.
+     */
+    public long getCount(Counter counter) {
+        return counts.get(counter.ordinal());
+    }
+
+    /**
+     * @param counter
+     *            the kind of event
+     * @return the number of events of that kind per second, measured over the last rate interval.
+     */
+    public double getRate(Counter counter) {
+        return rates[counter.ordinal()];
+    }
+
+    /**
+     * Calculates the rates over the time since the last update. Must be called from one thread at a time.
+     *
+     * @param now
+     *            the current value of {@link System#nanoTime()}
+     */
+    void updateRates(long now) {
+        double seconds = (double) (now - lastUpdate) / TimeUnit.SECONDS.toNanos(1);
+        if (seconds <= 0) {
+            return;
+        }
+        double[] newRates = new double[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            long current = counts.get(i);
+            newRates[i] = (current - lastCounts[i]) / seconds;
+            lastCounts[i] = current;
+        }
+        lastUpdate = now;
+        rates = newRates;
+    }
+
+    /**
+     * @return the histogram of the milliseconds between sending a bid and receiving its price.
+     */
+    public Histogram getBidToPriceLatency() {
+        return bidToPriceLatency;
+    }
+
+    /**
+     * @return the histogram of the milliseconds a received bid waited before it was aggregated.
+     */
+    public Histogram getBidWaitTime() {
+        return bidWaitTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidsSent() {
+        return getCount(Counter.BIDS_SENT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidsReceived() {
+        return getCount(Counter.BIDS_RECEIVED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPricesSent() {
+        return getCount(Counter.PRICES_SENT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPricesReceived() {
+        return getCount(Counter.PRICES_RECEIVED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAggregations() {
+        return getCount(Counter.AGGREGATIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidsSentPerSecond() {
+        return getRate(Counter.BIDS_SENT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidsReceivedPerSecond() {
+        return getRate(Counter.BIDS_RECEIVED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPricesSentPerSecond() {
+        return getRate(Counter.PRICES_SENT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPricesReceivedPerSecond() {
+        return getRate(Counter.PRICES_RECEIVED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidToPriceLatencyCount() {
+        return bidToPriceLatency.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidToPriceLatencyMean() {
+        return bidToPriceLatency.getMean();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidToPriceLatencyP50() {
+        return bidToPriceLatency.getPercentile(50);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidToPriceLatencyP99() {
+        return bidToPriceLatency.getPercentile(99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidToPriceLatencyMax() {
+        return bidToPriceLatency.getMax();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidWaitTimeMean() {
+        return bidWaitTime.getMean();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidWaitTimeP99() {
+        return bidWaitTime.getPercentile(99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidWaitTimeMax() {
+        return bidWaitTime.getMax();
+    }
+}
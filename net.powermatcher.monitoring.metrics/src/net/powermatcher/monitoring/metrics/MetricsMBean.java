@@ -0,0 +1,106 @@
+package net.powermatcher.monitoring.metrics;
+
+/**
+ * The JMX view of the {@link Metrics} of one agent or cluster. Latencies and durations are in milliseconds, rates are
+ * measured over the last rate interval of the {@link MetricsObserver}.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public interface MetricsMBean {
+
+    /**
+     * @return the current value of scope.
+     */
+    String getScope();
+
+    /**
+     * @return the current value of id.
+     */
+    String getId();
+
+    /**
+     * @return the number of bids that were sent.
+     */
+    long getBidsSent();
+
+    /**
+     * @return the number of bids that were received.
+     */
+    long getBidsReceived();
+
+    /**
+     * @return the number of prices that were sent.
+     */
+    long getPricesSent();
+
+    /**
+     * @return the number of prices that were received.
+     */
+    long getPricesReceived();
+
+    /**
+     * @return the number of bids that were aggregated.
+     */
+    long getAggregations();
+
+    /**
+     * @return the number of bids that were sent per second.
+     */
+    double getBidsSentPerSecond();
+
+    /**
+     * @return the number of bids that were received per second.
+     */
+    double getBidsReceivedPerSecond();
+
+    /**
+     * @return the number of prices that were sent per second.
+     */
+    double getPricesSentPerSecond();
+
+    /**
+     * @return the number of prices that were received per second.
+     */
+    double getPricesReceivedPerSecond();
+
+    /**
+     * @return the number of bids of which the price has been received.
+     */
+    long getBidToPriceLatencyCount();
+
+    /**
+     * @return the average time between sending a bid and receiving its price.
+     */
+    double getBidToPriceLatencyMean();
+
+    /**
+     * @return the median time between sending a bid and receiving its price.
+     */
+    long getBidToPriceLatencyP50();
+
+    /**
+     * @return the 99th percentile of the time between sending a bid and receiving its price.
+     */
+    long getBidToPriceLatencyP99();
+
+    /**
+     * @return the longest time between sending a bid and receiving its price.
+     */
+    long getBidToPriceLatencyMax();
+
+    /**
+     * @return the average time a received bid waited before it was aggregated.
+     */
+    double getBidWaitTimeMean();
+
+    /**
+     * @return the 99th percentile of the time a received bid waited before it was aggregated.
+     */
+    long getBidWaitTimeP99();
+
+    /**
+     * @return the longest time a received bid waited before it was aggregated.
+     */
+    long getBidWaitTimeMax();
+}
@@ -0,0 +1,400 @@
+package net.powermatcher.monitoring.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import aQute.bnd.annotation.component.Activate;
+import aQute.bnd.annotation.component.Component;
+import aQute.bnd.annotation.component.Deactivate;
+import aQute.bnd.annotation.component.Modified;
+import aQute.bnd.annotation.component.Reference;
+import aQute.bnd.annotation.metatype.Configurable;
+import aQute.bnd.annotation.metatype.Meta;
+import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.SelectiveAgentObserver;
+import net.powermatcher.api.monitoring.events.AgentEvent;
+import net.powermatcher.api.monitoring.events.AggregatedBidEvent;
+import net.powermatcher.api.monitoring.events.IncomingBidUpdateEvent;
+import net.powermatcher.api.monitoring.events.IncomingPriceUpdateEvent;
+import net.powermatcher.api.monitoring.events.OutgoingBidUpdateEvent;
+import net.powermatcher.api.monitoring.events.OutgoingPriceUpdateEvent;
+import net.powermatcher.core.monitoring.BaseObserver;
+import net.powermatcher.monitoring.metrics.Metrics.Counter;
+
+/**
+ * {@link MetricsObserver} observes {@link ObservableAgent}s and keeps {@link Metrics} per agent and per cluster: the
+ * number of bids and prices, their rates, the latency between sending a bid and receiving its price and the time a
+ * received bid waits before it is aggregated. The metrics are registered as MBeans and can be read as text through
+ * the {@link MetricsServlet}.
+ *
+ * Like the loggers, this observer receives the events asynchronously. Metrics are only kept for the agents it is
+ * attached to, so the events that arrive after an agent was removed are dropped instead of registering its MBean again.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+@Component(immediate = true, provide = MetricsObserver.class, designate = MetricsObserver.Config.class)
+public class MetricsObserver
+    extends BaseObserver
+    implements SelectiveAgentObserver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsObserver.class);
+
+    private static final String JMX_DOMAIN = "net.powermatcher";
+
+    /**
+     * OSGI configuration of the {@link MetricsObserver}
+     */
+    public static interface Config {
+        @Meta.AD(required = false,
+                 description = "Filter for specific agentId's, * and ? can be used as wildcards. "
+                               + "When no filters are supplied, every agent is measured.")
+            List<String> filter();
+
+        @Meta.AD(deflt = "10", description = "Time in seconds over which the rates are measured.")
+             long rateInterval();
+
+        @Meta.AD(deflt = "true", description = "Register the metrics of every cluster as an MBean.")
+                boolean clusterMBeans();
+
+        @Meta.AD(deflt = "true",
+                 description = "Register the metrics of every agent as an MBean. "
+                               + "Turn this off for clusters with many thousands of agents.")
+                boolean agentMBeans();
+
+        @Meta.AD(deflt = "metrics")
+               String observerId();
+    }
+
+    private final ConcurrentMap<String, AgentMetrics> agentMetrics = new ConcurrentHashMap<String, AgentMetrics>();
+
+    private final ConcurrentMap<String, Metrics> clusterMetrics = new ConcurrentHashMap<String, Metrics>();
+
+    /**
+     * Guards the creation and the removal of metrics, so metrics are only created for the agents this observer is
+     * attached to. Creating metrics is rare, so the events of known agents never take this lock.
+     */
+    private final Object metricsLock = new Object();
+
+    private volatile List<String> filter;
+
+    private volatile boolean clusterMBeans;
+
+    private volatile boolean agentMBeans;
+
+    private volatile String observerId = "metrics";
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a {@link MetricsObserver}, which attaches to the {@link ObservableAgent}s once it is activated.
+     */
+    public MetricsObserver() {
+        super(false);
+    }
+
+    /**
+     * OSGi calls this method to activate a managed service.
+     *
+     * @param properties
+     *            the configuration properties
+     */
+    @Activate
+    public synchronized void activate(Map<String, Object> properties) {
+        Config config = Configurable.createConfigurable(Config.class, properties);
+
+        filter = config.filter();
+        observerId = config.observerId();
+        clusterMBeans = config.clusterMBeans();
+        agentMBeans = config.agentMBeans();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        long rateInterval = Math.max(1, config.rateInterval());
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                updateRates();
+            }
+        }, rateInterval, rateInterval, TimeUnit.SECONDS);
+
+        updateObservables();
+        LOGGER.info("MetricsObserver [{}], activated", observerId);
+    }
+
+    /**
+     * OSGi calls this method to deactivate a managed service.
+     */
+    @Deactivate
+    public synchronized void deactivate() {
+        detachObservables();
+        shutdownDispatcher();
+        scheduler.shutdownNow();
+        synchronized (metricsLock) {
+            for (Metrics metrics : agentMetrics.values()) {
+                unregister(metrics);
+            }
+            agentMetrics.clear();
+            for (Metrics metrics : clusterMetrics.values()) {
+                unregister(metrics);
+            }
+            clusterMetrics.clear();
+        }
+        LOGGER.info("MetricsObserver [{}], deactivated", observerId);
+    }
+
+    /**
+     * OSGi calls this method to modify a managed service.
+     *
+     * @param properties
+     *            the configuration properties
+     */
+    @Modified
+    public synchronized void modified(Map<String, Object> properties) {
+        deactivate();
+        activate(properties);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Reference(dynamic = true, multiple = true, optional = true)
+    public void addObservable(ObservableAgent observable, Map<String, Object> properties) {
+        super.addObservable(observable, properties);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The metrics of the agent are dropped, the metrics of its cluster are kept.
+     */
+    @Override
+    public void removeObservable(ObservableAgent observable, Map<String, Object> properties) {
+        super.removeObservable(observable, properties);
+        String agentId = observable.getAgentId();
+        synchronized (metricsLock) {
+            if (!isAttached(agentId)) {
+                Metrics metrics = agentMetrics.remove(agentId);
+                if (metrics != null) {
+                    unregister(metrics);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> getFilter() {
+        return filter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isObserving(Class<? extends AgentEvent> type) {
+        return OutgoingBidUpdateEvent.class.isAssignableFrom(type)
+               || IncomingBidUpdateEvent.class.isAssignableFrom(type)
+               || OutgoingPriceUpdateEvent.class.isAssignableFrom(type)
+               || IncomingPriceUpdateEvent.class.isAssignableFrom(type)
+               || AggregatedBidEvent.class.isAssignableFrom(type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleAgentEvent(AgentEvent event) {
+        AgentMetrics agent = obtainAgentMetrics(event.getAgentId());
+        if (agent == null) {
+            // An event of an agent that was removed, or that this observer was detached from
+            return;
+        }
+        Metrics cluster = obtainClusterMetrics(event.getAgentId(),
+                                               event.getClusterId() == null ? "" : event.getClusterId());
+        if (cluster == null) {
+            return;
+        }
+        long timestamp = event.getTimestampMillis();
+
+        if (event instanceof OutgoingBidUpdateEvent) {
+            count(agent, cluster, Counter.BIDS_SENT);
+            agent.bidSent(((OutgoingBidUpdateEvent) event).getBidUpdate().getBidNumber(), timestamp);
+        } else if (event instanceof IncomingPriceUpdateEvent) {
+            count(agent, cluster, Counter.PRICES_RECEIVED);
+            long latency = agent.priceReceived(((IncomingPriceUpdateEvent) event).getPriceUpdate().getBidNumber(),
+                                               timestamp);
+            if (latency >= 0) {
+                agent.getBidToPriceLatency().record(latency);
+                cluster.getBidToPriceLatency().record(latency);
+            }
+        } else if (event instanceof IncomingBidUpdateEvent) {
+            count(agent, cluster, Counter.BIDS_RECEIVED);
+            agent.bidReceived(timestamp);
+        } else if (event instanceof OutgoingPriceUpdateEvent) {
+            count(agent, cluster, Counter.PRICES_SENT);
+        } else if (event instanceof AggregatedBidEvent) {
+            count(agent, cluster, Counter.AGGREGATIONS);
+            long waitTime = agent.aggregated(timestamp);
+            if (waitTime >= 0) {
+                agent.getBidWaitTime().record(waitTime);
+                cluster.getBidWaitTime().record(waitTime);
+            }
+        }
+    }
+
+    /**
+     * @return the current value of observerId.
+     */
+    public String getObserverId() {
+        return observerId;
+    }
+
+    /**
+     * @param agentId
+     *            the id of an agent
+     * @return the metrics of the agent, or <code>null</code> when it has not published an event yet.
+     */
+    public AgentMetrics getAgentMetrics(String agentId) {
+        return agentMetrics.get(agentId);
+    }
+
+    /**
+     * @param clusterId
+     *            the id of a cluster
+     * @return the metrics of the cluster, or <code>null</code> when no agent in it has published an event yet.
+     */
+    public Metrics getClusterMetrics(String clusterId) {
+        return clusterMetrics.get(clusterId);
+    }
+
+    /**
+     * @return the metrics of all agents that have published an event.
+     */
+    public Collection<AgentMetrics> getAllAgentMetrics() {
+        return Collections.unmodifiableCollection(agentMetrics.values());
+    }
+
+    /**
+     * @return the metrics of all clusters in which an agent has published an event.
+     */
+    public Collection<Metrics> getAllClusterMetrics() {
+        return Collections.unmodifiableCollection(clusterMetrics.values());
+    }
+
+    /**
+     * Calculates the rates of all metrics over the time since the last update.
+     */
+    synchronized void updateRates() {
+        long now = System.nanoTime();
+        for (Metrics metrics : clusterMetrics.values()) {
+            metrics.updateRates(now);
+        }
+        for (Metrics metrics : agentMetrics.values()) {
+            metrics.updateRates(now);
+        }
+    }
+
+    private void count(Metrics agent, Metrics cluster, Counter counter) {
+        agent.count(counter);
+        cluster.count(counter);
+    }
+
+    /**
+     * @return the metrics of the agent, or <code>null</code> when this observer is not attached to it.
+     */
+    private AgentMetrics obtainAgentMetrics(String agentId) {
+        AgentMetrics metrics = agentMetrics.get(agentId);
+        if (metrics == null) {
+            synchronized (metricsLock) {
+                if (!isAttached(agentId)) {
+                    return null;
+                }
+                metrics = agentMetrics.get(agentId);
+                if (metrics == null) {
+                    metrics = new AgentMetrics(agentId);
+                    agentMetrics.put(agentId, metrics);
+                    if (agentMBeans) {
+                        register(metrics);
+                    }
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of the cluster, or <code>null</code> when this observer is no longer attached to the agent
+     *         and the cluster has no metrics yet.
+     */
+    private Metrics obtainClusterMetrics(String agentId, String clusterId) {
+        Metrics metrics = clusterMetrics.get(clusterId);
+        if (metrics == null) {
+            synchronized (metricsLock) {
+                if (!isAttached(agentId)) {
+                    return null;
+                }
+                metrics = clusterMetrics.get(clusterId);
+                if (metrics == null) {
+                    metrics = new Metrics("cluster", clusterId);
+                    clusterMetrics.put(clusterId, metrics);
+                    if (clusterMBeans) {
+                        register(metrics);
+                    }
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private ObjectName getObjectName(Metrics metrics) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Metrics,observer="
+                              + ObjectName.quote(observerId)
+                              + ",scope="
+                              + metrics.getScope()
+                              + ",id="
+                              + ObjectName.quote(metrics.getId()));
+    }
+
+    private void register(Metrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName(metrics);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(metrics, MetricsMBean.class), name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Could not register the metrics of " + metrics.getScope() + " [" + metrics.getId() + "]", e);
+        }
+    }
+
+    private void unregister(Metrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName(metrics);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Could not unregister the metrics of " + metrics.getScope() + " [" + metrics.getId() + "]", e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.powermatcher.monitoring.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import aQute.bnd.annotation.component.Component;
+import aQute.bnd.annotation.component.Reference;
+import aQute.bnd.annotation.metatype.Meta;
+import net.powermatcher.api.monitoring.InstrumentedExecutor;
+
+/**
+ * The MetricsServlet writes the {@link Metrics} of all {@link MetricsObserver}s and the statistics of all
+ * {@link InstrumentedExecutor}s as plain text, see {@link MetricsTextFormat}. By default the metrics of the clusters
+ * and the agents are written; with <code>?scope=cluster</code> only the metrics of the clusters and the totals of the
+ * executors are written.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+@Component(provide = Servlet.class, designate = MetricsServlet.Config.class)
+public class MetricsServlet
+    extends HttpServlet {
+
+    public interface Config {
+        @Meta.AD(deflt = "/metrics", description = "The alias under which this servlet can be reached")
+        public String alias();
+    }
+
+    private static final long serialVersionUID = -4640946366498817164L;
+
+    private final CopyOnWriteArrayList<MetricsObserver> observers = new CopyOnWriteArrayList<MetricsObserver>();
+
+    private final CopyOnWriteArrayList<InstrumentedExecutor> executors
+        = new CopyOnWriteArrayList<InstrumentedExecutor>();
+
+    @Reference(dynamic = true, multiple = true, optional = true)
+    public void addObserver(MetricsObserver observer) {
+        observers.addIfAbsent(observer);
+    }
+
+    public void removeObserver(MetricsObserver observer) {
+        observers.remove(observer);
+    }
+
+    @Reference(dynamic = true, multiple = true, optional = true)
+    public void addExecutor(InstrumentedExecutor executor) {
+        executors.addIfAbsent(executor);
+    }
+
+    public void removeExecutor(InstrumentedExecutor executor) {
+        executors.remove(executor);
+    }
+
+    /**
+     * Writes the metrics.
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        boolean agents = !"cluster".equals(req.getParameter("scope"));
+        resp.setContentType(MetricsTextFormat.CONTENT_TYPE);
+        MetricsTextFormat.write(resp.getWriter(), observers, agents);
+        MetricsTextFormat.writeExecutors(resp.getWriter(), executors, agents);
+    }
+}
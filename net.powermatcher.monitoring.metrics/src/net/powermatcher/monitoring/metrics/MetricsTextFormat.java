@@ -0,0 +1,328 @@
+package net.powermatcher.monitoring.metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.powermatcher.api.monitoring.Histogram;
+import net.powermatcher.api.monitoring.InstrumentedExecutor;
+import net.powermatcher.api.monitoring.TimingStatistics;
+import net.powermatcher.monitoring.metrics.Metrics.Counter;
+
+/**
+ * Writes {@link Metrics} in the plain text exposition format that Prometheus and similar tools scrape, e.g.
+ *
+ * <pre>
+ * # TYPE powermatcher_events_total counter
+ * powermatcher_events_total{observer="metrics",scope="cluster",id="DefaultCluster",event="bids_sent"} 1234
+ * </pre>
+ *
+ * Latencies and durations are written in milliseconds, as a summary with the 50th, 90th and 99th percentile. Lines
+ * always end with a single newline, as the format requires.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public final class MetricsTextFormat {
+
+    /**
+     * The content type of the format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String EVENTS_TOTAL = "powermatcher_events_total";
+
+    private static final String EVENTS_PER_SECOND = "powermatcher_events_per_second";
+
+    private static final String BID_TO_PRICE_LATENCY = "powermatcher_bid_to_price_latency_milliseconds";
+
+    private static final String BID_WAIT_TIME = "powermatcher_bid_wait_time_milliseconds";
+
+    private static final String EXECUTOR_THREADS = "powermatcher_executor_threads";
+
+    private static final String EXECUTOR_QUEUE_SIZE = "powermatcher_executor_queue_size";
+
+    private static final String EXECUTOR_SATURATED = "powermatcher_executor_saturated";
+
+    private static final String EXECUTOR_TASKS_TOTAL = "powermatcher_executor_tasks_total";
+
+    private static final String EXECUTOR_AGENT_TASKS_TOTAL = "powermatcher_executor_agent_tasks_total";
+
+    private static final String EXECUTOR_QUEUE_DELAY = "powermatcher_executor_queue_delay_milliseconds";
+
+    private static final String EXECUTOR_RUN_TIME = "powermatcher_executor_run_time_milliseconds";
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    private MetricsTextFormat() {
+        // Utility class
+    }
+
+    /**
+     * Writes the metrics of the clusters and, optionally, of the agents. Every metric is written once, with a sample
+     * for every cluster and agent.
+     *
+     * @param out
+     *            the writer to write to
+     * @param observers
+     *            the observers that measured the metrics
+     * @param agents
+     *            <code>true</code> to write the metrics of the agents too, which can be a lot in large clusters
+     */
+    public static void write(PrintWriter out, Collection<MetricsObserver> observers, boolean agents) {
+        out.print("# TYPE " + EVENTS_TOTAL + " counter");
+        out.print('\n');
+        for (MetricsObserver observer : observers) {
+            for (Metrics scope : getMetrics(observer, agents)) {
+                for (Counter counter : Counter.values()) {
+                    writeSample(out, EVENTS_TOTAL, observer, scope, counter, Long.toString(scope.getCount(counter)));
+                }
+            }
+        }
+        out.print("# TYPE " + EVENTS_PER_SECOND + " gauge");
+        out.print('\n');
+        for (MetricsObserver observer : observers) {
+            for (Metrics scope : getMetrics(observer, agents)) {
+                for (Counter counter : Counter.values()) {
+                    writeSample(out, EVENTS_PER_SECOND, observer, scope, counter, format(scope.getRate(counter)));
+                }
+            }
+        }
+        out.print("# TYPE " + BID_TO_PRICE_LATENCY + " summary");
+        out.print('\n');
+        for (MetricsObserver observer : observers) {
+            for (Metrics scope : getMetrics(observer, agents)) {
+                writeSummary(out, BID_TO_PRICE_LATENCY, observer, scope, scope.getBidToPriceLatency());
+            }
+        }
+        out.print("# TYPE " + BID_WAIT_TIME + " summary");
+        out.print('\n');
+        for (MetricsObserver observer : observers) {
+            for (Metrics scope : getMetrics(observer, agents)) {
+                writeSummary(out, BID_WAIT_TIME, observer, scope, scope.getBidWaitTime());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the statistics of the executors that run the tasks of the agents, so it can be seen whether the pool is
+     * saturated. The executors are labeled by their position in the collection.
+     *
+     * @param out
+     *            the writer to write to
+     * @param executors
+     *            the executors to write the statistics of
+     * @param agents
+     *            <code>true</code> to write the number of tasks of every agent too
+     */
+    public static void writeExecutors(PrintWriter out, Collection<InstrumentedExecutor> executors, boolean agents) {
+        writeType(out, EXECUTOR_THREADS, "gauge");
+        int index = 0;
+        for (InstrumentedExecutor executor : executors) {
+            writeExecutorSample(out, EXECUTOR_THREADS, index, "state", "pool", executor.getPoolSize());
+            writeExecutorSample(out, EXECUTOR_THREADS, index, "state", "active", executor.getActiveCount());
+            index++;
+        }
+        writeType(out, EXECUTOR_QUEUE_SIZE, "gauge");
+        index = 0;
+        for (InstrumentedExecutor executor : executors) {
+            writeExecutorSample(out, EXECUTOR_QUEUE_SIZE, index, null, null, executor.getQueueSize());
+            index++;
+        }
+        writeType(out, EXECUTOR_SATURATED, "gauge");
+        index = 0;
+        for (InstrumentedExecutor executor : executors) {
+            writeExecutorSample(out, EXECUTOR_SATURATED, index, null, null, executor.isSaturated() ? 1 : 0);
+            index++;
+        }
+        writeType(out, EXECUTOR_TASKS_TOTAL, "counter");
+        index = 0;
+        for (InstrumentedExecutor executor : executors) {
+            String name = EXECUTOR_TASKS_TOTAL;
+            writeExecutorSample(out, name, index, "result", "run", executor.getRunTaskCount());
+            writeExecutorSample(out, name, index, "result", "failed", executor.getFailedTaskCount());
+            writeExecutorSample(out, name, index, "result", "rejected", executor.getRejectedTaskCount());
+            writeExecutorSample(out, name, index, "result", "overdue", executor.getOverdueTaskCount());
+            writeExecutorSample(out, name, index, "result", "slow", executor.getSlowTaskCount());
+            index++;
+        }
+        if (agents) {
+            writeType(out, EXECUTOR_AGENT_TASKS_TOTAL, "counter");
+            index = 0;
+            for (InstrumentedExecutor executor : executors) {
+                Map<String, Long> counts = new TreeMap<String, Long>(executor.getTaskCounts());
+                for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                    writeExecutorSample(out,
+                                        EXECUTOR_AGENT_TASKS_TOTAL,
+                                        index,
+                                        "agent",
+                                        entry.getKey(),
+                                        entry.getValue());
+                }
+                index++;
+            }
+        }
+        writeType(out, EXECUTOR_QUEUE_DELAY, "summary");
+        index = 0;
+        for (InstrumentedExecutor executor : executors) {
+            writeExecutorSummary(out, EXECUTOR_QUEUE_DELAY, index, executor.getQueueDelayStatistics());
+            index++;
+        }
+        writeType(out, EXECUTOR_RUN_TIME, "summary");
+        index = 0;
+        for (InstrumentedExecutor executor : executors) {
+            writeExecutorSummary(out, EXECUTOR_RUN_TIME, index, executor.getRunTimeStatistics());
+            index++;
+        }
+        out.flush();
+    }
+
+    private static void writeType(PrintWriter out, String name, String type) {
+        out.print("# TYPE " + name + " " + type);
+        out.print('\n');
+    }
+
+    private static void writeExecutorSample(PrintWriter out,
+                                            String name,
+                                            int index,
+                                            String label,
+                                            String labelValue,
+                                            long value) {
+        out.print(name);
+        out.print("{executor=\"");
+        out.print(index);
+        out.print('"');
+        if (label != null) {
+            out.print(',');
+            out.print(label);
+            out.print("=\"");
+            out.print(escape(labelValue));
+            out.print('"');
+        }
+        out.print("} ");
+        out.print(value);
+        out.print('\n');
+    }
+
+    private static void writeExecutorSummary(PrintWriter out, String name, int index, TimingStatistics statistics) {
+        if (statistics.getCount() == 0) {
+            return;
+        }
+        long[] percentiles = { statistics.getP50Nanos(), statistics.getP90Nanos(), statistics.getP99Nanos() };
+        for (int i = 0; i < QUANTILES.length; i++) {
+            out.print(name);
+            out.print("{executor=\"");
+            out.print(index);
+            out.print("\",quantile=\"");
+            out.print(QUANTILES[i]);
+            out.print("\"} ");
+            out.print(format(percentiles[i] / NANOS_PER_MILLI));
+            out.print('\n');
+        }
+        out.print(name);
+        out.print("_sum{executor=\"");
+        out.print(index);
+        out.print("\"} ");
+        out.print(format(statistics.getTotalNanos() / NANOS_PER_MILLI));
+        out.print('\n');
+        out.print(name);
+        out.print("_count{executor=\"");
+        out.print(index);
+        out.print("\"} ");
+        out.print(statistics.getCount());
+        out.print('\n');
+    }
+
+    private static List<Metrics> getMetrics(MetricsObserver observer, boolean agents) {
+        List<Metrics> metrics = new ArrayList<Metrics>(observer.getAllClusterMetrics());
+        if (agents) {
+            metrics.addAll(observer.getAllAgentMetrics());
+        }
+        return metrics;
+    }
+
+    private static void writeSummary(PrintWriter out,
+                                     String name,
+                                     MetricsObserver observer,
+                                     Metrics scope,
+                                     Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        for (double quantile : QUANTILES) {
+            out.print(name);
+            writeLabels(out, observer, scope);
+            out.print(",quantile=\"");
+            out.print(quantile);
+            out.print("\"} ");
+            out.print(histogram.getPercentile(quantile * 100));
+            out.print('\n');
+        }
+        out.print(name);
+        out.print("_sum");
+        writeLabels(out, observer, scope);
+        out.print("} ");
+        out.print(histogram.getTotal());
+        out.print('\n');
+        out.print(name);
+        out.print("_count");
+        writeLabels(out, observer, scope);
+        out.print("} ");
+        out.print(histogram.getCount());
+        out.print('\n');
+    }
+
+    private static void writeSample(PrintWriter out,
+                                    String name,
+                                    MetricsObserver observer,
+                                    Metrics scope,
+                                    Counter counter,
+                                    String value) {
+        out.print(name);
+        writeLabels(out, observer, scope);
+        out.print(",event=\"");
+        out.print(counter.name().toLowerCase(Locale.ROOT));
+        out.print("\"} ");
+        out.print(value);
+        out.print('\n');
+    }
+
+    /**
+     * Writes the opening brace and the labels of a sample, without the closing brace.
+     */
+    private static void writeLabels(PrintWriter out, MetricsObserver observer, Metrics scope) {
+        out.print("{observer=\"");
+        out.print(escape(observer.getObserverId()));
+        out.print("\",scope=\"");
+        out.print(scope.getScope());
+        out.print("\",id=\"");
+        out.print(escape(scope.getId()));
+        out.print('"');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
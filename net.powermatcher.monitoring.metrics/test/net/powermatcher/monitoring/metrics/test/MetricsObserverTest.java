@@ -0,0 +1,273 @@
+package net.powermatcher.monitoring.metrics.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.flexiblepower.context.FlexiblePowerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.monitoring.AgentObserver;
+import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.monitoring.events.AggregatedBidEvent;
+import net.powermatcher.api.monitoring.events.IncomingBidUpdateEvent;
+import net.powermatcher.api.monitoring.events.IncomingPriceUpdateEvent;
+import net.powermatcher.api.monitoring.events.OutgoingBidUpdateEvent;
+import net.powermatcher.api.monitoring.events.OutgoingPriceUpdateEvent;
+import net.powermatcher.monitoring.metrics.AgentMetrics;
+import net.powermatcher.monitoring.metrics.Metrics;
+import net.powermatcher.monitoring.metrics.MetricsObserver;
+import net.powermatcher.monitoring.metrics.MetricsTextFormat;
+
+/**
+ * JUnit tests for the {@link MetricsObserver} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class MetricsObserverTest {
+
+    private static final String CLUSTER_ID = "testCluster";
+
+    private static final Map<String, Object> NO_PROPERTIES = null;
+
+    private static class TestObservable
+        implements ObservableAgent {
+        private final String agentId;
+        private final List<AgentObserver> observers = new CopyOnWriteArrayList<AgentObserver>();
+
+        TestObservable(String agentId) {
+            this.agentId = agentId;
+        }
+
+        @Override
+        public String getAgentId() {
+            return agentId;
+        }
+
+        @Override
+        public Status getStatus() {
+            return null;
+        }
+
+        @Override
+        public void setContext(FlexiblePowerContext context) {
+        }
+
+        @Override
+        public void addObserver(AgentObserver observer) {
+            observers.add(observer);
+        }
+
+        @Override
+        public void removeObserver(AgentObserver observer) {
+            observers.remove(observer);
+        }
+    }
+
+    private final MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 5, 0, 10);
+
+    private final Bid bid = new Bid(marketBasis, new double[] { 4, 3, 2, 1, 0 });
+
+    private MetricsObserver observer;
+
+    private final TestObservable agent1 = new TestObservable("agent1");
+
+    @Before
+    public void setUp() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("observerId", "test");
+        properties.put("rateInterval", 3600L);
+        properties.put("clusterMBeans", true);
+        properties.put("agentMBeans", true);
+        observer = new MetricsObserver();
+        observer.activate(properties);
+        observer.addObservable(agent1, NO_PROPERTIES);
+        observer.addObservable(new TestObservable("agent2"), NO_PROPERTIES);
+        observer.addObservable(new TestObservable("auctioneer"), NO_PROPERTIES);
+    }
+
+    @After
+    public void tearDown() {
+        observer.deactivate();
+    }
+
+    private void bidSent(String agentId, int bidNumber, long timestamp) {
+        observer.handleAgentEvent(new OutgoingBidUpdateEvent(CLUSTER_ID,
+                                                             agentId,
+                                                             "session",
+                                                             timestamp,
+                                                             new BidUpdate(bid, bidNumber)));
+    }
+
+    private void priceReceived(String agentId, int bidNumber, long timestamp) {
+        observer.handleAgentEvent(new IncomingPriceUpdateEvent(CLUSTER_ID,
+                                                               agentId,
+                                                               "session",
+                                                               timestamp,
+                                                               new PriceUpdate(new Price(marketBasis, 5), bidNumber)));
+    }
+
+    @Test
+    public void testBidToPriceLatency() {
+        bidSent("agent1", 1, 1000);
+        priceReceived("agent1", 1, 1250);
+        // A second price for the same bid is not measured again
+        priceReceived("agent1", 1, 2000);
+        bidSent("agent1", 2, 3000);
+        bidSent("agent1", 3, 3100);
+        priceReceived("agent1", 3, 3300);
+        // The price of another agent does not match the bids of agent1
+        priceReceived("agent2", 2, 3400);
+
+        AgentMetrics agent = observer.getAgentMetrics("agent1");
+        assertThat(agent.getBidsSent(), is(equalTo(3L)));
+        assertThat(agent.getPricesReceived(), is(equalTo(3L)));
+        assertThat(agent.getBidToPriceLatencyCount(), is(equalTo(2L)));
+        assertThat(agent.getBidToPriceLatency().getMin(), is(equalTo(200L)));
+        assertThat(agent.getBidToPriceLatencyMax(), is(equalTo(250L)));
+        assertThat(observer.getAgentMetrics("agent2").getBidToPriceLatencyCount(), is(equalTo(0L)));
+
+        Metrics cluster = observer.getClusterMetrics(CLUSTER_ID);
+        assertThat(cluster.getBidsSent(), is(equalTo(3L)));
+        assertThat(cluster.getPricesReceived(), is(equalTo(4L)));
+        assertThat(cluster.getBidToPriceLatencyCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testBidWaitTime() {
+        for (int i = 0; i < 3; i++) {
+            observer.handleAgentEvent(new IncomingBidUpdateEvent(CLUSTER_ID,
+                                                                 "auctioneer",
+                                                                 "session" + i,
+                                                                 1000 + i * 100,
+                                                                 "agent" + i,
+                                                                 new BidUpdate(bid, i)));
+        }
+        observer.handleAgentEvent(new AggregatedBidEvent(CLUSTER_ID, "auctioneer", 1800, bid));
+        // Without new bids no wait time is measured
+        observer.handleAgentEvent(new AggregatedBidEvent(CLUSTER_ID, "auctioneer", 2800, bid));
+        observer.handleAgentEvent(new OutgoingPriceUpdateEvent(CLUSTER_ID,
+                                                               "auctioneer",
+                                                               "session0",
+                                                               2800,
+                                                               new PriceUpdate(new Price(marketBasis, 5), 0)));
+
+        AgentMetrics auctioneer = observer.getAgentMetrics("auctioneer");
+        assertThat(auctioneer.getBidsReceived(), is(equalTo(3L)));
+        assertThat(auctioneer.getAggregations(), is(equalTo(2L)));
+        assertThat(auctioneer.getPricesSent(), is(equalTo(1L)));
+        assertThat(auctioneer.getBidWaitTime().getCount(), is(equalTo(1L)));
+        assertThat(auctioneer.getBidWaitTimeMax(), is(equalTo(800L)));
+    }
+
+    @Test
+    public void testMBeans() throws Exception {
+        bidSent("agent1", 1, 1000);
+        priceReceived("agent1", 1, 1100);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName agentName = new ObjectName("net.powermatcher:type=Metrics,observer=\"test\",scope=agent,"
+                                              + "id=\"agent1\"");
+        ObjectName clusterName = new ObjectName("net.powermatcher:type=Metrics,observer=\"test\",scope=cluster,id=\""
+                                                + CLUSTER_ID
+                                                + "\"");
+        assertThat(server.getAttribute(agentName, "BidsSent"), is((Object) 1L));
+        assertThat(server.getAttribute(clusterName, "BidToPriceLatencyMax"), is((Object) 100L));
+
+        observer.deactivate();
+        assertThat(server.isRegistered(agentName), is(false));
+        assertThat(server.isRegistered(clusterName), is(false));
+        observer.activate(new HashMap<String, Object>());
+    }
+
+    @Test
+    public void testTextFormat() {
+        bidSent("agent1", 1, 1000);
+        priceReceived("agent1", 1, 1100);
+
+        StringWriter text = new StringWriter();
+        MetricsTextFormat.write(new PrintWriter(text), Collections.singletonList(observer), false);
+        String output = text.toString();
+        assertThat(output.contains("# TYPE powermatcher_events_total counter\n"), is(true));
+        assertThat(output.contains("powermatcher_events_total{observer=\"test\",scope=\"cluster\",id=\"testCluster\","
+                                   + "event=\"bids_sent\"} 1\n"),
+                   is(true));
+        assertThat(output.contains("powermatcher_bid_to_price_latency_milliseconds{observer=\"test\",scope=\"cluster\","
+                                   + "id=\"testCluster\",quantile=\"0.99\"} 100\n"),
+                   is(true));
+        assertThat(output.contains("scope=\"agent\""), is(false));
+
+        text = new StringWriter();
+        MetricsTextFormat.write(new PrintWriter(text), Collections.singletonList(observer), true);
+        assertThat(text.toString().contains("powermatcher_events_total{observer=\"test\",scope=\"agent\",id=\"agent1\","
+                                            + "event=\"prices_received\"} 1\n"),
+                   is(true));
+    }
+
+    @Test
+    public void testAsyncDispatch() throws InterruptedException {
+        assertThat(agent1.observers.size(), is(equalTo(1)));
+        AgentObserver registered = agent1.observers.get(0);
+        assertThat(registered, is(not(sameInstance((AgentObserver) observer))));
+
+        registered.handleAgentEvent(new OutgoingBidUpdateEvent(CLUSTER_ID,
+                                                               "agent1",
+                                                               "session",
+                                                               1000,
+                                                               new BidUpdate(bid, 1)));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (observer.getAgentMetrics("agent1") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(observer.getAgentMetrics("agent1").getBidsSent(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testEventsOfRemovedAgent() throws Exception {
+        bidSent("agent1", 1, 1000);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName agentName = new ObjectName("net.powermatcher:type=Metrics,observer=\"test\",scope=agent,"
+                                              + "id=\"agent1\"");
+        assertThat(server.isRegistered(agentName), is(true));
+
+        observer.removeObservable(agent1, NO_PROPERTIES);
+        assertThat(agent1.observers.size(), is(equalTo(0)));
+        assertThat(server.isRegistered(agentName), is(false));
+
+        // An event that was still on its way when the agent was removed
+        bidSent("agent1", 2, 2000);
+        assertThat(observer.getAgentMetrics("agent1"), is(nullValue()));
+        assertThat(server.isRegistered(agentName), is(false));
+        assertThat(observer.getClusterMetrics(CLUSTER_ID).getBidsSent(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testUnobservedAgent() {
+        bidSent("unknown", 1, 1000);
+        assertThat(observer.getAgentMetrics("unknown"), is(nullValue()));
+        assertThat(observer.getClusterMetrics(CLUSTER_ID), is(nullValue()));
+    }
+}
@@ -17,6 +17,7 @@ import net.powermatcher.api.MatcherEndpoint;
 import net.powermatcher.api.data.Bid;
 import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.data.Price;
+import net.powermatcher.api.monitoring.InstrumentedAgent;
 import net.powermatcher.api.monitoring.ObservableAgent;
 import net.powermatcher.core.auctioneer.Auctioneer;
 import net.powermatcher.core.concentrator.Concentrator;
@@ -43,7 +44,8 @@ import net.powermatcher.core.concentrator.TransformingConcentrator;
                        MatcherEndpoint.class,
                        AgentEndpoint.class,
                        TransformingConcentrator.class,
-                       PeakShavingConcentrator.class })
+                       PeakShavingConcentrator.class,
+                       InstrumentedAgent.class })
 public class PeakShavingConcentrator
     extends Concentrator
     implements TransformingConcentrator {
@@ -0,0 +1,605 @@
+package net.powermatcher.remote.websockets.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
+import net.powermatcher.remote.websockets.data.ChannelModel;
+import net.powermatcher.remote.websockets.data.ClusterInfoModel;
+import net.powermatcher.remote.websockets.data.PmMessage;
+import net.powermatcher.remote.websockets.data.PmMessage.PayloadType;
+import net.powermatcher.remote.websockets.json.ModelMapper;
+
+/**
+ * Implements the compact binary wire format for the PowerMatcher websocket protocol. It is used instead of the JSON
+ * format when both sides agree on the {@link #SUBPROTOCOL} during the websocket handshake.
+ *
+ * Every message starts with a single byte that identifies the {@link PayloadType}, followed by:
+ * <ul>
+ * <li>CLUSTERINFO: marketBasisId, clusterId, commodity, currency, priceSteps, minimumPrice, maximumPrice, flags,
+ * optionally the resume token and, for a resumed session, the number of the last bid held by the server</li>
+ * <li>BID: marketBasisId, bidNumber, demand</li>
+ * <li>PRICE_UPDATE: marketBasisId, bidNumber, priceValue</li>
+ * <li>DELTA: baseBidNumber, bidNumber, encoding, number of ranges and per range the number of unchanged price steps
+ * before it, its length and its demand</li>
+ * <li>CHANNEL: channel, followed by a complete message of another type that belongs to that channel</li>
+ * <li>CHANNEL_OPEN: agentId</li>
+ * <li>CHANNEL_CLOSE: nothing</li>
+ * </ul>
+ * Integers are written as (zigzag) varints, strings as a varint length followed by UTF-8 bytes and prices as
+ * little-endian doubles. The {@link MarketBasis} is only sent in the CLUSTERINFO message; the other messages refer to it
+ * by its id. The demand array is written as one encoding byte (double or float), followed by runs of equal demand values
+ * as a varint run length and the value. Since bids are step functions, most price steps are in a run.
+ *
+ * A codec holds the market basis ids of one connection, so each connection needs its own instance. The codec is
+ * thread-safe.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class PmBinaryCodec {
+    /**
+     * The name of the websocket subprotocol for this format.
+     */
+    public static final String SUBPROTOCOL = "powermatcher-binary-1";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_CLUSTERINFO = 1;
+    private static final byte TYPE_BID = 2;
+    private static final byte TYPE_PRICE_UPDATE = 3;
+    private static final byte TYPE_BID_DELTA = 4;
+    private static final byte TYPE_CHANNEL = 5;
+    private static final byte TYPE_CHANNEL_OPEN = 6;
+    private static final byte TYPE_CHANNEL_CLOSE = 7;
+
+    private static final byte FLAG_BID_DELTAS = 1;
+    private static final byte FLAG_RESUME_TOKEN = 2;
+    private static final byte FLAG_RESUMED = 4;
+
+    private static final byte DEMAND_DOUBLE = 0;
+    private static final byte DEMAND_FLOAT = 1;
+
+    /**
+     * Limits the memory a single range of a malformed DELTA message can claim.
+     */
+    private static final int MAX_RANGE_LENGTH = 1 << 20;
+
+    private final boolean singlePrecision;
+
+    private final Map<MarketBasis, Integer> marketBasisIds = new ConcurrentHashMap<MarketBasis, Integer>();
+    private final Map<Integer, MarketBasis> marketBases = new ConcurrentHashMap<Integer, MarketBasis>();
+    private final AtomicInteger nextMarketBasisId = new AtomicInteger();
+
+    /**
+     * Creates a codec that writes the demand as doubles.
+     */
+    public PmBinaryCodec() {
+        this(false);
+    }
+
+    /**
+     * @param singlePrecision
+     *            when <code>true</code> the demand of bids is written as floats, which halves the size of the bids but
+     *            loses precision.
+     */
+    public PmBinaryCodec(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * Encodes the cluster information. This also assigns an id to the {@link MarketBasis}, which is used by the
+     * following bids and price updates.
+     *
+     * @param clusterId
+     *            the id of the cluster
+     * @param marketBasis
+     *            the market basis of the cluster
+     * @return the encoded message, ready to be sent
+     */
+    public ByteBuffer encodeClusterInfo(String clusterId, MarketBasis marketBasis) {
+        return encodeClusterInfo(clusterId, marketBasis, false);
+    }
+
+    /**
+     * Encodes the cluster information. This also assigns an id to the {@link MarketBasis}, which is used by the
+     * following bids and price updates.
+     *
+     * @param clusterId
+     *            the id of the cluster
+     * @param marketBasis
+     *            the market basis of the cluster
+     * @param bidDeltas
+     *            <code>true</code> when the sender accepts {@link BidDeltaModel}s
+     * @return the encoded message, ready to be sent
+     */
+    public ByteBuffer encodeClusterInfo(String clusterId, MarketBasis marketBasis, boolean bidDeltas) {
+        return encodeClusterInfo(clusterId, marketBasis, bidDeltas, null, false, 0);
+    }
+
+    /**
+     * Encodes the cluster information of a session that can be resumed. This also assigns an id to the
+     * {@link MarketBasis}, which is used by the following bids and price updates.
+     *
+     * @param clusterId
+     *            the id of the cluster
+     * @param marketBasis
+     *            the market basis of the cluster
+     * @param bidDeltas
+     *            <code>true</code> when the sender accepts {@link BidDeltaModel}s
+     * @param resumeToken
+     *            the token to resume the session with, or <code>null</code> when it can not be resumed
+     * @param resumed
+     *            <code>true</code> when an existing session has been resumed
+     * @param lastBidNumber
+     *            the number of the last bid held for a resumed session, 0 when none
+     * @return the encoded message, ready to be sent
+     */
+    public ByteBuffer encodeClusterInfo(String clusterId,
+                                        MarketBasis marketBasis,
+                                        boolean bidDeltas,
+                                        String resumeToken,
+                                        boolean resumed,
+                                        int lastBidNumber) {
+        int marketBasisId = register(marketBasis);
+        byte[] clusterIdBytes = clusterId.getBytes(UTF8);
+        byte[] commodityBytes = marketBasis.getCommodity().getBytes(UTF8);
+        byte[] currencyBytes = marketBasis.getCurrency().getBytes(UTF8);
+        byte[] resumeTokenBytes = resumeToken == null ? new byte[0] : resumeToken.getBytes(UTF8);
+
+        ByteBuffer buffer = allocate(1 + 5 * 5 + clusterIdBytes.length + commodityBytes.length + currencyBytes.length
+                                     + 16 + 1 + 5 + resumeTokenBytes.length + 5);
+        buffer.put(TYPE_CLUSTERINFO);
+        putVarint(buffer, marketBasisId);
+        putString(buffer, clusterIdBytes);
+        putString(buffer, commodityBytes);
+        putString(buffer, currencyBytes);
+        putVarint(buffer, marketBasis.getPriceSteps());
+        buffer.putDouble(marketBasis.getMinimumPrice());
+        buffer.putDouble(marketBasis.getMaximumPrice());
+        byte flags = bidDeltas ? FLAG_BID_DELTAS : 0;
+        if (resumeToken != null) {
+            flags |= FLAG_RESUME_TOKEN;
+        }
+        if (resumed) {
+            flags |= FLAG_RESUMED;
+        }
+        buffer.put(flags);
+        if (resumeToken != null) {
+            putString(buffer, resumeTokenBytes);
+        }
+        if (resumed) {
+            putVarint(buffer, zigzag(lastBidNumber));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a {@link BidUpdate}. The {@link MarketBasis} of the bid must be known, either from
+     * {@link #encodeClusterInfo(String, MarketBasis)} or from a decoded CLUSTERINFO message.
+     *
+     * @param bidUpdate
+     *            the bid update to encode
+     * @return the encoded message, ready to be sent
+     */
+    public ByteBuffer encodeBidUpdate(BidUpdate bidUpdate) {
+        Bid bid = bidUpdate.getBid();
+        int marketBasisId = getMarketBasisId(bid.getMarketBasis());
+        double[] demand = bid.getDemand();
+
+        ByteBuffer buffer = allocate(1 + 5 + 5 + 1 + maxDemandSize(demand, 0, demand.length));
+        buffer.put(TYPE_BID);
+        putVarint(buffer, marketBasisId);
+        putVarint(buffer, zigzag(bidUpdate.getBidNumber()));
+        buffer.put(singlePrecision ? DEMAND_FLOAT : DEMAND_DOUBLE);
+        putDemand(buffer, demand, 0, demand.length);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a {@link BidDeltaModel}, as created by
+     * {@link net.powermatcher.remote.websockets.json.ModelMapper#createBidDelta(BidUpdate, BidUpdate)}.
+     *
+     * @param bidDelta
+     *            the delta to encode
+     * @return the encoded message, ready to be sent
+     */
+    public ByteBuffer encodeBidDelta(BidDeltaModel bidDelta) {
+        int[] rangeStarts = bidDelta.getRangeStarts();
+        int[] rangeLengths = bidDelta.getRangeLengths();
+        double[] demand = bidDelta.getDemand();
+
+        int maxSize = 1 + 5 + 5 + 1 + 5;
+        int offset = 0;
+        for (int range = 0; range < rangeStarts.length; range++) {
+            maxSize += 10 + maxDemandSize(demand, offset, offset + rangeLengths[range]);
+            offset += rangeLengths[range];
+        }
+
+        ByteBuffer buffer = allocate(maxSize);
+        buffer.put(TYPE_BID_DELTA);
+        putVarint(buffer, zigzag(bidDelta.getBaseBidNumber()));
+        putVarint(buffer, zigzag(bidDelta.getBidNumber()));
+        buffer.put(singlePrecision ? DEMAND_FLOAT : DEMAND_DOUBLE);
+        putVarint(buffer, rangeStarts.length);
+        int previousEnd = 0;
+        offset = 0;
+        for (int range = 0; range < rangeStarts.length; range++) {
+            putVarint(buffer, rangeStarts[range] - previousEnd);
+            putVarint(buffer, rangeLengths[range]);
+            putDemand(buffer, demand, offset, offset + rangeLengths[range]);
+            previousEnd = rangeStarts[range] + rangeLengths[range];
+            offset += rangeLengths[range];
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a {@link PriceUpdate}. The {@link MarketBasis} of the price must be known.
+     *
+     * @param priceUpdate
+     *            the price update to encode
+     * @return the encoded message, ready to be sent
+     */
+    public ByteBuffer encodePriceUpdate(PriceUpdate priceUpdate) {
+        Price price = priceUpdate.getPrice();
+        int marketBasisId = getMarketBasisId(price.getMarketBasis());
+
+        ByteBuffer buffer = allocate(1 + 5 + 5 + 8);
+        buffer.put(TYPE_PRICE_UPDATE);
+        putVarint(buffer, marketBasisId);
+        putVarint(buffer, zigzag(priceUpdate.getBidNumber()));
+        buffer.putDouble(price.getPriceValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes the opening of a channel on a multiplexed connection. Use {@link #addChannel(int, ByteBuffer)} to set the
+     * channel id.
+     *
+     * @param agentId
+     *            the id of the agent that uses the channel
+     * @return the encoded message
+     */
+    public ByteBuffer encodeChannelOpen(String agentId) {
+        byte[] agentIdBytes = agentId.getBytes(UTF8);
+        ByteBuffer buffer = allocate(1 + 5 + agentIdBytes.length);
+        buffer.put(TYPE_CHANNEL_OPEN);
+        putString(buffer, agentIdBytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes the closing of a channel on a multiplexed connection. Use {@link #addChannel(int, ByteBuffer)} to set the
+     * channel id.
+     *
+     * @return the encoded message
+     */
+    public ByteBuffer encodeChannelClose() {
+        ByteBuffer buffer = allocate(1);
+        buffer.put(TYPE_CHANNEL_CLOSE);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Adds the channel id of a multiplexed connection to a message.
+     *
+     * @param channel
+     *            the id of the channel
+     * @param message
+     *            a message encoded by this codec
+     * @return the message with the channel id, ready to be sent
+     */
+    public ByteBuffer addChannel(int channel, ByteBuffer message) {
+        ByteBuffer buffer = allocate(1 + 5 + message.remaining());
+        buffer.put(TYPE_CHANNEL);
+        putVarint(buffer, channel);
+        buffer.put(message);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a binary message. The payload of the returned {@link PmMessage} is a {@link ClusterInfoModel}, a
+     * {@link BidUpdate}, a {@link PriceUpdate}, a {@link BidDeltaModel} or a {@link ChannelModel}, depending on the
+     * {@link PayloadType}. The channel of the message is set when it belongs to a channel of a multiplexed connection.
+     *
+     * @param data
+     *            the array holding the message
+     * @param offset
+     *            the position of the message in the array
+     * @param length
+     *            the length of the message
+     * @return the decoded message
+     * @throws IllegalArgumentException
+     *             when the message is not valid
+     */
+    public PmMessage decode(byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            PmMessage message = new PmMessage();
+            byte type = buffer.get();
+            if (type == TYPE_CHANNEL) {
+                message.setChannel(getVarint(buffer));
+                type = buffer.get();
+            }
+            switch (type) {
+            case TYPE_CLUSTERINFO:
+                message.setPayloadType(PayloadType.CLUSTERINFO);
+                message.setPayload(decodeClusterInfo(buffer));
+                break;
+            case TYPE_BID:
+                message.setPayloadType(PayloadType.BID);
+                message.setPayload(decodeBidUpdate(buffer));
+                break;
+            case TYPE_PRICE_UPDATE:
+                message.setPayloadType(PayloadType.PRICE_UPDATE);
+                message.setPayload(decodePriceUpdate(buffer));
+                break;
+            case TYPE_BID_DELTA:
+                message.setPayloadType(PayloadType.DELTA);
+                message.setPayload(decodeBidDelta(buffer));
+                break;
+            case TYPE_CHANNEL_OPEN:
+                message.setPayloadType(PayloadType.CHANNEL_OPEN);
+                ChannelModel channel = new ChannelModel();
+                channel.setAgentId(getString(buffer));
+                message.setPayload(channel);
+                break;
+            case TYPE_CHANNEL_CLOSE:
+                message.setPayloadType(PayloadType.CHANNEL_CLOSE);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message type " + type);
+            }
+            return message;
+        } catch (RuntimeException ex) {
+            if (ex instanceof IllegalArgumentException) {
+                throw ex;
+            }
+            throw new IllegalArgumentException("Invalid binary message: " + ex, ex);
+        }
+    }
+
+    private ClusterInfoModel decodeClusterInfo(ByteBuffer buffer) {
+        int marketBasisId = getVarint(buffer);
+        String clusterId = getString(buffer);
+        String commodity = getString(buffer);
+        String currency = getString(buffer);
+        int priceSteps = getVarint(buffer);
+        double minimumPrice = buffer.getDouble();
+        double maximumPrice = buffer.getDouble();
+        // The flags are optional, so they can be extended later
+        byte flags = buffer.hasRemaining() ? buffer.get() : 0;
+
+        MarketBasis marketBasis = new MarketBasis(commodity, currency, priceSteps, minimumPrice, maximumPrice);
+        marketBases.put(marketBasisId, marketBasis);
+        marketBasisIds.put(marketBasis, marketBasisId);
+
+        ClusterInfoModel clusterInfo = new ClusterInfoModel();
+        clusterInfo.setClusterId(clusterId);
+        clusterInfo.setMarketBasis(ModelMapper.convertMarketBasis(marketBasis));
+        clusterInfo.setBidDeltas((flags & FLAG_BID_DELTAS) != 0);
+        if ((flags & FLAG_RESUME_TOKEN) != 0) {
+            clusterInfo.setResumeToken(getString(buffer));
+        }
+        if ((flags & FLAG_RESUMED) != 0) {
+            clusterInfo.setResumed(true);
+            clusterInfo.setLastBidNumber(unzigzag(getVarint(buffer)));
+        }
+        return clusterInfo;
+    }
+
+    private BidUpdate decodeBidUpdate(ByteBuffer buffer) {
+        MarketBasis marketBasis = getMarketBasis(getVarint(buffer));
+        int bidNumber = unzigzag(getVarint(buffer));
+        byte encoding = getEncoding(buffer);
+
+        double[] demand = new double[marketBasis.getPriceSteps()];
+        getDemand(buffer, encoding, demand, 0, demand.length);
+        return new BidUpdate(new Bid(marketBasis, demand), bidNumber);
+    }
+
+    private BidDeltaModel decodeBidDelta(ByteBuffer buffer) {
+        int baseBidNumber = unzigzag(getVarint(buffer));
+        int bidNumber = unzigzag(getVarint(buffer));
+        byte encoding = getEncoding(buffer);
+        int ranges = getVarint(buffer);
+        // Each range takes at least 3 bytes
+        if (ranges < 0 || ranges > buffer.remaining() / 3) {
+            throw new IllegalArgumentException("Invalid number of ranges " + ranges);
+        }
+
+        int[] rangeStarts = new int[ranges];
+        int[] rangeLengths = new int[ranges];
+        double[] demand = new double[16];
+        int previousEnd = 0;
+        int size = 0;
+        for (int range = 0; range < ranges; range++) {
+            rangeStarts[range] = previousEnd + getVarint(buffer);
+            rangeLengths[range] = getVarint(buffer);
+            if (rangeStarts[range] < previousEnd || rangeLengths[range] <= 0
+                || rangeLengths[range] > MAX_RANGE_LENGTH) {
+                throw new IllegalArgumentException("Invalid range " + rangeStarts[range] + "+" + rangeLengths[range]);
+            }
+            if (size + rangeLengths[range] > demand.length) {
+                double[] larger = new double[Math.max(demand.length * 2, size + rangeLengths[range])];
+                System.arraycopy(demand, 0, larger, 0, size);
+                demand = larger;
+            }
+            getDemand(buffer, encoding, demand, size, size + rangeLengths[range]);
+            previousEnd = rangeStarts[range] + rangeLengths[range];
+            size += rangeLengths[range];
+        }
+
+        BidDeltaModel bidDelta = new BidDeltaModel();
+        bidDelta.setBaseBidNumber(baseBidNumber);
+        bidDelta.setBidNumber(bidNumber);
+        bidDelta.setRangeStarts(rangeStarts);
+        bidDelta.setRangeLengths(rangeLengths);
+        bidDelta.setDemand(size == demand.length ? demand : Arrays.copyOf(demand, size));
+        return bidDelta;
+    }
+
+    private PriceUpdate decodePriceUpdate(ByteBuffer buffer) {
+        MarketBasis marketBasis = getMarketBasis(getVarint(buffer));
+        int bidNumber = unzigzag(getVarint(buffer));
+        double priceValue = buffer.getDouble();
+        return new PriceUpdate(new Price(marketBasis, priceValue), bidNumber);
+    }
+
+    private int register(MarketBasis marketBasis) {
+        Integer id = marketBasisIds.get(marketBasis);
+        if (id == null) {
+            synchronized (marketBasisIds) {
+                id = marketBasisIds.get(marketBasis);
+                if (id == null) {
+                    id = nextMarketBasisId.getAndIncrement();
+                    marketBases.put(id, marketBasis);
+                    marketBasisIds.put(marketBasis, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    private int getMarketBasisId(MarketBasis marketBasis) {
+        Integer id = marketBasisIds.get(marketBasis);
+        if (id == null) {
+            throw new IllegalArgumentException("The market basis " + marketBasis
+                                               + " has not been sent in a CLUSTERINFO message");
+        }
+        return id;
+    }
+
+    private MarketBasis getMarketBasis(int marketBasisId) {
+        MarketBasis marketBasis = marketBases.get(marketBasisId);
+        if (marketBasis == null) {
+            throw new IllegalArgumentException("Unknown market basis id " + marketBasisId);
+        }
+        return marketBasis;
+    }
+
+    /**
+     * @return the maximum number of bytes needed by {@link #putDemand(ByteBuffer, double[], int, int)}.
+     */
+    private int maxDemandSize(double[] demand, int from, int to) {
+        int runs = 0;
+        for (int ix = from; ix < to; ix++) {
+            if (ix == from || !sameValue(demand[ix], demand[ix - 1])) {
+                runs++;
+            }
+        }
+        return runs * (5 + (singlePrecision ? 4 : 8));
+    }
+
+    /**
+     * Writes the demand from index from (inclusive) to index to (exclusive) as runs of equal values.
+     */
+    private void putDemand(ByteBuffer buffer, double[] demand, int from, int to) {
+        int runStart = from;
+        for (int ix = from + 1; ix <= to; ix++) {
+            if (ix == to || !sameValue(demand[ix], demand[runStart])) {
+                putVarint(buffer, ix - runStart);
+                if (singlePrecision) {
+                    buffer.putFloat((float) demand[runStart]);
+                } else {
+                    buffer.putDouble(demand[runStart]);
+                }
+                runStart = ix;
+            }
+        }
+    }
+
+    private static byte getEncoding(ByteBuffer buffer) {
+        byte encoding = buffer.get();
+        if (encoding != DEMAND_DOUBLE && encoding != DEMAND_FLOAT) {
+            throw new IllegalArgumentException("Unknown demand encoding " + encoding);
+        }
+        return encoding;
+    }
+
+    /**
+     * Reads runs of equal demand values into demand, from index from (inclusive) to index to (exclusive).
+     */
+    private static void getDemand(ByteBuffer buffer, byte encoding, double[] demand, int from, int to) {
+        int ix = from;
+        while (ix < to) {
+            int runLength = getVarint(buffer);
+            if (runLength <= 0 || runLength > to - ix) {
+                throw new IllegalArgumentException("Invalid run length " + runLength + " at price step " + ix);
+            }
+            double value = encoding == DEMAND_FLOAT ? buffer.getFloat() : buffer.getDouble();
+            for (int end = ix + runLength; ix < end; ix++) {
+                demand[ix] = value;
+            }
+        }
+    }
+
+    private static boolean sameValue(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    private static ByteBuffer allocate(int maxSize) {
+        return ByteBuffer.allocate(maxSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,2 @@
+@aQute.bnd.annotation.Version("1.0.0")
+package net.powermatcher.remote.websockets.binary;
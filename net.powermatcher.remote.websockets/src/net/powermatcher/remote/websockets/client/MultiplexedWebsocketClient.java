@@ -0,0 +1,636 @@
+package net.powermatcher.remote.websockets.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.websocket.api.CloseStatus;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketFrame;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import com.google.gson.JsonSyntaxException;
+
+import aQute.bnd.annotation.component.Activate;
+import aQute.bnd.annotation.component.Component;
+import aQute.bnd.annotation.component.Deactivate;
+import aQute.bnd.annotation.metatype.Configurable;
+import aQute.bnd.annotation.metatype.Meta;
+import net.powermatcher.api.Agent;
+import net.powermatcher.api.MatcherEndpoint;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.sessions.SessionId;
+import net.powermatcher.api.sessions.SessionIdGenerator;
+import net.powermatcher.core.BaseAgent;
+import net.powermatcher.core.BaseMatcherEndpoint;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+import net.powermatcher.remote.websockets.data.ClusterInfoModel;
+import net.powermatcher.remote.websockets.data.PmMessage.PayloadType;
+import net.powermatcher.remote.websockets.data.PmMessage;
+import net.powermatcher.remote.websockets.data.PriceUpdateModel;
+import net.powermatcher.remote.websockets.json.ModelMapper;
+import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+import net.powermatcher.remote.websockets.transport.LinkMonitor;
+import net.powermatcher.remote.websockets.transport.LinkStatistics;
+import net.powermatcher.remote.websockets.transport.OutboundQueue;
+
+/**
+ * WebSocket implementation of a {@link MatcherEndpoint} that connects many local agents to a remote matcher over a
+ * single multiplexed websocket. Unlike the {@link WebsocketClient}, which sends one aggregated bid, every local agent
+ * gets its own logical channel and its own proxy at the server, so the remote matcher sees each agent individually.
+ *
+ * Directly after connecting, a channel is opened for this client itself. The cluster information that the server
+ * sends on that channel makes this matcher endpoint available to the local agents. A bid of a local agent is sent once
+ * the server has connected the proxy of its channel; until then only the newest bid is kept.
+ *
+ * The messages of all channels are written asynchronously through a shared {@link OutboundQueue}. A queued bid of a
+ * channel is replaced by a newer bid of the same channel. The statistics of the queue are registered as
+ * {@link LinkStatistics} MBean.
+ *
+ * The connection is pinged, and a {@link LinkMonitor} holds the round trip times, which are part of the
+ * {@link LinkStatistics} MBean.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+@WebSocket()
+@Component(designateFactory = MultiplexedWebsocketClient.Config.class,
+           immediate = true,
+           provide = { ObservableAgent.class })
+public class MultiplexedWebsocketClient
+    extends BaseAgent
+    implements MatcherEndpoint, LinkStatistics.Link {
+
+    @Meta.OCD(description = "Multiplexed remote client over websockets configuration")
+    public static interface Config {
+        @Meta.AD(deflt = "gateway", description = "The unique identifier of the agent")
+        String agentId();
+
+        @Meta.AD(deflt = "ws://localhost:8080/powermatcher/websocket",
+                 description = "URL of powermatcher websocket endpoint.")
+        String powermatcherUrl();
+
+        @Meta.AD(deflt = "30",
+                 description = "Delay in seconds before reconnecting after the connection was lost. "
+                               + "The delay doubles after every failed attempt, and is randomized.")
+        int reconnectTimeout();
+
+        @Meta.AD(deflt = "300", description = "Maximum delay in seconds between two reconnect attempts.")
+        int maxReconnectDelay();
+
+        @Meta.AD(deflt = "60", description = "connect timeout to wait for remote server to respond.")
+        int connectTimeout();
+
+        @Meta.AD(deflt = "true",
+                 description = "Ask the server for the compact binary protocol. JSON is used when the server does not support it.")
+        boolean binaryProtocol();
+
+        @Meta.AD(deflt = "256",
+                 description = "The maximum number of messages that can wait to be written to the server. "
+                               + "Further messages are dropped until the queue has room again.")
+        int maxOutboundMessages();
+
+        @Meta.AD(deflt = "false",
+                 description = "Ask the server for permessage-deflate compression. Off by default: the binary "
+                               + "protocol is compact already, and compression keeps a deflate state per "
+                               + "connection. It mostly pays off for JSON bids with many price steps.")
+        boolean compression();
+
+        @Meta.AD(deflt = "true",
+                 description = "Keep the compression context between messages. This compresses repeated bids better, "
+                               + "but costs memory on both sides.")
+        boolean compressionContextTakeover();
+
+        @Meta.AD(deflt = "30",
+                 description = "The time in seconds between two pings to the server, which measure the round trip "
+                               + "time of the link. 0 turns pinging off.")
+        int pingInterval();
+
+        @Meta.AD(deflt = "3",
+                 description = "The number of unanswered pings after which the connection is closed and set up again")
+        int maxMissedPongs();
+    }
+
+    /**
+     * The channel of this client itself.
+     */
+    private static final int GATEWAY_CHANNEL = 0;
+
+    /**
+     * A logical channel of the connection, used by a single local agent.
+     */
+    private static final class Channel {
+        final int id;
+        final net.powermatcher.api.Session session;
+
+        /**
+         * <code>true</code> once the proxy of this channel has been connected to the remote matcher.
+         */
+        boolean ready;
+
+        /**
+         * The newest bid that could not be sent yet.
+         */
+        BidUpdate pendingBid;
+
+        Channel(int id, net.powermatcher.api.Session session) {
+            this.id = id;
+            this.session = session;
+        }
+    }
+
+    private String agentId;
+
+    private volatile Agent.Status status = BaseMatcherEndpoint.NOT_CONNECTED;
+
+    private URI powermatcherUrl;
+
+    private volatile Session remoteSession;
+
+    /**
+     * Identifies the current websocket connection, a new one is generated for every connection attempt.
+     */
+    private volatile SessionId remoteSessionId;
+
+    private Reconnector reconnector;
+
+    private boolean binaryProtocol;
+
+    private int maxOutboundMessages;
+
+    private long pingInterval;
+
+    private int maxMissedPongs;
+
+    /**
+     * Measures the latency of the link to the server, over all connections.
+     */
+    private LinkMonitor linkMonitor;
+
+    /**
+     * The MBean of the link to the server, over all connections.
+     */
+    private LinkStatistics linkStatistics;
+
+    /**
+     * The permessage-deflate offer, or <code>null</code> when compression is off.
+     */
+    private String compressionExtension;
+
+    /**
+     * The outbound messages of the current connection.
+     */
+    private volatile OutboundQueue outboundQueue;
+
+    /**
+     * The codec for the binary format of the current connection, or <code>null</code> when JSON is used.
+     */
+    private volatile PmBinaryCodec binaryCodec;
+
+    private BundleContext bundleContext;
+
+    private ServiceRegistration<MatcherEndpoint> matcherEndpointServiceRegistration;
+
+    private final ConcurrentMap<Integer, Channel> channels = new ConcurrentHashMap<Integer, Channel>();
+
+    private final ConcurrentMap<String, Channel> channelsByAgent = new ConcurrentHashMap<String, Channel>();
+
+    private final AtomicInteger nextChannel = new AtomicInteger(GATEWAY_CHANNEL + 1);
+
+    /**
+     * OSGi calls this method to activate a managed service.
+     *
+     * @param properties
+     *            the configuration properties
+     * @throws Exception
+     */
+    @Activate
+    public void activate(BundleContext bundleContext, Map<String, Object> properties) throws Exception {
+        Config config = Configurable.createConfigurable(Config.class, properties);
+        agentId = config.agentId();
+
+        try {
+            powermatcherUrl = new URI(config.powermatcherUrl() + "?multiplex=true&agentId=" + agentId);
+        } catch (URISyntaxException e) {
+            LOGGER.error("Malformed URL for powermatcher websocket endpoint. Reason {}", e);
+            return;
+        }
+
+        binaryProtocol = config.binaryProtocol();
+        maxOutboundMessages = config.maxOutboundMessages();
+        pingInterval = config.pingInterval() * 1000L;
+        maxMissedPongs = config.maxMissedPongs();
+        linkMonitor = new LinkMonitor(agentId + "->" + config.powermatcherUrl());
+        linkStatistics = new LinkStatistics(linkMonitor.getName(), this);
+        linkStatistics.register();
+        if (config.compression()) {
+            compressionExtension = "permessage-deflate";
+            if (!config.compressionContextTakeover()) {
+                compressionExtension += "; client_no_context_takeover; server_no_context_takeover";
+            }
+        }
+        this.bundleContext = bundleContext;
+
+        reconnector = new Reconnector(agentId, new Reconnector.Connector() {
+            @Override
+            public Future<Session> connect(WebSocketClient client) throws Exception {
+                return connectRemote(client);
+            }
+        }, config.reconnectTimeout() * 1000L, config.maxReconnectDelay() * 1000L, config.connectTimeout() * 1000L);
+        try {
+            reconnector.start();
+        } catch (Exception e) {
+            LOGGER.warn("Could not start websocket client: " + e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * OSGi calls this method to deactivate a managed service.
+     */
+    @Deactivate
+    public void deactivate() {
+        reconnector.stop();
+        if (linkStatistics != null) {
+            linkStatistics.unregister();
+        }
+        unregisterMatcherEndpoint();
+        if (isRemoteConnected()) {
+            remoteSession.close(new CloseStatus(0, "Normal disconnect"));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Agent.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Determines whether the Websocket is connected.
+     *
+     * @return true when connected, false otherwise
+     */
+    public boolean isRemoteConnected() {
+        Session session = remoteSession;
+        return session != null && session.isOpen();
+    }
+
+    /**
+     * @return the identifier of the current (or last) websocket connection, or <code>null</code> when never connected.
+     */
+    public SessionId getRemoteSessionId() {
+        return remoteSessionId;
+    }
+
+    /**
+     * @return the number of local agents that have a channel.
+     */
+    public int getChannelCount() {
+        return channelsByAgent.size();
+    }
+
+    /**
+     * @return the outbound messages of the current (or last) connection, e.g. to monitor the queue depth and write
+     *         times, or <code>null</code> when never connected.
+     */
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * @return the latency measurements of the link to the server, or <code>null</code> when not activated.
+     */
+    @Override
+    public LinkMonitor getLinkMonitor() {
+        return linkMonitor;
+    }
+
+    /**
+     * @return the MBean of the link to the server, or <code>null</code> when not activated.
+     */
+    public LinkStatistics getLinkStatistics() {
+        return linkStatistics;
+    }
+
+    private Future<Session> connectRemote(WebSocketClient client) throws IOException {
+        remoteSessionId = SessionIdGenerator.getDefault().next();
+        ClientUpgradeRequest request = new ClientUpgradeRequest();
+        if (binaryProtocol) {
+            request.setSubProtocols(PmBinaryCodec.SUBPROTOCOL, PmJsonSerializer.SUBPROTOCOL);
+        }
+        if (compressionExtension != null) {
+            request.addExtensions(compressionExtension);
+        }
+        LOGGER.info("Connecting to : {} (session {})", powermatcherUrl, remoteSessionId);
+        return client.connect(this, powermatcherUrl, request);
+    }
+
+    /**
+     * Handle the opening of the websocket. Determines the wire format and opens the channel of this client.
+     *
+     * @param session
+     *            the new websocket session
+     */
+    @OnWebSocketConnect
+    public void onConnect(Session session) {
+        outboundQueue = new OutboundQueue(session.getRemote(), maxOutboundMessages);
+        String subProtocol = session.getUpgradeResponse().getAcceptedSubProtocol();
+        binaryCodec = PmBinaryCodec.SUBPROTOCOL.equals(subProtocol) ? new PmBinaryCodec() : null;
+        remoteSession = session;
+        reconnector.connected();
+        if (pingInterval > 0) {
+            reconnector.heartbeat(session, linkMonitor, pingInterval, maxMissedPongs);
+        }
+        LOGGER.info("Connected (session {}) using {}",
+                    remoteSessionId,
+                    binaryCodec == null ? PmJsonSerializer.SUBPROTOCOL : PmBinaryCodec.SUBPROTOCOL);
+
+        channels.put(GATEWAY_CHANNEL, new Channel(GATEWAY_CHANNEL, null));
+        sendChannelOpen(GATEWAY_CHANNEL, agentId);
+    }
+
+    /**
+     * Handle the closing of the websocket. The local agents are disconnected, they reconnect once the connection has
+     * been restored.
+     *
+     * @param statusCode
+     * @param reason
+     */
+    @OnWebSocketClose
+    public void onDisconnect(int statusCode, String reason) {
+        LOGGER.info("Connection closed (session {}): {} - {}", remoteSessionId, statusCode, reason);
+        remoteSession = null;
+        reconnector.disconnected();
+        OutboundQueue queue = outboundQueue;
+        if (queue != null) {
+            queue.clear();
+        }
+        status = BaseMatcherEndpoint.NOT_CONNECTED;
+        unregisterMatcherEndpoint();
+        for (Channel channel : channels.values()) {
+            if (channel.session != null) {
+                channel.session.disconnect();
+            }
+        }
+        channels.clear();
+        channelsByAgent.clear();
+    }
+
+    /**
+     * Hands the pongs of the server to the {@link LinkMonitor}.
+     *
+     * @param frame
+     *            a received websocket frame
+     */
+    @OnWebSocketFrame
+    public void onFrame(Frame frame) {
+        if (frame.getType() == Frame.Type.PONG) {
+            linkMonitor.pong(frame.getPayload());
+        }
+    }
+
+    /**
+     * Handle Websocket receive message
+     *
+     * @param message
+     *            the message received via Websockets
+     */
+    @OnWebSocketMessage
+    public void onMessage(String message) {
+        try {
+            PmMessage pmMessage = PmJsonSerializer.getDefault().deserialize(message);
+            if (pmMessage.getPayloadType() == PayloadType.PRICE_UPDATE) {
+                pmMessage.setPayload(ModelMapper.mapPriceUpdate((PriceUpdateModel) pmMessage.getPayload()));
+            }
+            handleMessage(pmMessage);
+        } catch (JsonSyntaxException e) {
+            LOGGER.warn("Unable to understand message from remote agent: {}", message);
+        }
+    }
+
+    /**
+     * Handle Websocket receive binary message
+     *
+     * @param buffer
+     *            the array holding the message
+     * @param offset
+     *            the position of the message in the array
+     * @param length
+     *            the length of the message
+     */
+    @OnWebSocketMessage
+    public void onMessage(byte[] buffer, int offset, int length) {
+        PmBinaryCodec codec = binaryCodec;
+        if (codec == null) {
+            LOGGER.warn("Ignoring binary message, the binary protocol has not been negotiated");
+            return;
+        }
+        try {
+            handleMessage(codec.decode(buffer, offset, length));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unable to understand binary message from remote agent: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Handles a decoded message. The payload of a PRICE_UPDATE must already be a {@link PriceUpdate}.
+     */
+    private void handleMessage(PmMessage pmMessage) {
+        Channel channel = pmMessage.getChannel() == null ? null : channels.get(pmMessage.getChannel());
+        if (channel == null) {
+            LOGGER.warn("Got message [{}] for unknown channel {}", pmMessage.getPayloadType(), pmMessage.getChannel());
+            return;
+        }
+
+        switch (pmMessage.getPayloadType()) {
+        case CLUSTERINFO:
+            if (channel.id == GATEWAY_CHANNEL) {
+                ClusterInfoModel clusterInfo = (ClusterInfoModel) pmMessage.getPayload();
+                status = new BaseMatcherEndpoint.Connected(clusterInfo.getClusterId(),
+                                                           ModelMapper.convertMarketBasis(clusterInfo.getMarketBasis()));
+                registerMatcherEndpoint();
+            } else {
+                BidUpdate pendingBid;
+                synchronized (channel) {
+                    channel.ready = true;
+                    pendingBid = channel.pendingBid;
+                    channel.pendingBid = null;
+                }
+                if (pendingBid != null) {
+                    sendBid(channel, pendingBid);
+                }
+            }
+            break;
+        case PRICE_UPDATE:
+            if (channel.session != null) {
+                channel.session.updatePrice((PriceUpdate) pmMessage.getPayload());
+            }
+            break;
+        case CHANNEL_CLOSE:
+            LOGGER.info("The server closed channel {}", channel.id);
+            if (channel.id == GATEWAY_CHANNEL) {
+                // Without its own channel this client has no cluster information, start over
+                remoteSession.close(new CloseStatus(0, "Gateway channel closed"));
+            } else if (channels.remove(channel.id, channel)) {
+                channelsByAgent.remove(channel.session.getAgentId(), channel);
+                channel.session.disconnect();
+            }
+            break;
+        default:
+            LOGGER.warn("Got unexpected message type [{}]", pmMessage.getPayloadType());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void connectToAgent(net.powermatcher.api.Session session) {
+        Agent.Status currentStatus = getStatus();
+        if (!currentStatus.isConnected()) {
+            throw new IllegalStateException("This matcher is not yet connected to the cluster");
+        }
+        Channel channel = new Channel(nextChannel.getAndIncrement(), session);
+        if (channelsByAgent.putIfAbsent(session.getAgentId(), channel) != null) {
+            throw new IllegalStateException("An agent with id [" + session.getAgentId() + "] was already connected");
+        }
+        session.setMarketBasis(currentStatus.getMarketBasis());
+        channels.put(channel.id, channel);
+        sendChannelOpen(channel.id, session.getAgentId());
+        LOGGER.info("Agent connected with session [{}] on channel {}", session.getSessionId(), channel.id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void agentEndpointDisconnected(net.powermatcher.api.Session session) {
+        Channel channel = channelsByAgent.get(session.getAgentId());
+        if (channel != null && session.equals(channel.session)) {
+            channelsByAgent.remove(session.getAgentId(), channel);
+            if (channels.remove(channel.id, channel)) {
+                try {
+                    PmBinaryCodec codec = binaryCodec;
+                    if (codec != null) {
+                        send(channel.id, codec.encodeChannelClose(), false);
+                    } else {
+                        send(channel.id, PmJsonSerializer.getDefault().serializeChannelClose(), false);
+                    }
+                } catch (WebSocketException | NullPointerException e) {
+                    LOGGER.debug("Unable to close channel {}, reason {}", channel.id, e);
+                }
+            }
+            LOGGER.info("Agent disconnected with session [{}]", session.getSessionId());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleBidUpdate(net.powermatcher.api.Session session, BidUpdate bidUpdate) {
+        Channel channel = channelsByAgent.get(session.getAgentId());
+        if (channel == null) {
+            throw new IllegalStateException("No session found");
+        }
+        synchronized (channel) {
+            if (!channel.ready) {
+                channel.pendingBid = bidUpdate;
+                return;
+            }
+        }
+        sendBid(channel, bidUpdate);
+    }
+
+    private void sendBid(Channel channel, BidUpdate bidUpdate) {
+        try {
+            PmBinaryCodec codec = binaryCodec;
+            boolean queued;
+            if (codec != null) {
+                queued = send(channel.id, codec.encodeBidUpdate(bidUpdate), true);
+            } else {
+                queued = send(channel.id, PmJsonSerializer.getDefault().serializeBidUpdate(bidUpdate), true);
+            }
+            if (!queued) {
+                LOGGER.warn("Dropped bid on channel {}, too many messages are waiting", channel.id);
+            }
+        } catch (WebSocketException | NullPointerException | IllegalArgumentException e) {
+            LOGGER.error("Unable to send new bid on channel {}. Reason {}", channel.id, e);
+        }
+    }
+
+    private void sendChannelOpen(int channel, String channelAgentId) {
+        try {
+            PmBinaryCodec codec = binaryCodec;
+            boolean queued;
+            if (codec != null) {
+                queued = send(channel, codec.encodeChannelOpen(channelAgentId), false);
+            } else {
+                queued = send(channel, PmJsonSerializer.getDefault().serializeChannelOpen(channelAgentId), false);
+            }
+            if (!queued) {
+                LOGGER.error("Unable to open channel {}, too many messages are waiting", channel);
+            }
+        } catch (WebSocketException | NullPointerException e) {
+            LOGGER.error("Unable to open channel {}. Reason {}", channel, e);
+        }
+    }
+
+    private boolean send(int channel, String message, boolean supersedable) {
+        String channelMessage = PmJsonSerializer.getDefault().addChannel(channel, message);
+        return outboundQueue.send(channelMessage, supersedable ? Integer.valueOf(channel) : null);
+    }
+
+    private boolean send(int channel, ByteBuffer message, boolean supersedable) {
+        ByteBuffer channelMessage = binaryCodec.addChannel(channel, message);
+        return outboundQueue.send(channelMessage, supersedable ? Integer.valueOf(channel) : null);
+    }
+
+    /**
+     * Register the MatcherEndpoint service
+     */
+    private synchronized void registerMatcherEndpoint() {
+        if (matcherEndpointServiceRegistration == null) {
+            matcherEndpointServiceRegistration = bundleContext.registerService(MatcherEndpoint.class, this, null);
+        }
+    }
+
+    /**
+     * Unregister the MatcherEndpoint service
+     */
+    private synchronized void unregisterMatcherEndpoint() {
+        if (matcherEndpointServiceRegistration != null) {
+            matcherEndpointServiceRegistration.unregister();
+            matcherEndpointServiceRegistration = null;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package net.powermatcher.remote.websockets.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.powermatcher.remote.websockets.transport.Backoff;
+import net.powermatcher.remote.websockets.transport.LinkMonitor;
+
+/**
+ * Keeps a websocket client connected to its server, without blocking a thread while connecting.
+ *
+ * A connection attempt only starts the (asynchronous) connect of Jetty; its outcome is checked from time to time until
+ * the connect timeout has passed. The delays between the attempts come from a {@link Backoff}.
+ *
+ * All instances in the JVM share one scheduler thread and one Jetty {@link WebSocketClient}, which are started by the
+ * first instance and stopped when the last instance is stopped. The heartbeat pings are written by a separate small
+ * pool, since Jetty blocks while writing a ping to a server that does not read; such a server then cannot delay the
+ * connection attempts of other clients.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+class Reconnector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Reconnector.class);
+
+    /**
+     * How often the outcome of a connection attempt is checked, in milliseconds.
+     */
+    private static final long CHECK_INTERVAL = 250;
+
+    /**
+     * The number of threads that write heartbeat pings. Each stalled connection blocks at most one of them.
+     */
+    private static final int PING_THREADS = 2;
+
+    /**
+     * The number of pings that wait for a thread. A ping that does not fit counts as missed.
+     */
+    private static final int MAX_QUEUED_PINGS = 256;
+
+    /**
+     * Starts a connection attempt of a websocket client.
+     */
+    interface Connector {
+        /**
+         * Starts connecting, without waiting for the result.
+         *
+         * @param client
+         *            the shared Jetty client to connect with
+         * @return the pending connection
+         * @throws Exception
+         *             when the attempt could not be started
+         */
+        Future<Session> connect(WebSocketClient client) throws Exception;
+    }
+
+    private enum State {
+        WAITING,
+        CONNECTING,
+        CONNECTED,
+        STOPPED
+    }
+
+    private static final Object SHARED_LOCK = new Object();
+
+    private static int users;
+
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private static ThreadPoolExecutor pingExecutor;
+
+    private static WebSocketClient sharedClient;
+
+    private final String name;
+
+    private final Connector connector;
+
+    private final Backoff backoff;
+
+    private final long connectTimeout;
+
+    private State state = State.STOPPED;
+
+    /**
+     * Identifies the current connection attempt, so the checks of an earlier attempt are ignored.
+     */
+    private int attempt;
+
+    private int failedAttempts;
+
+    private long attemptStarted;
+
+    private Future<Session> pendingConnection;
+
+    private ScheduledFuture<?> pendingTask;
+
+    /**
+     * @param name
+     *            the name of the client, used for logging
+     * @param connector
+     *            starts the connection attempts
+     * @param initialDelay
+     *            the delay before the first attempt after a lost connection, and the base of the backoff, in
+     *            milliseconds
+     * @param maxDelay
+     *            the maximum delay between two attempts in milliseconds
+     * @param connectTimeout
+     *            the time after which a pending attempt is given up, in milliseconds
+     */
+    Reconnector(String name, Connector connector, long initialDelay, long maxDelay, long connectTimeout) {
+        this.name = name;
+        this.connector = connector;
+        backoff = new Backoff(initialDelay, maxDelay);
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Starts the shared resources when needed and schedules the first connection attempt.
+     *
+     * @throws Exception
+     *             when the shared Jetty client could not be started
+     */
+    void start() throws Exception {
+        synchronized (SHARED_LOCK) {
+            if (users == 0) {
+                WebSocketClient client = new WebSocketClient(new SslContextFactory());
+                client.start();
+                sharedClient = client;
+                scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "websocket-reconnect");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                scheduler.setRemoveOnCancelPolicy(true);
+                pingExecutor = new ThreadPoolExecutor(PING_THREADS,
+                                                      PING_THREADS,
+                                                      1,
+                                                      TimeUnit.MINUTES,
+                                                      new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PINGS),
+                                                      new ThreadFactory() {
+                                                          @Override
+                                                          public Thread newThread(Runnable r) {
+                                                              Thread thread = new Thread(r, "websocket-ping");
+                                                              thread.setDaemon(true);
+                                                              return thread;
+                                                          }
+                                                      });
+                pingExecutor.allowCoreThreadTimeOut(true);
+            }
+            users++;
+        }
+        synchronized (this) {
+            state = State.WAITING;
+            failedAttempts = 0;
+            schedule(backoff.firstDelay(), ++attempt);
+        }
+    }
+
+    /**
+     * Stops connecting and releases the shared resources when this was the last user. An open connection is not
+     * closed.
+     */
+    void stop() {
+        synchronized (this) {
+            if (state == State.STOPPED) {
+                return;
+            }
+            state = State.STOPPED;
+            attempt++;
+            cancelPending();
+        }
+        synchronized (SHARED_LOCK) {
+            users--;
+            if (users == 0) {
+                scheduler.shutdownNow();
+                scheduler = null;
+                pingExecutor.shutdownNow();
+                pingExecutor = null;
+                try {
+                    sharedClient.stop();
+                } catch (Exception e) {
+                    LOGGER.warn("Could not stop websocket client: " + e.getMessage(), e);
+                }
+                sharedClient = null;
+            }
+        }
+    }
+
+    /**
+     * Called when the websocket has been opened.
+     */
+    synchronized void connected() {
+        if (state == State.STOPPED) {
+            return;
+        }
+        state = State.CONNECTED;
+        failedAttempts = 0;
+        attempt++;
+        cancelPending();
+    }
+
+    /**
+     * Called when the websocket has been closed. Schedules a new connection attempt.
+     */
+    synchronized void disconnected() {
+        if (state == State.CONNECTED) {
+            state = State.WAITING;
+            schedule(backoff.firstDelay(), ++attempt);
+        } else if (state == State.CONNECTING) {
+            failed(attempt, "connection closed");
+        }
+    }
+
+    /**
+     * Runs a task of the client on the shared scheduler.
+     *
+     * @param task
+     *            the task
+     * @param delay
+     *            the delay in milliseconds
+     * @return the scheduled task, or <code>null</code> when this reconnector has been stopped
+     */
+    synchronized ScheduledFuture<?> scheduleTask(Runnable task, long delay) {
+        if (state == State.STOPPED) {
+            return null;
+        }
+        return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pings an open websocket until it is closed, see {@link LinkMonitor#heartbeat(Session, int, Executor)}. The
+     * scheduler only decides when to ping; the pings are written by the ping pool.
+     *
+     * @param session
+     *            the websocket
+     * @param monitor
+     *            measures the round trip times of the pings
+     * @param interval
+     *            the time between two pings in milliseconds
+     * @param maxMissedPongs
+     *            the number of unanswered pings after which the websocket is closed
+     */
+    void heartbeat(final Session session, final LinkMonitor monitor, final long interval, final int maxMissedPongs) {
+        monitor.connected();
+        scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                Executor executor;
+                synchronized (SHARED_LOCK) {
+                    executor = pingExecutor;
+                }
+                if (executor != null && monitor.heartbeat(session, maxMissedPongs, executor)) {
+                    scheduleTask(this, interval);
+                }
+            }
+        }, interval);
+    }
+
+    /**
+     * @return the number of failed connection attempts since the last successful one.
+     */
+    synchronized int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    /**
+     * @return <code>true</code> while the websocket is open.
+     */
+    synchronized boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    private void connect(int thisAttempt) {
+        synchronized (this) {
+            if (state != State.WAITING || thisAttempt != attempt) {
+                return;
+            }
+            state = State.CONNECTING;
+            attemptStarted = System.currentTimeMillis();
+        }
+        Future<Session> connection;
+        try {
+            connection = connector.connect(sharedClient);
+        } catch (Exception e) {
+            synchronized (this) {
+                failed(thisAttempt, e.toString());
+            }
+            return;
+        }
+        synchronized (this) {
+            if (state != State.CONNECTING || thisAttempt != attempt) {
+                // Connected, or stopped, in the mean time
+                if (state == State.STOPPED) {
+                    connection.cancel(true);
+                }
+                return;
+            }
+            pendingConnection = connection;
+            schedule(CHECK_INTERVAL, thisAttempt);
+        }
+    }
+
+    private synchronized void check(int thisAttempt) {
+        if (state != State.CONNECTING || thisAttempt != attempt) {
+            return;
+        }
+        if (pendingConnection.isDone()) {
+            try {
+                // Does not block, the connection is done
+                pendingConnection.get();
+                connected();
+            } catch (ExecutionException e) {
+                failed(thisAttempt, String.valueOf(e.getCause()));
+            } catch (CancellationException | InterruptedException e) {
+                failed(thisAttempt, e.toString());
+            }
+        } else if (System.currentTimeMillis() - attemptStarted >= connectTimeout) {
+            pendingConnection.cancel(true);
+            failed(thisAttempt, "no response within " + connectTimeout + " ms");
+        } else {
+            schedule(CHECK_INTERVAL, thisAttempt);
+        }
+    }
+
+    /**
+     * Must be called while holding the lock of this.
+     */
+    private void failed(int thisAttempt, String reason) {
+        if (state == State.STOPPED || thisAttempt != attempt) {
+            return;
+        }
+        failedAttempts++;
+        pendingConnection = null;
+        state = State.WAITING;
+        long delay = backoff.retryDelay(failedAttempts);
+        LOGGER.warn("Unable to connect {} ({} failed attempts): {}. Retrying in {} ms",
+                    name,
+                    failedAttempts,
+                    reason,
+                    delay);
+        schedule(delay, ++attempt);
+    }
+
+    /**
+     * Must be called while holding the lock of this.
+     */
+    private void schedule(long delay, final int thisAttempt) {
+        final State scheduledIn = state;
+        pendingTask = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (scheduledIn == State.CONNECTING) {
+                    check(thisAttempt);
+                } else {
+                    connect(thisAttempt);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Must be called while holding the lock of this.
+     */
+    private void cancelPending() {
+        if (pendingTask != null) {
+            pendingTask.cancel(false);
+            pendingTask = null;
+        }
+        if (pendingConnection != null) {
+            if (state == State.STOPPED) {
+                pendingConnection.cancel(true);
+            }
+            pendingConnection = null;
+        }
+    }
+}
@@ -3,20 +3,24 @@ package net.powermatcher.remote.websockets.client;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.websocket.api.CloseStatus;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketException;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketFrame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.osgi.framework.BundleContext;
@@ -31,24 +35,45 @@ import aQute.bnd.annotation.component.Component;
 import aQute.bnd.annotation.component.Deactivate;
 import aQute.bnd.annotation.metatype.Configurable;
 import aQute.bnd.annotation.metatype.Meta;
+import net.powermatcher.api.Agent;
 import net.powermatcher.api.MatcherEndpoint;
+import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
 import net.powermatcher.api.monitoring.ObservableAgent;
+import net.powermatcher.api.sessions.SessionId;
+import net.powermatcher.api.sessions.SessionIdGenerator;
 import net.powermatcher.core.BaseMatcherEndpoint;
 import net.powermatcher.core.bidcache.AggregatedBid;
 import net.powermatcher.core.concentrator.BidHistoryStore;
 import net.powermatcher.core.concentrator.SentBidInformation;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
 import net.powermatcher.remote.websockets.data.ClusterInfoModel;
-import net.powermatcher.remote.websockets.data.PmMessage;
 import net.powermatcher.remote.websockets.data.PmMessage.PayloadType;
+import net.powermatcher.remote.websockets.data.PmMessage;
 import net.powermatcher.remote.websockets.data.PriceUpdateModel;
 import net.powermatcher.remote.websockets.json.ModelMapper;
 import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+import net.powermatcher.remote.websockets.transport.LinkMonitor;
+import net.powermatcher.remote.websockets.transport.LinkStatistics;
+import net.powermatcher.remote.websockets.transport.OutboundQueue;
 
 /**
  * WebSocket implementation of an {@link MatcherEndpoint}. Enabled two agents to communicate via WebSockets and JSON
- * over a TCP connection.
+ * over a TCP connection. When the server agrees, the compact binary format of {@link PmBinaryCodec} is used instead of
+ * JSON.
+ *
+ * Bids are written asynchronously through an {@link OutboundQueue}, so a slow link does not block the thread that
+ * publishes the aggregated bid. A queued bid that has not been written yet is replaced by a newer one. The statistics
+ * of the queue are registered as {@link LinkStatistics} MBean.
+ *
+ * When the connection is lost, the local agents stay connected for a grace period. The client reconnects with the
+ * resume token the server gave it, and when the server still holds the session it only sends its current bid when the
+ * server does not have it yet. Otherwise the local agents are disconnected when the grace period ends.
+ *
+ * A {@link LinkMonitor} measures the round trip time of pings to the server, and the time between sending a bid and
+ * receiving the price update for it. Its measurements are part of the {@link LinkStatistics} MBean.
  *
  * @author FAN
  * @version 2.1
@@ -58,7 +83,8 @@ import net.powermatcher.remote.websockets.json.PmJsonSerializer;
            immediate = true,
            provide = { ObservableAgent.class })
 public class WebsocketClient
-    extends BaseMatcherEndpoint {
+    extends BaseMatcherEndpoint
+    implements LinkStatistics.Link {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebsocketClient.class);
 
@@ -74,34 +100,169 @@ public class WebsocketClient
                  description = "URL of powermatcher websocket endpoint.")
         String powermatcherUrl();
 
-        @Meta.AD(deflt = "30", description = "reconnect timeout keeping the connection alive.")
+        @Meta.AD(deflt = "30",
+                 description = "Delay in seconds before reconnecting after the connection was lost. "
+                               + "The delay doubles after every failed attempt, and is randomized.")
         int reconnectTimeout();
 
+        @Meta.AD(deflt = "300", description = "Maximum delay in seconds between two reconnect attempts.")
+        int maxReconnectDelay();
+
         @Meta.AD(deflt = "60", description = "connect timeout to wait for remote server to respond.")
         int connectTimeout();
 
         @Meta.AD(deflt = "1000",
                  description = "Mimimum time between two BidUpdates generated by the Concentratro in milliseconds")
         long minTimeBetweenBidUpdates();
+
+        @Meta.AD(deflt = "true",
+                 description = "Ask the server for the compact binary protocol. JSON is used when the server does not support it.")
+        boolean binaryProtocol();
+
+        @Meta.AD(deflt = "false",
+                 description = "Send the demand of bids as 32 bit floats when the binary protocol is used. "
+                               + "This halves the size of bids but loses precision.")
+        boolean singlePrecisionDemand();
+
+        @Meta.AD(deflt = "true",
+                 description = "Send only the changed price steps of a bid, when the server supports it.")
+        boolean bidDeltas();
+
+        @Meta.AD(deflt = "64",
+                 description = "The maximum number of messages that can wait to be written to the server. "
+                               + "Further messages are dropped until the queue has room again.")
+        int maxOutboundMessages();
+
+        @Meta.AD(deflt = "false",
+                 description = "Ask the server for permessage-deflate compression. Off by default: the binary "
+                               + "protocol is compact already, and compression keeps a deflate state per "
+                               + "connection. It mostly pays off for JSON bids with many price steps.")
+        boolean compression();
+
+        @Meta.AD(deflt = "true",
+                 description = "Keep the compression context between messages. This compresses repeated bids better, "
+                               + "but costs memory on both sides.")
+        boolean compressionContextTakeover();
+
+        @Meta.AD(deflt = "60",
+                 description = "How long in seconds the local agents stay connected after the connection was lost, "
+                               + "waiting for the session to be resumed. This should not exceed the grace period of "
+                               + "the server. 0 turns resumption off.")
+        int resumeGracePeriod();
+
+        @Meta.AD(deflt = "30",
+                 description = "The time in seconds between two pings to the server, which measure the round trip "
+                               + "time of the link. 0 turns pinging off.")
+        int pingInterval();
+
+        @Meta.AD(deflt = "3",
+                 description = "The number of unanswered pings after which the connection is closed and set up again")
+        int maxMissedPongs();
     }
 
     private URI powermatcherUrl;
 
-    private Session remoteSession;
+    private volatile Session remoteSession;
 
-    private WebSocketClient client;
+    /**
+     * Identifies the current websocket connection, a new one is generated for every connection attempt.
+     */
+    private volatile SessionId remoteSessionId;
 
-    private int reconnectDelay, connectTimeout;
+    private Reconnector reconnector;
 
     private long minTimeBetweenBidUpdates;
 
-    private BundleContext bundleContext;
+    private int maxOutboundMessages;
 
-    private ServiceRegistration<MatcherEndpoint> matcherEndpointServiceRegistration;
+    private long pingInterval;
+
+    private int maxMissedPongs;
+
+    /**
+     * Measures the latency of the link to the server, over all connections.
+     */
+    private LinkMonitor linkMonitor;
+
+    /**
+     * The MBean of the link to the server, over all connections.
+     */
+    private LinkStatistics linkStatistics;
+
+    /**
+     * The permessage-deflate offer, or <code>null</code> when compression is off.
+     */
+    private String compressionExtension;
+
+    /**
+     * The outbound messages of the current connection.
+     */
+    private volatile OutboundQueue outboundQueue;
 
-    private final ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1);
+    private boolean binaryProtocol, singlePrecisionDemand, bidDeltas;
 
-    private ScheduledFuture<?> scheduledFuture;
+    /**
+     * How long the local agents stay connected after the connection was lost, in milliseconds.
+     */
+    private long resumeGracePeriod;
+
+    /**
+     * Guards resumeToken, sessionExpiry and the start and end of the session with the server.
+     */
+    private final Object sessionLock = new Object();
+
+    /**
+     * The token to resume the session with the server, or <code>null</code> when there is no session to resume.
+     */
+    private volatile String resumeToken;
+
+    /**
+     * Ends the session when it has not been resumed in time, or <code>null</code> when it is not pending.
+     */
+    private ScheduledFuture<?> sessionExpiry;
+
+    /**
+     * Identifies the pending session expiry, so an expiry that has been cancelled does not end a later grace period.
+     */
+    private int gracePeriods;
+
+    /**
+     * Whether the cluster information has been received on the current connection. Bids are only sent after it.
+     */
+    private volatile boolean clusterInfoReceived;
+
+    /**
+     * Whether the server of the current connection accepts {@link BidDeltaModel}s.
+     */
+    private volatile boolean remoteBidDeltas;
+
+    /**
+     * The last bids sent on the current connection, which can become the base of a {@link BidDeltaModel} once the
+     * server acknowledges them.
+     */
+    private final Map<Integer, BidUpdate> deltaBaseCandidates = new LinkedHashMap<Integer, BidUpdate>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Integer, BidUpdate> eldest) {
+            return size() > BidDeltaModel.MAX_BASE_DISTANCE;
+        }
+    };
+
+    /**
+     * The newest bid of which the server sent a price update on the current connection, guarded by
+     * deltaBaseCandidates. Bid deltas are relative to this bid.
+     */
+    private BidUpdate acknowledgedBid;
+
+    /**
+     * The codec for the binary format of the current connection, or <code>null</code> when JSON is used.
+     */
+    private volatile PmBinaryCodec binaryCodec;
+
+    private BundleContext bundleContext;
+
+    private ServiceRegistration<MatcherEndpoint> matcherEndpointServiceRegistration;
 
     private final AtomicInteger bidNumberGenerator = new AtomicInteger();
 
@@ -130,31 +291,38 @@ public class WebsocketClient
             return;
         }
 
-        reconnectDelay = config.reconnectTimeout();
-        connectTimeout = config.connectTimeout();
         minTimeBetweenBidUpdates = config.minTimeBetweenBidUpdates();
+        binaryProtocol = config.binaryProtocol();
+        singlePrecisionDemand = config.singlePrecisionDemand();
+        bidDeltas = config.bidDeltas();
+        maxOutboundMessages = config.maxOutboundMessages();
+        pingInterval = config.pingInterval() * 1000L;
+        maxMissedPongs = config.maxMissedPongs();
+        linkMonitor = new LinkMonitor(getAgentId() + "->" + config.powermatcherUrl());
+        linkStatistics = new LinkStatistics(linkMonitor.getName(), this);
+        linkStatistics.register();
+        resumeGracePeriod = config.resumeGracePeriod() * 1000L;
+        if (config.compression()) {
+            compressionExtension = "permessage-deflate";
+            if (!config.compressionContextTakeover()) {
+                compressionExtension += "; client_no_context_takeover; server_no_context_takeover";
+            }
+        }
 
         this.bundleContext = bundleContext;
 
-        SslContextFactory ssl = new SslContextFactory();
-        client = new WebSocketClient(ssl);
+        reconnector = new Reconnector(getAgentId(), new Reconnector.Connector() {
+            @Override
+            public Future<Session> connect(WebSocketClient client) throws Exception {
+                return connectRemote(client);
+            }
+        }, config.reconnectTimeout() * 1000L, config.maxReconnectDelay() * 1000L, config.connectTimeout() * 1000L);
         try {
-            client.start();
+            reconnector.start();
         } catch (Exception e) {
             LOGGER.warn("Could not start websocket client: " + e.getMessage(), e);
             throw e;
         }
-
-        Runnable reconnectJob = new Runnable() {
-            @Override
-            public void run() {
-                connectRemote();
-            }
-        };
-        scheduledFuture = executorService.scheduleAtFixedRate(reconnectJob,
-                                                              1,
-                                                              reconnectDelay,
-                                                              TimeUnit.SECONDS);
     }
 
     /**
@@ -162,36 +330,47 @@ public class WebsocketClient
      */
     @Deactivate
     public void deactivate() {
-        try {
-            client.stop();
-        } catch (Exception e) {
-            LOGGER.warn("Could not stop websocket client: " + e.getMessage(), e);
+        reconnector.stop();
+        if (linkStatistics != null) {
+            linkStatistics.unregister();
+        }
+        synchronized (sessionLock) {
+            // Do not wait for the session to be resumed
+            resumeToken = null;
+            cancelSessionExpiry();
         }
         unregisterMatcherEndpoint();
-        scheduledFuture.cancel(true);
         disconnectRemote();
     }
 
     /**
-     * {@inheritDoc}
+     * Starts opening a websocket, the {@link Reconnector} follows the result.
      *
-     * This specific implementation opens a websocket.
+     * @param client
+     *            the Jetty client to connect with
+     * @return the pending connection
+     * @throws IOException
+     *             when the connection could not be started
      */
-    private void connectRemote() {
-        if (!isRemoteConnected()) {
-            // Try to setup a new websocket connection.
-            try {
-                ClientUpgradeRequest request = new ClientUpgradeRequest();
-                Future<Session> connectFuture = client.connect(this, powermatcherUrl, request);
-                LOGGER.info("Connecting to : {}", request.getRequestURI());
-
-                // Wait configurable time for remote to respond
-                remoteSession = connectFuture.get(connectTimeout, TimeUnit.SECONDS);
-            } catch (Exception e) {
-                LOGGER.error("Unable to connect to remote agent. Reason {}", e);
-                remoteSession = null;
-            }
+    private Future<Session> connectRemote(WebSocketClient client) throws IOException {
+        remoteSessionId = SessionIdGenerator.getDefault().next();
+        ClientUpgradeRequest request = new ClientUpgradeRequest();
+        if (binaryProtocol) {
+            request.setSubProtocols(PmBinaryCodec.SUBPROTOCOL, PmJsonSerializer.SUBPROTOCOL);
         }
+        if (compressionExtension != null) {
+            request.addExtensions(compressionExtension);
+        }
+        URI url = powermatcherUrl;
+        String token = resumeToken;
+        if (token != null) {
+            url = URI.create(powermatcherUrl + "&resumeToken=" + token);
+        }
+        LOGGER.info("Connecting to : {} (session {}{})",
+                    powermatcherUrl,
+                    remoteSessionId,
+                    token == null ? "" : ", resuming");
+        return client.connect(this, url, request);
     }
 
     /**
@@ -202,7 +381,7 @@ public class WebsocketClient
     private void disconnectRemote() {
         // Terminate remote session (if any)
         if (isRemoteConnected()) {
-            remoteSession.close(new CloseStatus(0, "Normal disconnect"));
+            remoteSession.close(new CloseStatus(StatusCode.NORMAL, "Normal disconnect"));
         }
     }
 
@@ -215,6 +394,65 @@ public class WebsocketClient
         return remoteSession != null && remoteSession.isOpen();
     }
 
+    /**
+     * @return the identifier of the current (or last) websocket connection, or <code>null</code> when never connected.
+     */
+    public SessionId getRemoteSessionId() {
+        return remoteSessionId;
+    }
+
+    /**
+     * @return the outbound messages of the current (or last) connection, e.g. to monitor the queue depth and write
+     *         times, or <code>null</code> when never connected.
+     */
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * @return the latency measurements of the link to the server, or <code>null</code> when not activated.
+     */
+    @Override
+    public LinkMonitor getLinkMonitor() {
+        return linkMonitor;
+    }
+
+    /**
+     * @return the MBean of the link to the server, or <code>null</code> when not activated.
+     */
+    public LinkStatistics getLinkStatistics() {
+        return linkStatistics;
+    }
+
+    /**
+     * Handle the opening of the websocket. Determines the wire format that was negotiated with the server.
+     *
+     * @param session
+     *            the new websocket session
+     */
+    @OnWebSocketConnect
+    public void onConnect(Session session) {
+        outboundQueue = new OutboundQueue(session.getRemote(), maxOutboundMessages);
+        String subProtocol = session.getUpgradeResponse().getAcceptedSubProtocol();
+        if (PmBinaryCodec.SUBPROTOCOL.equals(subProtocol)) {
+            binaryCodec = new PmBinaryCodec(singlePrecisionDemand);
+        } else {
+            binaryCodec = null;
+        }
+        // No bids are sent until the server has told whether the session has been resumed
+        clusterInfoReceived = false;
+        remoteBidDeltas = false;
+        remoteSession = session;
+        reconnector.connected();
+        if (pingInterval > 0) {
+            reconnector.heartbeat(session, linkMonitor, pingInterval, maxMissedPongs);
+        }
+        LOGGER.info("Connected (session {}) using {}",
+                    remoteSessionId,
+                    binaryCodec == null ? PmJsonSerializer.SUBPROTOCOL : PmBinaryCodec.SUBPROTOCOL);
+    }
+
     /**
      *
      * @param statusCode
@@ -222,10 +460,88 @@ public class WebsocketClient
      */
     @OnWebSocketClose
     public void onDisconnect(int statusCode, String reason) {
-        LOGGER.info("Connection closed: {} - {}", statusCode, reason);
+        LOGGER.info("Connection closed (session {}): {} - {}", remoteSessionId, statusCode, reason);
         remoteSession = null;
-        unconfigure();
-        unregisterMatcherEndpoint();
+        clusterInfoReceived = false;
+        reconnector.disconnected();
+        OutboundQueue queue = outboundQueue;
+        if (queue != null) {
+            queue.clear();
+        }
+        synchronized (sessionLock) {
+            if (resumeToken != null && resumeGracePeriod > 0 && getStatus().isConnected()) {
+                if (sessionExpiry == null) {
+                    final int gracePeriod = ++gracePeriods;
+                    sessionExpiry = reconnector.scheduleTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            expireSession(gracePeriod);
+                        }
+                    }, resumeGracePeriod);
+                }
+                if (sessionExpiry != null) {
+                    LOGGER.info("Keeping the local agents connected for {} ms, waiting for the session to be resumed",
+                                resumeGracePeriod);
+                    return;
+                }
+            }
+        }
+        endSession();
+    }
+
+    /**
+     * Ends the session when it has not been resumed within the grace period.
+     *
+     * @param gracePeriod
+     *            identifies the grace period that ended
+     */
+    private void expireSession(int gracePeriod) {
+        synchronized (sessionLock) {
+            if (sessionExpiry == null || gracePeriod != gracePeriods) {
+                return;
+            }
+            sessionExpiry = null;
+        }
+        LOGGER.info("The session has not been resumed in time, disconnecting the local agents");
+        endSession();
+    }
+
+    /**
+     * Ends the session with the server: the local agents are disconnected and the {@link MatcherEndpoint} is
+     * unregistered.
+     */
+    private void endSession() {
+        synchronized (sessionLock) {
+            cancelSessionExpiry();
+            resumeToken = null;
+            if (getStatus().isConnected()) {
+                unconfigure();
+            }
+            unregisterMatcherEndpoint();
+        }
+    }
+
+    /**
+     * Must be called while holding sessionLock.
+     */
+    private void cancelSessionExpiry() {
+        if (sessionExpiry != null) {
+            sessionExpiry.cancel(false);
+            sessionExpiry = null;
+        }
+    }
+
+    /**
+     * Hands the pongs of the server to the {@link LinkMonitor}.
+     *
+     * @param frame
+     *            a received websocket frame
+     */
+    @OnWebSocketFrame
+    public void onFrame(Frame frame) {
+        if (frame.getType() == Frame.Type.PONG) {
+            linkMonitor.pong(frame.getPayload());
+        }
     }
 
     /**
@@ -240,40 +556,124 @@ public class WebsocketClient
 
         try {
             // Decode the JSON data
-            PmJsonSerializer serializer = new PmJsonSerializer();
+            PmJsonSerializer serializer = PmJsonSerializer.getDefault();
             PmMessage pmMessage = serializer.deserialize(message);
 
-            if (!getStatus().isConnected()) {
-                if (pmMessage.getPayloadType() == PayloadType.CLUSTERINFO) {
-                    // Sync marketbasis and clusterid with local session, for new
-                    // connections
-                    ClusterInfoModel clusterInfo = (ClusterInfoModel) pmMessage.getPayload();
-                    configure(ModelMapper.convertMarketBasis(clusterInfo.getMarketBasis()),
-                              clusterInfo.getClusterId(),
-                              minTimeBetweenBidUpdates);
-
-                    // Register the MatcherEndpoint with the OSGI runtime, to make it available for connections
-                    registerMatcherEndpoint();
-                } else {
-                    LOGGER.warn("Got unexpected message type [{}], expected CLUSTERINFO", pmMessage.getPayloadType());
-                }
+            if (pmMessage.getPayloadType() == PayloadType.CLUSTERINFO) {
+                handleClusterInfo((ClusterInfoModel) pmMessage.getPayload());
+            } else if (pmMessage.getPayloadType() == PayloadType.PRICE_UPDATE) {
+                relayPriceUpdate(ModelMapper.mapPriceUpdate((PriceUpdateModel) pmMessage.getPayload()));
             } else {
-                // Handle specific message
-                if (pmMessage.getPayloadType() == PayloadType.PRICE_UPDATE) {
-                    // Relay price update to local agents
-                    PriceUpdate priceUpdate = ModelMapper.mapPriceUpdate((PriceUpdateModel) pmMessage.getPayload());
-
-                    SentBidInformation info = sentBids.retrieveAggregatedBid(priceUpdate.getBidNumber());
-                    publishPrice(priceUpdate.getPrice(), info.getOriginalBid());
-                } else {
-                    LOGGER.warn("Got unexpected message type [{}], expected PRICE_UPDATE", pmMessage.getPayloadType());
-                }
+                LOGGER.warn("Got unexpected message type [{}]", pmMessage.getPayloadType());
             }
         } catch (JsonSyntaxException e) {
             LOGGER.warn("Unable to understand message from remote agent: {}", message);
         }
     }
 
+    /**
+     * Handle Websocket receive binary message
+     *
+     * @param buffer
+     *            the array holding the message
+     * @param offset
+     *            the position of the message in the array
+     * @param length
+     *            the length of the message
+     */
+    @OnWebSocketMessage
+    public void onMessage(byte[] buffer, int offset, int length) {
+        PmBinaryCodec codec = binaryCodec;
+        if (codec == null) {
+            LOGGER.warn("Ignoring binary message, the binary protocol has not been negotiated");
+            return;
+        }
+
+        try {
+            PmMessage pmMessage = codec.decode(buffer, offset, length);
+            if (pmMessage.getPayloadType() == PayloadType.CLUSTERINFO) {
+                handleClusterInfo((ClusterInfoModel) pmMessage.getPayload());
+            } else if (pmMessage.getPayloadType() == PayloadType.PRICE_UPDATE) {
+                relayPriceUpdate((PriceUpdate) pmMessage.getPayload());
+            } else {
+                LOGGER.warn("Got unexpected message type [{}]", pmMessage.getPayloadType());
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unable to understand binary message from remote agent: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sync marketbasis and clusterid with local session, for new connections. When the local agents are still
+     * connected from the previous connection to the same cluster, they stay connected. The current bid is then sent
+     * again, unless the server resumed the session and already has it.
+     *
+     * @param clusterInfo
+     *            the cluster information sent by the server
+     */
+    private void handleClusterInfo(ClusterInfoModel clusterInfo) {
+        String clusterId = clusterInfo.getClusterId();
+        MarketBasis marketBasis = ModelMapper.convertMarketBasis(clusterInfo.getMarketBasis());
+        boolean sendBid;
+        synchronized (sessionLock) {
+            if (clusterInfoReceived) {
+                LOGGER.warn("Got unexpected message type [{}], expected PRICE_UPDATE", PayloadType.CLUSTERINFO);
+                return;
+            }
+            cancelSessionExpiry();
+            Agent.Status currentStatus = getStatus();
+            boolean sameCluster = currentStatus.isConnected() && clusterId.equals(currentStatus.getClusterId())
+                                  && marketBasis.equals(currentStatus.getMarketBasis());
+            if (currentStatus.isConnected() && !sameCluster) {
+                unconfigure();
+            }
+            boolean resumed = sameCluster && clusterInfo.isResumed();
+            resumeToken = clusterInfo.getResumeToken();
+            remoteBidDeltas = bidDeltas && clusterInfo.isBidDeltas();
+            synchronized (deltaBaseCandidates) {
+                // Deltas can go on from a bid the resumed session still has, otherwise start with a full bid
+                if (!resumed || acknowledgedBid == null
+                    || acknowledgedBid.getBidNumber() > clusterInfo.getLastBidNumber()) {
+                    deltaBaseCandidates.clear();
+                    acknowledgedBid = null;
+                }
+            }
+            if (!sameCluster) {
+                configure(marketBasis, clusterId, minTimeBetweenBidUpdates);
+            }
+            clusterInfoReceived = true;
+
+            // Register the MatcherEndpoint with the OSGI runtime, to make it available for connections
+            registerMatcherEndpoint();
+            sendBid = sameCluster && (!resumed || bidNumberGenerator.get() > clusterInfo.getLastBidNumber());
+            if (resumed) {
+                LOGGER.info("Resumed session, the server has bid {}, {}",
+                            clusterInfo.getLastBidNumber(),
+                            sendBid ? "sending the current bid" : "no newer bids");
+            }
+        }
+        if (sendBid) {
+            performUpdate(aggregate());
+        }
+    }
+
+    /**
+     * Relay price update to local agents
+     *
+     * @param priceUpdate
+     *            the {@link PriceUpdate} received from the remote matcher
+     */
+    private void relayPriceUpdate(PriceUpdate priceUpdate) {
+        if (!getStatus().isConnected()) {
+            LOGGER.warn("Got unexpected message type [{}], expected CLUSTERINFO", PayloadType.PRICE_UPDATE);
+            return;
+        }
+        linkMonitor.priceUpdate(priceUpdate.getBidNumber());
+        acknowledgeBid(priceUpdate.getBidNumber());
+        SentBidInformation info = sentBids.retrieveAggregatedBid(priceUpdate.getBidNumber());
+        publishPrice(priceUpdate.getPrice(), info.getOriginalBid());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -296,15 +696,32 @@ public class WebsocketClient
      */
     private BidUpdate publishBid(AggregatedBid newBid) {
         BidUpdate update = new BidUpdate(newBid, bidNumberGenerator.incrementAndGet());
-        PmJsonSerializer serializer = new PmJsonSerializer();
-        String message = serializer.serializeBidUpdate(update);
 
-        if (isRemoteConnected()) {
+        if (isRemoteConnected() && clusterInfoReceived) {
             try {
-                remoteSession.getRemote().sendString(message);
-                LOGGER.debug("Sent bid update to server {}", update);
+                BidDeltaModel delta = createBidDelta(update);
+                PmBinaryCodec codec = binaryCodec;
+                boolean queued;
+                if (codec != null) {
+                    ByteBuffer message = delta == null ? codec.encodeBidUpdate(update) : codec.encodeBidDelta(delta);
+                    queued = outboundQueue.send(message, PayloadType.BID);
+                } else {
+                    PmJsonSerializer serializer = PmJsonSerializer.getDefault();
+                    String message = delta == null ? serializer.serializeBidUpdate(update)
+                                                  : serializer.serializeBidDelta(delta);
+                    queued = outboundQueue.send(message, PayloadType.BID);
+                }
+                if (!queued) {
+                    LOGGER.warn("Dropped bid update {}, too many messages are waiting", update.getBidNumber());
+                    return null;
+                }
+                synchronized (deltaBaseCandidates) {
+                    deltaBaseCandidates.put(update.getBidNumber(), update);
+                }
+                linkMonitor.bidUpdate(update.getBidNumber());
+                LOGGER.debug("Sent bid update to server {} ({})", update, delta == null ? "full" : "delta");
                 return update;
-            } catch (IOException | WebSocketException | NullPointerException e) {
+            } catch (WebSocketException | NullPointerException | IllegalArgumentException e) {
                 LOGGER.error("Unable to send new bid to remote agent. Reason {}", e);
                 return null;
             }
@@ -315,6 +732,43 @@ public class WebsocketClient
         }
     }
 
+    /**
+     * Creates a delta of the bid against the last bid the server has acknowledged. A full bid is sent when the server
+     * does not support deltas, has not acknowledged a bid on this connection yet, or when the acknowledged bid is so old
+     * that the server may no longer have it.
+     *
+     * @param update
+     *            the bid to send
+     * @return the delta, or <code>null</code> when the full bid should be sent
+     */
+    private BidDeltaModel createBidDelta(BidUpdate update) {
+        if (!remoteBidDeltas) {
+            return null;
+        }
+        synchronized (deltaBaseCandidates) {
+            if (acknowledgedBid == null
+                || update.getBidNumber() - acknowledgedBid.getBidNumber() >= BidDeltaModel.MAX_BASE_DISTANCE) {
+                return null;
+            }
+            return ModelMapper.createBidDelta(acknowledgedBid, update);
+        }
+    }
+
+    /**
+     * A price update for a bid proves that the server received it, so it can be used as the base of bid deltas.
+     *
+     * @param bidNumber
+     *            the bid number of a received price update
+     */
+    private void acknowledgeBid(int bidNumber) {
+        synchronized (deltaBaseCandidates) {
+            BidUpdate bidUpdate = deltaBaseCandidates.get(bidNumber);
+            if (bidUpdate != null && (acknowledgedBid == null || bidNumber > acknowledgedBid.getBidNumber())) {
+                acknowledgedBid = bidUpdate;
+            }
+        }
+    }
+
     /**
      * Register the MatcherEndpoint service
      */
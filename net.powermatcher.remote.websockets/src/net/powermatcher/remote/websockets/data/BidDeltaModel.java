@@ -0,0 +1,100 @@
+package net.powermatcher.remote.websockets.data;
+
+import net.powermatcher.api.data.Bid;
+
+/**
+ * Bid delta model class to transfer only the changed part of a {@link Bid} over the wire. The delta is relative to an
+ * earlier bid of the same agent, identified by baseBidNumber. The demand of the changed price steps is stored as
+ * ranges: range i starts at price step rangeStarts[i] and has rangeLengths[i] demand values, which are stored after
+ * each other in demand. The market basis is that of the base bid.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class BidDeltaModel {
+    /**
+     * The number of bids the receiver keeps as possible base for a delta. A sender must not use a base that is this
+     * many bids (or more) older than the new bid.
+     */
+    public static final int MAX_BASE_DISTANCE = 16;
+
+    /**
+     * The bidNumber of the bid this delta is relative to.
+     */
+    private int baseBidNumber;
+
+    /**
+     * Holds the bidNumber.
+     */
+    private int bidNumber;
+
+    /**
+     * The first price step of each changed range.
+     */
+    private int[] rangeStarts;
+
+    /**
+     * The number of price steps of each changed range.
+     */
+    private int[] rangeLengths;
+
+    /**
+     * The demand values of all ranges.
+     */
+    private double[] demand;
+
+    /**
+     * @return the current value of baseBidNumber.
+     */
+    public int getBaseBidNumber() {
+        return baseBidNumber;
+    }
+
+    public void setBaseBidNumber(int baseBidNumber) {
+        this.baseBidNumber = baseBidNumber;
+    }
+
+    /**
+     * @return the current value of bidNumber.
+     */
+    public int getBidNumber() {
+        return bidNumber;
+    }
+
+    public void setBidNumber(int bidNumber) {
+        this.bidNumber = bidNumber;
+    }
+
+    /**
+     * @return the current value of rangeStarts.
+     */
+    public int[] getRangeStarts() {
+        return rangeStarts;
+    }
+
+    public void setRangeStarts(int[] rangeStarts) {
+        this.rangeStarts = rangeStarts;
+    }
+
+    /**
+     * @return the current value of rangeLengths.
+     */
+    public int[] getRangeLengths() {
+        return rangeLengths;
+    }
+
+    public void setRangeLengths(int[] rangeLengths) {
+        this.rangeLengths = rangeLengths;
+    }
+
+    /**
+     * @return the current value of demand.
+     */
+    public double[] getDemand() {
+        return demand;
+    }
+
+    public void setDemand(double[] demand) {
+        this.demand = demand;
+    }
+}
@@ -0,0 +1,25 @@
+package net.powermatcher.remote.websockets.data;
+
+/**
+ * Channel model class to open a logical channel on a multiplexed connection.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ChannelModel {
+    /**
+     * The id of the remote agent that uses the channel.
+     */
+    private String agentId;
+
+    /**
+     * @return the current value of agentId.
+     */
+    public String getAgentId() {
+        return agentId;
+    }
+
+    public void setAgentId(String agentId) {
+        this.agentId = agentId;
+    }
+}
@@ -13,6 +13,27 @@ public class ClusterInfoModel {
 
     private String clusterId;
 
+    /**
+     * Whether the server accepts {@link BidDeltaModel}s. Older servers do not send this field.
+     */
+    private boolean bidDeltas;
+
+    /**
+     * The token with which the remote agent can resume this session after a lost connection, or <code>null</code> when
+     * the server does not support resumption.
+     */
+    private String resumeToken;
+
+    /**
+     * Whether the server resumed an existing session, instead of starting a new one.
+     */
+    private boolean resumed;
+
+    /**
+     * The number of the last bid the server holds for a resumed session, 0 when it holds none.
+     */
+    private int lastBidNumber;
+
     /**
      * @return the current value of marketBasis.
      */
@@ -34,4 +55,48 @@ public class ClusterInfoModel {
     public void setClusterId(String clusterId) {
         this.clusterId = clusterId;
     }
+
+    /**
+     * @return the current value of bidDeltas.
+     */
+    public boolean isBidDeltas() {
+        return bidDeltas;
+    }
+
+    public void setBidDeltas(boolean bidDeltas) {
+        this.bidDeltas = bidDeltas;
+    }
+
+    /**
+     * @return the current value of resumeToken.
+     */
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    /**
+     * @return the current value of resumed.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public void setResumed(boolean resumed) {
+        this.resumed = resumed;
+    }
+
+    /**
+     * @return the current value of lastBidNumber.
+     */
+    public int getLastBidNumber() {
+        return lastBidNumber;
+    }
+
+    public void setLastBidNumber(int lastBidNumber) {
+        this.lastBidNumber = lastBidNumber;
+    }
 }
@@ -1,9 +1,17 @@
 package net.powermatcher.remote.websockets.data;
 
 /**
- * PmMessage class to encapsulate {@link BidModel}, {@link PriceUpdateModel} or {@link CusterinfoModel}. WebSocket
- * communication does not contain a native RPC-style, so the same message object is used for data exchange. Therefore
- * this message contains a type indicator to allow the different objects to be transferred reliably.
+ * PmMessage class to encapsulate {@link BidModel}, {@link PriceUpdateModel}, {@link CusterinfoModel},
+ * {@link BidDeltaModel} or {@link ChannelModel}. WebSocket communication does not contain a native RPC-style, so the
+ * same message object is used for data exchange. Therefore this message contains a type indicator to allow the
+ * different objects to be transferred reliably.
+ *
+ * On a multiplexed connection one websocket carries the sessions of many agents. Every message then carries the id of
+ * the logical channel of the agent it belongs to. A channel is opened with a CHANNEL_OPEN message and closed with a
+ * CHANNEL_CLOSE message, which has no payload.
+ *
+ * Messages decoded from the binary format carry the {@link net.powermatcher.api.messages.BidUpdate} or
+ * {@link net.powermatcher.api.messages.PriceUpdate} itself as payload, instead of the model.
  * 
  * @author FAN
  * @version 2.1
@@ -13,19 +21,37 @@ public class PmMessage {
      * Type indicator for the payload type.
      */
     public enum PayloadType {
-        BID, PRICE_UPDATE, CLUSTERINFO
+        BID, PRICE_UPDATE, CLUSTERINFO, DELTA, CHANNEL_OPEN, CHANNEL_CLOSE
     }
 
+    /**
+     * The logical channel of a multiplexed connection this message belongs to, or <code>null</code> when the
+     * connection is not multiplexed.
+     */
+    private Integer channel;
+
     /**
      * Indicator to specify the contents of the payload.
      */
     private PayloadType payloadType;
 
     /**
-     * The payload which could contain {@link BidModel}, {@link PriceUpdateModel} or {@link CusterinfoModel}.
+     * The payload which could contain {@link BidModel}, {@link PriceUpdateModel}, {@link CusterinfoModel},
+     * {@link BidDeltaModel} or {@link ChannelModel}.
      */
     private Object payload;
 
+    /**
+     * @return the current value of channel.
+     */
+    public Integer getChannel() {
+        return channel;
+    }
+
+    public void setChannel(Integer channel) {
+        this.channel = channel;
+    }
+
     /**
      * @return the current value of payloadType.
      */
@@ -1,10 +1,13 @@
 package net.powermatcher.remote.websockets.json;
 
+import java.util.Arrays;
+
 import net.powermatcher.api.data.Bid;
 import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.data.Price;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
 import net.powermatcher.remote.websockets.data.BidModel;
 import net.powermatcher.remote.websockets.data.MarketBasisModel;
 import net.powermatcher.remote.websockets.data.PriceUpdateModel;
@@ -17,6 +20,12 @@ import net.powermatcher.remote.websockets.data.PriceUpdateModel;
  */
 public class ModelMapper {
 
+    /**
+     * Changed ranges that are separated by at most this number of unchanged price steps are sent as one range, since
+     * the start and length of a new range cost about as much as a few demand values.
+     */
+    private static final int MAX_RANGE_GAP = 2;
+
     private ModelMapper() {
     }
 
@@ -84,4 +93,102 @@ public class ModelMapper {
                                                   marketBasisModel.getMaximumPrice());
         return marketBasis;
     }
+
+    /**
+     * Creates a {@link BidDeltaModel} that describes the changes of a bid compared to an earlier bid of the same agent.
+     *
+     * @param base
+     *            the earlier bid, which the receiver must know
+     * @param bidUpdate
+     *            the new bid
+     * @return the delta, or <code>null</code> when sending the full bid is about as small or the market bases differ
+     */
+    public static BidDeltaModel createBidDelta(BidUpdate base, BidUpdate bidUpdate) {
+        if (!base.getBid().getMarketBasis().equals(bidUpdate.getBid().getMarketBasis())) {
+            return null;
+        }
+        double[] baseDemand = base.getBid().getDemand();
+        double[] demand = bidUpdate.getBid().getDemand();
+
+        int[] rangeStarts = new int[demand.length];
+        int[] rangeLengths = new int[demand.length];
+        int ranges = 0;
+        int changed = 0;
+        int rangeEnd = -MAX_RANGE_GAP - 1;
+        for (int ix = 0; ix < demand.length; ix++) {
+            if (Double.doubleToLongBits(demand[ix]) != Double.doubleToLongBits(baseDemand[ix])) {
+                if (ix - rangeEnd > MAX_RANGE_GAP) {
+                    rangeStarts[ranges++] = ix;
+                } else {
+                    // Also send the unchanged steps in the gap
+                    changed += ix - rangeEnd;
+                }
+                rangeEnd = ix + 1;
+                rangeLengths[ranges - 1] = rangeEnd - rangeStarts[ranges - 1];
+                changed++;
+            }
+        }
+        if (changed * 2 > demand.length) {
+            return null;
+        }
+
+        double[] changedDemand = new double[changed];
+        int offset = 0;
+        for (int range = 0; range < ranges; range++) {
+            System.arraycopy(demand, rangeStarts[range], changedDemand, offset, rangeLengths[range]);
+            offset += rangeLengths[range];
+        }
+
+        BidDeltaModel delta = new BidDeltaModel();
+        delta.setBaseBidNumber(base.getBidNumber());
+        delta.setBidNumber(bidUpdate.getBidNumber());
+        delta.setRangeStarts(Arrays.copyOf(rangeStarts, ranges));
+        delta.setRangeLengths(Arrays.copyOf(rangeLengths, ranges));
+        delta.setDemand(changedDemand);
+        return delta;
+    }
+
+    /**
+     * Reconstructs a {@link BidUpdate} from a {@link BidDeltaModel} and the bid it is relative to.
+     *
+     * @param base
+     *            the bid with the baseBidNumber of the delta
+     * @param delta
+     *            the received delta
+     * @return the reconstructed {@link BidUpdate}
+     * @throws IllegalArgumentException
+     *             when the delta does not fit the base bid, or the result is not a valid bid
+     */
+    public static BidUpdate applyBidDelta(BidUpdate base, BidDeltaModel delta) {
+        if (base.getBidNumber() != delta.getBaseBidNumber()) {
+            throw new IllegalArgumentException("The delta is relative to bid " + delta.getBaseBidNumber()
+                                               + ", not to bid "
+                                               + base.getBidNumber());
+        }
+        int[] rangeStarts = delta.getRangeStarts();
+        int[] rangeLengths = delta.getRangeLengths();
+        double[] changedDemand = delta.getDemand();
+        if (rangeStarts == null || rangeLengths == null || changedDemand == null
+            || rangeStarts.length != rangeLengths.length) {
+            throw new IllegalArgumentException("Incomplete bid delta");
+        }
+
+        double[] demand = base.getBid().getDemand();
+        int offset = 0;
+        for (int range = 0; range < rangeStarts.length; range++) {
+            int start = rangeStarts[range];
+            int length = rangeLengths[range];
+            // Written as subtractions, so a large start or length can not overflow
+            if (start < 0 || length < 0 || start > demand.length - length
+                || length > changedDemand.length - offset) {
+                throw new IllegalArgumentException("Range " + start + "+" + length + " does not fit the bid");
+            }
+            System.arraycopy(changedDemand, offset, demand, start, length);
+            offset += length;
+        }
+        if (offset != changedDemand.length) {
+            throw new IllegalArgumentException("The bid delta has more demand values than its ranges");
+        }
+        return new BidUpdate(new Bid(base.getBid().getMarketBasis(), demand), delta.getBidNumber());
+    }
 }
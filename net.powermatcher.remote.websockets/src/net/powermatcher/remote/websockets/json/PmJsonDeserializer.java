@@ -2,7 +2,9 @@ package net.powermatcher.remote.websockets.json;
 
 import java.lang.reflect.Type;
 
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
 import net.powermatcher.remote.websockets.data.BidModel;
+import net.powermatcher.remote.websockets.data.ChannelModel;
 import net.powermatcher.remote.websockets.data.ClusterInfoModel;
 import net.powermatcher.remote.websockets.data.PmMessage;
 import net.powermatcher.remote.websockets.data.PriceUpdateModel;
@@ -32,6 +34,9 @@ public class PmJsonDeserializer implements JsonDeserializer<PmMessage> {
         // Deserialize payload type
         JsonObject obj = json.getAsJsonObject();
         PmMessage message = new PmMessage();
+        if (obj.has("channel") && !obj.get("channel").isJsonNull()) {
+            message.setChannel(obj.get("channel").getAsInt());
+        }
         message.setPayloadType((PmMessage.PayloadType) context.deserialize(obj.get("payloadType"),
                 PmMessage.PayloadType.class));
 
@@ -43,6 +48,10 @@ public class PmJsonDeserializer implements JsonDeserializer<PmMessage> {
             message.setPayload((BidModel) context.deserialize(payload, BidModel.class));
         } else if (message.getPayloadType() == PmMessage.PayloadType.CLUSTERINFO) {
             message.setPayload((ClusterInfoModel) context.deserialize(payload, ClusterInfoModel.class));
+        } else if (message.getPayloadType() == PmMessage.PayloadType.DELTA) {
+            message.setPayload((BidDeltaModel) context.deserialize(payload, BidDeltaModel.class));
+        } else if (message.getPayloadType() == PmMessage.PayloadType.CHANNEL_OPEN) {
+            message.setPayload((ChannelModel) context.deserialize(payload, ChannelModel.class));
         }
 
         return message;
@@ -1,14 +1,26 @@
 package net.powermatcher.remote.websockets.json;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import net.powermatcher.api.data.Bid;
 import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
 import net.powermatcher.remote.websockets.data.BidModel;
+import net.powermatcher.remote.websockets.data.ChannelModel;
 import net.powermatcher.remote.websockets.data.ClusterInfoModel;
+import net.powermatcher.remote.websockets.data.MarketBasisModel;
 import net.powermatcher.remote.websockets.data.PmMessage;
 import net.powermatcher.remote.websockets.data.PriceUpdateModel;
 
@@ -16,10 +28,33 @@ import net.powermatcher.remote.websockets.data.PriceUpdateModel;
  * Implements a serializer for the net.powermatcher.api.data data types to JSON. Items are wrapped in a
  * {@link PmMessage} and correct type is set.
  *
+ * Messages are written and read with the streaming {@link JsonWriter} and {@link JsonReader}, without creating
+ * intermediate models or a tree of {@link JsonElement}s. The output is the same as that of serializing the models with
+ * {@link Gson}. This class is stateless and thread-safe, use {@link #getDefault()} instead of creating new instances.
+ *
  * @author FAN
  * @version 2.1
  */
 public class PmJsonSerializer {
+    /**
+     * The name of the websocket subprotocol for this format. A connection without a negotiated subprotocol also uses
+     * this format.
+     */
+    public static final String SUBPROTOCOL = "powermatcher-json";
+
+    private static final PmJsonSerializer DEFAULT = new PmJsonSerializer();
+
+    /**
+     * Only used for messages where the payload comes before the payloadType, which this serializer never writes.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * @return the shared {@link PmJsonSerializer}.
+     */
+    public static PmJsonSerializer getDefault() {
+        return DEFAULT;
+    }
 
     /**
      * Serialize a {@link Bid} to JSON.
@@ -30,23 +65,63 @@ public class PmJsonSerializer {
      */
     public String serializeBidUpdate(final BidUpdate bidUpdate) {
         Bid bid = bidUpdate.getBid();
+        double[] demand = bid.getDemand();
+        StringWriter out = new StringWriter(128 + demand.length * 8);
+        try {
+            JsonWriter writer = beginMessage(out, PmMessage.PayloadType.BID);
+            writer.beginObject();
+            writeMarketBasis(writer, bid.getMarketBasis());
+            // Include either pricepoints or demand, not both.
+            writer.name("demand").beginArray();
+            for (double d : demand) {
+                writer.value(d);
+            }
+            writer.endArray();
+            writer.name("bidNumber").value(bidUpdate.getBidNumber());
+            writer.endObject();
+            endMessage(writer);
+        } catch (IOException ex) {
+            // A StringWriter does not throw IOExceptions
+            throw new IllegalStateException(ex);
+        }
+        return out.toString();
+    }
 
-        // Convert to JSON and send
-        BidModel bidModel = new BidModel();
-        bidModel.setBidNumber(bidUpdate.getBidNumber());
-        bidModel.setMarketBasis(ModelMapper.convertMarketBasis(bid.getMarketBasis()));
-
-        // Include either pricepoints or demand, not both.
-        bidModel.setDemand(bid.getDemand());
-
-        // Create PM Message with bid information
-        PmMessage message = new PmMessage();
-        message.setPayloadType(PmMessage.PayloadType.BID);
-        message.setPayload(bidModel);
-
-        // Create JSON for PM Message
-        Gson gson = new Gson();
-        return gson.toJson(message, PmMessage.class);
+    /**
+     * Serialize a {@link BidDeltaModel} to JSON.
+     *
+     * @param bidDelta
+     *            the delta to serialize
+     * @return a JSON string with a {@link BidDeltaModel} wrapped in {@link PmMessage}.
+     */
+    public String serializeBidDelta(final BidDeltaModel bidDelta) {
+        StringWriter out = new StringWriter(128 + bidDelta.getDemand().length * 8);
+        try {
+            JsonWriter writer = beginMessage(out, PmMessage.PayloadType.DELTA);
+            writer.beginObject();
+            writer.name("baseBidNumber").value(bidDelta.getBaseBidNumber());
+            writer.name("bidNumber").value(bidDelta.getBidNumber());
+            writer.name("rangeStarts").beginArray();
+            for (int rangeStart : bidDelta.getRangeStarts()) {
+                writer.value(rangeStart);
+            }
+            writer.endArray();
+            writer.name("rangeLengths").beginArray();
+            for (int rangeLength : bidDelta.getRangeLengths()) {
+                writer.value(rangeLength);
+            }
+            writer.endArray();
+            writer.name("demand").beginArray();
+            for (double d : bidDelta.getDemand()) {
+                writer.value(d);
+            }
+            writer.endArray();
+            writer.endObject();
+            endMessage(writer);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toString();
     }
 
     /**
@@ -57,17 +132,19 @@ public class PmJsonSerializer {
      * @return a JSON string with a {@link PriceUpdate} wrapped in {@link PmMessage}.
      */
     public String serializePriceUpdate(final PriceUpdate priceUpdate) {
-        PriceUpdateModel priceModel = new PriceUpdateModel();
-        priceModel.setBidNumber(priceUpdate.getBidNumber());
-        priceModel.setPriceValue(priceUpdate.getPrice().getPriceValue());
-        priceModel.setMarketBasis(ModelMapper.convertMarketBasis(priceUpdate.getPrice().getMarketBasis()));
-
-        PmMessage message = new PmMessage();
-        message.setPayloadType(PmMessage.PayloadType.PRICE_UPDATE);
-        message.setPayload(priceModel);
-
-        Gson gson = new Gson();
-        return gson.toJson(message, PmMessage.class);
+        StringWriter out = new StringWriter(256);
+        try {
+            JsonWriter writer = beginMessage(out, PmMessage.PayloadType.PRICE_UPDATE);
+            writer.beginObject();
+            writeMarketBasis(writer, priceUpdate.getPrice().getMarketBasis());
+            writer.name("bidNumber").value(priceUpdate.getBidNumber());
+            writer.name("priceValue").value(priceUpdate.getPrice().getPriceValue());
+            writer.endObject();
+            endMessage(writer);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toString();
     }
 
     /**
@@ -80,16 +157,112 @@ public class PmJsonSerializer {
      * @return a JSON string with clusterId and {@link MarketBasis} wrapped in {@link PmMessage}.
      */
     public String serializeClusterInfo(final String clusterId, final MarketBasis marketBasis) {
-        ClusterInfoModel customerModel = new ClusterInfoModel();
-        customerModel.setClusterId(clusterId);
-        customerModel.setMarketBasis(ModelMapper.convertMarketBasis(marketBasis));
+        return serializeClusterInfo(clusterId, marketBasis, false);
+    }
+
+    /**
+     * Serialize a clusterId and {@link MarketBasis} to JSON.
+     *
+     * @param clusterId
+     *            the id of the cluster
+     * @param marketBasis
+     *            the market basis of the cluster
+     * @param bidDeltas
+     *            <code>true</code> when the sender accepts {@link BidDeltaModel}s
+     * @return a JSON string with clusterId and {@link MarketBasis} wrapped in {@link PmMessage}.
+     */
+    public String serializeClusterInfo(final String clusterId, final MarketBasis marketBasis, boolean bidDeltas) {
+        return serializeClusterInfo(clusterId, marketBasis, bidDeltas, null, false, 0);
+    }
+
+    /**
+     * Serialize a clusterId and {@link MarketBasis} to JSON, for a session that can be resumed.
+     *
+     * @param clusterId
+     *            the id of the cluster
+     * @param marketBasis
+     *            the market basis of the cluster
+     * @param bidDeltas
+     *            <code>true</code> when the sender accepts {@link BidDeltaModel}s
+     * @param resumeToken
+     *            the token to resume the session with, or <code>null</code> when it can not be resumed
+     * @param resumed
+     *            <code>true</code> when an existing session has been resumed
+     * @param lastBidNumber
+     *            the number of the last bid held for a resumed session, 0 when none
+     * @return a JSON string with clusterId and {@link MarketBasis} wrapped in {@link PmMessage}.
+     */
+    public String serializeClusterInfo(final String clusterId,
+                                       final MarketBasis marketBasis,
+                                       boolean bidDeltas,
+                                       String resumeToken,
+                                       boolean resumed,
+                                       int lastBidNumber) {
+        StringWriter out = new StringWriter(256);
+        try {
+            JsonWriter writer = beginMessage(out, PmMessage.PayloadType.CLUSTERINFO);
+            writer.beginObject();
+            writeMarketBasis(writer, marketBasis);
+            if (clusterId != null) {
+                writer.name("clusterId").value(clusterId);
+            }
+            writer.name("bidDeltas").value(bidDeltas);
+            if (resumeToken != null) {
+                writer.name("resumeToken").value(resumeToken);
+            }
+            if (resumed) {
+                writer.name("resumed").value(true);
+                writer.name("lastBidNumber").value(lastBidNumber);
+            }
+            writer.endObject();
+            endMessage(writer);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serialize the opening of a channel on a multiplexed connection to JSON.
+     *
+     * @param agentId
+     *            the id of the agent that uses the channel
+     * @return a JSON string with a {@link ChannelModel} wrapped in {@link PmMessage}.
+     */
+    public String serializeChannelOpen(final String agentId) {
+        StringWriter out = new StringWriter(64 + agentId.length());
+        try {
+            JsonWriter writer = beginMessage(out, PmMessage.PayloadType.CHANNEL_OPEN);
+            writer.beginObject();
+            writer.name("agentId").value(agentId);
+            writer.endObject();
+            endMessage(writer);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toString();
+    }
 
-        PmMessage message = new PmMessage();
-        message.setPayloadType(PmMessage.PayloadType.CLUSTERINFO);
-        message.setPayload(customerModel);
+    /**
+     * Serialize the closing of a channel on a multiplexed connection to JSON.
+     *
+     * @return a JSON string with an empty {@link PmMessage} of type CHANNEL_CLOSE.
+     */
+    public String serializeChannelClose() {
+        return "{\"payloadType\":\"" + PmMessage.PayloadType.CHANNEL_CLOSE.name() + "\"}";
+    }
 
-        Gson gson = new Gson();
-        return gson.toJson(message, PmMessage.class);
+    /**
+     * Adds the channel id of a multiplexed connection to a message.
+     *
+     * @param channel
+     *            the id of the channel
+     * @param message
+     *            a message created by this serializer
+     * @return the message with the channel id
+     */
+    public String addChannel(int channel, String message) {
+        return "{\"channel\":" + channel + "," + message.substring(1);
     }
 
     /**
@@ -98,9 +271,302 @@ public class PmJsonSerializer {
      * @param message
      *            the JSON string
      * @return a {@link PmMessage} containing payload.
+     * @throws JsonSyntaxException
+     *             when the message is not valid
      */
     public PmMessage deserialize(String message) {
-        Gson gson = new GsonBuilder().registerTypeAdapter(PmMessage.class, new PmJsonDeserializer()).create();
-        return gson.fromJson(message, PmMessage.class);
+        JsonReader reader = new JsonReader(new StringReader(message));
+        try {
+            PmMessage pmMessage = new PmMessage();
+            JsonElement payloadTree = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if ("channel".equals(name)) {
+                    pmMessage.setChannel(reader.nextInt());
+                } else if ("payloadType".equals(name)) {
+                    pmMessage.setPayloadType(readPayloadType(reader.nextString()));
+                } else if ("payload".equals(name)) {
+                    if (pmMessage.getPayloadType() == null) {
+                        // The type is not known yet, fall back to reading a tree
+                        payloadTree = new JsonParser().parse(reader);
+                    } else {
+                        pmMessage.setPayload(readPayload(reader, pmMessage.getPayloadType()));
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (payloadTree != null && pmMessage.getPayloadType() != null) {
+                Class<?> payloadClass = payloadClass(pmMessage.getPayloadType());
+                if (payloadClass != null) {
+                    pmMessage.setPayload(GSON.fromJson(payloadTree, payloadClass));
+                }
+            }
+            return pmMessage;
+        } catch (IOException ex) {
+            throw new JsonSyntaxException(ex);
+        } catch (IllegalStateException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    /**
+     * Unknown payload types are read as null, just like Gson does for unknown enum constants.
+     */
+    private static PmMessage.PayloadType readPayloadType(String name) {
+        for (PmMessage.PayloadType payloadType : PmMessage.PayloadType.values()) {
+            if (payloadType.name().equals(name)) {
+                return payloadType;
+            }
+        }
+        return null;
+    }
+
+    private static JsonWriter beginMessage(StringWriter out, PmMessage.PayloadType payloadType) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("payloadType").value(payloadType.name());
+        writer.name("payload");
+        return writer;
+    }
+
+    private static void endMessage(JsonWriter writer) throws IOException {
+        writer.endObject();
+        writer.close();
+    }
+
+    private static void writeMarketBasis(JsonWriter writer, MarketBasis marketBasis) throws IOException {
+        writer.name("marketBasis").beginObject();
+        if (marketBasis.getCommodity() != null) {
+            writer.name("commodity").value(marketBasis.getCommodity());
+        }
+        if (marketBasis.getCurrency() != null) {
+            writer.name("currency").value(marketBasis.getCurrency());
+        }
+        writer.name("priceSteps").value(marketBasis.getPriceSteps());
+        writer.name("minimumPrice").value(marketBasis.getMinimumPrice());
+        writer.name("maximumPrice").value(marketBasis.getMaximumPrice());
+        writer.endObject();
+    }
+
+    private static Class<?> payloadClass(PmMessage.PayloadType payloadType) {
+        switch (payloadType) {
+        case PRICE_UPDATE:
+            return PriceUpdateModel.class;
+        case BID:
+            return BidModel.class;
+        case CLUSTERINFO:
+            return ClusterInfoModel.class;
+        case DELTA:
+            return BidDeltaModel.class;
+        case CHANNEL_OPEN:
+            return ChannelModel.class;
+        default:
+            return null;
+        }
+    }
+
+    private static Object readPayload(JsonReader reader, PmMessage.PayloadType payloadType) throws IOException {
+        switch (payloadType) {
+        case PRICE_UPDATE:
+            return readPriceUpdate(reader);
+        case BID:
+            return readBid(reader);
+        case CLUSTERINFO:
+            return readClusterInfo(reader);
+        case DELTA:
+            return readBidDelta(reader);
+        case CHANNEL_OPEN:
+            return readChannel(reader);
+        default:
+            reader.skipValue();
+            return null;
+        }
+    }
+
+    private static BidModel readBid(JsonReader reader) throws IOException {
+        BidModel bidModel = new BidModel();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("marketBasis".equals(name)) {
+                bidModel.setMarketBasis(readMarketBasis(reader));
+            } else if ("demand".equals(name)) {
+                bidModel.setDemand(readDoubleArray(reader, bidModel.getMarketBasis()));
+            } else if ("bidNumber".equals(name)) {
+                bidModel.setBidNumber(reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return bidModel;
+    }
+
+    private static BidDeltaModel readBidDelta(JsonReader reader) throws IOException {
+        BidDeltaModel bidDeltaModel = new BidDeltaModel();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("baseBidNumber".equals(name)) {
+                bidDeltaModel.setBaseBidNumber(reader.nextInt());
+            } else if ("bidNumber".equals(name)) {
+                bidDeltaModel.setBidNumber(reader.nextInt());
+            } else if ("rangeStarts".equals(name)) {
+                bidDeltaModel.setRangeStarts(readIntArray(reader));
+            } else if ("rangeLengths".equals(name)) {
+                bidDeltaModel.setRangeLengths(readIntArray(reader));
+            } else if ("demand".equals(name)) {
+                bidDeltaModel.setDemand(readDoubleArray(reader, null));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return bidDeltaModel;
+    }
+
+    private static ChannelModel readChannel(JsonReader reader) throws IOException {
+        ChannelModel channelModel = new ChannelModel();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("agentId".equals(name)) {
+                channelModel.setAgentId(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return channelModel;
+    }
+
+    private static PriceUpdateModel readPriceUpdate(JsonReader reader) throws IOException {
+        PriceUpdateModel priceUpdateModel = new PriceUpdateModel();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("marketBasis".equals(name)) {
+                priceUpdateModel.setMarketBasis(readMarketBasis(reader));
+            } else if ("bidNumber".equals(name)) {
+                priceUpdateModel.setBidNumber(reader.nextInt());
+            } else if ("priceValue".equals(name)) {
+                priceUpdateModel.setPriceValue(reader.nextDouble());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return priceUpdateModel;
+    }
+
+    private static ClusterInfoModel readClusterInfo(JsonReader reader) throws IOException {
+        ClusterInfoModel clusterInfoModel = new ClusterInfoModel();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("marketBasis".equals(name)) {
+                clusterInfoModel.setMarketBasis(readMarketBasis(reader));
+            } else if ("clusterId".equals(name)) {
+                clusterInfoModel.setClusterId(reader.nextString());
+            } else if ("bidDeltas".equals(name)) {
+                clusterInfoModel.setBidDeltas(reader.nextBoolean());
+            } else if ("resumeToken".equals(name)) {
+                clusterInfoModel.setResumeToken(reader.nextString());
+            } else if ("resumed".equals(name)) {
+                clusterInfoModel.setResumed(reader.nextBoolean());
+            } else if ("lastBidNumber".equals(name)) {
+                clusterInfoModel.setLastBidNumber(reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return clusterInfoModel;
+    }
+
+    private static MarketBasisModel readMarketBasis(JsonReader reader) throws IOException {
+        MarketBasisModel marketBasisModel = new MarketBasisModel();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("commodity".equals(name)) {
+                marketBasisModel.setCommodity(reader.nextString());
+            } else if ("currency".equals(name)) {
+                marketBasisModel.setCurrency(reader.nextString());
+            } else if ("priceSteps".equals(name)) {
+                marketBasisModel.setPriceSteps(reader.nextInt());
+            } else if ("minimumPrice".equals(name)) {
+                marketBasisModel.setMinimumPrice(reader.nextDouble());
+            } else if ("maximumPrice".equals(name)) {
+                marketBasisModel.setMaximumPrice(reader.nextDouble());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return marketBasisModel;
+    }
+
+    /**
+     * Reads an array of doubles. When the market basis has already been read, its number of price steps is used as the
+     * size of the array, so the array normally does not have to be resized.
+     */
+    private static double[] readDoubleArray(JsonReader reader, MarketBasisModel marketBasis) throws IOException {
+        double[] values = new double[marketBasis != null && marketBasis.getPriceSteps() > 0 ? marketBasis.getPriceSteps()
+                                                                                            : 16];
+        int size = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (size == values.length) {
+                double[] larger = new double[values.length * 2];
+                System.arraycopy(values, 0, larger, 0, size);
+                values = larger;
+            }
+            values[size++] = reader.nextDouble();
+        }
+        reader.endArray();
+        if (size == values.length) {
+            return values;
+        }
+        double[] result = new double[size];
+        System.arraycopy(values, 0, result, 0, size);
+        return result;
+    }
+
+    private static int[] readIntArray(JsonReader reader) throws IOException {
+        int[] values = new int[8];
+        int size = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (size == values.length) {
+                int[] larger = new int[values.length * 2];
+                System.arraycopy(values, 0, larger, 0, size);
+                values = larger;
+            }
+            values[size++] = reader.nextInt();
+        }
+        reader.endArray();
+        int[] result = new int[size];
+        System.arraycopy(values, 0, result, 0, size);
+        return result;
     }
 }
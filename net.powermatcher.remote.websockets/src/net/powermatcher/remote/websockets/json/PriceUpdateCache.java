@@ -0,0 +1,124 @@
+package net.powermatcher.remote.websockets.json;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.PriceUpdate;
+
+/**
+ * Caches the JSON of the {@link PriceUpdate}s that a matcher sends to many remote agents at once. All price updates of
+ * one round share the same {@link Price}; only their bid numbers differ. The message is serialized once per price, and
+ * the message of each bid number is the shared text with the bid number filled in. Remote agents that refer to the same
+ * bid number get the same {@link String} instance.
+ *
+ * The output is the same as that of {@link PmJsonSerializer#serializePriceUpdate(PriceUpdate)}. This class is
+ * thread-safe, use {@link #getDefault()} to share the cache between all connections.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class PriceUpdateCache {
+    /**
+     * The number of prices kept, e.g. for matchers with different market bases that send prices at the same time.
+     */
+    private static final int MAX_ROUNDS = 8;
+
+    /**
+     * The number of messages kept per price.
+     */
+    private static final int MAX_MESSAGES_PER_ROUND = 4096;
+
+    private static final PriceUpdateCache DEFAULT = new PriceUpdateCache();
+
+    /**
+     * @return the shared {@link PriceUpdateCache}.
+     */
+    public static PriceUpdateCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The messages of a single {@link Price}.
+     */
+    private static final class Round {
+        /**
+         * The message up to the value of the bid number.
+         */
+        final String prefix;
+
+        /**
+         * The message after the value of the bid number.
+         */
+        final String suffix;
+
+        final ConcurrentMap<Integer, String> messages = new ConcurrentHashMap<Integer, String>();
+
+        Round(Price price) {
+            String message = PmJsonSerializer.getDefault().serializePriceUpdate(new PriceUpdate(price, 0));
+            String bidNumber = "\"bidNumber\":";
+            int split = message.lastIndexOf(bidNumber + "0") + bidNumber.length();
+            prefix = message.substring(0, split);
+            suffix = message.substring(split + 1);
+        }
+    }
+
+    private final ConcurrentMap<Price, Round> rounds = new ConcurrentHashMap<Price, Round>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Serialize a {@link PriceUpdate} to JSON, reusing an earlier message with the same price and bid number.
+     *
+     * @param priceUpdate
+     *            the {@link PriceUpdate} to serialize
+     * @return a JSON string with the {@link PriceUpdate} wrapped in a PmMessage.
+     */
+    public String serializePriceUpdate(PriceUpdate priceUpdate) {
+        Price price = priceUpdate.getPrice();
+        Round round = rounds.get(price);
+        if (round == null) {
+            if (rounds.size() >= MAX_ROUNDS) {
+                rounds.clear();
+            }
+            round = new Round(price);
+            Round existing = rounds.putIfAbsent(price, round);
+            if (existing != null) {
+                round = existing;
+            }
+        }
+
+        Integer bidNumber = priceUpdate.getBidNumber();
+        String message = round.messages.get(bidNumber);
+        if (message != null) {
+            hits.incrementAndGet();
+            return message;
+        }
+        misses.incrementAndGet();
+        message = round.prefix + bidNumber + round.suffix;
+        if (round.messages.size() < MAX_MESSAGES_PER_ROUND) {
+            String existing = round.messages.putIfAbsent(bidNumber, message);
+            if (existing != null) {
+                message = existing;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * @return the number of messages that were taken from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of messages that had to be created.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
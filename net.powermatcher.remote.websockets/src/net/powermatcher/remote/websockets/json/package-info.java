@@ -1,2 +1,2 @@
-@aQute.bnd.annotation.Version("1.0.0")
+@aQute.bnd.annotation.Version("1.1.0")
 package net.powermatcher.remote.websockets.json;
@@ -0,0 +1,208 @@
+package net.powermatcher.remote.websockets.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Protects the local cluster against a storm of (re)connecting remote agents.
+ *
+ * <ul>
+ * <li>New connections are limited by a token bucket: the bucket holds at most <code>burst</code> tokens and is refilled
+ * with <code>rate</code> tokens per second. A connection that finds the bucket empty is refused.</li>
+ * <li>The number of proxies (including the channels of multiplexed connections) is limited.</li>
+ * <li>The registration of the proxies as OSGi services, which makes the runtime connect them to their matcher, is
+ * queued. The queue is handled in batches by a single thread, with a pause between batches, so the matchers keep
+ * handling bids and prices while many agents connect at once. When the queue is full, the proxy is refused.</li>
+ * </ul>
+ *
+ * A refused remote agent is told to try again later, and backs off before reconnecting.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class AdmissionController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final double rate;
+
+    private final double burst;
+
+    private final int maxProxies;
+
+    private final int batchSize;
+
+    /**
+     * Guarded by this.
+     */
+    private double tokens;
+
+    /**
+     * Guarded by this, in nanoseconds.
+     */
+    private long lastRefill;
+
+    private final AtomicInteger activeProxies = new AtomicInteger();
+
+    private final BlockingQueue<Runnable> pendingRegistrations;
+
+    private final ScheduledThreadPoolExecutor registrationExecutor;
+
+    private final AtomicLong refusedConnections = new AtomicLong();
+
+    private final AtomicLong refusedProxies = new AtomicLong();
+
+    private final Runnable registrationBatch = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < batchSize; i++) {
+                Runnable registration = pendingRegistrations.poll();
+                if (registration == null) {
+                    return;
+                }
+                try {
+                    registration.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unable to register proxy", e);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param rate
+     *            the number of new connections per second that is accepted on average
+     * @param burst
+     *            the number of new connections that is accepted at once
+     * @param maxProxies
+     *            the maximum number of proxies
+     * @param maxPendingRegistrations
+     *            the maximum number of proxies that wait to be registered
+     * @param batchSize
+     *            the maximum number of proxies that is registered at once
+     * @param batchInterval
+     *            the time between two batches of registrations in milliseconds
+     */
+    public AdmissionController(double rate,
+                               int burst,
+                               int maxProxies,
+                               int maxPendingRegistrations,
+                               int batchSize,
+                               long batchInterval) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.maxProxies = maxProxies;
+        this.batchSize = Math.max(1, batchSize);
+        tokens = this.burst;
+        lastRefill = System.nanoTime();
+        pendingRegistrations = new ArrayBlockingQueue<Runnable>(Math.max(1, maxPendingRegistrations));
+        registrationExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "websocket-registration");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        registrationExecutor.scheduleWithFixedDelay(registrationBatch,
+                                                    batchInterval,
+                                                    Math.max(1, batchInterval),
+                                                    TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Decides whether a new connection is accepted. Takes a token from the bucket when it is.
+     *
+     * @return <code>false</code> when the connection must be refused
+     */
+    public boolean admitConnection() {
+        if (activeProxies.get() >= maxProxies) {
+            refusedConnections.incrementAndGet();
+            return false;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+        }
+        refusedConnections.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Reserves room for a new proxy and queues its registration.
+     *
+     * @param registration
+     *            registers the proxy, runs on the registration thread
+     * @return <code>false</code> when the proxy is refused, either because there are too many proxies or because too
+     *         many proxies wait to be registered. Nothing has been reserved then.
+     */
+    public boolean admitProxy(Runnable registration) {
+        if (activeProxies.incrementAndGet() > maxProxies) {
+            activeProxies.decrementAndGet();
+            refusedProxies.incrementAndGet();
+            return false;
+        }
+        if (!pendingRegistrations.offer(registration)) {
+            activeProxies.decrementAndGet();
+            refusedProxies.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the room of an admitted proxy, when it is deactivated.
+     */
+    public void proxyRemoved() {
+        activeProxies.decrementAndGet();
+    }
+
+    /**
+     * Stops the registration thread. Queued registrations are dropped.
+     */
+    public void shutdown() {
+        registrationExecutor.shutdownNow();
+        pendingRegistrations.clear();
+    }
+
+    /**
+     * @return the number of admitted proxies that have not been removed.
+     */
+    public int getActiveProxies() {
+        return activeProxies.get();
+    }
+
+    /**
+     * @return the number of proxies that wait to be registered.
+     */
+    public int getPendingRegistrations() {
+        return pendingRegistrations.size();
+    }
+
+    /**
+     * @return the number of connections that were refused.
+     */
+    public long getRefusedConnections() {
+        return refusedConnections.get();
+    }
+
+    /**
+     * @return the number of proxies that were refused.
+     */
+    public long getRefusedProxies() {
+        return refusedProxies.get();
+    }
+}
@@ -1,17 +1,22 @@
 package net.powermatcher.remote.websockets.server;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.WebSocketFrameListener;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 
@@ -20,36 +25,201 @@ import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
 import net.powermatcher.api.monitoring.ObservableAgent;
 import net.powermatcher.api.monitoring.events.OutgoingBidUpdateEvent;
+import net.powermatcher.api.sessions.SessionId;
+import net.powermatcher.api.sessions.SessionIdGenerator;
 import net.powermatcher.core.BaseAgentEndpoint;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
 import net.powermatcher.remote.websockets.data.BidModel;
 import net.powermatcher.remote.websockets.data.PmMessage;
 import net.powermatcher.remote.websockets.json.ModelMapper;
 import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+import net.powermatcher.remote.websockets.json.PriceUpdateCache;
+import net.powermatcher.remote.websockets.transport.Heartbeat;
+import net.powermatcher.remote.websockets.transport.LinkMonitor;
+import net.powermatcher.remote.websockets.transport.LinkStatistics;
+import net.powermatcher.remote.websockets.transport.OutboundQueue;
 
 /**
  * WebSocket implementation of an {@link AgentEndpoint}. Enabled two agents to communicate via WebSockets and JSON over
- * a TCP connection.
+ * a TCP connection. When negotiated, the compact binary format of {@link PmBinaryCodec} is used instead of JSON.
+ *
+ * Messages to the remote agent are written asynchronously through an {@link OutboundQueue}, so a slow link does not
+ * block the thread that delivers the price updates of the local matcher. A queued price update that has not been
+ * written yet is replaced by a newer one. The statistics of the queue are registered as {@link LinkStatistics} MBean.
+ *
+ * With an {@link AdmissionController}, the proxy is only registered when the controller admits it, and the
+ * registration is done by the controller in a batch with other proxies.
+ *
+ * With {@link ResumableSessions}, a proxy that loses its connection stays registered for a grace period, so the last
+ * bid of the remote agent stays with the matcher. When the remote agent comes back with its resume token in time, it
+ * gets this proxy back and only has to send the bids the proxy has not received yet. This also works while the old
+ * connection still looks open at this end, e.g. on a half-open connection; the old connection is then closed. Only a
+ * connection that the remote agent closes with the NORMAL status ends the session directly. After any other close,
+ * including GOING_AWAY (e.g. a stopped client) and a heartbeat timeout, the proxy waits for the grace period.
+ *
+ * A {@link LinkMonitor} measures the latency of the link to the remote agent: the round trip time of the pings sent by
+ * the {@link Heartbeat}, and the time between a bid of the remote agent and the price update for it. Its measurements
+ * are part of the {@link LinkStatistics} MBean.
  *
  * @author FAN
  * @version 2.1
  */
 public class AgentEndpointProxy
     extends BaseAgentEndpoint
-    implements WebSocketListener {
+    implements WebSocketListener, WebSocketFrameListener, ResumableSessions.Resumable, LinkStatistics.Link {
 
     protected final BundleContext bundleContext;
     protected final String desiredParentId;
     protected ServiceRegistration<?> serviceRegistration;
     protected Session remoteSession;
 
+    /**
+     * Identifies the websocket connection of this proxy in the log messages and service properties of this end. It is
+     * generated locally and not sent to the remote agent, which has an id of its own.
+     */
+    protected SessionId remoteSessionId;
+
+    /**
+     * The codec for the binary format, or <code>null</code> when JSON is used.
+     */
+    protected final PmBinaryCodec binaryCodec;
+
+    private final int maxOutboundMessages;
+
+    /**
+     * Admits this proxy, or <code>null</code> when all proxies are registered directly.
+     */
+    private final AdmissionController admissionController;
+
+    /**
+     * Whether this proxy holds room in the {@link AdmissionController}.
+     */
+    private final AtomicBoolean admitted = new AtomicBoolean();
+
+    /**
+     * Guards serviceRegistration and deactivated, so a queued registration does not happen after deactivation.
+     */
+    private final Object registrationLock = new Object();
+
+    private boolean deactivated;
+
+    /**
+     * Keeps this proxy when the connection is lost, or <code>null</code> when sessions can not be resumed.
+     */
+    private final ResumableSessions resumableSessions;
+
+    /**
+     * The token with which the remote agent can resume its session, or <code>null</code> when it can not.
+     */
+    private volatile String resumeToken;
+
+    /**
+     * The id of the remote agent, as given when it connected.
+     */
+    private volatile String remoteAgentId;
+
+    /**
+     * Whether the connection has been lost and this proxy waits for the remote agent to resume the session. Written
+     * while holding registrationLock.
+     */
+    private volatile boolean detached;
+
+    /**
+     * The number of times the connection has been lost, guarded by registrationLock.
+     */
+    private int detachments;
+
+    /**
+     * The number of connections that were replaced by a resumed connection, but have not been closed yet. Their close
+     * does not end the session. Guarded by registrationLock.
+     */
+    private int replacedConnections;
+
+    /**
+     * The number of the last bid received from the remote agent.
+     */
+    private volatile int lastReceivedBidNumber;
+
+    /**
+     * The last price update of the matcher, which is sent again when the session is resumed.
+     */
+    private volatile PriceUpdate lastPriceUpdate;
+
+    /**
+     * Pings the remote agent, or <code>null</code> when the link is not pinged.
+     */
+    private final Heartbeat heartbeat;
+
+    /**
+     * Measures the latency of the link, created when the remote agent connects.
+     */
+    private volatile LinkMonitor linkMonitor;
+
+    /**
+     * The outbound messages of the websocket connection, created when the remote agent connects.
+     */
+    private volatile OutboundQueue outboundQueue;
+
+    /**
+     * The MBean of the connection, or <code>null</code> when this proxy does not own a websocket connection.
+     */
+    private volatile LinkStatistics linkStatistics;
+
+    /**
+     * The last bids received from the remote agent, which can be the base of a {@link BidDeltaModel}.
+     */
+    private final Map<Integer, BidUpdate> receivedBids = new LinkedHashMap<Integer, BidUpdate>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Integer, BidUpdate> eldest) {
+            return size() > BidDeltaModel.MAX_BASE_DISTANCE;
+        }
+    };
+
     public AgentEndpointProxy(BundleContext bundleContext, String desiredParentId) {
+        this(bundleContext, new ProxySettings.Builder(desiredParentId).build(), false);
+    }
+
+    /**
+     * @param bundleContext
+     *            the {@link BundleContext} used to register this proxy
+     * @param settings
+     *            the settings this proxy shares with the other proxies of the server
+     * @param binary
+     *            <code>true</code> when the binary format has been negotiated for this connection
+     */
+    public AgentEndpointProxy(BundleContext bundleContext, ProxySettings settings, boolean binary) {
+        this(bundleContext, settings, binary ? new PmBinaryCodec() : null);
+    }
+
+    /**
+     * @param bundleContext
+     *            the {@link BundleContext} used to register this proxy
+     * @param settings
+     *            the settings this proxy shares with the other proxies of the server
+     * @param binaryCodec
+     *            the codec for the binary format of the connection, or <code>null</code> when JSON is used
+     */
+    protected AgentEndpointProxy(BundleContext bundleContext, ProxySettings settings, PmBinaryCodec binaryCodec) {
         this.bundleContext = bundleContext;
-        this.desiredParentId = desiredParentId;
+        desiredParentId = settings.getDesiredParentId();
+        this.binaryCodec = binaryCodec;
+        maxOutboundMessages = settings.getMaxOutboundMessages();
+        admissionController = settings.getAdmissionController();
+        resumableSessions = settings.getResumableSessions();
+        heartbeat = settings.getHeartbeat();
     }
 
     @Override
     public void onWebSocketConnect(Session remoteSession) {
+        if (resumeSession(remoteSession)) {
+            return;
+        }
         this.remoteSession = remoteSession;
+        outboundQueue = new OutboundQueue(remoteSession.getRemote(), maxOutboundMessages);
+        remoteSessionId = SessionIdGenerator.getDefault().next();
 
         Map<String, String> query = splitQuery(remoteSession.getUpgradeRequest().getRequestURI());
         String remoteAgentId = query.get("agentId");
@@ -60,12 +230,194 @@ public class AgentEndpointProxy
                         remoteSession.getRemoteAddress());
             return;
         }
+        this.remoteAgentId = remoteAgentId;
+        linkMonitor = new LinkMonitor(remoteAgentId + "@" + remoteSession.getRemoteAddress());
+        if (resumableSessions != null) {
+            resumeToken = resumableSessions.newToken();
+        }
 
-        register(remoteSession, remoteAgentId, connectionId);
-        LOGGER.debug("Connected to remote agent {} with connectionId {} on {}",
+        if (!requestRegistration(remoteSession, remoteAgentId, connectionId)) {
+            LOGGER.warn("Refusing remote agent {} from [{}], too many agents",
+                        remoteAgentId,
+                        remoteSession.getRemoteAddress());
+            remoteSession.close(StatusCode.TRY_AGAIN_LATER, "Too many agents, try again later");
+            return;
+        }
+        if (resumableSessions != null) {
+            resumableSessions.add(resumeToken, this);
+        }
+        if (heartbeat != null) {
+            heartbeat.add(linkMonitor, remoteSession);
+        }
+        linkStatistics = new LinkStatistics(linkMonitor.getName(), this);
+        linkStatistics.register();
+        LOGGER.debug("Connected to remote agent {} with connectionId {} on {} (session {}, {})",
                      remoteAgentId,
                      connectionId,
-                     remoteSession.getRemoteAddress());
+                     remoteSession.getRemoteAddress(),
+                     remoteSessionId,
+                     binaryCodec == null ? PmJsonSerializer.SUBPROTOCOL : PmBinaryCodec.SUBPROTOCOL);
+    }
+
+    /**
+     * Attaches a new connection of the remote agent to this proxy, when the remote agent resumes its session. When the
+     * old connection has not been closed yet, it is closed now.
+     *
+     * @param remoteSession
+     *            the new websocket of the remote agent
+     * @return <code>false</code> when this is the first connection of this proxy
+     */
+    private boolean resumeSession(Session remoteSession) {
+        Session replacedSession;
+        OutboundQueue replacedQueue;
+        synchronized (registrationLock) {
+            if (!detached && this.remoteSession == null) {
+                return false;
+            }
+            if (deactivated) {
+                // The grace period ended while the remote agent reconnected
+                remoteSession.close(StatusCode.SHUTDOWN, "Session expired");
+                return true;
+            }
+            replacedSession = detached ? null : this.remoteSession;
+            replacedQueue = outboundQueue;
+            if (replacedSession != null) {
+                replacedConnections++;
+            }
+            this.remoteSession = remoteSession;
+            outboundQueue = new OutboundQueue(remoteSession.getRemote(), maxOutboundMessages);
+            detached = false;
+        }
+        if (replacedSession != null) {
+            LOGGER.debug("Session {} of {} is resumed on a new connection, closing the old one from {}",
+                         remoteSessionId,
+                         getAgentId(),
+                         replacedSession.getRemoteAddress());
+            if (replacedQueue != null) {
+                replacedQueue.clear();
+            }
+            replacedSession.close(StatusCode.NORMAL, "Session resumed on another connection");
+        }
+        if (heartbeat != null) {
+            heartbeat.add(linkMonitor, remoteSession);
+        }
+        LOGGER.debug("Resumed session {} of {} on {}, last bid {}",
+                     remoteSessionId,
+                     getAgentId(),
+                     remoteSession.getRemoteAddress(),
+                     lastReceivedBidNumber);
+
+        AgentEndpoint.Status currentStatus = getStatus();
+        if (currentStatus.isConnected()) {
+            sendClusterInfo(currentStatus, true);
+            PriceUpdate priceUpdate = lastPriceUpdate;
+            if (priceUpdate != null) {
+                sendPriceUpdate(priceUpdate);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps this proxy registered after the connection has been lost, so the remote agent can resume its session.
+     *
+     * @return <code>false</code> when the session can not be resumed, e.g. because this proxy has not been registered
+     */
+    private boolean detach() {
+        String token = resumeToken;
+        if (resumableSessions == null || token == null) {
+            return false;
+        }
+        int detachment;
+        synchronized (registrationLock) {
+            if (deactivated || detached || serviceRegistration == null) {
+                return false;
+            }
+            detached = true;
+            detachment = ++detachments;
+            remoteSession = null;
+        }
+        OutboundQueue queue = outboundQueue;
+        if (queue != null) {
+            queue.clear();
+        }
+        if (heartbeat != null) {
+            heartbeat.remove(linkMonitor);
+        }
+        resumableSessions.detach(token, this, detachment);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canResume(String remoteAgentId, boolean binary) {
+        synchronized (registrationLock) {
+            if (deactivated) {
+                return false;
+            }
+        }
+        return remoteAgentId != null && remoteAgentId.equals(this.remoteAgentId) && binary == (binaryCodec != null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean expire(int detachment) {
+        synchronized (registrationLock) {
+            if (!detached || deactivated || detachment != detachments) {
+                return false;
+            }
+            deactivated = true;
+        }
+        LOGGER.debug("Session [{}] of [{}] has not been resumed in time", remoteSessionId, getAgentId());
+        deactivate();
+        return true;
+    }
+
+    /**
+     * Registers this proxy, directly or through the {@link AdmissionController}.
+     *
+     * @param remoteSession
+     *            the websocket of the remote agent
+     * @param remoteAgentId
+     *            the id of the remote agent
+     * @param connectionId
+     *            the id of the connection given by the remote agent
+     * @return <code>false</code> when the {@link AdmissionController} refused this proxy
+     */
+    protected boolean requestRegistration(final Session remoteSession,
+                                          final String remoteAgentId,
+                                          final String connectionId) {
+        if (admissionController == null) {
+            register(remoteSession, remoteAgentId, connectionId);
+            return true;
+        }
+        admitted.set(true);
+        boolean accepted = admissionController.admitProxy(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (registrationLock) {
+                    if (!deactivated) {
+                        register(remoteSession, remoteAgentId, connectionId);
+                    }
+                }
+            }
+        });
+        if (!accepted) {
+            admitted.set(false);
+        }
+        return accepted;
     }
 
     protected void register(Session remoteSession, String remoteAgentId, String connectionId) {
@@ -75,6 +427,7 @@ public class AgentEndpointProxy
         properties.put("agentId", agentId);
         properties.put("desiredParentId", desiredParentId);
         properties.put("connectionId", connectionId);
+        properties.put("remoteSessionId", remoteSessionId.toString());
         serviceRegistration = bundleContext.registerService(new String[] { ObservableAgent.class.getName(),
                                                                            AgentEndpoint.class.getName() },
                                                             this,
@@ -106,37 +459,184 @@ public class AgentEndpointProxy
         }
     }
 
+    /**
+     * @return the identifier of the current websocket connection, or <code>null</code> when never connected.
+     */
+    public SessionId getRemoteSessionId() {
+        return remoteSessionId;
+    }
+
+    /**
+     * @return the outbound messages of the websocket connection, e.g. to monitor the queue depth and write times, or
+     *         <code>null</code> when this proxy does not own a websocket connection.
+     */
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * @return the latency measurements of the link to the remote agent, or <code>null</code> when this proxy does not
+     *         own a websocket connection.
+     */
+    @Override
+    public LinkMonitor getLinkMonitor() {
+        return linkMonitor;
+    }
+
+    /**
+     * @return the MBean of the websocket connection, or <code>null</code> when this proxy does not own a websocket
+     *         connection.
+     */
+    public LinkStatistics getLinkStatistics() {
+        return linkStatistics;
+    }
+
     @Override
     public void onWebSocketBinary(byte[] buffer, int offset, int length) {
-        // Do nothing, we ignore all binary messages
+        if (binaryCodec == null) {
+            LOGGER.warn("Ignoring binary message, the binary protocol has not been negotiated");
+            return;
+        }
+        try {
+            PmMessage pmMessage = binaryCodec.decode(buffer, offset, length);
+            if (pmMessage.getPayloadType() == PmMessage.PayloadType.BID) {
+                handleRemoteBidUpdate((BidUpdate) pmMessage.getPayload());
+            } else if (pmMessage.getPayloadType() == PmMessage.PayloadType.DELTA) {
+                handleRemoteBidDelta((BidDeltaModel) pmMessage.getPayload());
+            } else {
+                LOGGER.warn("Got unexpected message type [{}], expected BID", pmMessage.getPayloadType());
+            }
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warn("Unable to understand binary message from remote agent: {}", ex.getMessage());
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation ends the session when the remote agent closed the connection with the NORMAL status. After
+     * any other close, the session waits to be resumed when that is possible. The close of a connection that has been
+     * replaced by a resumed one is ignored.
+     */
     @Override
     public void onWebSocketClose(int statusCode, String reason) {
+        synchronized (registrationLock) {
+            if (replacedConnections > 0) {
+                replacedConnections--;
+                LOGGER.debug("Closed the replaced connection of session [{}] of [{}], code = {}, reason = {}",
+                             remoteSessionId,
+                             getAgentId(),
+                             statusCode,
+                             reason);
+                return;
+            }
+        }
+        if (statusCode != StatusCode.NORMAL && detach()) {
+            LOGGER.debug("Lost session [{}] of [{}], code = {}, reason = {}, waiting {} ms for it to be resumed",
+                         remoteSessionId,
+                         getAgentId(),
+                         statusCode,
+                         reason,
+                         resumableSessions.getGracePeriod());
+            return;
+        }
         deactivate();
-        LOGGER.debug("Disconnected session [{}], code = {}, reason = {}", getAgentId(), statusCode, reason);
+        LOGGER.debug("Disconnected session [{}] of [{}], code = {}, reason = {}",
+                     remoteSessionId,
+                     getAgentId(),
+                     statusCode,
+                     reason);
     }
 
     @Override
     public void onWebSocketError(Throwable ex) {
+        LinkMonitor monitor = linkMonitor;
+        if (monitor != null) {
+            monitor.error();
+        }
         LOGGER.warn("Error during communication", ex);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation hands the pongs of the remote agent to the {@link LinkMonitor}.
+     */
+    @Override
+    public void onWebSocketFrame(Frame frame) {
+        LinkMonitor monitor = linkMonitor;
+        if (monitor != null && frame.getType() == Frame.Type.PONG) {
+            monitor.pong(frame.getPayload());
+        }
+    }
+
     @Override
     public void onWebSocketText(String message) {
         // Decode the JSON data
-        PmJsonSerializer serializer = new PmJsonSerializer();
+        PmJsonSerializer serializer = PmJsonSerializer.getDefault();
         PmMessage pmMessage = serializer.deserialize(message);
-        BidUpdate newBid = ModelMapper.mapBidUpdate((BidModel) pmMessage.getPayload());
+        if (pmMessage.getPayloadType() == PmMessage.PayloadType.DELTA) {
+            handleRemoteBidDelta((BidDeltaModel) pmMessage.getPayload());
+        } else {
+            handleRemoteBidUpdate(ModelMapper.mapBidUpdate((BidModel) pmMessage.getPayload()));
+        }
+    }
 
+    /**
+     * Reconstructs the full bid from a {@link BidDeltaModel} and relays it to the local matcher. A delta that can not be
+     * applied is dropped. The remote agent then sends a full bid once its base has become too old, because the price
+     * updates keep acknowledging the last bid that did arrive.
+     *
+     * @param bidDelta
+     *            the received {@link BidDeltaModel}
+     */
+    protected void handleRemoteBidDelta(BidDeltaModel bidDelta) {
+        BidUpdate base;
+        synchronized (receivedBids) {
+            base = receivedBids.get(bidDelta.getBaseBidNumber());
+        }
+        if (base == null) {
+            LOGGER.warn("Dropping bid delta {}, its base bid {} is unknown",
+                        bidDelta.getBidNumber(),
+                        bidDelta.getBaseBidNumber());
+            return;
+        }
+        BidUpdate newBid;
+        try {
+            newBid = ModelMapper.applyBidDelta(base, bidDelta);
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warn("Dropping invalid bid delta {}: {}", bidDelta.getBidNumber(), ex.getMessage());
+            return;
+        }
+        handleRemoteBidUpdate(newBid);
+    }
+
+    /**
+     * Relays a {@link BidUpdate} received from the remote agent to the local matcher.
+     *
+     * @param newBid
+     *            the received {@link BidUpdate}
+     */
+    protected void handleRemoteBidUpdate(BidUpdate newBid) {
+        synchronized (receivedBids) {
+            receivedBids.put(newBid.getBidNumber(), newBid);
+        }
+        lastReceivedBidNumber = newBid.getBidNumber();
+        LinkMonitor monitor = linkMonitor;
+        if (monitor != null) {
+            monitor.bidUpdate(newBid.getBidNumber());
+        }
         AgentEndpoint.Status currentStatus = getStatus();
         if (currentStatus.isConnected()) {
             net.powermatcher.api.Session session = currentStatus.getSession();
-            publishEvent(new OutgoingBidUpdateEvent(currentStatus.getClusterId(),
-                                                    getAgentId(),
-                                                    session.getSessionId(),
-                                                    now(),
-                                                    newBid));
+            if (isObserved(OutgoingBidUpdateEvent.class)) {
+                publishEvent(new OutgoingBidUpdateEvent(currentStatus.getClusterId(),
+                                                        getAgentId(),
+                                                        session.getSessionId(),
+                                                        currentTimeMillis(),
+                                                        newBid));
+            }
             LOGGER.debug("Sending bid [{}] to {}", newBid, session.getAgentId());
             currentStatus.getSession().updateBid(newBid);
         } else {
@@ -146,15 +646,36 @@ public class AgentEndpointProxy
 
     @Override
     public void deactivate() {
-        if (serviceRegistration != null) {
-            ServiceRegistration<?> reg = serviceRegistration;
+        ServiceRegistration<?> reg;
+        synchronized (registrationLock) {
+            deactivated = true;
+            reg = serviceRegistration;
             serviceRegistration = null;
+        }
+        String token = resumeToken;
+        if (resumableSessions != null && token != null) {
+            resumableSessions.remove(token, this);
+        }
+        if (heartbeat != null && linkMonitor != null) {
+            heartbeat.remove(linkMonitor);
+        }
+        if (linkStatistics != null) {
+            linkStatistics.unregister();
+        }
+        if (reg != null) {
             reg.unregister();
         }
+        if (admitted.compareAndSet(true, false)) {
+            admissionController.proxyRemoved();
+        }
         if (remoteSession != null && remoteSession.isOpen()) {
             remoteSession.close();
             remoteSession = null;
         }
+        OutboundQueue queue = outboundQueue;
+        if (queue != null) {
+            queue.clear();
+        }
         super.deactivate();
     }
 
@@ -164,14 +685,35 @@ public class AgentEndpointProxy
     @Override
     public void handlePriceUpdate(PriceUpdate priceUpdate) {
         super.handlePriceUpdate(priceUpdate);
+        lastPriceUpdate = priceUpdate;
+        if (!detached) {
+            sendPriceUpdate(priceUpdate);
+        }
+    }
 
-        // Create price update message
-        PmJsonSerializer serializer = new PmJsonSerializer();
-        String message = serializer.serializePriceUpdate(priceUpdate);
-
+    /**
+     * Sends a price update of the local matcher to the remote agent.
+     *
+     * @param priceUpdate
+     *            the {@link PriceUpdate} to send
+     */
+    private void sendPriceUpdate(PriceUpdate priceUpdate) {
         try {
-            remoteSession.getRemote().sendString(message);
-        } catch (IOException | WebSocketException | NullPointerException e) {
+            boolean queued;
+            if (binaryCodec != null) {
+                ByteBuffer message = binaryCodec.encodePriceUpdate(priceUpdate);
+                queued = sendMessage(message, true);
+            } else {
+                // The same price goes to many remote agents, so its message is shared
+                String message = PriceUpdateCache.getDefault().serializePriceUpdate(priceUpdate);
+                queued = sendMessage(message, true);
+            }
+            if (!queued) {
+                LOGGER.warn("Dropped price update for remote agent {}, too many messages are waiting", getAgentId());
+            } else if (linkMonitor != null) {
+                linkMonitor.priceUpdate(priceUpdate.getBidNumber());
+            }
+        } catch (WebSocketException | NullPointerException e) {
             LOGGER.warn("Unable to send price update to remote agent, reason {}", e);
         }
     }
@@ -184,16 +726,77 @@ public class AgentEndpointProxy
         super.connectToMatcher(session);
 
         // Local matcher is connected, provide cluster information to remote // agent.
-        PmJsonSerializer serializer = new PmJsonSerializer();
-        AgentEndpoint.Status currentStatus = getStatus();
-        String message = serializer.serializeClusterInfo(currentStatus.getClusterId(), currentStatus.getMarketBasis());
+        if (!detached) {
+            sendClusterInfo(getStatus(), false);
+        }
+    }
+
+    /**
+     * Sends the cluster information of the local matcher to the remote agent.
+     *
+     * @param currentStatus
+     *            the status of this proxy, connected to the local matcher
+     * @param resumed
+     *            <code>true</code> when the remote agent resumed its session
+     */
+    private void sendClusterInfo(AgentEndpoint.Status currentStatus, boolean resumed) {
+        int lastBidNumber = resumed ? lastReceivedBidNumber : 0;
         try {
-            remoteSession.getRemote().sendString(message);
-        } catch (IOException | WebSocketException | NullPointerException e) {
-            LOGGER.warn("Unable to send price update to remote agent, reason {}", e);
+            boolean queued;
+            if (binaryCodec != null) {
+                ByteBuffer message = binaryCodec.encodeClusterInfo(currentStatus.getClusterId(),
+                                                                   currentStatus.getMarketBasis(),
+                                                                   true,
+                                                                   resumeToken,
+                                                                   resumed,
+                                                                   lastBidNumber);
+                queued = sendMessage(message, false);
+            } else {
+                PmJsonSerializer serializer = PmJsonSerializer.getDefault();
+                String message = serializer.serializeClusterInfo(currentStatus.getClusterId(),
+                                                                 currentStatus.getMarketBasis(),
+                                                                 true,
+                                                                 resumeToken,
+                                                                 resumed,
+                                                                 lastBidNumber);
+                queued = sendMessage(message, false);
+            }
+            if (!queued) {
+                LOGGER.warn("Dropped cluster info for remote agent {}, too many messages are waiting", getAgentId());
+            }
+        } catch (WebSocketException | NullPointerException e) {
+            LOGGER.warn("Unable to send cluster info to remote agent, reason {}", e);
         }
     }
 
+    /**
+     * Queues a JSON message for the remote agent.
+     *
+     * @param message
+     *            the message
+     * @param supersedable
+     *            <code>true</code> when the next message of this kind makes this message obsolete, so it can be replaced
+     *            while it waits to be written
+     * @return <code>false</code> when the message was dropped because too many messages are waiting
+     */
+    protected boolean sendMessage(String message, boolean supersedable) {
+        return outboundQueue.send(message, supersedable ? PmMessage.PayloadType.PRICE_UPDATE : null);
+    }
+
+    /**
+     * Queues a binary message for the remote agent.
+     *
+     * @param message
+     *            the message
+     * @param supersedable
+     *            <code>true</code> when the next message of this kind makes this message obsolete, so it can be replaced
+     *            while it waits to be written
+     * @return <code>false</code> when the message was dropped because too many messages are waiting
+     */
+    protected boolean sendMessage(ByteBuffer message, boolean supersedable) {
+        return outboundQueue.send(message, supersedable ? PmMessage.PayloadType.PRICE_UPDATE : null);
+    }
+
     @Override
     public synchronized void matcherEndpointDisconnected(net.powermatcher.api.Session session) {
         super.matcherEndpointDisconnected(session);
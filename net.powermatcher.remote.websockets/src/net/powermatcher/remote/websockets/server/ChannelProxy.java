@@ -0,0 +1,197 @@
+package net.powermatcher.remote.websockets.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.measure.Measure;
+import javax.measure.unit.SI;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.flexiblepower.context.FlexiblePowerContext;
+import org.osgi.framework.BundleContext;
+
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.sessions.SessionIdGenerator;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+
+/**
+ * The {@link AgentEndpointProxy} of a single channel of a {@link MultiplexedConnection}. Its messages are sent through
+ * the shared websocket of the connection.
+ *
+ * Each channel has its own flow control, so a single busy agent can not flood the matcher at the cost of the other
+ * channels. Bids of a channel are relayed at most once every minTimeBetweenBids milliseconds. A bid that arrives within
+ * that time is held back and replaced by any newer bid of the channel, since only the newest bid of an agent matters.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+class ChannelProxy
+    extends AgentEndpointProxy {
+
+    private final MultiplexedConnection connection;
+
+    private final int channel;
+
+    private final long minTimeBetweenBids;
+
+    /**
+     * Guards pendingBid, pendingDelivery and coolingOffEnds.
+     */
+    private final Object flowControlLock = new Object();
+
+    private BidUpdate pendingBid;
+
+    private ScheduledFuture<?> pendingDelivery;
+
+    private long coolingOffEnds;
+
+    private final AtomicLong coalescedBids = new AtomicLong();
+
+    private final Runnable deliverPendingBid = new Runnable() {
+        @Override
+        public void run() {
+            BidUpdate bidUpdate;
+            synchronized (flowControlLock) {
+                bidUpdate = pendingBid;
+                pendingBid = null;
+                pendingDelivery = null;
+                coolingOffEnds = currentTimeMillis() + minTimeBetweenBids;
+            }
+            if (bidUpdate != null) {
+                relayBidUpdate(bidUpdate);
+            }
+        }
+    };
+
+    /**
+     * @param bundleContext
+     *            the {@link BundleContext} used to register this proxy
+     * @param settings
+     *            the settings of the channels of the connection, without a heartbeat and resumable sessions, since the
+     *            connection as a whole is pinged
+     * @param binaryCodec
+     *            the codec of the connection, or <code>null</code> when JSON is used
+     * @param connection
+     *            the connection that carries this channel
+     * @param channel
+     *            the id of the channel
+     * @param minTimeBetweenBids
+     *            the minimum time between two bids relayed to the matcher, in milliseconds
+     */
+    ChannelProxy(BundleContext bundleContext,
+                 ProxySettings settings,
+                 PmBinaryCodec binaryCodec,
+                 MultiplexedConnection connection,
+                 int channel,
+                 long minTimeBetweenBids) {
+        super(bundleContext, settings, binaryCodec);
+        this.connection = connection;
+        this.channel = channel;
+        this.minTimeBetweenBids = minTimeBetweenBids;
+    }
+
+    /**
+     * Registers this proxy, so it will be connected to its matcher.
+     *
+     * @param websocketSession
+     *            the websocket of the connection
+     * @param remoteAgentId
+     *            the id of the agent that uses this channel
+     * @return <code>false</code> when the proxy was refused by the {@link AdmissionController}
+     */
+    boolean open(Session websocketSession, String remoteAgentId) {
+        remoteSessionId = SessionIdGenerator.getDefault().next();
+        if (!requestRegistration(websocketSession, remoteAgentId, "channel-" + channel)) {
+            return false;
+        }
+        LOGGER.debug("Opened channel {} for remote agent {} (session {})", channel, remoteAgentId, remoteSessionId);
+        return true;
+    }
+
+    /**
+     * @return the id of the channel.
+     */
+    int getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the number of bids that were replaced by a newer bid before they were relayed.
+     */
+    long getCoalescedBids() {
+        return coalescedBids.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation applies the flow control of the channel.
+     */
+    @Override
+    protected void handleRemoteBidUpdate(BidUpdate newBid) {
+        FlexiblePowerContext currentContext = context;
+        if (currentContext == null || minTimeBetweenBids <= 0) {
+            relayBidUpdate(newBid);
+            return;
+        }
+
+        synchronized (flowControlLock) {
+            if (pendingBid != null) {
+                coalescedBids.incrementAndGet();
+            }
+            pendingBid = newBid;
+            if (pendingDelivery != null) {
+                // The pending delivery will relay the new bid
+                return;
+            }
+            long waitTime = coolingOffEnds - currentContext.currentTimeMillis();
+            if (waitTime > 0) {
+                pendingDelivery = currentContext.schedule(deliverPendingBid,
+                                                          Measure.valueOf(waitTime, SI.MILLI(SI.SECOND)));
+                return;
+            }
+            pendingBid = null;
+            coolingOffEnds = currentContext.currentTimeMillis() + minTimeBetweenBids;
+        }
+        relayBidUpdate(newBid);
+    }
+
+    private void relayBidUpdate(BidUpdate bidUpdate) {
+        super.handleRemoteBidUpdate(bidUpdate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean sendMessage(String message, boolean supersedable) {
+        return connection.send(channel, message, supersedable);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean sendMessage(ByteBuffer message, boolean supersedable) {
+        return connection.send(channel, message, supersedable);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation also closes the channel.
+     */
+    @Override
+    public void deactivate() {
+        synchronized (flowControlLock) {
+            if (pendingDelivery != null) {
+                pendingDelivery.cancel(false);
+                pendingDelivery = null;
+            }
+            pendingBid = null;
+        }
+        super.deactivate();
+        connection.channelClosed(this);
+    }
+}
@@ -0,0 +1,449 @@
+package net.powermatcher.remote.websockets.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.WebSocketFrameListener;
+import org.eclipse.jetty.websocket.api.WebSocketListener;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonSyntaxException;
+
+import net.powermatcher.api.Agent;
+import net.powermatcher.api.MatcherEndpoint;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
+import net.powermatcher.remote.websockets.data.BidModel;
+import net.powermatcher.remote.websockets.data.ChannelModel;
+import net.powermatcher.remote.websockets.data.PmMessage;
+import net.powermatcher.remote.websockets.json.ModelMapper;
+import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+import net.powermatcher.remote.websockets.transport.Heartbeat;
+import net.powermatcher.remote.websockets.transport.LinkMonitor;
+import net.powermatcher.remote.websockets.transport.LinkStatistics;
+import net.powermatcher.remote.websockets.transport.OutboundQueue;
+
+/**
+ * A websocket connection that carries the sessions of many remote agents, e.g. all devices behind a site gateway.
+ * Every message on the connection belongs to a logical channel. The remote side opens a channel for each of its agents
+ * with a CHANNEL_OPEN message, after which a {@link ChannelProxy} is registered for that channel, just like an
+ * {@link AgentEndpointProxy} is registered for a normal connection. Either side can close a channel with a
+ * CHANNEL_CLOSE message. When the websocket closes, all its channels are closed.
+ *
+ * Channel 0 is the channel of the remote side itself. No proxy is registered for it; the connection answers its
+ * CHANNEL_OPEN with the cluster information of the matcher, which the remote side needs before it opens the channels
+ * of its agents. When that matcher is not connected to a cluster, the channel is closed right away.
+ *
+ * The messages of all channels share one {@link OutboundQueue}. A queued price update of a channel is replaced by a
+ * newer price update of the same channel. The statistics of the queue are registered as {@link LinkStatistics} MBean.
+ *
+ * The {@link Heartbeat} pings the connection as a whole; its {@link LinkMonitor} holds the round trip times, which are
+ * part of the {@link LinkStatistics} MBean.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class MultiplexedConnection
+    implements WebSocketListener, WebSocketFrameListener, LinkStatistics.Link {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiplexedConnection.class);
+
+    /**
+     * The channel of the remote side itself.
+     */
+    static final int GATEWAY_CHANNEL = 0;
+
+    private final BundleContext bundleContext;
+
+    private final String desiredParentId;
+
+    /**
+     * The settings of the proxies of the channels.
+     */
+    private final ProxySettings channelSettings;
+
+    /**
+     * The codec for the binary format, shared by all channels, or <code>null</code> when JSON is used.
+     */
+    private final PmBinaryCodec binaryCodec;
+
+    private final int maxChannels;
+
+    private final long minTimeBetweenBids;
+
+    private final int maxOutboundMessages;
+
+    private final Heartbeat heartbeat;
+
+    private final ConcurrentMap<Integer, ChannelProxy> channels = new ConcurrentHashMap<Integer, ChannelProxy>();
+
+    private volatile Session remoteSession;
+
+    private volatile OutboundQueue outboundQueue;
+
+    private volatile LinkMonitor linkMonitor;
+
+    private volatile LinkStatistics linkStatistics;
+
+    /**
+     * The agent id the remote side gave when it opened its own channel, or <code>null</code> when not opened yet.
+     */
+    private volatile String gatewayId;
+
+    /**
+     * @param bundleContext
+     *            the {@link BundleContext} used to register the proxies of the channels
+     * @param settings
+     *            the settings of the proxies of the server. The maximum number of outbound messages applies to the
+     *            connection, on top of room for a price update and a control message of every channel. Sessions of
+     *            channels are not resumed.
+     * @param binary
+     *            <code>true</code> when the binary format has been negotiated for this connection
+     * @param maxChannels
+     *            the maximum number of channels that can be open at the same time
+     * @param minTimeBetweenBids
+     *            the minimum time between two bids of a single channel relayed to the matcher, in milliseconds
+     */
+    public MultiplexedConnection(BundleContext bundleContext,
+                                 ProxySettings settings,
+                                 boolean binary,
+                                 int maxChannels,
+                                 long minTimeBetweenBids) {
+        this.bundleContext = bundleContext;
+        desiredParentId = settings.getDesiredParentId();
+        AdmissionController admissionController = settings.getAdmissionController();
+        channelSettings = new ProxySettings.Builder(desiredParentId).admissionController(admissionController).build();
+        binaryCodec = binary ? new PmBinaryCodec() : null;
+        this.maxChannels = maxChannels;
+        this.minTimeBetweenBids = minTimeBetweenBids;
+        maxOutboundMessages = settings.getMaxOutboundMessages() + 2 * maxChannels;
+        heartbeat = settings.getHeartbeat();
+    }
+
+    /**
+     * @return the number of open channels.
+     */
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * @return the agent id of the remote side, or <code>null</code> when it has not opened its own channel yet.
+     */
+    public String getGatewayId() {
+        return gatewayId;
+    }
+
+    /**
+     * @return the outbound messages of the websocket connection, e.g. to monitor the queue depth and write times, or
+     *         <code>null</code> when not connected yet.
+     */
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * @return the latency measurements of the connection, or <code>null</code> when not connected yet.
+     */
+    @Override
+    public LinkMonitor getLinkMonitor() {
+        return linkMonitor;
+    }
+
+    /**
+     * @return the MBean of the connection, or <code>null</code> when not connected yet.
+     */
+    public LinkStatistics getLinkStatistics() {
+        return linkStatistics;
+    }
+
+    @Override
+    public void onWebSocketConnect(Session remoteSession) {
+        this.remoteSession = remoteSession;
+        outboundQueue = new OutboundQueue(remoteSession.getRemote(), maxOutboundMessages);
+        linkMonitor = new LinkMonitor("multiplexed@" + remoteSession.getRemoteAddress());
+        if (heartbeat != null) {
+            heartbeat.add(linkMonitor, remoteSession);
+        }
+        linkStatistics = new LinkStatistics(linkMonitor.getName(), this);
+        linkStatistics.register();
+        LOGGER.debug("Multiplexed connection from {} ({})",
+                     remoteSession.getRemoteAddress(),
+                     binaryCodec == null ? PmJsonSerializer.SUBPROTOCOL : PmBinaryCodec.SUBPROTOCOL);
+    }
+
+    @Override
+    public void onWebSocketText(String message) {
+        try {
+            handleMessage(PmJsonSerializer.getDefault().deserialize(message));
+        } catch (JsonSyntaxException ex) {
+            LOGGER.warn("Unable to understand message from remote agent: {}", message);
+        }
+    }
+
+    @Override
+    public void onWebSocketBinary(byte[] buffer, int offset, int length) {
+        if (binaryCodec == null) {
+            LOGGER.warn("Ignoring binary message, the binary protocol has not been negotiated");
+            return;
+        }
+        try {
+            handleMessage(binaryCodec.decode(buffer, offset, length));
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warn("Unable to understand binary message from remote agent: {}", ex.getMessage());
+        }
+    }
+
+    private void handleMessage(PmMessage pmMessage) {
+        Integer channel = pmMessage.getChannel();
+        if (channel == null) {
+            LOGGER.warn("Got message [{}] without a channel on a multiplexed connection", pmMessage.getPayloadType());
+            return;
+        }
+
+        if (channel == GATEWAY_CHANNEL) {
+            handleGatewayMessage(pmMessage);
+            return;
+        }
+        if (pmMessage.getPayloadType() == PmMessage.PayloadType.CHANNEL_OPEN) {
+            openChannel(channel, ((ChannelModel) pmMessage.getPayload()).getAgentId());
+            return;
+        }
+
+        ChannelProxy proxy = channels.get(channel);
+        if (proxy == null) {
+            LOGGER.warn("Got message [{}] for channel {}, which is not open", pmMessage.getPayloadType(), channel);
+        } else if (pmMessage.getPayloadType() == PmMessage.PayloadType.CHANNEL_CLOSE) {
+            if (channels.remove(channel, proxy)) {
+                proxy.deactivate();
+            }
+        } else if (pmMessage.getPayloadType() == PmMessage.PayloadType.BID) {
+            Object payload = pmMessage.getPayload();
+            proxy.handleRemoteBidUpdate(payload instanceof BidModel ? ModelMapper.mapBidUpdate((BidModel) payload)
+                                                                    : (BidUpdate) payload);
+        } else if (pmMessage.getPayloadType() == PmMessage.PayloadType.DELTA) {
+            proxy.handleRemoteBidDelta((BidDeltaModel) pmMessage.getPayload());
+        } else {
+            LOGGER.warn("Got unexpected message type [{}], expected BID", pmMessage.getPayloadType());
+        }
+    }
+
+    private void handleGatewayMessage(PmMessage pmMessage) {
+        if (pmMessage.getPayloadType() == PmMessage.PayloadType.CHANNEL_OPEN) {
+            gatewayId = ((ChannelModel) pmMessage.getPayload()).getAgentId();
+            sendGatewayClusterInfo();
+        } else if (pmMessage.getPayloadType() == PmMessage.PayloadType.CHANNEL_CLOSE) {
+            LOGGER.debug("Remote side {} closed its own channel", gatewayId);
+        } else {
+            LOGGER.warn("Got unexpected message type [{}] on the channel of the remote side itself",
+                        pmMessage.getPayloadType());
+        }
+    }
+
+    /**
+     * Sends the cluster information of the matcher on the channel of the remote side itself, or closes that channel
+     * when the matcher is not connected to a cluster.
+     */
+    private void sendGatewayClusterInfo() {
+        Agent.Status status = getMatcherStatus();
+        if (status == null) {
+            LOGGER.info("Closing the channel of remote side {}, matcher {} is not connected to a cluster",
+                        gatewayId,
+                        desiredParentId);
+            sendClose(GATEWAY_CHANNEL);
+            return;
+        }
+        try {
+            boolean queued;
+            if (binaryCodec != null) {
+                queued = send(GATEWAY_CHANNEL,
+                              binaryCodec.encodeClusterInfo(status.getClusterId(), status.getMarketBasis()),
+                              false);
+            } else {
+                queued = send(GATEWAY_CHANNEL,
+                              PmJsonSerializer.getDefault().serializeClusterInfo(status.getClusterId(),
+                                                                                 status.getMarketBasis()),
+                              false);
+            }
+            if (!queued) {
+                LOGGER.warn("Dropped cluster info for remote side {}, too many messages are waiting", gatewayId);
+            }
+        } catch (WebSocketException | NullPointerException e) {
+            LOGGER.warn("Unable to send cluster info to remote side {}, reason {}", gatewayId, e);
+        }
+    }
+
+    /**
+     * @return the status of the matcher the proxies connect to, or <code>null</code> when it is not registered or not
+     *         connected to a cluster.
+     */
+    private Agent.Status getMatcherStatus() {
+        try {
+            for (ServiceReference<MatcherEndpoint> reference : bundleContext.getServiceReferences(MatcherEndpoint.class,
+                                                                                                  null)) {
+                MatcherEndpoint matcher = bundleContext.getService(reference);
+                if (matcher == null) {
+                    continue;
+                }
+                try {
+                    if (desiredParentId.equals(matcher.getAgentId())) {
+                        Agent.Status status = matcher.getStatus();
+                        return status.isConnected() ? status : null;
+                    }
+                } finally {
+                    bundleContext.ungetService(reference);
+                }
+            }
+        } catch (InvalidSyntaxException e) {
+            LOGGER.error("Unable to look up matcher {}, reason {}", desiredParentId, e);
+        }
+        return null;
+    }
+
+    private void openChannel(int channel, String remoteAgentId) {
+        Session session = remoteSession;
+        if (remoteAgentId == null || remoteAgentId.isEmpty()) {
+            LOGGER.warn("Rejecting channel {} from [{}], missing the agentId", channel, session.getRemoteAddress());
+            sendClose(channel);
+            return;
+        }
+        if (channels.size() >= maxChannels) {
+            LOGGER.warn("Rejecting channel {} of remote agent {}, the maximum of {} channels is reached",
+                        channel,
+                        remoteAgentId,
+                        maxChannels);
+            sendClose(channel);
+            return;
+        }
+
+        ChannelProxy proxy = new ChannelProxy(bundleContext,
+                                              channelSettings,
+                                              binaryCodec,
+                                              this,
+                                              channel,
+                                              minTimeBetweenBids);
+        if (channels.putIfAbsent(channel, proxy) != null) {
+            LOGGER.warn("Ignoring the opening of channel {}, it is already open", channel);
+            return;
+        }
+        if (!proxy.open(session, remoteAgentId)) {
+            LOGGER.warn("Refusing channel {} of remote agent {}, too many agents", channel, remoteAgentId);
+            if (channels.remove(channel, proxy)) {
+                sendClose(channel);
+            }
+        }
+    }
+
+    /**
+     * Called by a {@link ChannelProxy} when it is deactivated. The remote side is told the channel is closed, unless it
+     * closed the channel itself.
+     *
+     * @param proxy
+     *            the proxy of the channel
+     */
+    void channelClosed(ChannelProxy proxy) {
+        if (channels.remove(proxy.getChannel(), proxy)) {
+            sendClose(proxy.getChannel());
+        }
+    }
+
+    private void sendClose(int channel) {
+        try {
+            boolean queued;
+            if (binaryCodec != null) {
+                queued = send(channel, binaryCodec.encodeChannelClose(), false);
+            } else {
+                queued = send(channel, PmJsonSerializer.getDefault().serializeChannelClose(), false);
+            }
+            if (!queued) {
+                LOGGER.warn("Unable to close channel {} at the remote side, too many messages are waiting", channel);
+            }
+        } catch (WebSocketException | NullPointerException e) {
+            LOGGER.debug("Unable to close channel {} at the remote side, reason {}", channel, e);
+        }
+    }
+
+    /**
+     * Queues a JSON message of a channel.
+     *
+     * @param channel
+     *            the id of the channel
+     * @param message
+     *            the message
+     * @param supersedable
+     *            <code>true</code> when the next message of this kind on the channel makes this message obsolete
+     * @return <code>false</code> when the message was dropped because too many messages are waiting
+     */
+    boolean send(int channel, String message, boolean supersedable) {
+        String channelMessage = PmJsonSerializer.getDefault().addChannel(channel, message);
+        return outboundQueue.send(channelMessage, supersedable ? Integer.valueOf(channel) : null);
+    }
+
+    /**
+     * Queues a binary message of a channel.
+     *
+     * @param channel
+     *            the id of the channel
+     * @param message
+     *            the message
+     * @param supersedable
+     *            <code>true</code> when the next message of this kind on the channel makes this message obsolete
+     * @return <code>false</code> when the message was dropped because too many messages are waiting
+     */
+    boolean send(int channel, ByteBuffer message, boolean supersedable) {
+        ByteBuffer channelMessage = binaryCodec.addChannel(channel, message);
+        return outboundQueue.send(channelMessage, supersedable ? Integer.valueOf(channel) : null);
+    }
+
+    @Override
+    public void onWebSocketClose(int statusCode, String reason) {
+        for (ChannelProxy proxy : channels.values()) {
+            if (channels.remove(proxy.getChannel(), proxy)) {
+                proxy.deactivate();
+            }
+        }
+        OutboundQueue queue = outboundQueue;
+        if (queue != null) {
+            queue.clear();
+        }
+        if (heartbeat != null && linkMonitor != null) {
+            heartbeat.remove(linkMonitor);
+        }
+        if (linkStatistics != null) {
+            linkStatistics.unregister();
+        }
+        LOGGER.debug("Disconnected multiplexed connection, code = {}, reason = {}", statusCode, reason);
+    }
+
+    @Override
+    public void onWebSocketError(Throwable ex) {
+        LinkMonitor monitor = linkMonitor;
+        if (monitor != null) {
+            monitor.error();
+        }
+        LOGGER.warn("Error during communication", ex);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation hands the pongs of the remote side to the {@link LinkMonitor}.
+     */
+    @Override
+    public void onWebSocketFrame(Frame frame) {
+        LinkMonitor monitor = linkMonitor;
+        if (monitor != null && frame.getType() == Frame.Type.PONG) {
+            monitor.pong(frame.getPayload());
+        }
+    }
+}
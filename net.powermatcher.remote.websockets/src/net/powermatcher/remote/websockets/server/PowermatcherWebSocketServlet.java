@@ -1,21 +1,34 @@
 package net.powermatcher.remote.websockets.server;
 
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import aQute.bnd.annotation.component.Activate;
 import aQute.bnd.annotation.component.Component;
+import aQute.bnd.annotation.component.Deactivate;
 import aQute.bnd.annotation.metatype.Configurable;
 import aQute.bnd.annotation.metatype.Meta;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+import net.powermatcher.remote.websockets.transport.Heartbeat;
 
 /**
  * Servlet which activates the PowerMatcher WebSocket communication.
@@ -29,6 +42,8 @@ public class PowermatcherWebSocketServlet
     implements WebSocketCreator {
     private static final long serialVersionUID = -8809366066221881974L;
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(PowermatcherWebSocketServlet.class);
+
     @Meta.OCD
     public static interface Config {
         @Meta.AD(deflt = "concentrator",
@@ -39,16 +54,154 @@ public class PowermatcherWebSocketServlet
         @Meta.AD(deflt = "/powermatcher/websocket",
                  description = "The path of the URL on which this servlet can be reached")
         String alias();
+
+        @Meta.AD(deflt = "true",
+                 description = "Accept the compact binary protocol when the remote agent asks for it. "
+                               + "Otherwise JSON is used.")
+        boolean binaryProtocol();
+
+        @Meta.AD(deflt = "1000",
+                 description = "The maximum number of agent channels on a single multiplexed connection")
+        int maxChannels();
+
+        @Meta.AD(deflt = "1000",
+                 description = "Mimimum time between two bids of an agent on a multiplexed connection in milliseconds")
+        long minTimeBetweenChannelBids();
+
+        @Meta.AD(deflt = "64",
+                 description = "The maximum number of messages that can wait to be written to a single connection. "
+                               + "Further messages are dropped until the queue has room again.")
+        int maxOutboundMessages();
+
+        @Meta.AD(deflt = "true",
+                 description = "Accept permessage-deflate compression when the remote agent asks for it, as Jetty "
+                               + "always did. The clients do not ask for it by default; turn this off to refuse "
+                               + "the deflate state of every connection.")
+        boolean compression();
+
+        @Meta.AD(deflt = "true",
+                 description = "Keep the compression context between messages. This compresses repeated bids better, "
+                               + "but costs memory for every connection.")
+        boolean compressionContextTakeover();
+
+        @Meta.AD(deflt = "50", description = "The average number of new connections accepted per second")
+        double maxConnectionRate();
+
+        @Meta.AD(deflt = "200", description = "The number of new connections that can be accepted at once")
+        int connectionBurst();
+
+        @Meta.AD(deflt = "10000",
+                 description = "The maximum number of agent proxies, including the channels of multiplexed connections")
+        int maxProxies();
+
+        @Meta.AD(deflt = "2000", description = "The maximum number of agent proxies that wait to be registered")
+        int maxPendingRegistrations();
+
+        @Meta.AD(deflt = "50", description = "The maximum number of agent proxies registered in one batch")
+        int registrationBatchSize();
+
+        @Meta.AD(deflt = "100", description = "The time between two batches of registrations in milliseconds")
+        long registrationBatchInterval();
+
+        @Meta.AD(deflt = "120",
+                 description = "How long in seconds an agent proxy stays registered after its remote agent lost the "
+                               + "connection, so the remote agent can resume its session. 0 turns resumption off.")
+        int resumeGracePeriod();
+
+        @Meta.AD(deflt = "30",
+                 description = "The time in seconds between two pings to a remote agent, which measure the round trip "
+                               + "time of the link. 0 turns pinging off.")
+        int pingInterval();
+
+        @Meta.AD(deflt = "3",
+                 description = "The number of unanswered pings after which the connection to a remote agent is closed")
+        int maxMissedPongs();
     }
 
-    private String desiredParentId;
+    /**
+     * The name of the websocket compression extension of RFC 7692.
+     */
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    /**
+     * The parameters that turn off the context takeover of both sides.
+     */
+    static final String NO_CONTEXT_TAKEOVER = "; client_no_context_takeover; server_no_context_takeover";
+
+    private boolean binaryProtocol;
+    private int maxChannels;
+    private long minTimeBetweenChannelBids;
+    private boolean compression;
+    private boolean compressionContextTakeover;
     private BundleContext bundleContext;
+    private AdmissionController admissionController;
+    private ResumableSessions resumableSessions;
+    private Heartbeat heartbeat;
+    private ProxySettings proxySettings;
 
     @Activate
     public void activate(BundleContext bundleContext, Map<String, Object> properties) {
         this.bundleContext = bundleContext;
         Config config = Configurable.createConfigurable(Config.class, properties);
-        desiredParentId = config.desiredParentId();
+        binaryProtocol = config.binaryProtocol();
+        maxChannels = config.maxChannels();
+        minTimeBetweenChannelBids = config.minTimeBetweenChannelBids();
+        compression = config.compression();
+        compressionContextTakeover = config.compressionContextTakeover();
+        admissionController = new AdmissionController(config.maxConnectionRate(),
+                                                       config.connectionBurst(),
+                                                       config.maxProxies(),
+                                                       config.maxPendingRegistrations(),
+                                                       config.registrationBatchSize(),
+                                                       config.registrationBatchInterval());
+        if (config.resumeGracePeriod() > 0) {
+            resumableSessions = new ResumableSessions(config.resumeGracePeriod() * 1000L);
+        }
+        if (config.pingInterval() > 0) {
+            heartbeat = new Heartbeat(config.pingInterval() * 1000L, config.maxMissedPongs());
+        }
+        ProxySettings.Builder settings = new ProxySettings.Builder(config.desiredParentId());
+        proxySettings = settings.maxOutboundMessages(config.maxOutboundMessages())
+                                .admissionController(admissionController)
+                                .resumableSessions(resumableSessions)
+                                .heartbeat(heartbeat)
+                                .build();
+    }
+
+    @Deactivate
+    public void deactivate() {
+        admissionController.shutdown();
+        if (resumableSessions != null) {
+            resumableSessions.shutdown();
+            resumableSessions = null;
+        }
+        if (heartbeat != null) {
+            heartbeat.shutdown();
+            heartbeat = null;
+        }
+    }
+
+    /**
+     * @return the {@link AdmissionController} of the connections to this servlet.
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * @return the {@link ResumableSessions} of the connections to this servlet, or <code>null</code> when sessions can
+     *         not be resumed.
+     */
+    public ResumableSessions getResumableSessions() {
+        return resumableSessions;
+    }
+
+    /**
+     * @return the {@link Heartbeat} that pings the connections to this servlet, which lists their latencies, or
+     *         <code>null</code> when they are not pinged.
+     */
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
     }
 
     @Override
@@ -65,14 +218,96 @@ public class PowermatcherWebSocketServlet
 
     /**
      * {@inheritDoc}
+     *
+     * This implementation removes the compression extensions when compression is turned off.
      */
     @Override
     public void configure(WebSocketServletFactory wssf) {
         wssf.setCreator(this);
+        if (!compression) {
+            ExtensionFactory extensions = wssf.getExtensionFactory();
+            extensions.unregister(PERMESSAGE_DEFLATE);
+            extensions.unregister("deflate-frame");
+            extensions.unregister("x-webkit-deflate-frame");
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation negotiates the wire format with the remote agent through the websocket subprotocol. A remote
+     * side that connects with multiplex=true in the query carries many agents over the connection. A connection that
+     * is not admitted by the {@link AdmissionController} is refused with 503 Service Unavailable. A remote agent that
+     * gives the resume token of its session gets the proxy of that session back, without being admitted again. This
+     * also works when the old connection has not been closed at this end yet.
+     */
     @Override
     public Object createWebSocket(ServletUpgradeRequest req, ServletUpgradeResponse resp) {
-        return new AgentEndpointProxy(bundleContext, desiredParentId);
+        URI uri = req.getRequestURI();
+        Map<String, String> query = uri.getQuery() == null ? Collections.<String, String> emptyMap()
+                                                           : AgentEndpointProxy.splitQuery(uri);
+        if (compression && !compressionContextTakeover) {
+            disableContextTakeover(req, resp);
+        }
+        List<String> subProtocols = req.getSubProtocols();
+        boolean binary = false;
+        if (subProtocols != null) {
+            if (binaryProtocol && subProtocols.contains(PmBinaryCodec.SUBPROTOCOL)) {
+                resp.setAcceptedSubProtocol(PmBinaryCodec.SUBPROTOCOL);
+                binary = true;
+            } else if (subProtocols.contains(PmJsonSerializer.SUBPROTOCOL)) {
+                resp.setAcceptedSubProtocol(PmJsonSerializer.SUBPROTOCOL);
+            }
+        }
+
+        String resumeToken = query.get("resumeToken");
+        if (resumableSessions != null && resumeToken != null) {
+            ResumableSessions.Resumable session = resumableSessions.resume(resumeToken, query.get("agentId"), binary);
+            if (session != null) {
+                return session;
+            }
+            LOGGER.debug("Unable to resume session of [{}], starting a new one", query.get("agentId"));
+        }
+
+        if (!admissionController.admitConnection()) {
+            LOGGER.debug("Refusing connection from [{}], too many connections", req.getRemoteAddress());
+            try {
+                resp.sendError(503, "Too many connections, try again later");
+            } catch (IOException e) {
+                LOGGER.debug("Unable to refuse connection", e);
+            }
+            return null;
+        }
+        if ("true".equals(query.get("multiplex"))) {
+            return new MultiplexedConnection(bundleContext,
+                                             proxySettings,
+                                             binary,
+                                             maxChannels,
+                                             minTimeBetweenChannelBids);
+        }
+        return new AgentEndpointProxy(bundleContext, proxySettings, binary);
+    }
+
+    /**
+     * Accepts the extensions the remote side asked for, but without context takeover for permessage-deflate. The
+     * deflater and inflater then start fresh for every message, so they do not hold a window per connection.
+     */
+    private void disableContextTakeover(ServletUpgradeRequest req, ServletUpgradeResponse resp) {
+        List<ExtensionConfig> requested = req.getExtensions();
+        if (requested == null || requested.isEmpty()) {
+            return;
+        }
+        List<ExtensionConfig> accepted = new ArrayList<ExtensionConfig>(requested.size());
+        boolean deflate = false;
+        for (ExtensionConfig extension : requested) {
+            if (!PERMESSAGE_DEFLATE.equals(extension.getName())) {
+                accepted.add(extension);
+            } else if (!deflate) {
+                // Only the first offer of permessage-deflate can be accepted
+                accepted.add(ExtensionConfig.parse(PERMESSAGE_DEFLATE + NO_CONTEXT_TAKEOVER));
+                deflate = true;
+            }
+        }
+        resp.setExtensions(accepted);
     }
 }
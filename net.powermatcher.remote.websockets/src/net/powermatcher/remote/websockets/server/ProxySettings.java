@@ -0,0 +1,144 @@
+package net.powermatcher.remote.websockets.server;
+
+import net.powermatcher.remote.websockets.transport.Heartbeat;
+import net.powermatcher.remote.websockets.transport.OutboundQueue;
+
+/**
+ * The settings that the proxies of the remote agents of one server have in common, see {@link AgentEndpointProxy} and
+ * {@link MultiplexedConnection}. A {@link ProxySettings} object is immutable, so it can be shared by all connections.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public final class ProxySettings {
+
+    /**
+     * A builder class to create a {@link ProxySettings} instance. Only the desired parent is required, the other
+     * settings have a default:
+     *
+     * <pre>
+     * ProxySettings settings = new ProxySettings.Builder(&quot;concentrator&quot;).maxOutboundMessages(64)
+     *                                                                .heartbeat(heartbeat)
+     *                                                                .build();
+     * </pre>
+     *
+     * This class is not thread-safe.
+     */
+    public static final class Builder {
+        private final String desiredParentId;
+        private int maxOutboundMessages = OutboundQueue.DEFAULT_CAPACITY;
+        private AdmissionController admissionController;
+        private ResumableSessions resumableSessions;
+        private Heartbeat heartbeat;
+
+        /**
+         * @param desiredParentId
+         *            the agent identifier of the matcher the proxies should connect to
+         */
+        public Builder(String desiredParentId) {
+            this.desiredParentId = desiredParentId;
+        }
+
+        /**
+         * @param maxOutboundMessages
+         *            the maximum number of messages that can wait to be written to a remote agent, by default
+         *            {@link OutboundQueue#DEFAULT_CAPACITY}
+         * @return This {@link Builder}
+         */
+        public Builder maxOutboundMessages(int maxOutboundMessages) {
+            this.maxOutboundMessages = maxOutboundMessages;
+            return this;
+        }
+
+        /**
+         * @param admissionController
+         *            admits and registers the proxies, or <code>null</code> (the default) to register them directly
+         * @return This {@link Builder}
+         */
+        public Builder admissionController(AdmissionController admissionController) {
+            this.admissionController = admissionController;
+            return this;
+        }
+
+        /**
+         * @param resumableSessions
+         *            keeps a proxy when its connection is lost, or <code>null</code> (the default) to deactivate it
+         *            directly
+         * @return This {@link Builder}
+         */
+        public Builder resumableSessions(ResumableSessions resumableSessions) {
+            this.resumableSessions = resumableSessions;
+            return this;
+        }
+
+        /**
+         * @param heartbeat
+         *            pings the remote agents, or <code>null</code> (the default) when the links should not be pinged
+         * @return This {@link Builder}
+         */
+        public Builder heartbeat(Heartbeat heartbeat) {
+            this.heartbeat = heartbeat;
+            return this;
+        }
+
+        /**
+         * @return The new {@link ProxySettings} object.
+         */
+        public ProxySettings build() {
+            return new ProxySettings(this);
+        }
+    }
+
+    private final String desiredParentId;
+
+    private final int maxOutboundMessages;
+
+    private final AdmissionController admissionController;
+
+    private final ResumableSessions resumableSessions;
+
+    private final Heartbeat heartbeat;
+
+    private ProxySettings(Builder builder) {
+        desiredParentId = builder.desiredParentId;
+        maxOutboundMessages = builder.maxOutboundMessages;
+        admissionController = builder.admissionController;
+        resumableSessions = builder.resumableSessions;
+        heartbeat = builder.heartbeat;
+    }
+
+    /**
+     * @return the agent identifier of the matcher the proxies should connect to.
+     */
+    public String getDesiredParentId() {
+        return desiredParentId;
+    }
+
+    /**
+     * @return the maximum number of messages that can wait to be written to a remote agent.
+     */
+    public int getMaxOutboundMessages() {
+        return maxOutboundMessages;
+    }
+
+    /**
+     * @return the {@link AdmissionController} of the proxies, or <code>null</code> when they are registered directly.
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * @return the {@link ResumableSessions} of the proxies, or <code>null</code> when sessions can not be resumed.
+     */
+    public ResumableSessions getResumableSessions() {
+        return resumableSessions;
+    }
+
+    /**
+     * @return the {@link Heartbeat} that pings the remote agents, or <code>null</code> when they are not pinged.
+     */
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
+    }
+}
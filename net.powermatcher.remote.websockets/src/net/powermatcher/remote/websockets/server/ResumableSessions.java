@@ -0,0 +1,240 @@
+package net.powermatcher.remote.websockets.server;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the proxies of remote agents, so a remote agent that lost its connection can resume its session.
+ *
+ * Every proxy gets a random resume token, which it sends to its remote agent in the cluster information. When the
+ * connection is lost, the proxy stays registered for the grace period, with the last bid of the remote agent held by
+ * its matcher. A remote agent that reconnects with the token within that period gets the same proxy back, without
+ * registering a new one. Otherwise the proxy is deactivated when the grace period ends.
+ *
+ * The token stays valid while the old connection is still open. A remote agent that finds its connection dead before
+ * the server does, e.g. on a half-open TCP connection, also gets its proxy back, which then drops the old connection.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ResumableSessions {
+
+    /**
+     * A session that can be resumed, like that of an {@link AgentEndpointProxy}.
+     */
+    public interface Resumable {
+        /**
+         * Whether a remote agent can resume this session.
+         *
+         * @param remoteAgentId
+         *            the id of the remote agent
+         * @param binary
+         *            whether the binary format has been negotiated for the new connection
+         * @return <code>true</code> when the session belongs to the remote agent, uses the same format and has not
+         *         ended
+         */
+        boolean canResume(String remoteAgentId, boolean binary);
+
+        /**
+         * @return <code>true</code> while the connection is lost and the session waits to be resumed.
+         */
+        boolean isDetached();
+
+        /**
+         * Ends the session when its remote agent did not resume it in time.
+         *
+         * @param detachment
+         *            the loss of the connection after which the grace period started
+         * @return <code>true</code> when the session has ended, <code>false</code> when it has been resumed in the
+         *         mean time
+         */
+        boolean expire(int detachment);
+
+        /**
+         * Ends the session.
+         */
+        void deactivate();
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long gracePeriod;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * The sessions that can be resumed, by resume token.
+     */
+    private final ConcurrentMap<String, Resumable> sessions;
+
+    private final ScheduledThreadPoolExecutor expiryExecutor;
+
+    private final AtomicLong resumedSessions = new AtomicLong();
+
+    private final AtomicLong expiredSessions = new AtomicLong();
+
+    /**
+     * @param gracePeriod
+     *            the time a proxy waits for its remote agent to come back, in milliseconds
+     */
+    public ResumableSessions(long gracePeriod) {
+        this.gracePeriod = gracePeriod;
+        sessions = new ConcurrentHashMap<String, Resumable>();
+        expiryExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "websocket-resume");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        expiryExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return a new random resume token.
+     */
+    public String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        char[] token = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            token[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            token[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(token);
+    }
+
+    /**
+     * Makes a session resumable.
+     *
+     * @param token
+     *            the resume token of the session
+     * @param session
+     *            the session
+     */
+    public void add(String token, Resumable session) {
+        sessions.put(token, session);
+    }
+
+    /**
+     * Starts the grace period of a session that lost its connection. The session is expired when its remote agent
+     * does not resume it in time.
+     *
+     * @param token
+     *            the resume token of the session
+     * @param session
+     *            the session
+     * @param detachment
+     *            identifies this loss of the connection, so the session only expires when it has not been resumed
+     *            since
+     */
+    public void detach(final String token, final Resumable session, final int detachment) {
+        sessions.putIfAbsent(token, session);
+        expiryExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (session.expire(detachment)) {
+                    sessions.remove(token, session);
+                    expiredSessions.incrementAndGet();
+                }
+            }
+        }, gracePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Finds the session a remote agent resumes.
+     *
+     * @param token
+     *            the resume token given by the remote agent
+     * @param remoteAgentId
+     *            the id of the remote agent, which must be the one the session belongs to
+     * @param binary
+     *            whether the binary format has been negotiated for the new connection, which must be the format of
+     *            the session
+     * @return the session, or <code>null</code> when there is no such session
+     */
+    public Resumable resume(String token, String remoteAgentId, boolean binary) {
+        Resumable session = sessions.get(token);
+        if (session == null || !session.canResume(remoteAgentId, binary)) {
+            return null;
+        }
+        resumedSessions.incrementAndGet();
+        return session;
+    }
+
+    /**
+     * Forgets a session, e.g. when it has ended.
+     *
+     * @param token
+     *            the resume token of the session
+     * @param session
+     *            the session
+     */
+    public void remove(String token, Resumable session) {
+        sessions.remove(token, session);
+    }
+
+    /**
+     * Stops the expiry thread and deactivates all sessions that wait for their remote agent. The sessions that still
+     * have a connection end when it is closed.
+     */
+    public void shutdown() {
+        expiryExecutor.shutdownNow();
+        List<Resumable> remaining = new ArrayList<Resumable>(sessions.values());
+        sessions.clear();
+        for (Resumable session : remaining) {
+            if (session.isDetached()) {
+                session.deactivate();
+            }
+        }
+    }
+
+    /**
+     * @return the current value of gracePeriod.
+     */
+    public long getGracePeriod() {
+        return gracePeriod;
+    }
+
+    /**
+     * @return the number of sessions that can be resumed, with or without a connection.
+     */
+    public int getSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the number of sessions that wait for their remote agent to come back.
+     */
+    public int getDetachedSessions() {
+        int detached = 0;
+        for (Resumable session : sessions.values()) {
+            if (session.isDetached()) {
+                detached++;
+            }
+        }
+        return detached;
+    }
+
+    /**
+     * @return the number of sessions that were resumed.
+     */
+    public long getResumedSessions() {
+        return resumedSessions.get();
+    }
+
+    /**
+     * @return the number of sessions that ended because their remote agent did not come back in time.
+     */
+    public long getExpiredSessions() {
+        return expiredSessions.get();
+    }
+}
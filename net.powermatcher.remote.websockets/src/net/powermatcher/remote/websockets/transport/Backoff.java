@@ -0,0 +1,75 @@
+package net.powermatcher.remote.websockets.transport;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The delays between the connection attempts of a websocket client. After a failed attempt the next one waits twice
+ * as long as the previous one, up to a maximum. After a lost connection the first attempt waits a random time up to
+ * the initial delay. All delays are randomized, so after a restart of the server its clients do not all come back at
+ * the same moment.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class Backoff {
+
+    private final long initialDelay;
+
+    private final long maxDelay;
+
+    /**
+     * @param initialDelay
+     *            the delay before the first attempt after a lost connection, and the base of the backoff, in
+     *            milliseconds. It is at least 1.
+     * @param maxDelay
+     *            the maximum delay between two attempts in milliseconds. It is at least the initial delay.
+     */
+    public Backoff(long initialDelay, long maxDelay) {
+        this.initialDelay = Math.max(1, initialDelay);
+        this.maxDelay = Math.max(this.initialDelay, maxDelay);
+    }
+
+    /**
+     * @return the delay before the first attempt after a lost connection, between 0 and the initial delay.
+     */
+    public long firstDelay() {
+        return randomDelay(0, initialDelay);
+    }
+
+    /**
+     * Picks a random delay in the upper half of the initial delay doubled for every earlier failed attempt, and at
+     * most the maximum delay.
+     *
+     * @param failedAttempts
+     *            the number of failed attempts since the last successful one, at least 1
+     * @return the delay before the next attempt in milliseconds
+     */
+    public long retryDelay(int failedAttempts) {
+        int doublings = Math.max(0, failedAttempts - 1);
+        long ceiling;
+        if (doublings >= Long.SIZE - 1 || initialDelay > maxDelay >> doublings) {
+            ceiling = maxDelay;
+        } else {
+            ceiling = initialDelay << doublings;
+        }
+        return randomDelay(ceiling / 2, ceiling);
+    }
+
+    /**
+     * @return the delay before the first attempt after a lost connection, and the base of the backoff, in milliseconds.
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * @return the maximum delay between two attempts in milliseconds.
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    private static long randomDelay(long min, long max) {
+        return min + ThreadLocalRandom.current().nextLong(max - min + 1);
+    }
+}
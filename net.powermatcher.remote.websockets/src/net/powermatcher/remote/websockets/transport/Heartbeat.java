@@ -0,0 +1,133 @@
+package net.powermatcher.remote.websockets.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pings all websocket links of a server, see {@link LinkMonitor}. A single thread decides when to ping; the pings are
+ * written by a small pool of its own, so a link of which the remote side stopped reading does not hold up the pings of
+ * the other links. The links that are being pinged can be listed, e.g. to find the remote sites with the slowest
+ * links.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class Heartbeat {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Heartbeat.class);
+
+    /**
+     * The number of threads that write pings. Each stalled link blocks at most one of them.
+     */
+    private static final int PING_THREADS = 4;
+
+    /**
+     * The number of pings that wait for a thread. A ping that does not fit counts as missed.
+     */
+    private static final int MAX_QUEUED_PINGS = 4096;
+
+    private final int maxMissedPongs;
+
+    private final ConcurrentMap<LinkMonitor, Session> links = new ConcurrentHashMap<LinkMonitor, Session>();
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final ThreadPoolExecutor pingExecutor;
+
+    /**
+     * @param interval
+     *            the time between two pings of a link in milliseconds
+     * @param maxMissedPongs
+     *            the number of unanswered pings after which a link is considered dead and its connection is closed
+     */
+    public Heartbeat(long interval, int maxMissedPongs) {
+        this.maxMissedPongs = Math.max(1, maxMissedPongs);
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "websocket-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pingExecutor = new ThreadPoolExecutor(PING_THREADS,
+                                              PING_THREADS,
+                                              1,
+                                              TimeUnit.MINUTES,
+                                              new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PINGS),
+                                              new ThreadFactory() {
+                                                  @Override
+                                                  public Thread newThread(Runnable r) {
+                                                      Thread thread = new Thread(r, "websocket-ping");
+                                                      thread.setDaemon(true);
+                                                      return thread;
+                                                  }
+                                              });
+        pingExecutor.allowCoreThreadTimeOut(true);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Entry<LinkMonitor, Session> link : links.entrySet()) {
+                    try {
+                        if (!link.getKey().heartbeat(link.getValue(), Heartbeat.this.maxMissedPongs, pingExecutor)) {
+                            links.remove(link.getKey(), link.getValue());
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Heartbeat of link " + link.getKey().getName() + " failed", e);
+                    }
+                }
+            }
+        }, interval, Math.max(1, interval), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts pinging a link.
+     *
+     * @param monitor
+     *            the monitor of the link
+     * @param session
+     *            the websocket of the link
+     */
+    public void add(LinkMonitor monitor, Session session) {
+        monitor.connected();
+        links.put(monitor, session);
+    }
+
+    /**
+     * Stops pinging a link.
+     *
+     * @param monitor
+     *            the monitor of the link
+     */
+    public void remove(LinkMonitor monitor) {
+        links.remove(monitor);
+    }
+
+    /**
+     * @return the monitors of the links that are being pinged.
+     */
+    public List<LinkMonitor> getLinks() {
+        return new ArrayList<LinkMonitor>(links.keySet());
+    }
+
+    /**
+     * Stops pinging.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        pingExecutor.shutdownNow();
+        links.clear();
+    }
+}
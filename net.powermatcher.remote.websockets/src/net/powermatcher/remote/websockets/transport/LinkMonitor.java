@@ -0,0 +1,272 @@
+package net.powermatcher.remote.websockets.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.powermatcher.api.monitoring.Histogram;
+
+/**
+ * Measures the latency of a websocket link to a remote site.
+ *
+ * <ul>
+ * <li>The round trip time of the link is measured with ping frames, which carry the time they were sent. The remote
+ * side answers them with a pong frame with the same payload.</li>
+ * <li>A ping that is not answered counts as missed. After too many missed pings in a row the link is considered dead
+ * and the connection is closed, so it can be set up again.</li>
+ * <li>Jetty writes a ping frame synchronously, which blocks as long as the remote side does not read. The pings are
+ * therefore written by an executor, at most one per link at a time. A ping that is still being written when the next
+ * one is due counts as missed, so a stalled link is closed like a silent one.</li>
+ * <li>The bid-to-price latency is the time between a bid going through the link and the first price update that
+ * refers to its bid number.</li>
+ * </ul>
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class LinkMonitor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinkMonitor.class);
+
+    /**
+     * The number of bids that wait for their price update. A bid that never gets one is eventually forgotten.
+     */
+    private static final int MAX_PENDING_BIDS = 64;
+
+    private static final int PING_SIZE = 8;
+
+    private final String name;
+
+    private final Histogram roundTripTimes = new Histogram();
+
+    private final Histogram bidPriceLatencies = new Histogram();
+
+    private final AtomicInteger missedPongs = new AtomicInteger();
+
+    private final AtomicBoolean pingInProgress = new AtomicBoolean();
+
+    private final AtomicLong sentPings = new AtomicLong();
+
+    private final AtomicLong receivedPongs = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile long lastRoundTripTime;
+
+    /**
+     * The moment each pending bid went through the link in nanoseconds, guarded by itself.
+     */
+    private final Map<Integer, Long> pendingBids = new LinkedHashMap<Integer, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Integer, Long> eldest) {
+            return size() > MAX_PENDING_BIDS;
+        }
+    };
+
+    /**
+     * @param name
+     *            identifies the link, e.g. in log messages
+     */
+    public LinkMonitor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sends a ping over the link, or closes the connection when too many pings have not been answered. The ping is
+     * written by the given executor, so this never blocks on a remote side that does not read.
+     *
+     * @param session
+     *            the websocket of the link
+     * @param maxMissedPongs
+     *            the number of unanswered pings after which the link is considered dead
+     * @param pingExecutor
+     *            writes the ping frame
+     * @return <code>false</code> when the websocket is closed
+     */
+    public boolean heartbeat(final Session session, int maxMissedPongs, Executor pingExecutor) {
+        if (!session.isOpen()) {
+            return false;
+        }
+        int missed = missedPongs.get();
+        if (missed >= maxMissedPongs) {
+            LOGGER.warn("No pong on link {} after {} pings, closing the connection", name, missed);
+            session.close(StatusCode.SHUTDOWN, "Heartbeat timeout");
+            return false;
+        }
+        // Counted before the ping is written, so a pong can never arrive before its ping has been counted
+        missedPongs.incrementAndGet();
+        if (!pingInProgress.compareAndSet(false, true)) {
+            LOGGER.debug("Previous ping on link {} is still being written", name);
+            return true;
+        }
+        try {
+            pingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendPing(session);
+                    } finally {
+                        pingInProgress.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pingInProgress.set(false);
+            error();
+            LOGGER.debug("Unable to send ping on link {}: {}", name, e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Handles a pong frame of the remote side.
+     *
+     * @param payload
+     *            the payload of the pong, a pong that does not answer one of our pings is ignored
+     */
+    public void pong(ByteBuffer payload) {
+        if (payload == null || payload.remaining() != PING_SIZE) {
+            return;
+        }
+        long roundTripTime = System.nanoTime() - payload.getLong(payload.position());
+        if (roundTripTime < 0) {
+            return;
+        }
+        missedPongs.set(0);
+        receivedPongs.incrementAndGet();
+        lastRoundTripTime = roundTripTime;
+        roundTripTimes.record(roundTripTime);
+    }
+
+    /**
+     * Starts the bid-to-price measurement of a bid.
+     *
+     * @param bidNumber
+     *            the number of the bid that went through the link
+     */
+    public void bidUpdate(int bidNumber) {
+        Long now = System.nanoTime();
+        synchronized (pendingBids) {
+            pendingBids.put(bidNumber, now);
+        }
+    }
+
+    /**
+     * Ends the bid-to-price measurement of a bid, when this is the first price update for it.
+     *
+     * @param bidNumber
+     *            the bid number the price update refers to
+     */
+    public void priceUpdate(int bidNumber) {
+        Long sent;
+        synchronized (pendingBids) {
+            sent = pendingBids.remove(bidNumber);
+        }
+        if (sent != null) {
+            bidPriceLatencies.record(System.nanoTime() - sent);
+        }
+    }
+
+    /**
+     * Forgets the pings of the previous connection, when the link has been connected again.
+     */
+    public void connected() {
+        missedPongs.set(0);
+    }
+
+    /**
+     * Counts an error of the link.
+     */
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * @return the current value of name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the round trip times of the pings in nanoseconds.
+     */
+    public Histogram getRoundTripTimes() {
+        return roundTripTimes;
+    }
+
+    /**
+     * @return the times between a bid and the first price update for it in nanoseconds.
+     */
+    public Histogram getBidPriceLatencies() {
+        return bidPriceLatencies;
+    }
+
+    /**
+     * @return the round trip time of the last answered ping in nanoseconds, or 0 when no ping has been answered.
+     */
+    public long getLastRoundTripTime() {
+        return lastRoundTripTime;
+    }
+
+    /**
+     * @return the number of pings in a row that have not been answered.
+     */
+    public int getMissedPongs() {
+        return missedPongs.get();
+    }
+
+    /**
+     * @return the number of pings that have been sent.
+     */
+    public long getSentPings() {
+        return sentPings.get();
+    }
+
+    /**
+     * @return the number of pings that have been answered.
+     */
+    public long getReceivedPongs() {
+        return receivedPongs.get();
+    }
+
+    /**
+     * @return the number of errors of the link.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    private void sendPing(Session session) {
+        ByteBuffer payload = ByteBuffer.allocate(PING_SIZE);
+        payload.putLong(0, System.nanoTime());
+        try {
+            session.getRemote().sendPing(payload);
+            sentPings.incrementAndGet();
+        } catch (IOException | WebSocketException e) {
+            error();
+            LOGGER.debug("Unable to send ping on link {}: {}", name, e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ": rtt[" + roundTripTimes + "], bid-to-price[" + bidPriceLatencies + "], missed pongs "
+               + missedPongs.get() + ", errors " + errors.get();
+    }
+}
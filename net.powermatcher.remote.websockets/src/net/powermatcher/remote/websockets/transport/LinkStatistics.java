@@ -0,0 +1,346 @@
+package net.powermatcher.remote.websockets.transport;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the statistics of a websocket connection as an MBean, so they can be read without a reference to the
+ * endpoint that owns the connection: the outbound queue and the measurements of the {@link LinkMonitor}. The
+ * statistics are read from the {@link Link} when they are asked for, so a queue or monitor that is replaced when the
+ * link is connected again is picked up.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class LinkStatistics
+    implements LinkStatisticsMBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinkStatistics.class);
+
+    private static final String JMX_DOMAIN = "net.powermatcher";
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /**
+     * An endpoint that owns a websocket connection.
+     */
+    public interface Link {
+        /**
+         * @return the outbound messages of the current connection, or <code>null</code> when not connected.
+         */
+        OutboundQueue getOutboundQueue();
+
+        /**
+         * @return the latency measurements of the link, or <code>null</code> when not connected.
+         */
+        LinkMonitor getLinkMonitor();
+    }
+
+    private final String name;
+
+    private final Link link;
+
+    /**
+     * The name under which this MBean has been registered, or <code>null</code> when it is not registered. Guarded by
+     * this.
+     */
+    private ObjectName objectName;
+
+    /**
+     * @param name
+     *            identifies the link, e.g. the name of its {@link LinkMonitor}
+     * @param link
+     *            the endpoint the statistics are read from
+     */
+    public LinkStatistics(String name, Link link) {
+        this.name = name;
+        this.link = link;
+    }
+
+    /**
+     * Registers this MBean with the platform MBean server. A link of which the name is already registered is not
+     * registered again.
+     */
+    public synchronized void register() {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName candidate = new ObjectName(JMX_DOMAIN + ":type=Link,name=" + ObjectName.quote(name));
+            if (server.isRegistered(candidate)) {
+                LOGGER.debug("The statistics of link [{}] have already been registered", name);
+                return;
+            }
+            server.registerMBean(new StandardMBean(this, LinkStatisticsMBean.class), candidate);
+            objectName = candidate;
+        } catch (JMException e) {
+            LOGGER.warn("Could not register the statistics of link [" + name + "]", e);
+        }
+    }
+
+    /**
+     * Removes this MBean from the platform MBean server, when it has been registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Could not unregister the statistics of link [" + name + "]", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * @return the name under which this MBean has been registered, or <code>null</code> when it is not registered.
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getOutboundQueueDepth() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : queue.getQueueDepth();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxOutboundQueueDepth() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : queue.getMaxQueueDepth();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getOutboundQueueCapacity() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : queue.getCapacity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSentMessages() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : queue.getSentMessages();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFailedMessages() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : queue.getFailedMessages();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReplacedMessages() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : queue.getReplacedMessages();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDroppedMessages() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : queue.getDroppedMessages();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getAverageWriteTime() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : toMillis(queue.getAverageWriteTime());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMaxWriteTime() {
+        OutboundQueue queue = link.getOutboundQueue();
+        return queue == null ? 0 : toMillis(queue.getMaxWriteTime());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getLastRoundTripTime() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : toMillis(monitor.getLastRoundTripTime());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRoundTripTimeCount() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getRoundTripTimes().getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getRoundTripTimeMean() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getRoundTripTimes().getMean() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getRoundTripTimeP50() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : toMillis(monitor.getRoundTripTimes().getPercentile(50));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getRoundTripTimeP99() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : toMillis(monitor.getRoundTripTimes().getPercentile(99));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getRoundTripTimeMax() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : toMillis(monitor.getRoundTripTimes().getMax());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBidToPriceLatencyCount() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getBidPriceLatencies().getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidToPriceLatencyMean() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getBidPriceLatencies().getMean() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidToPriceLatencyP50() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : toMillis(monitor.getBidPriceLatencies().getPercentile(50));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidToPriceLatencyP99() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : toMillis(monitor.getBidPriceLatencies().getPercentile(99));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBidToPriceLatencyMax() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : toMillis(monitor.getBidPriceLatencies().getMax());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMissedPongs() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getMissedPongs();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSentPings() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getSentPings();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReceivedPongs() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getReceivedPongs();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLinkErrors() {
+        LinkMonitor monitor = link.getLinkMonitor();
+        return monitor == null ? 0 : monitor.getErrors();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + name + "]";
+    }
+}
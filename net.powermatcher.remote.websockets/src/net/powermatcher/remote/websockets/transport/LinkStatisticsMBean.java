@@ -0,0 +1,137 @@
+package net.powermatcher.remote.websockets.transport;
+
+/**
+ * The JMX view of the {@link LinkStatistics} of one websocket connection. Times are in milliseconds. The statistics
+ * of the outbound queue are those of the current connection, so they start again when the link is connected again.
+ * The statistics of the {@link LinkMonitor} are kept as long as its owner keeps the monitor.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public interface LinkStatisticsMBean {
+
+    /**
+     * @return the current value of name.
+     */
+    String getName();
+
+    /**
+     * @return the number of messages that wait to be written.
+     */
+    int getOutboundQueueDepth();
+
+    /**
+     * @return the highest number of messages that waited to be written at the same time.
+     */
+    int getMaxOutboundQueueDepth();
+
+    /**
+     * @return the maximum number of messages that can wait to be written.
+     */
+    int getOutboundQueueCapacity();
+
+    /**
+     * @return the number of messages that have been written.
+     */
+    long getSentMessages();
+
+    /**
+     * @return the number of messages that could not be written.
+     */
+    long getFailedMessages();
+
+    /**
+     * @return the number of queued messages that were replaced by a newer message before they were written.
+     */
+    long getReplacedMessages();
+
+    /**
+     * @return the number of messages that were dropped because the queue was full.
+     */
+    long getDroppedMessages();
+
+    /**
+     * @return the average time it took to write a message.
+     */
+    double getAverageWriteTime();
+
+    /**
+     * @return the longest time it took to write a message.
+     */
+    double getMaxWriteTime();
+
+    /**
+     * @return the round trip time of the last answered ping.
+     */
+    double getLastRoundTripTime();
+
+    /**
+     * @return the number of measurements of the round trip time of a ping.
+     */
+    long getRoundTripTimeCount();
+
+    /**
+     * @return the average of the round trip time of a ping.
+     */
+    double getRoundTripTimeMean();
+
+    /**
+     * @return the median of the round trip time of a ping.
+     */
+    double getRoundTripTimeP50();
+
+    /**
+     * @return the 99th percentile of the round trip time of a ping.
+     */
+    double getRoundTripTimeP99();
+
+    /**
+     * @return the longest round trip time of a ping.
+     */
+    double getRoundTripTimeMax();
+
+    /**
+     * @return the number of measurements of the time between a bid and the first price update for it.
+     */
+    long getBidToPriceLatencyCount();
+
+    /**
+     * @return the average of the time between a bid and the first price update for it.
+     */
+    double getBidToPriceLatencyMean();
+
+    /**
+     * @return the median of the time between a bid and the first price update for it.
+     */
+    double getBidToPriceLatencyP50();
+
+    /**
+     * @return the 99th percentile of the time between a bid and the first price update for it.
+     */
+    double getBidToPriceLatencyP99();
+
+    /**
+     * @return the longest time between a bid and the first price update for it.
+     */
+    double getBidToPriceLatencyMax();
+
+    /**
+     * @return the number of pings in a row that have not been answered.
+     */
+    int getMissedPongs();
+
+    /**
+     * @return the number of pings that have been sent.
+     */
+    long getSentPings();
+
+    /**
+     * @return the number of pings that have been answered.
+     */
+    long getReceivedPongs();
+
+    /**
+     * @return the number of errors of the link.
+     */
+    long getLinkErrors();
+}
@@ -0,0 +1,267 @@
+package net.powermatcher.remote.websockets.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The outbound messages of a single websocket connection. Messages are written asynchronously, one at a time and in
+ * the order in which they were queued, so the thread that sends a message never waits for the network.
+ *
+ * A message can be given a key. A queued message that has not been written yet is replaced by a newer message with an
+ * equal key, at its original position in the queue. This is used for messages that are made obsolete by the next one,
+ * like price updates: over a slow link the remote side only gets the newest price.
+ *
+ * The number of queued messages is bounded. When the queue is full, a message that does not replace a queued message
+ * is dropped.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class OutboundQueue
+    implements WriteCallback {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /**
+     * The default maximum number of queued messages.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * A message that waits to be written.
+     */
+    private static final class Message {
+        final Object key;
+        String text;
+        ByteBuffer bytes;
+
+        Message(Object key, String text, ByteBuffer bytes) {
+            this.key = key;
+            this.text = text;
+            this.bytes = bytes;
+        }
+    }
+
+    private final RemoteEndpoint remote;
+
+    private final int capacity;
+
+    /**
+     * Guarded by this. Does not include the message that is being written.
+     */
+    private final Deque<Message> queue = new ArrayDeque<Message>();
+
+    private boolean writing;
+
+    private long writeStarted;
+
+    private long sentMessages;
+
+    private long failedMessages;
+
+    private long replacedMessages;
+
+    private long droppedMessages;
+
+    private int maxQueueDepth;
+
+    private long totalWriteTime;
+
+    private long maxWriteTime;
+
+    /**
+     * @param remote
+     *            the {@link RemoteEndpoint} of the websocket to write to
+     * @param capacity
+     *            the maximum number of queued messages
+     */
+    public OutboundQueue(RemoteEndpoint remote, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1, got " + capacity);
+        }
+        this.remote = remote;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queues a text message.
+     *
+     * @param message
+     *            the message
+     * @param key
+     *            a queued message with an equal key is replaced by this message, <code>null</code> when the message can
+     *            not replace other messages
+     * @return <code>false</code> when the message was dropped because the queue is full
+     */
+    public boolean send(String message, Object key) {
+        return enqueue(new Message(key, message, null));
+    }
+
+    /**
+     * Queues a binary message.
+     *
+     * @param message
+     *            the message
+     * @param key
+     *            a queued message with an equal key is replaced by this message, <code>null</code> when the message can
+     *            not replace other messages
+     * @return <code>false</code> when the message was dropped because the queue is full
+     */
+    public boolean send(ByteBuffer message, Object key) {
+        return enqueue(new Message(key, null, message));
+    }
+
+    private boolean enqueue(Message message) {
+        synchronized (this) {
+            if (message.key != null) {
+                for (Message queued : queue) {
+                    if (message.key.equals(queued.key)) {
+                        queued.text = message.text;
+                        queued.bytes = message.bytes;
+                        replacedMessages++;
+                        return true;
+                    }
+                }
+            }
+            if (queue.size() >= capacity) {
+                droppedMessages++;
+                return false;
+            }
+            queue.addLast(message);
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        }
+        writeNext();
+        return true;
+    }
+
+    /**
+     * Starts writing the next message, unless a message is being written.
+     */
+    private void writeNext() {
+        Message message;
+        synchronized (this) {
+            if (writing) {
+                return;
+            }
+            message = queue.pollFirst();
+            if (message == null) {
+                return;
+            }
+            writing = true;
+            writeStarted = System.nanoTime();
+        }
+        try {
+            if (message.text != null) {
+                remote.sendString(message.text, this);
+            } else {
+                remote.sendBytes(message.bytes, this);
+            }
+        } catch (RuntimeException e) {
+            writeFailed(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeSuccess() {
+        synchronized (this) {
+            long writeTime = System.nanoTime() - writeStarted;
+            totalWriteTime += writeTime;
+            maxWriteTime = Math.max(maxWriteTime, writeTime);
+            sentMessages++;
+            writing = false;
+        }
+        writeNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeFailed(Throwable cause) {
+        synchronized (this) {
+            failedMessages++;
+            writing = false;
+        }
+        LOGGER.warn("Unable to write message to remote side, reason {}", cause.toString());
+        writeNext();
+    }
+
+    /**
+     * Drops all queued messages, e.g. when the connection has been closed.
+     */
+    public synchronized void clear() {
+        queue.clear();
+    }
+
+    /**
+     * @return the current value of capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of messages that wait to be written.
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the highest number of messages that waited to be written at the same time.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return the number of messages that have been written.
+     */
+    public synchronized long getSentMessages() {
+        return sentMessages;
+    }
+
+    /**
+     * @return the number of messages that could not be written.
+     */
+    public synchronized long getFailedMessages() {
+        return failedMessages;
+    }
+
+    /**
+     * @return the number of queued messages that were replaced by a newer message before they were written.
+     */
+    public synchronized long getReplacedMessages() {
+        return replacedMessages;
+    }
+
+    /**
+     * @return the number of messages that were dropped because the queue was full.
+     */
+    public synchronized long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    /**
+     * @return the average time it took to write a message in nanoseconds, or 0 when no message has been written.
+     */
+    public synchronized long getAverageWriteTime() {
+        return sentMessages == 0 ? 0 : totalWriteTime / sentMessages;
+    }
+
+    /**
+     * @return the longest time it took to write a message in nanoseconds.
+     */
+    public synchronized long getMaxWriteTime() {
+        return maxWriteTime;
+    }
+}
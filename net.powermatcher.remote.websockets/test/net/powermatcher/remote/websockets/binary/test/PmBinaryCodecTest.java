@@ -0,0 +1,161 @@
+package net.powermatcher.remote.websockets.binary.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
+import net.powermatcher.remote.websockets.data.ChannelModel;
+import net.powermatcher.remote.websockets.data.ClusterInfoModel;
+import net.powermatcher.remote.websockets.data.PmMessage;
+import net.powermatcher.remote.websockets.data.PmMessage.PayloadType;
+import net.powermatcher.remote.websockets.json.ModelMapper;
+
+/**
+ * JUnit tests for the {@link PmBinaryCodec} class. Every test encodes with one codec and decodes with another, like
+ * the two ends of a connection.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class PmBinaryCodecTest {
+
+    private static final String CLUSTER_ID = "testCluster";
+
+    private final MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 10, -1, 1);
+
+    private PmBinaryCodec sender;
+    private PmBinaryCodec receiver;
+
+    @Before
+    public void setUp() {
+        sender = new PmBinaryCodec();
+        receiver = new PmBinaryCodec();
+    }
+
+    private static PmMessage decode(PmBinaryCodec codec, ByteBuffer message) {
+        return codec.decode(message.array(), message.arrayOffset() + message.position(), message.remaining());
+    }
+
+    private void sendClusterInfo() {
+        decode(receiver, sender.encodeClusterInfo(CLUSTER_ID, marketBasis));
+    }
+
+    @Test
+    public void testClusterInfo() {
+        ByteBuffer encoded = sender.encodeClusterInfo(CLUSTER_ID, marketBasis, true, "token", true, 42);
+        PmMessage message = decode(receiver, encoded);
+
+        assertThat(message.getPayloadType(), is(equalTo(PayloadType.CLUSTERINFO)));
+        ClusterInfoModel clusterInfo = (ClusterInfoModel) message.getPayload();
+        assertThat(clusterInfo.getClusterId(), is(equalTo(CLUSTER_ID)));
+        assertThat(clusterInfo.getMarketBasis().getPriceSteps(), is(equalTo(10)));
+        assertThat(clusterInfo.getMarketBasis().getMinimumPrice(), is(equalTo(-1d)));
+        assertThat(clusterInfo.isBidDeltas(), is(true));
+        assertThat(clusterInfo.getResumeToken(), is(equalTo("token")));
+        assertThat(clusterInfo.isResumed(), is(true));
+        assertThat(clusterInfo.getLastBidNumber(), is(equalTo(42)));
+    }
+
+    @Test
+    public void testBidDoublePrecision() {
+        sendClusterInfo();
+        double[] demand = { 100.1, 100.1, 100.1, 50.5, 50.5, 0, -0.3, -20.7, -20.7, -20.7 };
+        BidUpdate bidUpdate = new BidUpdate(new Bid(marketBasis, demand), 7);
+
+        PmMessage message = decode(receiver, sender.encodeBidUpdate(bidUpdate));
+
+        assertThat(message.getPayloadType(), is(equalTo(PayloadType.BID)));
+        BidUpdate decoded = (BidUpdate) message.getPayload();
+        assertThat(decoded.getBidNumber(), is(equalTo(7)));
+        assertThat(decoded.getBid().getMarketBasis(), is(equalTo(marketBasis)));
+        assertArrayEquals(demand, decoded.getBid().getDemand(), 0);
+    }
+
+    @Test
+    public void testBidSinglePrecision() {
+        sender = new PmBinaryCodec(true);
+        sendClusterInfo();
+        double[] demand = { 100.1, 100.1, 100.1, 50.5, 50.5, 0, -0.3, -20.7, -20.7, -20.7 };
+        BidUpdate bidUpdate = new BidUpdate(new Bid(marketBasis, demand), -3);
+
+        ByteBuffer single = sender.encodeBidUpdate(bidUpdate);
+        BidUpdate decoded = (BidUpdate) decode(receiver, single).getPayload();
+
+        assertThat(decoded.getBidNumber(), is(equalTo(-3)));
+        assertArrayEquals(demand, decoded.getBid().getDemand(), 1e-5);
+        // Five runs of equal demand, each 4 bytes smaller
+        PmBinaryCodec doublePrecision = new PmBinaryCodec();
+        doublePrecision.encodeClusterInfo(CLUSTER_ID, marketBasis);
+        assertThat(doublePrecision.encodeBidUpdate(bidUpdate).remaining() - single.remaining(), is(equalTo(20)));
+    }
+
+    @Test
+    public void testBidDelta() {
+        sender = new PmBinaryCodec(true);
+        sendClusterInfo();
+        BidUpdate base = new BidUpdate(new Bid(marketBasis, new double[] { 9, 8, 7, 6, 5, 4, 3, 2, 1, 0 }), 4);
+        BidUpdate bidUpdate = new BidUpdate(new Bid(marketBasis, new double[] { 9, 8, 7, 6, 5, 4, 3, 2, 0.5, 0 }), 5);
+        BidDeltaModel delta = ModelMapper.createBidDelta(base, bidUpdate);
+
+        PmMessage message = decode(receiver, sender.encodeBidDelta(delta));
+
+        assertThat(message.getPayloadType(), is(equalTo(PayloadType.DELTA)));
+        BidDeltaModel decoded = (BidDeltaModel) message.getPayload();
+        assertThat(decoded.getBaseBidNumber(), is(equalTo(4)));
+        assertThat(decoded.getBidNumber(), is(equalTo(5)));
+        assertThat(Arrays.toString(decoded.getRangeStarts()), is(equalTo(Arrays.toString(delta.getRangeStarts()))));
+        assertThat(Arrays.toString(decoded.getRangeLengths()), is(equalTo(Arrays.toString(delta.getRangeLengths()))));
+        assertThat(ModelMapper.applyBidDelta(base, decoded).getBid(), is(equalTo(bidUpdate.getBid())));
+    }
+
+    @Test
+    public void testPriceUpdate() {
+        sendClusterInfo();
+        PriceUpdate priceUpdate = new PriceUpdate(new Price(marketBasis, 0.25), 12);
+
+        PmMessage message = decode(receiver, sender.encodePriceUpdate(priceUpdate));
+
+        assertThat(message.getPayloadType(), is(equalTo(PayloadType.PRICE_UPDATE)));
+        PriceUpdate decoded = (PriceUpdate) message.getPayload();
+        assertThat(decoded.getBidNumber(), is(equalTo(12)));
+        assertThat(decoded.getPrice().getPriceValue(), is(equalTo(0.25)));
+    }
+
+    @Test
+    public void testChannels() {
+        PmMessage open = decode(receiver, sender.addChannel(300, sender.encodeChannelOpen("agent1")));
+        assertThat(open.getChannel(), is(equalTo(300)));
+        assertThat(open.getPayloadType(), is(equalTo(PayloadType.CHANNEL_OPEN)));
+        assertThat(((ChannelModel) open.getPayload()).getAgentId(), is(equalTo("agent1")));
+
+        PmMessage close = decode(receiver, sender.addChannel(300, sender.encodeChannelClose()));
+        assertThat(close.getChannel(), is(equalTo(300)));
+        assertThat(close.getPayloadType(), is(equalTo(PayloadType.CHANNEL_CLOSE)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMarketBasis() {
+        sender.encodeBidUpdate(new BidUpdate(new Bid(marketBasis, new double[10]), 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedMessage() {
+        sendClusterInfo();
+        ByteBuffer message = sender.encodeBidUpdate(new BidUpdate(new Bid(marketBasis, new double[10]), 1));
+        receiver.decode(message.array(), message.arrayOffset(), message.remaining() - 1);
+    }
+}
@@ -0,0 +1,116 @@
+package net.powermatcher.remote.websockets.json.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.remote.websockets.data.BidDeltaModel;
+import net.powermatcher.remote.websockets.json.ModelMapper;
+
+/**
+ * JUnit tests for the bid deltas of the {@link ModelMapper} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ModelMapperTest {
+
+    private final MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 20, 0, 1);
+
+    private BidUpdate createBidUpdate(int bidNumber, double... changes) {
+        double[] demand = new double[20];
+        for (int ix = 0; ix < demand.length; ix++) {
+            demand[ix] = 100 - 5 * ix;
+        }
+        for (int ix = 0; ix < changes.length; ix += 2) {
+            demand[(int) changes[ix]] = changes[ix + 1];
+        }
+        return new BidUpdate(new Bid(marketBasis, demand), bidNumber);
+    }
+
+    @Test
+    public void testDeltaRoundTrip() {
+        BidUpdate base = createBidUpdate(1);
+        BidUpdate bidUpdate = createBidUpdate(2, 3, 84, 4, 78, 15, 24);
+
+        BidDeltaModel delta = ModelMapper.createBidDelta(base, bidUpdate);
+
+        assertThat(delta.getBaseBidNumber(), is(equalTo(1)));
+        assertThat(delta.getBidNumber(), is(equalTo(2)));
+        assertThat(Arrays.toString(delta.getRangeStarts()), is(equalTo("[3, 15]")));
+        assertThat(Arrays.toString(delta.getRangeLengths()), is(equalTo("[2, 1]")));
+        assertArrayEquals(new double[] { 84, 78, 24 }, delta.getDemand(), 0);
+
+        BidUpdate applied = ModelMapper.applyBidDelta(base, delta);
+        assertThat(applied.getBidNumber(), is(equalTo(2)));
+        assertThat(applied.getBid(), is(equalTo(bidUpdate.getBid())));
+    }
+
+    @Test
+    public void testSmallGapsAreMerged() {
+        BidDeltaModel delta = ModelMapper.createBidDelta(createBidUpdate(1), createBidUpdate(2, 5, 74, 7, 64));
+
+        assertThat(Arrays.toString(delta.getRangeStarts()), is(equalTo("[5]")));
+        assertThat(Arrays.toString(delta.getRangeLengths()), is(equalTo("[3]")));
+        assertArrayEquals(new double[] { 74, 70, 64 }, delta.getDemand(), 0);
+    }
+
+    @Test
+    public void testNoDeltaForLargeChanges() {
+        BidUpdate base = createBidUpdate(1);
+        double[] demand = new double[20];
+        BidUpdate bidUpdate = new BidUpdate(new Bid(marketBasis, demand), 2);
+
+        assertThat(ModelMapper.createBidDelta(base, bidUpdate), is(nullValue()));
+    }
+
+    @Test
+    public void testNoDeltaForOtherMarketBasis() {
+        MarketBasis other = new MarketBasis("electricity", "EUR", 20, 0, 2);
+        BidUpdate bidUpdate = new BidUpdate(new Bid(other, createBidUpdate(2).getBid().getDemand()), 2);
+
+        assertThat(ModelMapper.createBidDelta(createBidUpdate(1), bidUpdate), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyToOtherBase() {
+        BidDeltaModel delta = ModelMapper.createBidDelta(createBidUpdate(1), createBidUpdate(2, 3, 84));
+
+        ModelMapper.applyBidDelta(createBidUpdate(3), delta);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyRangeOutsideBid() {
+        BidDeltaModel delta = ModelMapper.createBidDelta(createBidUpdate(1), createBidUpdate(2, 3, 84));
+        delta.setRangeStarts(new int[] { 19 });
+        delta.setRangeLengths(new int[] { 2 });
+
+        ModelMapper.applyBidDelta(createBidUpdate(1), delta);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyOverflowingRange() {
+        BidDeltaModel delta = ModelMapper.createBidDelta(createBidUpdate(1), createBidUpdate(2, 3, 84));
+        delta.setRangeStarts(new int[] { 3 });
+        delta.setRangeLengths(new int[] { Integer.MAX_VALUE });
+
+        ModelMapper.applyBidDelta(createBidUpdate(1), delta);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyExtraDemand() {
+        BidDeltaModel delta = ModelMapper.createBidDelta(createBidUpdate(1), createBidUpdate(2, 3, 84));
+        delta.setDemand(new double[] { 84, 83 });
+
+        ModelMapper.applyBidDelta(createBidUpdate(1), delta);
+    }
+}
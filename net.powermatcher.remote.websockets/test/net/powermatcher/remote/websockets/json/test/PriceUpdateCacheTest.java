@@ -0,0 +1,83 @@
+package net.powermatcher.remote.websockets.json.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+import net.powermatcher.remote.websockets.json.PriceUpdateCache;
+
+/**
+ * JUnit tests for the {@link PriceUpdateCache} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class PriceUpdateCacheTest {
+
+    /**
+     * The number of prices the cache keeps.
+     */
+    private static final int MAX_ROUNDS = 8;
+
+    private final MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 100, 0, 1);
+
+    private PriceUpdateCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new PriceUpdateCache();
+    }
+
+    private PriceUpdate priceUpdate(double price, int bidNumber) {
+        return new PriceUpdate(new Price(marketBasis, price), bidNumber);
+    }
+
+    @Test
+    public void testSameAsSerializer() {
+        PmJsonSerializer serializer = PmJsonSerializer.getDefault();
+        int[] bidNumbers = { 0, 1, 9, 10, 100, -1, -10, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (double price : new double[] { 0, 0.1, 0.5, 1 }) {
+            for (int bidNumber : bidNumbers) {
+                PriceUpdate priceUpdate = priceUpdate(price, bidNumber);
+                assertThat(cache.serializePriceUpdate(priceUpdate),
+                           is(equalTo(serializer.serializePriceUpdate(priceUpdate))));
+            }
+        }
+    }
+
+    @Test
+    public void testSharedMessages() {
+        String first = cache.serializePriceUpdate(priceUpdate(0.5, 3));
+
+        assertThat(cache.serializePriceUpdate(priceUpdate(0.5, 3)), is(sameInstance(first)));
+        assertThat(cache.serializePriceUpdate(priceUpdate(0.5, 4)), is(not(equalTo(first))));
+        assertThat(cache.getHits(), is(equalTo(1L)));
+        assertThat(cache.getMisses(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testEviction() {
+        String first = cache.serializePriceUpdate(priceUpdate(0, 1));
+        for (int i = 1; i < MAX_ROUNDS; i++) {
+            cache.serializePriceUpdate(priceUpdate(i / 100d, 1));
+        }
+        assertThat(cache.serializePriceUpdate(priceUpdate(0, 1)), is(sameInstance(first)));
+
+        // One price too many drops the old prices
+        cache.serializePriceUpdate(priceUpdate(0.99, 1));
+        String again = cache.serializePriceUpdate(priceUpdate(0, 1));
+        assertThat(again, is(not(sameInstance(first))));
+        assertThat(again, is(equalTo(first)));
+        assertThat(cache.getHits(), is(equalTo(1L)));
+        assertThat(cache.getMisses(), is(equalTo(MAX_ROUNDS + 2L)));
+    }
+}
@@ -0,0 +1,136 @@
+package net.powermatcher.remote.websockets.server.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.powermatcher.remote.websockets.server.AdmissionController;
+
+/**
+ * JUnit tests for the {@link AdmissionController} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class AdmissionControllerTest {
+
+    /**
+     * A batch interval that is never reached during a test, so registrations stay queued.
+     */
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+            // Nothing to register
+        }
+    };
+
+    private AdmissionController controller;
+
+    @After
+    public void tearDown() {
+        controller.shutdown();
+    }
+
+    @Test
+    public void testBurst() {
+        controller = new AdmissionController(0.001, 3, 100, 100, 10, NEVER);
+
+        assertThat(controller.admitConnection(), is(true));
+        assertThat(controller.admitConnection(), is(true));
+        assertThat(controller.admitConnection(), is(true));
+        assertThat(controller.admitConnection(), is(false));
+        assertThat(controller.getRefusedConnections(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        controller = new AdmissionController(100, 1, 100, 100, 10, NEVER);
+
+        assertThat(controller.admitConnection(), is(true));
+        assertThat(controller.admitConnection(), is(false));
+        // 100 tokens per second, so one token is back after 10 ms
+        Thread.sleep(50);
+        assertThat(controller.admitConnection(), is(true));
+        // The bucket never holds more than the burst
+        assertThat(controller.admitConnection(), is(false));
+    }
+
+    @Test
+    public void testMaxProxies() {
+        controller = new AdmissionController(1000, 1000, 2, 100, 10, NEVER);
+
+        assertThat(controller.admitProxy(NOOP), is(true));
+        assertThat(controller.admitProxy(NOOP), is(true));
+        assertThat(controller.admitProxy(NOOP), is(false));
+        assertThat(controller.admitConnection(), is(false));
+        assertThat(controller.getActiveProxies(), is(equalTo(2)));
+        assertThat(controller.getRefusedProxies(), is(equalTo(1L)));
+
+        controller.proxyRemoved();
+        assertThat(controller.admitConnection(), is(true));
+        assertThat(controller.admitProxy(NOOP), is(true));
+    }
+
+    @Test
+    public void testMaxPendingRegistrations() {
+        controller = new AdmissionController(1000, 1000, 100, 2, 10, NEVER);
+
+        assertThat(controller.admitProxy(NOOP), is(true));
+        assertThat(controller.admitProxy(NOOP), is(true));
+        assertThat(controller.admitProxy(NOOP), is(false));
+        assertThat(controller.getPendingRegistrations(), is(equalTo(2)));
+        // Nothing is reserved for a refused proxy
+        assertThat(controller.getActiveProxies(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testBatches() throws InterruptedException {
+        controller = new AdmissionController(1000, 1000, 100, 100, 2, 50);
+        final List<Long> registrationTimes = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch registered = new CountDownLatch(5);
+        Runnable registration = new Runnable() {
+            @Override
+            public void run() {
+                registrationTimes.add(System.nanoTime());
+                registered.countDown();
+            }
+        };
+        assertThat(controller.admitProxy(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Expected by the test");
+            }
+        }), is(true));
+        for (int i = 0; i < 5; i++) {
+            assertThat(controller.admitProxy(registration), is(true));
+        }
+
+        assertTrue(registered.await(5, TimeUnit.SECONDS));
+        assertThat(controller.getPendingRegistrations(), is(equalTo(0)));
+        // The failing registration and the first one form the first batch, then two per batch
+        long minimumPause = TimeUnit.MILLISECONDS.toNanos(50);
+        assertTrue(registrationTimes.get(1) - registrationTimes.get(0) >= minimumPause);
+        assertTrue(registrationTimes.get(3) - registrationTimes.get(2) >= minimumPause);
+    }
+
+    @Test
+    public void testShutdownDropsPendingRegistrations() {
+        controller = new AdmissionController(1000, 1000, 100, 100, 10, NEVER);
+        controller.admitProxy(NOOP);
+
+        controller.shutdown();
+        assertThat(controller.getPendingRegistrations(), is(equalTo(0)));
+    }
+}
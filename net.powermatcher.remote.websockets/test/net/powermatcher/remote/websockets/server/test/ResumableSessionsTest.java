@@ -0,0 +1,209 @@
+package net.powermatcher.remote.websockets.server.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.remote.websockets.server.ResumableSessions;
+
+/**
+ * JUnit tests for the {@link ResumableSessions} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ResumableSessionsTest {
+
+    private static final long GRACE_PERIOD = 50;
+
+    /**
+     * A session of a remote agent, which follows the rules of an agent proxy.
+     */
+    private static class TestSession
+        implements ResumableSessions.Resumable {
+
+        final String remoteAgentId;
+        final boolean binary;
+        final CountDownLatch expireCalled = new CountDownLatch(1);
+        volatile boolean detached;
+        volatile boolean ended;
+        volatile int detachments;
+
+        TestSession(String remoteAgentId, boolean binary) {
+            this.remoteAgentId = remoteAgentId;
+            this.binary = binary;
+        }
+
+        void loseConnection(ResumableSessions sessions, String token) {
+            detached = true;
+            sessions.detach(token, this, ++detachments);
+        }
+
+        @Override
+        public boolean canResume(String remoteAgentId, boolean binary) {
+            return !ended && this.remoteAgentId.equals(remoteAgentId) && this.binary == binary;
+        }
+
+        @Override
+        public boolean isDetached() {
+            return detached;
+        }
+
+        @Override
+        public boolean expire(int detachment) {
+            try {
+                if (!detached || ended || detachment != detachments) {
+                    return false;
+                }
+                ended = true;
+                return true;
+            } finally {
+                expireCalled.countDown();
+            }
+        }
+
+        @Override
+        public void deactivate() {
+            ended = true;
+        }
+    }
+
+    private ResumableSessions sessions;
+
+    @Before
+    public void setUp() {
+        sessions = new ResumableSessions(GRACE_PERIOD);
+    }
+
+    @After
+    public void tearDown() {
+        sessions.shutdown();
+    }
+
+    @Test
+    public void testTokens() {
+        Set<String> tokens = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            String token = sessions.newToken();
+            assertTrue(token, token.matches("[0-9a-f]{32}"));
+            tokens.add(token);
+        }
+        assertThat(tokens.size(), is(equalTo(100)));
+    }
+
+    @Test
+    public void testResumeDetachedSession() {
+        String token = sessions.newToken();
+        TestSession session = new TestSession("agent1", true);
+        sessions.add(token, session);
+        session.loseConnection(sessions, token);
+
+        assertThat(sessions.getDetachedSessions(), is(equalTo(1)));
+        assertThat(sessions.resume(token, "agent1", true), is(sameInstance((Object) session)));
+        assertThat(sessions.getResumedSessions(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testResumeOpenSession() {
+        String token = sessions.newToken();
+        TestSession session = new TestSession("agent1", false);
+        sessions.add(token, session);
+
+        // The old connection may still look open here, e.g. when it is half-open
+        assertThat(sessions.resume(token, "agent1", false), is(sameInstance((Object) session)));
+        assertThat(sessions.resume(token, "agent1", false), is(sameInstance((Object) session)));
+        assertThat(sessions.getSessions(), is(equalTo(1)));
+        assertThat(sessions.getDetachedSessions(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testInvalidResume() {
+        String token = sessions.newToken();
+        TestSession session = new TestSession("agent1", true);
+        sessions.add(token, session);
+        session.loseConnection(sessions, token);
+
+        assertThat(sessions.resume(sessions.newToken(), "agent1", true), is(nullValue()));
+        assertThat(sessions.resume(token, "agent2", true), is(nullValue()));
+        assertThat(sessions.resume(token, null, true), is(nullValue()));
+        assertThat(sessions.resume(token, "agent1", false), is(nullValue()));
+        assertThat(sessions.getResumedSessions(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        String token = sessions.newToken();
+        TestSession session = new TestSession("agent1", true);
+        sessions.add(token, session);
+        session.loseConnection(sessions, token);
+
+        assertTrue(session.expireCalled.await(5, TimeUnit.SECONDS));
+        waitForExpiredSessions(1);
+        assertThat(session.ended, is(true));
+        assertThat(sessions.getSessions(), is(equalTo(0)));
+        assertThat(sessions.resume(token, "agent1", true), is(nullValue()));
+    }
+
+    @Test
+    public void testNoExpiryAfterResume() throws InterruptedException {
+        String token = sessions.newToken();
+        TestSession session = new TestSession("agent1", true);
+        sessions.add(token, session);
+        session.loseConnection(sessions, token);
+        assertThat(sessions.resume(token, "agent1", true), is(not(nullValue())));
+        session.detached = false;
+
+        assertTrue(session.expireCalled.await(5, TimeUnit.SECONDS));
+        assertThat(session.ended, is(false));
+        assertThat(sessions.getExpiredSessions(), is(equalTo(0L)));
+        assertThat(sessions.getSessions(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testRemove() {
+        String token = sessions.newToken();
+        TestSession session = new TestSession("agent1", true);
+        sessions.add(token, session);
+
+        sessions.remove(token, new TestSession("agent1", true));
+        assertThat(sessions.getSessions(), is(equalTo(1)));
+        sessions.remove(token, session);
+        assertThat(sessions.resume(token, "agent1", true), is(nullValue()));
+    }
+
+    @Test
+    public void testShutdownEndsDetachedSessions() {
+        TestSession open = new TestSession("agent1", true);
+        sessions.add(sessions.newToken(), open);
+        TestSession detached = new TestSession("agent2", true);
+        String token = sessions.newToken();
+        sessions.add(token, detached);
+        detached.loseConnection(sessions, token);
+
+        sessions.shutdown();
+        assertThat(detached.ended, is(true));
+        assertThat(open.ended, is(false));
+        assertThat(sessions.getSessions(), is(equalTo(0)));
+    }
+
+    private void waitForExpiredSessions(long expired) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sessions.getExpiredSessions() < expired && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(sessions.getExpiredSessions(), is(equalTo(expired)));
+    }
+}
@@ -0,0 +1,77 @@
+package net.powermatcher.remote.websockets.transport.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import net.powermatcher.remote.websockets.transport.Backoff;
+
+/**
+ * JUnit tests for the {@link Backoff} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class BackoffTest {
+
+    /**
+     * The number of random delays checked per bound.
+     */
+    private static final int SAMPLES = 1000;
+
+    @Test
+    public void testFirstDelay() {
+        Backoff backoff = new Backoff(30000, 300000);
+        for (int i = 0; i < SAMPLES; i++) {
+            long delay = backoff.firstDelay();
+            assertTrue("delay " + delay, delay >= 0 && delay <= 30000);
+        }
+    }
+
+    @Test
+    public void testRetryDelayDoubles() {
+        Backoff backoff = new Backoff(1000, 300000);
+        long[] ceilings = { 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000, 256000, 300000, 300000 };
+        for (int failedAttempts = 1; failedAttempts <= ceilings.length; failedAttempts++) {
+            assertBounds(backoff, failedAttempts, ceilings[failedAttempts - 1]);
+        }
+    }
+
+    @Test
+    public void testRetryDelayNeverOverflows() {
+        Backoff backoff = new Backoff(30000, Long.MAX_VALUE / 2);
+        for (int failedAttempts = 1; failedAttempts <= 100; failedAttempts++) {
+            long delay = backoff.retryDelay(failedAttempts);
+            assertTrue("delay " + delay, delay >= 15000 && delay <= Long.MAX_VALUE / 2);
+        }
+        for (int failedAttempts : new int[] { 50, 63, 64, Integer.MAX_VALUE }) {
+            long delay = backoff.retryDelay(failedAttempts);
+            assertTrue("delay " + delay, delay >= Long.MAX_VALUE / 4);
+        }
+    }
+
+    @Test
+    public void testSettingsAreBounded() {
+        Backoff backoff = new Backoff(0, -5);
+
+        assertThat(backoff.getInitialDelay(), is(equalTo(1L)));
+        assertThat(backoff.getMaxDelay(), is(equalTo(1L)));
+        assertBounds(backoff, 1, 1);
+        assertBounds(backoff, 0, 1);
+
+        backoff = new Backoff(60000, 10000);
+        assertThat(backoff.getMaxDelay(), is(equalTo(60000L)));
+        assertBounds(backoff, 5, 60000);
+    }
+
+    private static void assertBounds(Backoff backoff, int failedAttempts, long ceiling) {
+        for (int i = 0; i < SAMPLES; i++) {
+            long delay = backoff.retryDelay(failedAttempts);
+            assertTrue("delay " + delay + " after " + failedAttempts + " failed attempts",
+                       delay >= ceiling / 2 && delay <= ceiling);
+        }
+    }
+}
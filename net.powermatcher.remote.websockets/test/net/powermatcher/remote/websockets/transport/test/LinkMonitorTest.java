@@ -0,0 +1,146 @@
+package net.powermatcher.remote.websockets.transport.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.After;
+import org.junit.Test;
+
+import net.powermatcher.remote.websockets.transport.LinkMonitor;
+
+/**
+ * JUnit tests for the {@link LinkMonitor} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class LinkMonitorTest {
+
+    /**
+     * A websocket of which the pings can be held up, like those to a remote side that does not read.
+     */
+    private static class TestLink
+        implements InvocationHandler {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger pingsStarted = new AtomicInteger();
+        final AtomicInteger closes = new AtomicInteger();
+        volatile boolean stalled;
+        volatile ByteBuffer lastPing;
+
+        Session session() {
+            return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                                                    new Class<?>[] { Session.class },
+                                                    this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "isOpen":
+                return closes.get() == 0;
+            case "close":
+                closes.incrementAndGet();
+                return null;
+            case "getRemote":
+                return Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(),
+                                              new Class<?>[] { RemoteEndpoint.class },
+                                              new InvocationHandler() {
+                                                  @Override
+                                                  public Object invoke(Object proxy, Method method, Object[] args)
+                                                          throws Throwable {
+                                                      if ("sendPing".equals(method.getName())) {
+                                                          pingsStarted.incrementAndGet();
+                                                          if (stalled) {
+                                                              release.await();
+                                                          }
+                                                          lastPing = (ByteBuffer) args[0];
+                                                      }
+                                                      return null;
+                                                  }
+                                              });
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    private final ExecutorService pingExecutor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        pingExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testPong() throws InterruptedException {
+        TestLink link = new TestLink();
+        LinkMonitor monitor = new LinkMonitor("test");
+
+        assertThat(monitor.heartbeat(link.session(), 3, pingExecutor), is(true));
+        waitForSentPings(monitor, 1);
+        assertThat(monitor.getMissedPongs(), is(equalTo(1)));
+
+        monitor.pong(link.lastPing);
+        assertThat(monitor.getMissedPongs(), is(equalTo(0)));
+        assertThat(monitor.getReceivedPongs(), is(equalTo(1L)));
+        assertThat(monitor.getRoundTripTimes().getCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testStalledLinkDoesNotBlock() throws InterruptedException {
+        TestLink link = new TestLink();
+        link.stalled = true;
+        Session session = link.session();
+        LinkMonitor monitor = new LinkMonitor("stalled");
+
+        long start = System.nanoTime();
+        assertThat(monitor.heartbeat(session, 3, pingExecutor), is(true));
+        assertThat(monitor.heartbeat(session, 3, pingExecutor), is(true));
+        assertThat(monitor.heartbeat(session, 3, pingExecutor), is(true));
+        // The ping that is being written counts as missed, so the link is closed like a silent one
+        assertThat(monitor.heartbeat(session, 3, pingExecutor), is(false));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertThat(link.closes.get(), is(equalTo(1)));
+
+        // Only one ping at a time is written to the stalled link
+        Thread.sleep(50);
+        assertThat(link.pingsStarted.get(), is(equalTo(1)));
+        link.release.countDown();
+        waitForSentPings(monitor, 1);
+    }
+
+    @Test
+    public void testBidPriceLatency() {
+        LinkMonitor monitor = new LinkMonitor("test");
+
+        monitor.bidUpdate(1);
+        monitor.bidUpdate(2);
+        monitor.priceUpdate(2);
+        monitor.priceUpdate(2);
+        monitor.priceUpdate(3);
+        assertThat(monitor.getBidPriceLatencies().getCount(), is(equalTo(1L)));
+    }
+
+    private static void waitForSentPings(LinkMonitor monitor, long sent) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (monitor.getSentPings() < sent && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(monitor.getSentPings(), is(equalTo(sent)));
+    }
+}
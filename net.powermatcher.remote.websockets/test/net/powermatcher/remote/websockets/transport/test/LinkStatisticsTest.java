@@ -0,0 +1,160 @@
+package net.powermatcher.remote.websockets.transport.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.remote.websockets.transport.LinkMonitor;
+import net.powermatcher.remote.websockets.transport.LinkStatistics;
+import net.powermatcher.remote.websockets.transport.OutboundQueue;
+
+/**
+ * JUnit tests for the {@link LinkStatistics} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class LinkStatisticsTest {
+
+    /**
+     * A link of which the queue and monitor can be replaced, like a link that is connected again.
+     */
+    private static class TestLink
+        implements LinkStatistics.Link {
+        OutboundQueue queue;
+        LinkMonitor monitor;
+
+        @Override
+        public OutboundQueue getOutboundQueue() {
+            return queue;
+        }
+
+        @Override
+        public LinkMonitor getLinkMonitor() {
+            return monitor;
+        }
+    }
+
+    /**
+     * Completes every write of a {@link RemoteEndpoint} directly.
+     */
+    private static class CompletingRemote
+        implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (args != null && args[args.length - 1] instanceof WriteCallback) {
+                ((WriteCallback) args[args.length - 1]).writeSuccess();
+            }
+            return null;
+        }
+    }
+
+    private static RemoteEndpoint createRemote() {
+        return (RemoteEndpoint) Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(),
+                                                       new Class<?>[] { RemoteEndpoint.class },
+                                                       new CompletingRemote());
+    }
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private TestLink link;
+    private LinkStatistics statistics;
+
+    @Before
+    public void setUp() {
+        link = new TestLink();
+        statistics = new LinkStatistics("agent1@localhost", link);
+    }
+
+    @After
+    public void tearDown() {
+        statistics.unregister();
+    }
+
+    @Test
+    public void testNotConnected() {
+        assertThat(statistics.getOutboundQueueDepth(), is(equalTo(0)));
+        assertThat(statistics.getSentMessages(), is(equalTo(0L)));
+        assertThat(statistics.getAverageWriteTime(), is(equalTo(0.0)));
+        assertThat(statistics.getRoundTripTimeCount(), is(equalTo(0L)));
+        assertThat(statistics.getLinkErrors(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testReadsCurrentQueue() {
+        link.queue = new OutboundQueue(createRemote(), 4);
+        link.queue.send("a", null);
+        link.queue.send("b", null);
+        assertThat(statistics.getSentMessages(), is(equalTo(2L)));
+        assertThat(statistics.getOutboundQueueCapacity(), is(equalTo(4)));
+
+        // A new connection has a new queue
+        link.queue = new OutboundQueue(createRemote(), 8);
+        assertThat(statistics.getSentMessages(), is(equalTo(0L)));
+        assertThat(statistics.getOutboundQueueCapacity(), is(equalTo(8)));
+    }
+
+    @Test
+    public void testReadsLinkMonitor() throws Exception {
+        link.monitor = new LinkMonitor("agent1@localhost");
+        // A pong answers a ping that was sent 5 ms ago
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putLong(0, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+        link.monitor.pong(payload);
+        link.monitor.bidUpdate(1);
+        link.monitor.priceUpdate(1);
+        link.monitor.error();
+
+        statistics.register();
+        ObjectName name = statistics.getObjectName();
+        assertThat(server.getAttribute(name, "RoundTripTimeCount"), is((Object) 1L));
+        assertThat((Double) server.getAttribute(name, "RoundTripTimeMax") >= 5.0, is(true));
+        assertThat(server.getAttribute(name, "BidToPriceLatencyCount"), is((Object) 1L));
+        assertThat(server.getAttribute(name, "ReceivedPongs"), is((Object) 1L));
+        assertThat(server.getAttribute(name, "LinkErrors"), is((Object) 1L));
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        link.queue = new OutboundQueue(createRemote(), 4);
+        link.queue.send("a", null);
+
+        statistics.register();
+        ObjectName name = statistics.getObjectName();
+        assertThat(name.getKeyProperty("type"), is(equalTo("Link")));
+        assertThat(server.getAttribute(name, "SentMessages"), is((Object) 1L));
+        assertThat(server.getAttribute(name, "Name"), is((Object) "agent1@localhost"));
+
+        statistics.unregister();
+        assertThat(server.isRegistered(name), is(false));
+        assertThat(statistics.getObjectName(), is(nullValue()));
+    }
+
+    @Test
+    public void testRegisterSameName() {
+        LinkStatistics other = new LinkStatistics("agent1@localhost", new TestLink());
+        statistics.register();
+        other.register();
+        assertThat(other.getObjectName(), is(nullValue()));
+
+        // Unregistering the other link leaves the registered one alone
+        other.unregister();
+        assertThat(server.isRegistered(statistics.getObjectName()), is(true));
+    }
+}
@@ -0,0 +1,227 @@
+package net.powermatcher.remote.websockets.transport.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.remote.websockets.transport.OutboundQueue;
+
+/**
+ * JUnit tests for the {@link OutboundQueue} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class OutboundQueueTest {
+
+    /**
+     * Records the asynchronous writes, which only complete when the test says so.
+     */
+    private static class RecordingRemote
+        implements RemoteEndpoint {
+
+        final List<Object> written = new ArrayList<Object>();
+        WriteCallback pending;
+        int concurrentWrites;
+
+        private void write(Object message, WriteCallback callback) {
+            if (pending != null) {
+                concurrentWrites++;
+            }
+            written.add(message);
+            pending = callback;
+        }
+
+        void complete() {
+            WriteCallback callback = pending;
+            pending = null;
+            callback.writeSuccess();
+        }
+
+        void fail() {
+            WriteCallback callback = pending;
+            pending = null;
+            callback.writeFailed(new IOException("Expected by the test"));
+        }
+
+        @Override
+        public void sendString(String text, WriteCallback callback) {
+            write(text, callback);
+        }
+
+        @Override
+        public void sendBytes(ByteBuffer data, WriteCallback callback) {
+            write(data, callback);
+        }
+
+        @Override
+        public void sendString(String text) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendBytes(ByteBuffer data) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendPartialString(String fragment, boolean isLast) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendPartialBytes(ByteBuffer fragment, boolean isLast) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> sendStringByFuture(String text) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> sendBytesByFuture(ByteBuffer data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendPing(ByteBuffer applicationData) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendPong(ByteBuffer applicationData) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Nothing is batched
+        }
+
+        @Override
+        public BatchMode getBatchMode() {
+            return BatchMode.OFF;
+        }
+
+        @Override
+        public void setBatchMode(BatchMode mode) {
+            // Nothing is batched
+        }
+    }
+
+    private RecordingRemote remote;
+    private OutboundQueue queue;
+
+    @Before
+    public void setUp() {
+        remote = new RecordingRemote();
+        queue = new OutboundQueue(remote, 3);
+    }
+
+    @Test
+    public void testOneWriteAtATime() {
+        assertThat(queue.send("a", null), is(true));
+        assertThat(queue.send("b", null), is(true));
+        ByteBuffer bytes = ByteBuffer.wrap(new byte[] { 1, 2 });
+        assertThat(queue.send(bytes, null), is(true));
+
+        assertThat(remote.written.size(), is(equalTo(1)));
+        assertThat(queue.getQueueDepth(), is(equalTo(2)));
+        remote.complete();
+        assertThat(remote.written.size(), is(equalTo(2)));
+        remote.fail();
+        remote.complete();
+
+        assertThat(remote.written, is(equalTo(listOf("a", "b", bytes))));
+        assertThat(remote.concurrentWrites, is(equalTo(0)));
+        assertThat(queue.getQueueDepth(), is(equalTo(0)));
+        assertThat(queue.getSentMessages(), is(equalTo(2L)));
+        assertThat(queue.getFailedMessages(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testKeyedReplacement() {
+        queue.send("first", null);
+        queue.send("price1", "price");
+        queue.send("control", null);
+        queue.send("price2", "price");
+
+        assertThat(queue.getQueueDepth(), is(equalTo(2)));
+        assertThat(queue.getReplacedMessages(), is(equalTo(1L)));
+        remote.complete();
+        remote.complete();
+        remote.complete();
+
+        // The newer price takes the place of the older one, ahead of the control message
+        assertThat(remote.written, is(equalTo(listOf("first", "price2", "control"))));
+    }
+
+    @Test
+    public void testMessageBeingWrittenIsNotReplaced() {
+        queue.send("price1", "price");
+        queue.send("price2", "price");
+
+        assertThat(queue.getReplacedMessages(), is(equalTo(0L)));
+        remote.complete();
+        assertThat(remote.written, is(equalTo(listOf("price1", "price2"))));
+    }
+
+    @Test
+    public void testFullQueueDrops() {
+        queue.send("writing", null);
+        queue.send("a", null);
+        queue.send("b", "price");
+        queue.send("c", null);
+
+        assertThat(queue.send("d", null), is(false));
+        assertThat(queue.send("e", "other"), is(false));
+        // Replacing a queued message still works when the queue is full
+        assertThat(queue.send("b2", "price"), is(true));
+        assertThat(queue.getDroppedMessages(), is(equalTo(2L)));
+        assertThat(queue.getMaxQueueDepth(), is(equalTo(3)));
+
+        remote.complete();
+        remote.complete();
+        remote.complete();
+        remote.complete();
+        assertThat(remote.written, is(equalTo(listOf("writing", "a", "b2", "c"))));
+    }
+
+    @Test
+    public void testClear() {
+        queue.send("writing", null);
+        queue.send("a", null);
+        queue.clear();
+
+        remote.complete();
+        assertThat(remote.written, is(equalTo(listOf("writing"))));
+        assertThat(remote.pending, is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoCapacity() {
+        new OutboundQueue(remote, 0);
+    }
+
+    private static List<Object> listOf(Object... messages) {
+        List<Object> list = new ArrayList<Object>();
+        for (Object message : messages) {
+            list.add(message);
+        }
+        return list;
+    }
+}
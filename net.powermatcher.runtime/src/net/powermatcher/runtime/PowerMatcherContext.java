@@ -1,17 +1,20 @@
 package net.powermatcher.runtime;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Delayed;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.measure.Measurable;
 import javax.measure.quantity.Duration;
@@ -19,86 +22,160 @@ import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
 
 import org.flexiblepower.context.FlexiblePowerContext;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+
+import net.powermatcher.api.monitoring.InstrumentedExecutor;
+import net.powermatcher.api.monitoring.TimingStatistics;
 
 /**
  * The runtime implementation of {@link FlexiblePowerContext}. This implementation uses a
  * {@link ScheduledThreadPoolExecutor} in order to execute tasks. You would typically use a different implementation in
  * a simulated environment.
+ *
+ * The executor is instrumented, see {@link InstrumentedExecutor}. Give every agent its own view with
+ * {@link #forAgent(String)}, so its tasks are counted for it. The tasks are measured by a {@link TaskMonitor}.
  */
 public class PowerMatcherContext
     extends ScheduledThreadPoolExecutor
-    implements FlexiblePowerContext {
+    implements FlexiblePowerContext, InstrumentedExecutor {
 
     static final Unit<Duration> MS = SI.MILLI(SI.SECOND);
 
-    private static final Logger logger = LoggerFactory.getLogger(PowerMatcherContext.class);
+    /**
+     * The id under which the tasks are counted that were not submitted through {@link #forAgent(String)}.
+     */
+    static final String NO_AGENT = "";
 
     /**
-     * This class wraps a task and catches and logs exceptions that might occur. Normally, a scheduled tasks gets
-     * cancelled when it throws an exception. Since PowerMatcher needs to be robust, we need to continue even if an
-     * exception gets thrown.
+     * A task that knows the agent that submitted it.
      */
-    static class WrappedTask<T>
-        implements RunnableScheduledFuture<T> {
-        private final RunnableScheduledFuture<T> task;
+    interface AgentTask {
+        String getAgentId();
+    }
+
+    static class AgentRunnable
+        implements Runnable, AgentTask {
+        private final String agentId;
+        private final Runnable runnable;
 
-        public WrappedTask(RunnableScheduledFuture<T> task) {
-            this.task = task;
+        AgentRunnable(String agentId, Runnable runnable) {
+            this.agentId = agentId;
+            this.runnable = runnable;
         }
 
         @Override
-        public boolean cancel(boolean mayInterruptIfRunning) {
-            return task.cancel(mayInterruptIfRunning);
+        public String getAgentId() {
+            return agentId;
         }
 
         @Override
-        public int compareTo(Delayed o) {
-            return task.compareTo(o);
+        public void run() {
+            runnable.run();
+        }
+    }
+
+    static class AgentCallable<V>
+        implements Callable<V>, AgentTask {
+        private final String agentId;
+        private final Callable<V> callable;
+
+        AgentCallable(String agentId, Callable<V> callable) {
+            this.agentId = agentId;
+            this.callable = callable;
         }
 
         @Override
-        public T get() throws InterruptedException, ExecutionException {
-            return task.get();
+        public String getAgentId() {
+            return agentId;
         }
 
         @Override
-        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-            return task.get(timeout, unit);
+        public V call() throws Exception {
+            return callable.call();
         }
+    }
+
+    /**
+     * Counts the rejected tasks, before rejecting them like the default policy does.
+     */
+    static class CountingAbortPolicy
+        extends ThreadPoolExecutor.AbortPolicy {
+        final AtomicLong rejected = new AtomicLong();
 
         @Override
-        public long getDelay(TimeUnit unit) {
-            return task.getDelay(unit);
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            rejected.incrementAndGet();
+            super.rejectedExecution(r, e);
+        }
+    }
+
+    /**
+     * The view of this context for one agent, which marks the tasks with the id of the agent.
+     */
+    private class AgentContext
+        implements FlexiblePowerContext {
+        private final String agentId;
+
+        AgentContext(String agentId) {
+            this.agentId = agentId;
         }
 
         @Override
-        public boolean isCancelled() {
-            return task.isCancelled();
+        public long currentTimeMillis() {
+            return PowerMatcherContext.this.currentTimeMillis();
         }
 
         @Override
-        public boolean isDone() {
-            return task.isDone();
+        public Date currentTime() {
+            return PowerMatcherContext.this.currentTime();
         }
 
         @Override
-        public boolean isPeriodic() {
-            return task.isPeriodic();
+        public ScheduledFuture<?> schedule(Runnable command, Measurable<Duration> delay) {
+            return PowerMatcherContext.this.schedule(new AgentRunnable(agentId, command), delay);
         }
 
         @Override
-        public void run() {
-            try {
-                task.run();
-            } catch (Exception ex) {
-                // The Exception is not thrown again to avoid this task being cancelled
-                logger.error("An scheduled execution has thrown an exception: " + ex.getMessage(), ex);
-            }
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, Measurable<Duration> delay) {
+            return PowerMatcherContext.this.schedule(new AgentCallable<V>(agentId, callable), delay);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                                                      Measurable<Duration> initialDelay,
+                                                      Measurable<Duration> period) {
+            return PowerMatcherContext.this.scheduleAtFixedRate(new AgentRunnable(agentId, command),
+                                                                initialDelay,
+                                                                period);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+                                                         Measurable<Duration> initialDelay,
+                                                         Measurable<Duration> delay) {
+            return PowerMatcherContext.this.scheduleWithFixedDelay(new AgentRunnable(agentId, command),
+                                                                   initialDelay,
+                                                                   delay);
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return PowerMatcherContext.this.submit(new AgentCallable<T>(agentId, task));
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return PowerMatcherContext.this.submit(new AgentRunnable(agentId, task));
+        }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) {
+            return PowerMatcherContext.this.submit(new AgentRunnable(agentId, task), result);
         }
     }
 
+    private final CountingAbortPolicy rejectionPolicy;
+    private final TaskMonitor taskMonitor;
+
     public PowerMatcherContext() {
         // We provide a ThreadFactor so we can name the Threads, which makes debugging easier
         super(Runtime.getRuntime().availableProcessors() + 1, new ThreadFactory() {
@@ -111,22 +188,70 @@ public class PowerMatcherContext
                 newThread.setName("PowerMatcherRuntime-" + cnt.getAndIncrement());
                 return newThread;
             }
-        });
+        }, new CountingAbortPolicy());
         setKeepAliveTime(5, TimeUnit.MINUTES);
+        rejectionPolicy = (CountingAbortPolicy) getRejectedExecutionHandler();
+        taskMonitor = new TaskMonitor("PowerMatcherRuntime-monitor");
+    }
+
+    /**
+     * @param agentId
+     *            the id of an agent
+     * @return the view of this context that the agent should use, so its tasks are counted for it.
+     */
+    public FlexiblePowerContext forAgent(String agentId) {
+        return new AgentContext(agentId);
+    }
+
+    /**
+     * Sets how late a task may start before it is counted as overdue.
+     *
+     * @param millis
+     *            the threshold in milliseconds
+     */
+    public void setOverdueThreshold(long millis) {
+        taskMonitor.setOverdueThreshold(millis);
+    }
+
+    /**
+     * Sets how long a task may run before it is reported as slow.
+     *
+     * @param millis
+     *            the threshold in milliseconds, 0 to stop reporting slow tasks
+     */
+    public void setSlowTaskThreshold(long millis) {
+        taskMonitor.setSlowTaskThreshold(millis);
+    }
+
+    /**
+     * Forgets the task count of an agent that has left. Tasks of the agent that are still scheduled are counted again
+     * when they run.
+     *
+     * @param agentId
+     *            the id of the agent
+     */
+    public void removeAgent(String agentId) {
+        taskMonitor.removeAgent(agentId);
     }
 
     @Override
     protected <V> RunnableScheduledFuture<V> decorateTask(final Callable<V> callable,
                                                           final RunnableScheduledFuture<V> task) {
-        return new WrappedTask<V>(task);
+        return taskMonitor.wrap(task, getAgentId(callable));
     };
 
     @Override
     protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable,
                                                           java.util.concurrent.RunnableScheduledFuture<V> task) {
-        return new WrappedTask<V>(task);
+        return taskMonitor.wrap(task, getAgentId(runnable));
     };
 
+    @Override
+    protected void terminated() {
+        taskMonitor.stop();
+        super.terminated();
+    }
+
     @Override
     public long currentTimeMillis() {
         return System.currentTimeMillis();
@@ -166,4 +291,73 @@ public class PowerMatcherContext
                                       delay.longValue(MS),
                                       TimeUnit.MILLISECONDS);
     }
+
+    @Override
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    @Override
+    public boolean isSaturated() {
+        if (getActiveCount() < getCorePoolSize()) {
+            return false;
+        }
+        Runnable next = getQueue().peek();
+        return next instanceof Delayed && ((Delayed) next).getDelay(TimeUnit.NANOSECONDS) <= 0;
+    }
+
+    @Override
+    public long getRunTaskCount() {
+        return taskMonitor.getRunTaskCount();
+    }
+
+    @Override
+    public long getFailedTaskCount() {
+        return taskMonitor.getFailedTaskCount();
+    }
+
+    @Override
+    public long getRejectedTaskCount() {
+        return rejectionPolicy.rejected.get();
+    }
+
+    @Override
+    public long getOverdueTaskCount() {
+        return taskMonitor.getOverdueTaskCount();
+    }
+
+    @Override
+    public long getSlowTaskCount() {
+        return taskMonitor.getSlowTaskCount();
+    }
+
+    @Override
+    public TimingStatistics getQueueDelayStatistics() {
+        return taskMonitor.getQueueDelayStatistics();
+    }
+
+    @Override
+    public TimingStatistics getRunTimeStatistics() {
+        return taskMonitor.getRunTimeStatistics();
+    }
+
+    @Override
+    public Map<String, Long> getTaskCounts() {
+        return taskMonitor.getTaskCounts();
+    }
+
+    @Override
+    public List<String> getSlowTaskReports() {
+        return taskMonitor.getSlowTaskReports();
+    }
+
+    @Override
+    public void resetStatistics() {
+        taskMonitor.resetStatistics();
+        rejectionPolicy.rejected.set(0);
+    }
+
+    private static String getAgentId(Object task) {
+        return task instanceof AgentTask ? ((AgentTask) task).getAgentId() : NO_AGENT;
+    }
 }
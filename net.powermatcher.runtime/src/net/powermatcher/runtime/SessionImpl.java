@@ -1,7 +1,5 @@
 package net.powermatcher.runtime;
 
-import java.util.UUID;
-
 import org.flexiblepower.context.FlexiblePowerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,12 +10,14 @@ import net.powermatcher.api.Session;
 import net.powermatcher.api.data.MarketBasis;
 import net.powermatcher.api.messages.BidUpdate;
 import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.api.sessions.SessionId;
+import net.powermatcher.api.sessions.SessionIdGenerator;
 
 public class SessionImpl
     implements Session {
     private static final Logger LOGGER = LoggerFactory.getLogger(SessionImpl.class);
 
-    private final String sessionId;
+    private final SessionId sessionId;
     private final AgentEndpoint agentEndpoint;
     private final MatcherEndpoint matcherEndpoint;
     private final PotentialSession potentialSession;
@@ -31,7 +31,7 @@ public class SessionImpl
                        MatcherEndpoint matcherEndpoint,
                        PotentialSession potentialSession,
                        FlexiblePowerContext context) {
-        sessionId = UUID.randomUUID().toString();
+        sessionId = SessionIdGenerator.getDefault().next();
         this.agentEndpoint = agentEndpoint;
         this.matcherEndpoint = matcherEndpoint;
         this.potentialSession = potentialSession;
@@ -61,7 +61,7 @@ public class SessionImpl
 
     @Override
     public String getSessionId() {
-        return sessionId;
+        return sessionId.toString();
     }
 
     @Override
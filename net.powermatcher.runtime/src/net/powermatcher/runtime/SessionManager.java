@@ -8,16 +8,20 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 
-import org.flexiblepower.context.FlexiblePowerContext;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import aQute.bnd.annotation.component.Activate;
 import aQute.bnd.annotation.component.Component;
+import aQute.bnd.annotation.component.Deactivate;
 import aQute.bnd.annotation.component.Reference;
 import net.powermatcher.api.Agent;
 import net.powermatcher.api.AgentEndpoint;
 import net.powermatcher.api.MatcherEndpoint;
 import net.powermatcher.api.Session;
+import net.powermatcher.api.monitoring.InstrumentedExecutor;
 
 /**
  * The {@link SessionManager} is an OSGi Component which is responsible for connecting PowerMatcher Agents. To be
@@ -34,17 +38,44 @@ public class SessionManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(SessionManager.class);
 
     // This part is for giving each agent an instance of the PowerMatcherContext without setting it twice
-    private final FlexiblePowerContext runtimeContext = new PowerMatcherContext();
+    private final PowerMatcherContext runtimeContext = new PowerMatcherContext();
     private final Set<String> agents = new ConcurrentSkipListSet<String>();
 
+    private ServiceRegistration<InstrumentedExecutor> executorRegistration;
+
     private void addAgent(Agent agent) {
         if (agents.add(agent.getAgentId())) {
-            agent.setContext(runtimeContext);
+            agent.setContext(runtimeContext.forAgent(agent.getAgentId()));
+        }
+    }
+
+    /**
+     * Publishes the statistics of the executor that runs the tasks of the agents as an {@link InstrumentedExecutor}.
+     *
+     * @param bundleContext
+     *            the {@link BundleContext} of this bundle
+     */
+    @Activate
+    public void activate(BundleContext bundleContext) {
+        executorRegistration = bundleContext.registerService(InstrumentedExecutor.class, runtimeContext, null);
+    }
+
+    /**
+     * Withdraws the {@link InstrumentedExecutor} service and stops the executor that runs the tasks of the agents.
+     */
+    @Deactivate
+    public void deactivate() {
+        if (executorRegistration != null) {
+            executorRegistration.unregister();
+            executorRegistration = null;
         }
+        runtimeContext.shutdownNow();
     }
 
     private void removeAgent(Agent agent) {
-        agents.remove(agent.getAgentId());
+        if (agents.remove(agent.getAgentId())) {
+            runtimeContext.removeAgent(agent.getAgentId());
+        }
     }
 
     /**
@@ -139,7 +170,7 @@ public class SessionManager {
                 }
             }
 
-            PotentialSession ps = new PotentialSession(agentEndpoint, runtimeContext);
+            PotentialSession ps = new PotentialSession(agentEndpoint, runtimeContext.forAgent(agentId));
             ps.setMatcherEndpoint(matcherEndpoints.get(matcherId));
             potentialSessions.get(matcherId).add(ps);
             LOGGER.debug("AgentEndpoint with id [{}] added", agentId);
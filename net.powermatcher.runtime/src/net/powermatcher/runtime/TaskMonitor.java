@@ -0,0 +1,337 @@
+package net.powermatcher.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.powermatcher.api.monitoring.Histogram;
+import net.powermatcher.api.monitoring.TimingStatistics;
+
+/**
+ * Measures the tasks of a {@link PowerMatcherContext}: how late they start, how long they run, how many fail and how
+ * many each agent runs. A monitor thread takes a sample of the stack of every task that runs longer than the slow task
+ * threshold. The monitor has its own thread, so it still works when all threads of the pool are busy.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+final class TaskMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskMonitor.class);
+
+    private static final long DEFAULT_OVERDUE_THRESHOLD = 100;
+
+    private static final long DEFAULT_SLOW_TASK_THRESHOLD = 1000;
+
+    private static final long MONITOR_PERIOD = 100;
+
+    private static final int MAX_SLOW_TASK_REPORTS = 16;
+
+    private static final int MAX_STACK_DEPTH = 20;
+
+    /**
+     * This class wraps a task and catches and logs exceptions that might occur. Normally, a scheduled tasks gets
+     * cancelled when it throws an exception. Since PowerMatcher needs to be robust, we need to continue even if an
+     * exception gets thrown.
+     *
+     * It also measures how late the task started and how long it ran.
+     */
+    class WrappedTask<T>
+        implements RunnableScheduledFuture<T> {
+        private final RunnableScheduledFuture<T> task;
+        private final String agentId;
+
+        // The thread that runs the task and System.nanoTime() at which it started, read by the monitor thread
+        private volatile Thread runner;
+        private volatile long startedAt;
+        private volatile boolean reported;
+
+        public WrappedTask(RunnableScheduledFuture<T> task, String agentId) {
+            this.task = task;
+            this.agentId = agentId;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return task.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return task.compareTo(o);
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return task.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(timeout, unit);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return task.getDelay(unit);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return task.isPeriodic();
+        }
+
+        @Override
+        public void run() {
+            // The delay is negative once the task is due, so this is how long it waited in the queue
+            long queueDelay = -task.getDelay(TimeUnit.NANOSECONDS);
+            long start = System.nanoTime();
+            runner = Thread.currentThread();
+            startedAt = start;
+            reported = false;
+            running.add(this);
+            try {
+                task.run();
+            } catch (Exception ex) {
+                // The Exception is not thrown again to avoid this task being cancelled
+                logger.error("An scheduled execution has thrown an exception: " + ex.getMessage(), ex);
+            } finally {
+                running.remove(this);
+                startedAt = 0;
+                runner = null;
+                taskRun(this, queueDelay, System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * @return <code>true</code> when the task has ended with an exception.
+         */
+        boolean hasFailed() {
+            if (!task.isDone() || task.isCancelled()) {
+                return false;
+            }
+            try {
+                task.get();
+                return false;
+            } catch (ExecutionException ex) {
+                return true;
+            } catch (CancellationException ex) {
+                return false;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private final Set<WrappedTask<?>> running = Collections.newSetFromMap(new ConcurrentHashMap<WrappedTask<?>,
+                                                                                                  Boolean>());
+    private final ConcurrentMap<String, AtomicLong> taskCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentLinkedQueue<String> slowTaskReports = new ConcurrentLinkedQueue<String>();
+    private final AtomicLong runTasks = new AtomicLong();
+    private final AtomicLong failedTasks = new AtomicLong();
+    private final AtomicLong overdueTasks = new AtomicLong();
+    private final AtomicLong slowTasks = new AtomicLong();
+    private final Timer monitor;
+
+    private volatile Histogram queueDelays = new Histogram();
+    private volatile Histogram runTimes = new Histogram();
+    private volatile long overdueThreshold = TimeUnit.MILLISECONDS.toNanos(DEFAULT_OVERDUE_THRESHOLD);
+    private volatile long slowTaskThreshold = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_TASK_THRESHOLD);
+
+    /**
+     * Creates a {@link TaskMonitor} and starts its monitor thread.
+     *
+     * @param threadName
+     *            the name of the monitor thread
+     */
+    TaskMonitor(String threadName) {
+        monitor = new Timer(threadName, true);
+        monitor.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                reportSlowTasks();
+            }
+        }, MONITOR_PERIOD, MONITOR_PERIOD);
+    }
+
+    /**
+     * @param task
+     *            the task of the executor
+     * @param agentId
+     *            the id of the agent that submitted the task
+     * @return the task that should be run instead, so it is measured.
+     */
+    <T> RunnableScheduledFuture<T> wrap(RunnableScheduledFuture<T> task, String agentId) {
+        return new WrappedTask<T>(task, agentId);
+    }
+
+    /**
+     * Stops the monitor thread.
+     */
+    void stop() {
+        monitor.cancel();
+    }
+
+    void setOverdueThreshold(long millis) {
+        overdueThreshold = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    void setSlowTaskThreshold(long millis) {
+        slowTaskThreshold = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    long getRunTaskCount() {
+        return runTasks.get();
+    }
+
+    long getFailedTaskCount() {
+        return failedTasks.get();
+    }
+
+    long getOverdueTaskCount() {
+        return overdueTasks.get();
+    }
+
+    long getSlowTaskCount() {
+        return slowTasks.get();
+    }
+
+    TimingStatistics getQueueDelayStatistics() {
+        return queueDelays.toTimingStatistics();
+    }
+
+    TimingStatistics getRunTimeStatistics() {
+        return runTimes.toTimingStatistics();
+    }
+
+    Map<String, Long> getTaskCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : taskCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    List<String> getSlowTaskReports() {
+        return new ArrayList<String>(slowTaskReports);
+    }
+
+    /**
+     * Forgets the task count of an agent.
+     *
+     * @param agentId
+     *            the id of the agent
+     */
+    void removeAgent(String agentId) {
+        taskCounts.remove(agentId);
+    }
+
+    void resetStatistics() {
+        queueDelays = new Histogram();
+        runTimes = new Histogram();
+        runTasks.set(0);
+        failedTasks.set(0);
+        overdueTasks.set(0);
+        slowTasks.set(0);
+        taskCounts.clear();
+        slowTaskReports.clear();
+    }
+
+    /**
+     * Records a run of a task.
+     */
+    void taskRun(WrappedTask<?> task, long queueDelay, long runTime) {
+        queueDelays.record(Math.max(0, queueDelay));
+        runTimes.record(runTime);
+        if (queueDelay > overdueThreshold) {
+            overdueTasks.incrementAndGet();
+        }
+        if (task.hasFailed()) {
+            failedTasks.incrementAndGet();
+        }
+
+        AtomicLong count = taskCounts.get(task.agentId);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = taskCounts.putIfAbsent(task.agentId, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        // Counted last, so the other statistics of a run can be read as soon as it is counted
+        runTasks.incrementAndGet();
+    }
+
+    /**
+     * Takes a sample of the stack of every task that has been running longer than the slow task threshold, once per
+     * run. Called by the monitor thread.
+     */
+    void reportSlowTasks() {
+        long threshold = slowTaskThreshold;
+        if (threshold <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (WrappedTask<?> task : running) {
+            long startedAt = task.startedAt;
+            Thread runner = task.runner;
+            if (task.reported || startedAt == 0 || runner == null || now - startedAt < threshold) {
+                continue;
+            }
+            StackTraceElement[] stack = runner.getStackTrace();
+            if (task.startedAt != startedAt) {
+                // The task ended while the sample was taken, so the sample is of another task
+                continue;
+            }
+            task.reported = true;
+
+            StringBuilder report = new StringBuilder();
+            report.append("Task of agent [")
+                  .append(task.agentId)
+                  .append("] has been running for ")
+                  .append(TimeUnit.NANOSECONDS.toMillis(now - startedAt))
+                  .append(" ms on ")
+                  .append(runner.getName());
+            for (int i = 0; i < stack.length && i < MAX_STACK_DEPTH; i++) {
+                report.append("\n\tat ").append(stack[i]);
+            }
+            slowTaskReports.add(report.toString());
+            while (slowTaskReports.size() > MAX_SLOW_TASK_REPORTS) {
+                slowTaskReports.poll();
+            }
+            // Counted after the report is added, so a report can be read as soon as it is counted
+            slowTasks.incrementAndGet();
+            logger.warn(report.toString());
+        }
+    }
+}
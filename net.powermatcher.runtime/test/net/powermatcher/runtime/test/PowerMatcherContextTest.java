@@ -0,0 +1,171 @@
+package net.powermatcher.runtime.test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.measure.Measure;
+import javax.measure.unit.SI;
+
+import org.flexiblepower.context.FlexiblePowerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.monitoring.TimingStatistics;
+import net.powermatcher.runtime.PowerMatcherContext;
+
+/**
+ * JUnit tests for the {@link PowerMatcherContext} class.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class PowerMatcherContextTest {
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+            // Nothing to do
+        }
+    };
+
+    private PowerMatcherContext context;
+
+    @Before
+    public void setUp() {
+        context = new PowerMatcherContext();
+    }
+
+    @After
+    public void tearDown() {
+        context.shutdownNow();
+    }
+
+    @Test
+    public void testTaskCountsPerAgent() throws Exception {
+        FlexiblePowerContext agent1 = context.forAgent("agent1");
+        FlexiblePowerContext agent2 = context.forAgent("agent2");
+
+        agent1.submit(NOOP).get();
+        agent1.submit(NOOP).get();
+        agent2.schedule(NOOP, Measure.valueOf(1, SI.MILLI(SI.SECOND))).get();
+        context.submit(NOOP).get();
+
+        Map<String, Long> counts = waitForRuns(4).getTaskCounts();
+        assertThat(counts.get("agent1"), is(2L));
+        assertThat(counts.get("agent2"), is(1L));
+        assertThat(counts.get(""), is(1L));
+        assertThat(context.getRunTaskCount(), is(4L));
+    }
+
+    @Test
+    public void testRemoveAgent() throws Exception {
+        context.forAgent("agent1").submit(NOOP).get();
+        context.forAgent("agent2").submit(NOOP).get();
+        waitForRuns(2);
+
+        context.removeAgent("agent1");
+        Map<String, Long> counts = context.getTaskCounts();
+        assertThat(counts.containsKey("agent1"), is(false));
+        assertThat(counts.get("agent2"), is(1L));
+        assertThat(context.getRunTaskCount(), is(2L));
+    }
+
+    @Test
+    public void testFailedTasks() throws Exception {
+        Future<?> future = context.forAgent("agent1").submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Expected by the test");
+            }
+        });
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            // Expected
+        }
+        context.submit(NOOP).get();
+
+        waitForRuns(2);
+        assertThat(context.getFailedTaskCount(), is(1L));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            context.submit(NOOP).get();
+        }
+
+        waitForRuns(10);
+        TimingStatistics runTimes = context.getRunTimeStatistics();
+        assertThat(runTimes.getCount(), is(10L));
+        assertTrue(runTimes.getMaxNanos() >= runTimes.getMinNanos());
+        assertThat(context.getQueueDelayStatistics().getCount(), is(10L));
+        assertThat(context.isSaturated(), is(false));
+
+        context.resetStatistics();
+        assertThat(context.getRunTaskCount(), is(0L));
+        assertThat(context.getRunTimeStatistics().getCount(), is(0L));
+        assertTrue(context.getTaskCounts().isEmpty());
+    }
+
+    @Test
+    public void testSlowTask() throws Exception {
+        context.setSlowTaskThreshold(50);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<?> future = context.forAgent("slowAgent").submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (context.getSlowTaskCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        future.get();
+
+        assertThat(context.getSlowTaskCount(), is(1L));
+        List<String> reports = context.getSlowTaskReports();
+        assertThat(reports.size(), is(1));
+        assertTrue(reports.get(0).contains("slowAgent"));
+        assertTrue(reports.get(0).contains("CountDownLatch.await"));
+    }
+
+    @Test
+    public void testRejectedTasks() {
+        context.shutdown();
+        try {
+            context.submit(NOOP);
+        } catch (RejectedExecutionException ex) {
+            // Expected
+        }
+        assertThat(context.getRejectedTaskCount(), is(1L));
+    }
+
+    /**
+     * The statistics are recorded just after a task has ended, so they can lag behind the result of the task.
+     */
+    private PowerMatcherContext waitForRuns(long runs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (context.getRunTaskCount() < runs && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return context;
+    }
+}
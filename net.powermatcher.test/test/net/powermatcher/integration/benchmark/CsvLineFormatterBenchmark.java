@@ -0,0 +1,250 @@
+package net.powermatcher.integration.benchmark;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.monitoring.csv.CsvLineFormatter;
+
+/**
+ * Compares the {@link CsvLineFormatter} of the csv logger with the way the lines were formatted before: a
+ * <code>String[]</code> per line, numbers formatted with the {@link DecimalFormat}s of {@link MarketBasis}, a boxed
+ * <code>Double</code> per demand value and a new formatted timestamp per field. Bid lines are formatted for bids with
+ * 100 and 1000 price steps, and price lines for a series of prices. Before timing, the output of both paths is checked
+ * to be identical.
+ *
+ * This is not a unit test, run the main method on a quiet machine.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class CsvLineFormatterBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 50000;
+    private static final String SEPARATOR = ";";
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    public static void main(String[] args) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (int priceSteps : new int[] { 100, 1000 }) {
+            MarketBasis marketBasis = new MarketBasis("electricity", "EUR", priceSteps, 0, 1);
+            double[] demand = new double[priceSteps];
+            Random random = new Random(priceSteps);
+            for (int i = 0; i < priceSteps; i++) {
+                demand[i] = 1000.0 - i * (2000.0 / priceSteps) + random.nextDouble();
+            }
+            Line legacy = new LegacyBidLine(marketBasis, demand, dateFormat);
+            Line formatted = new FormattedBidLine(marketBasis, demand, dateFormat);
+            check(legacy, formatted);
+
+            System.out.println(priceSteps + " price steps, " + format(formatted, 0).length() + " characters per line");
+            time("legacy bid line", legacy);
+            time("formatted bid line", formatted);
+        }
+
+        MarketBasis marketBasis = new MarketBasis("electricity", "EUR", 100, 0, 1);
+        Line legacy = new LegacyPriceLine(marketBasis, dateFormat);
+        Line formatted = new FormattedPriceLine(marketBasis, dateFormat);
+        check(legacy, formatted);
+        System.out.println("price lines, " + format(formatted, 0).length() + " characters per line");
+        time("legacy price line", legacy);
+        time("formatted price line", formatted);
+    }
+
+    private static void check(Line legacy, Line formatted) throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            String expected = format(legacy, i);
+            String actual = format(formatted, i);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Formatted lines differ:\n" + expected + "\n" + actual);
+            }
+        }
+    }
+
+    private static String format(Line line, int iteration) throws IOException {
+        CharArrayWriter writer = new CharArrayWriter();
+        line.write(writer, iteration);
+        return writer.toString();
+    }
+
+    private static void time(String name, Line line) throws IOException {
+        CharArrayWriter writer = new CharArrayWriter();
+        long check = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            writer.reset();
+            line.write(writer, i);
+            check += writer.size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            writer.reset();
+            line.write(writer, i);
+            check += writer.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        // check is printed so the work can not be eliminated
+        System.out.printf("  %-24s %8.2f us/op (%d)%n", name, elapsed / 1000.0 / ITERATIONS, check);
+    }
+
+    /**
+     * The time of a line, which moves on a quarter of a second per line, like a logger that writes a few lines per
+     * second.
+     */
+    private static long time(int iteration) {
+        return 1400000000000L + iteration * 250L;
+    }
+
+    /**
+     * A price that changes with every line.
+     */
+    private static double price(int iteration) {
+        return (iteration % 1000) / 999.0;
+    }
+
+    /**
+     * Writes one csv line to a writer.
+     */
+    private interface Line {
+        void write(Writer writer, int iteration) throws IOException;
+    }
+
+    private static void writeLegacyLine(Writer writer, String[] line) throws IOException {
+        for (String s : line) {
+            writer.write(s);
+            writer.write(SEPARATOR);
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private static class LegacyBidLine
+        implements Line {
+        private final MarketBasis marketBasis;
+        private final double[] demand;
+        private final DateFormat dateFormat;
+
+        LegacyBidLine(MarketBasis marketBasis, double[] demand, DateFormat dateFormat) {
+            this.marketBasis = marketBasis;
+            this.demand = demand;
+            this.dateFormat = (DateFormat) dateFormat.clone();
+        }
+
+        @Override
+        public void write(Writer writer, int iteration) throws IOException {
+            StringBuilder demandBuilder = new StringBuilder();
+            for (Double d : demand) {
+                if (demandBuilder.length() > 0) {
+                    demandBuilder.append("#");
+                }
+                demandBuilder.append(d);
+            }
+            writeLegacyLine(writer,
+                            new String[] { dateFormat.format(new Date(time(iteration))),
+                                           "cluster",
+                                           "agent",
+                                           marketBasis.getCommodity(),
+                                           marketBasis.getCurrency(),
+                                           MarketBasis.PRICE_FORMAT.format(marketBasis.getMinimumPrice()),
+                                           MarketBasis.PRICE_FORMAT.format(marketBasis.getMaximumPrice()),
+                                           MarketBasis.DEMAND_FORMAT.format(demand[demand.length - 1]),
+                                           MarketBasis.DEMAND_FORMAT.format(demand[0]),
+                                           MarketBasis.DEMAND_FORMAT.format(0),
+                                           MarketBasis.PRICE_FORMAT.format(0),
+                                           dateFormat.format(new Date(time(iteration))),
+                                           String.valueOf(iteration),
+                                           demandBuilder.toString(),
+                                           "" });
+        }
+    }
+
+    private static class FormattedBidLine
+        implements Line {
+        private final MarketBasis marketBasis;
+        private final double[] demand;
+        private final CsvLineFormatter formatter;
+
+        FormattedBidLine(MarketBasis marketBasis, double[] demand, DateFormat dateFormat) {
+            this.marketBasis = marketBasis;
+            this.demand = demand;
+            formatter = new CsvLineFormatter(SEPARATOR, dateFormat);
+        }
+
+        @Override
+        public void write(Writer writer, int iteration) throws IOException {
+            formatter.reset()
+                     .timeField(time(iteration))
+                     .field("cluster")
+                     .field("agent")
+                     .field(marketBasis.getCommodity())
+                     .field(marketBasis.getCurrency())
+                     .priceField(marketBasis.getMinimumPrice())
+                     .priceField(marketBasis.getMaximumPrice())
+                     .demandField(demand[demand.length - 1])
+                     .demandField(demand[0])
+                     .demandField(0)
+                     .priceField(0)
+                     .timeField(time(iteration))
+                     .field(iteration)
+                     .arrayField(demand, '#')
+                     .field("")
+                     .writeTo(writer);
+        }
+    }
+
+    private static class LegacyPriceLine
+        implements Line {
+        private final MarketBasis marketBasis;
+        private final DateFormat dateFormat;
+
+        LegacyPriceLine(MarketBasis marketBasis, DateFormat dateFormat) {
+            this.marketBasis = marketBasis;
+            this.dateFormat = (DateFormat) dateFormat.clone();
+        }
+
+        @Override
+        public void write(Writer writer, int iteration) throws IOException {
+            writeLegacyLine(writer,
+                            new String[] { dateFormat.format(new Date(time(iteration))),
+                                           "cluster",
+                                           "agent",
+                                           marketBasis.getCommodity(),
+                                           marketBasis.getCurrency(),
+                                           MarketBasis.PRICE_FORMAT.format(marketBasis.getMinimumPrice()),
+                                           MarketBasis.PRICE_FORMAT.format(marketBasis.getMaximumPrice()),
+                                           MarketBasis.PRICE_FORMAT.format(price(iteration)),
+                                           dateFormat.format(new Date(time(iteration))) });
+        }
+    }
+
+    private static class FormattedPriceLine
+        implements Line {
+        private final MarketBasis marketBasis;
+        private final CsvLineFormatter formatter;
+
+        FormattedPriceLine(MarketBasis marketBasis, DateFormat dateFormat) {
+            this.marketBasis = marketBasis;
+            formatter = new CsvLineFormatter(SEPARATOR, dateFormat);
+        }
+
+        @Override
+        public void write(Writer writer, int iteration) throws IOException {
+            formatter.reset()
+                     .timeField(time(iteration))
+                     .field("cluster")
+                     .field("agent")
+                     .field(marketBasis.getCommodity())
+                     .field(marketBasis.getCurrency())
+                     .priceField(marketBasis.getMinimumPrice())
+                     .priceField(marketBasis.getMaximumPrice())
+                     .priceField(price(iteration))
+                     .timeField(time(iteration))
+                     .writeTo(writer);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package net.powermatcher.integration.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.powermatcher.api.data.ArrayBidBuilder;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.remote.websockets.binary.PmBinaryCodec;
+import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+
+/**
+ * Measures what permessage-deflate compression does for the bids sent over the websocket transport. For markets with
+ * 100, 1000 and 10000 price steps, a series of slowly changing bids is encoded as JSON and with the binary codec, and
+ * then compressed the way permessage-deflate does it: a raw deflate stream, flushed after every message. This is done
+ * at several compression levels, with and without context takeover (keeping the deflate window between messages).
+ *
+ * The output lists the bytes per bid on the wire and the time to compress and to decompress a bid. This is not a unit
+ * test, run the main method on a quiet machine.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class PmCompressionBenchmark {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The size of the deflate window in bytes.
+     */
+    private static final int WINDOW_SIZE = 32 * 1024;
+
+    /**
+     * The number of deflate windows filled by the different bids that are sent after each other, in both formats. Bids
+     * repeat only after several windows, so the compression does not look better than it is.
+     */
+    private static final int WINDOWS = 4;
+
+    /**
+     * The minimum number of different bids, for the large messages that fill a window on their own.
+     */
+    private static final int MIN_BIDS = 256;
+
+    /**
+     * The number of price steps times the number of bids compressed per measurement.
+     */
+    private static final int WORK = 20000000;
+
+    private static final int[] LEVELS = { Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION };
+
+    public static void main(String[] args) throws DataFormatException {
+        for (int priceSteps : new int[] { 100, 1000, 10000 }) {
+            run(priceSteps);
+        }
+    }
+
+    private static void run(int priceSteps) throws DataFormatException {
+        MarketBasis marketBasis = new MarketBasis("electricity", "EUR", priceSteps, 0, 1);
+        PmBinaryCodec codec = new PmBinaryCodec();
+        codec.encodeClusterInfo("cluster", marketBasis);
+
+        // The binary messages are the smallest, so they determine the number of bids
+        List<byte[]> jsonBids = new ArrayList<byte[]>();
+        List<byte[]> binaryBids = new ArrayList<byte[]>();
+        long binaryBytes = 0;
+        for (int i = 0; i < MIN_BIDS || binaryBytes < (long) WINDOWS * WINDOW_SIZE; i++) {
+            BidUpdate bidUpdate = new BidUpdate(new ArrayBidBuilder(marketBasis).demandArray(demand(priceSteps, i))
+                                                                                .build(),
+                                                i);
+            jsonBids.add(PmJsonSerializer.getDefault().serializeBidUpdate(bidUpdate).getBytes(UTF8));
+            ByteBuffer buffer = codec.encodeBidUpdate(bidUpdate);
+            byte[] message = new byte[buffer.remaining()];
+            buffer.get(message);
+            binaryBids.add(message);
+            binaryBytes += message.length;
+        }
+        byte[][] json = jsonBids.toArray(new byte[jsonBids.size()][]);
+        byte[][] binary = binaryBids.toArray(new byte[binaryBids.size()][]);
+
+        System.out.println(priceSteps + " price steps, " + binary.length + " different bids");
+        int iterations = Math.max(WORK / priceSteps, 4 * binary.length);
+        for (boolean contextTakeover : new boolean[] { true, false }) {
+            for (int level : LEVELS) {
+                measure("json", json, level, contextTakeover, iterations);
+                measure("binary", binary, level, contextTakeover, iterations);
+            }
+        }
+        System.out.printf("  %-6s uncompressed %8d bytes/bid%n", "json", average(json));
+        System.out.printf("  %-6s uncompressed %8d bytes/bid%n", "binary", average(binary));
+    }
+
+    /**
+     * A falling demand curve of a flexible device, which shifts a little with every bid.
+     */
+    private static double[] demand(int priceSteps, int bid) {
+        double[] demand = new double[priceSteps];
+        double maxDemand = 2000 + bid * 0.5;
+        int switchPoint = priceSteps / 3 + (bid * 7) % (priceSteps / 3 + 1);
+        int rampLength = Math.max(1, priceSteps / 10);
+        for (int i = 0; i < priceSteps; i++) {
+            if (i < switchPoint) {
+                demand[i] = maxDemand;
+            } else if (i < switchPoint + rampLength) {
+                demand[i] = maxDemand - (i - switchPoint) * (maxDemand + 500) / rampLength;
+            } else {
+                demand[i] = -500;
+            }
+        }
+        return demand;
+    }
+
+    private static long average(byte[][] messages) {
+        long total = 0;
+        for (byte[] message : messages) {
+            total += message.length;
+        }
+        return total / messages.length;
+    }
+
+    private static void measure(String format,
+                                byte[][] messages,
+                                int level,
+                                boolean contextTakeover,
+                                int iterations) throws DataFormatException {
+        Deflater deflater = new Deflater(level, true);
+        Inflater inflater = new Inflater(true);
+        byte[] compressed = new byte[2 * messages[0].length + 64];
+        byte[] inflated = new byte[2 * messages[0].length + 64];
+
+        // Warm up and check that the messages survive the round trip
+        long compressedBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            byte[] message = messages[i % messages.length];
+            int length = deflate(deflater, message, compressed, contextTakeover);
+            int inflatedLength = inflate(inflater, compressed, length, inflated, contextTakeover);
+            if (inflatedLength != message.length) {
+                throw new IllegalStateException("Round trip failed");
+            }
+            compressedBytes += length;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            deflate(deflater, messages[i % messages.length], compressed, contextTakeover);
+        }
+        long deflateTime = System.nanoTime() - start;
+
+        // Decompress a separate stream, the inflater has to follow the deflater from its start
+        deflater.reset();
+        inflater.reset();
+        byte[][] stream = new byte[messages.length][];
+        for (int i = 0; i < messages.length; i++) {
+            int length = deflate(deflater, messages[i], compressed, contextTakeover);
+            stream[i] = new byte[length];
+            System.arraycopy(compressed, 0, stream[i], 0, length);
+        }
+        int rounds = Math.max(1, iterations / messages.length);
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            inflater.reset();
+            for (byte[] message : stream) {
+                inflate(inflater, message, message.length, inflated, contextTakeover);
+            }
+        }
+        long inflateTime = System.nanoTime() - start;
+
+        System.out.printf("  %-6s level %2d %-18s %8d bytes/bid %8.2f us deflate %8.2f us inflate%n",
+                          format,
+                          level,
+                          contextTakeover ? "context takeover" : "no context takeover",
+                          compressedBytes / iterations,
+                          deflateTime / 1000.0 / iterations,
+                          inflateTime / 1000.0 / (rounds * messages.length));
+        deflater.end();
+        inflater.end();
+    }
+
+    /**
+     * Compresses a message like permessage-deflate: the output is flushed and the trailing empty block is removed.
+     */
+    private static int deflate(Deflater deflater, byte[] message, byte[] output, boolean contextTakeover) {
+        if (!contextTakeover) {
+            deflater.reset();
+        }
+        deflater.setInput(message);
+        int length = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+        if (!deflater.needsInput()) {
+            throw new IllegalStateException("Output buffer too small");
+        }
+        return length - 4;
+    }
+
+    private static int inflate(Inflater inflater,
+                               byte[] compressed,
+                               int length,
+                               byte[] output,
+                               boolean contextTakeover) throws DataFormatException {
+        if (!contextTakeover) {
+            inflater.reset();
+        }
+        byte[] input = new byte[length + 4];
+        System.arraycopy(compressed, 0, input, 0, length);
+        input[length + 2] = (byte) 0xff;
+        input[length + 3] = (byte) 0xff;
+        inflater.setInput(input);
+        return inflater.inflate(output);
+    }
+}
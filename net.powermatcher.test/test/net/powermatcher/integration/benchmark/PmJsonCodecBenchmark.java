@@ -0,0 +1,206 @@
+package net.powermatcher.integration.benchmark;
+
+import net.powermatcher.api.data.ArrayBidBuilder;
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.api.data.Price;
+import net.powermatcher.api.messages.BidUpdate;
+import net.powermatcher.api.messages.PriceUpdate;
+import net.powermatcher.remote.websockets.data.BidModel;
+import net.powermatcher.remote.websockets.data.PmMessage;
+import net.powermatcher.remote.websockets.data.PriceUpdateModel;
+import net.powermatcher.remote.websockets.json.ModelMapper;
+import net.powermatcher.remote.websockets.json.PmJsonDeserializer;
+import net.powermatcher.remote.websockets.json.PmJsonSerializer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Compares the streaming {@link PmJsonSerializer} with serializing the websocket models with a new {@link Gson}
+ * instance for every message, as was done before. A bid and a price update are serialized and deserialized for markets
+ * with 100 and 1000 price steps. Before timing, the output of both paths is checked to be identical.
+ *
+ * This is not a unit test, run the main method on a quiet machine.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class PmJsonCodecBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 50000;
+
+    public static void main(String[] args) {
+        for (int priceSteps : new int[] { 100, 1000 }) {
+            run(priceSteps);
+        }
+    }
+
+    private static void run(int priceSteps) {
+        MarketBasis marketBasis = new MarketBasis("electricity", "EUR", priceSteps, 0, 1);
+        double[] demand = new double[priceSteps];
+        for (int i = 0; i < priceSteps; i++) {
+            demand[i] = 1000.0 - i * (2000.0 / priceSteps);
+        }
+        Bid bid = new ArrayBidBuilder(marketBasis).demandArray(demand).build();
+        BidUpdate bidUpdate = new BidUpdate(bid, 42);
+        PriceUpdate priceUpdate = new PriceUpdate(new Price(marketBasis, 0.5), 42);
+
+        PmJsonSerializer serializer = PmJsonSerializer.getDefault();
+        String legacyBid = legacySerialize(bidUpdate);
+        String bidJson = serializer.serializeBidUpdate(bidUpdate);
+        if (!legacyBid.equals(bidJson)) {
+            throw new IllegalStateException("Serialized bids differ:\n" + legacyBid + "\n" + bidJson);
+        }
+        if (!legacySerialize(priceUpdate).equals(serializer.serializePriceUpdate(priceUpdate))) {
+            throw new IllegalStateException("Serialized price updates differ");
+        }
+        BidUpdate legacyDecoded = ModelMapper.mapBidUpdate((BidModel) legacyDeserialize(bidJson).getPayload());
+        BidUpdate decoded = ModelMapper.mapBidUpdate((BidModel) serializer.deserialize(bidJson).getPayload());
+        if (!legacyDecoded.getBid().equals(decoded.getBid())
+            || legacyDecoded.getBidNumber() != decoded.getBidNumber()) {
+            throw new IllegalStateException("Deserialized bids differ");
+        }
+
+        System.out.println(priceSteps + " price steps, " + bidJson.length() + " characters per bid");
+        time("legacy bid serialize", new LegacyBidSerialize(bidUpdate));
+        time("streaming bid serialize", new BidSerialize(bidUpdate));
+        time("legacy bid deserialize", new LegacyDeserialize(bidJson));
+        time("streaming bid deserialize", new Deserialize(bidJson));
+        String priceJson = serializer.serializePriceUpdate(priceUpdate);
+        time("legacy price serialize", new LegacyPriceSerialize(priceUpdate));
+        time("streaming price serialize", new PriceSerialize(priceUpdate));
+        time("legacy price deserialize", new LegacyDeserialize(priceJson));
+        time("streaming price deserialize", new Deserialize(priceJson));
+    }
+
+    private static void time(String name, Task task) {
+        long check = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            check += task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            check += task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        // check is printed so the work can not be eliminated
+        System.out.printf("  %-28s %8.2f us/op (%d)%n", name, elapsed / 1000.0 / ITERATIONS, check);
+    }
+
+    private static String legacySerialize(BidUpdate bidUpdate) {
+        BidModel bidModel = new BidModel();
+        bidModel.setBidNumber(bidUpdate.getBidNumber());
+        bidModel.setMarketBasis(ModelMapper.convertMarketBasis(bidUpdate.getBid().getMarketBasis()));
+        bidModel.setDemand(bidUpdate.getBid().getDemand());
+        PmMessage message = new PmMessage();
+        message.setPayloadType(PmMessage.PayloadType.BID);
+        message.setPayload(bidModel);
+        return new Gson().toJson(message, PmMessage.class);
+    }
+
+    private static String legacySerialize(PriceUpdate priceUpdate) {
+        PriceUpdateModel priceModel = new PriceUpdateModel();
+        priceModel.setBidNumber(priceUpdate.getBidNumber());
+        priceModel.setPriceValue(priceUpdate.getPrice().getPriceValue());
+        priceModel.setMarketBasis(ModelMapper.convertMarketBasis(priceUpdate.getPrice().getMarketBasis()));
+        PmMessage message = new PmMessage();
+        message.setPayloadType(PmMessage.PayloadType.PRICE_UPDATE);
+        message.setPayload(priceModel);
+        return new Gson().toJson(message, PmMessage.class);
+    }
+
+    private static PmMessage legacyDeserialize(String json) {
+        Gson gson = new GsonBuilder().registerTypeAdapter(PmMessage.class, new PmJsonDeserializer()).create();
+        return gson.fromJson(json, PmMessage.class);
+    }
+
+    private interface Task {
+        int run();
+    }
+
+    private static class LegacyBidSerialize
+        implements Task {
+        private final BidUpdate bidUpdate;
+
+        LegacyBidSerialize(BidUpdate bidUpdate) {
+            this.bidUpdate = bidUpdate;
+        }
+
+        @Override
+        public int run() {
+            return legacySerialize(bidUpdate).length();
+        }
+    }
+
+    private static class BidSerialize
+        implements Task {
+        private final BidUpdate bidUpdate;
+
+        BidSerialize(BidUpdate bidUpdate) {
+            this.bidUpdate = bidUpdate;
+        }
+
+        @Override
+        public int run() {
+            return PmJsonSerializer.getDefault().serializeBidUpdate(bidUpdate).length();
+        }
+    }
+
+    private static class LegacyPriceSerialize
+        implements Task {
+        private final PriceUpdate priceUpdate;
+
+        LegacyPriceSerialize(PriceUpdate priceUpdate) {
+            this.priceUpdate = priceUpdate;
+        }
+
+        @Override
+        public int run() {
+            return legacySerialize(priceUpdate).length();
+        }
+    }
+
+    private static class PriceSerialize
+        implements Task {
+        private final PriceUpdate priceUpdate;
+
+        PriceSerialize(PriceUpdate priceUpdate) {
+            this.priceUpdate = priceUpdate;
+        }
+
+        @Override
+        public int run() {
+            return PmJsonSerializer.getDefault().serializePriceUpdate(priceUpdate).length();
+        }
+    }
+
+    private static class LegacyDeserialize
+        implements Task {
+        private final String json;
+
+        LegacyDeserialize(String json) {
+            this.json = json;
+        }
+
+        @Override
+        public int run() {
+            return legacyDeserialize(json).getPayloadType().ordinal();
+        }
+    }
+
+    private static class Deserialize
+        implements Task {
+        private final String json;
+
+        Deserialize(String json) {
+            this.json = json;
+        }
+
+        @Override
+        public int run() {
+            return PmJsonSerializer.getDefault().deserialize(json).getPayloadType().ordinal();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package net.powermatcher.integration.replay;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.powermatcher.api.data.Bid;
+import net.powermatcher.api.data.MarketBasis;
+import net.powermatcher.monitoring.eventlog.EventLogEntry;
+import net.powermatcher.monitoring.eventlog.EventLogEntry.Type;
+import net.powermatcher.monitoring.eventlog.ReplayEngine;
+import net.powermatcher.monitoring.eventlog.ReplayResult;
+import net.powermatcher.monitoring.eventlog.SegmentWriter;
+import net.powermatcher.test.helpers.TestClusterHelper;
+
+/**
+ * JUnit tests for the {@link ReplayEngine}. The recording is made up: every two seconds all agents send a new bid and
+ * one second later the auctioneer publishes the price of all bids.
+ *
+ * @author FAN
+ * @version 2.1
+ */
+public class ReplayEngineTest {
+
+    private static final long START = 1420070400000L;
+    private static final int AGENTS = 5;
+    private static final int ROUNDS = 20;
+    private static final String AUCTIONEER_NAME = "auctioneer";
+
+    private final MarketBasis marketBasis = TestClusterHelper.DEFAULT_MB;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("replay").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Writes the recording, with the price of one round off by the given error.
+     *
+     * @return the recorded prices
+     */
+    private double[] record(int wrongRound, double error) throws IOException {
+        Random random = new Random(ROUNDS);
+        double[] prices = new double[ROUNDS];
+        SegmentWriter writer = new SegmentWriter(directory, "events", SegmentWriter.MIN_SEGMENT_SIZE, 64);
+        for (int round = 0; round < ROUNDS; round++) {
+            long time = START + round * 2000;
+            double[] total = new double[marketBasis.getPriceSteps()];
+            for (int i = 0; i < AGENTS; i++) {
+                double[] demand = new double[marketBasis.getPriceSteps()];
+                double value = random.nextInt(100) - 20;
+                for (int j = 0; j < demand.length; j++) {
+                    demand[j] = value;
+                    total[j] += value;
+                    value -= random.nextInt(10) + 0.5;
+                }
+                int bidNumber = round * AGENTS + i;
+                writer.append(EventLogEntry.bid(Type.OUTGOING_BID,
+                                                time + i * 10,
+                                                "cluster",
+                                                "agent" + i,
+                                                marketBasis,
+                                                bidNumber,
+                                                demand));
+                writer.append(EventLogEntry.bid(Type.INCOMING_BID,
+                                                time + i * 10,
+                                                "cluster",
+                                                AUCTIONEER_NAME,
+                                                marketBasis,
+                                                bidNumber,
+                                                demand));
+            }
+            prices[round] = new Bid(marketBasis, total).calculateIntersection(0).getPriceValue();
+            double recorded = round == wrongRound ? prices[round] + error : prices[round];
+            for (int i = 0; i < AGENTS; i++) {
+                writer.append(EventLogEntry.price(Type.OUTGOING_PRICE,
+                                                  time + 1000,
+                                                  "cluster",
+                                                  AUCTIONEER_NAME,
+                                                  marketBasis,
+                                                  round * AGENTS + i,
+                                                  recorded));
+            }
+        }
+        writer.close();
+        return prices;
+    }
+
+    private void assertPrices(ReplayResult result, double[] prices) {
+        List<ReplayResult.PriceComparison> comparisons = result.getComparisons();
+        assertThat(comparisons.size(), is(equalTo(ROUNDS)));
+        for (int round = 0; round < ROUNDS; round++) {
+            assertThat(comparisons.get(round).getTimestamp(), is(equalTo(START + round * 2000 + 1000)));
+            assertThat(comparisons.get(round).getReplayedPrice(), is(equalTo(prices[round])));
+        }
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        double[] prices = record(-1, 0);
+
+        ReplayResult result = new ReplayEngine(directory).replay();
+
+        assertThat(result.getReplayedBids(), is(equalTo((long) ROUNDS * AGENTS)));
+        assertThat(result.getRejectedBids(), is(equalTo(0L)));
+        assertPrices(result, prices);
+        assertThat(result.getDivergingComparisons().isEmpty(), is(true));
+        assertThat(result.getMaxDivergence(), is(equalTo(0.0)));
+        // The first bid of a round is published right away, the others one second later
+        assertThat(result.getClearingPrices().size(), is(equalTo(2 * ROUNDS)));
+    }
+
+    @Test
+    public void testDivergence() throws IOException {
+        double[] prices = record(7, 2.5);
+
+        ReplayResult result = new ReplayEngine(directory).replay();
+
+        assertPrices(result, prices);
+        List<ReplayResult.PriceComparison> diverging = result.getDivergingComparisons();
+        assertThat(diverging.size(), is(equalTo(1)));
+        assertThat(diverging.get(0).getTimestamp(), is(equalTo(START + 7 * 2000 + 1000)));
+        assertThat(diverging.get(0).getRecordedPrice(), is(equalTo(prices[7] + 2.5)));
+        assertEquals(2.5, result.getMaxDivergence(), 1e-9);
+    }
+
+    @Test
+    public void testPrintResult() throws IOException {
+        record(7, 2.5);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ReplayResult result = new ReplayEngine(directory).replay(new PrintStream(output, true, "UTF-8"));
+
+        String lineSeparator = System.getProperty("line.separator");
+        assertThat(output.toString("UTF-8"), is(equalTo(result.getDivergingComparisons().get(0) + lineSeparator
+                                                        + result
+                                                        + lineSeparator)));
+    }
+
+    @Test
+    public void testReplayWithConcentrator() throws IOException {
+        double[] prices = record(-1, 0);
+
+        ReplayEngine engine = new ReplayEngine(directory);
+        engine.addConcentrator("concentrator", AUCTIONEER_NAME);
+        for (int i = 0; i < AGENTS; i++) {
+            engine.setParent("agent" + i, "concentrator");
+        }
+        ReplayResult result = engine.replay();
+
+        assertPrices(result, prices);
+        assertThat(result.getDivergingComparisons().isEmpty(), is(true));
+    }
+}